@@ -1,8 +1,13 @@
 package org.geoserver.catalog.hib;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
@@ -17,18 +22,29 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogPropertyAccessor;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 
 import org.geoserver.catalog.impl.LayerInfoImpl;
 import org.geoserver.catalog.impl.NamespaceInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.hibernate.AbstractHibFacade;
 import org.hibernate.FetchMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.proxy.HibernateProxy;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -492,6 +508,160 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
         return null;
     }
 
+    //
+    // queries
+    //
+    public <T extends CatalogInfo> int count(Class<T> of, Filter filter) {
+        List<Object> where = where(of, filter);
+        if (where != null) {
+            List<Object> elems = new ArrayList<Object>();
+            elems.add("select count(*) from ");
+            elems.add(of);
+            elems.add(" o");
+            elems.addAll(where);
+            return ((Number) query(elems.toArray()).uniqueResult()).intValue();
+        }
+        
+        //filter can't be encoded in hql, evaluate it in memory
+        int count = 0;
+        for (T info : list(of)) {
+            if (filter.evaluate(info)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean canSort(Class<? extends CatalogInfo> type, String propertyName) {
+        return CatalogPropertyAccessor.isSortable(type, propertyName);
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortOrder) {
+        List<T> matches;
+        List<Object> where = where(of, filter);
+        if (where != null) {
+            List<Object> elems = new ArrayList<Object>();
+            elems.add("from ");
+            elems.add(of);
+            elems.add(" o");
+            elems.addAll(where);
+            String sortPath = sortOrder != null ? 
+                mapped(of, sortOrder.getPropertyName().getPropertyName()) : null;
+            if (sortOrder == null || sortPath != null) {
+                // sorting and paging happen in the database
+                if (sortPath != null) {
+                    elems.add(" order by o." + sortPath);
+                    elems.add(sortOrder.getSortOrder() == SortOrder.DESCENDING ? " desc" : " asc");
+                }
+                Query query = query(elems.toArray());
+                if (offset != null) {
+                    query.setFirstResult(offset);
+                }
+                if (count != null) {
+                    query.setMaxResults(count);
+                }
+                return new CloseableIteratorAdapter<T>(((List<T>) query.list()).iterator());
+            }
+            matches = new ArrayList<T>((List<T>) query(elems.toArray()).list());
+        } else {
+            //filter can't be encoded in hql, evaluate it in memory
+            matches = new ArrayList<T>();
+            for (T info : list(of)) {
+                if (filter.evaluate(info)) {
+                    matches.add(info);
+                }
+            }
+        }
+        
+        if (sortOrder != null) {
+            Collections.sort(matches, CatalogPropertyAccessor.<T>comparator(sortOrder));
+        }
+        return CloseableIteratorAdapter.limit(matches.iterator(), offset, count);
+    }
+    
+    /**
+     * The single valued properties mapped by the hibernate configuration that filters and sorts
+     * can be encoded against, by type
+     */
+    static final Map<Class<?>, Set<String>> MAPPED_PROPERTIES = 
+        new LinkedHashMap<Class<?>, Set<String>>();
+    static {
+        mapProperties(WorkspaceInfo.class, "id", "name");
+        mapProperties(NamespaceInfo.class, "id", "prefix", "URI");
+        mapProperties(StoreInfo.class, "id", "name", "type", "description", "enabled", 
+            "workspace.id", "workspace.name");
+        mapProperties(ResourceInfo.class, "id", "name", "nativeName", "title", "abstract", 
+            "description", "enabled", "SRS", "namespace.id", "namespace.prefix", 
+            "namespace.URI", "store.id", "store.name");
+        mapProperties(StyleInfo.class, "id", "name", "filename");
+        mapProperties(LayerInfo.class, "id", "path", "enabled", "resource.id", 
+            "resource.name", "defaultStyle.id", "defaultStyle.name");
+        mapProperties(LayerGroupInfo.class, "id", "name", "path");
+    }
+    
+    static void mapProperties(Class<?> type, String... properties) {
+        MAPPED_PROPERTIES.put(type, new HashSet<String>(Arrays.asList(properties)));
+    }
+    
+    /**
+     * Returns the hql path of the property for the specified type, or <code>null</code> if the
+     * property is not mapped, or not single valued
+     */
+    static String mapped(Class<?> type, String property) {
+        String path = property.replace('/', '.');
+        for (Map.Entry<Class<?>, Set<String>> e : MAPPED_PROPERTIES.entrySet()) {
+            if (e.getKey().isAssignableFrom(type)) {
+                return e.getValue().contains(path) ? path : null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Encodes a filter as a hql where clause, returning <code>null</code> if the filter can't 
+     * be encoded. Only case sensitive equality comparisons against mapped properties, possibly
+     * combined with "and", are supported.
+     */
+    List<Object> where(Class<?> type, Filter filter) {
+        List<Object> elems = new ArrayList<Object>();
+        if (filter == null || filter == Filter.INCLUDE) {
+            return elems;
+        }
+        
+        List<Filter> terms = filter instanceof And ? ((And) filter).getChildren() 
+            : Collections.singletonList(filter);
+        for (Filter term : terms) {
+            if (!(term instanceof PropertyIsEqualTo)) {
+                return null;
+            }
+            PropertyIsEqualTo equal = (PropertyIsEqualTo) term;
+            if (!equal.isMatchingCase()) {
+                return null;
+            }
+            Expression e1 = equal.getExpression1();
+            Expression e2 = equal.getExpression2();
+            if (e2 instanceof PropertyName && e1 instanceof Literal) {
+                Expression tmp = e1;
+                e1 = e2;
+                e2 = tmp;
+            }
+            if (!(e1 instanceof PropertyName) || !(e2 instanceof Literal)) {
+                return null;
+            }
+            
+            String path = mapped(type, ((PropertyName) e1).getPropertyName());
+            Object value = ((Literal) e2).getValue();
+            if (path == null || value == null) {
+                return null;
+            }
+            elems.add(elems.isEmpty() ? " where o." : " and o.");
+            elems.add(path + " = ");
+            elems.add(param(value));
+        }
+        return elems;
+    }
+    
     //
     // Utilities
     //
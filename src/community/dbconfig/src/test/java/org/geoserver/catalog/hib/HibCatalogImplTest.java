@@ -390,6 +390,18 @@ public class HibCatalogImplTest extends CatalogImplTest {
         assertEquals( s2, s3 );
     }
     
+    public void testMappedProperties() {
+        assertEquals("name", HibCatalogFacade.mapped(FeatureTypeInfo.class, "name"));
+        assertEquals("store.name", HibCatalogFacade.mapped(FeatureTypeInfo.class, "store/name"));
+        assertEquals("resource.id", HibCatalogFacade.mapped(LayerInfo.class, "resource.id"));
+
+        // collections, nested paths and anything else not mapped is evaluated in memory
+        assertNull(HibCatalogFacade.mapped(LayerInfo.class, "styles.name"));
+        assertNull(HibCatalogFacade.mapped(FeatureTypeInfo.class, "keywords"));
+        assertNull(HibCatalogFacade.mapped(FeatureTypeInfo.class, "store.workspace.name"));
+        assertNull(HibCatalogFacade.mapped(FeatureTypeInfo.class, "name from Foo; delete"));
+    }
+
     @Override
     public void testGetLayerByIdWithConcurrentAdd() throws Exception {
         //disabling for now, requires lazy access to hibernate object in separate thread so need
@@ -5,11 +5,11 @@
 package org.geoserver.monitor;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -19,13 +19,39 @@ import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
 
+/**
+ * Monitor dao keeping the running requests, and a bounded history of the completed ones, in
+ * memory.
+ * <p>
+ * The history is a ring buffer of {@link #DEFAULT_HISTORY_SIZE} requests by default, the size
+ * can be changed with the <tt>memory.historySize</tt> property of the monitoring configuration.
+ * Queries on a time range, or comparing the service, operation or resources for equality, are
+ * answered using the history indexes instead of scanning it.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
+    /**
+     * Number of completed requests kept by default
+     */
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+
     Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
+    RequestHistory history;
     
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
     
+    public MemoryMonitorDAO() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+    
+    /**
+     * Creates the dao keeping at most <code>historySize</code> completed requests.
+     */
+    public MemoryMonitorDAO(int historySize) {
+        history = new RequestHistory(historySize);
+    }
+    
     public RequestData init(RequestData data) {
         data.setId(REQUEST_ID_GEN.getAndIncrement());
         return data;
@@ -36,19 +62,21 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
 
     public void update(RequestData data) {
+        // the history indexes the request, keep them in synch
+        history.update(data);
     }
 
     public void save(RequestData data) {
         live.remove(data);
         history.add(data);
-        
-        if (history.size() > 100) {
-            history.poll();
-        }
     }
     
     public RequestData getRequest(long id) {
-        for (RequestData r : getRequests()) {
+        RequestData data = history.get(id);
+        if (data != null) {
+            return data;
+        }
+        for (RequestData r : live) {
             if (r.getId() == id) {
                 return r;
             }
@@ -57,25 +85,24 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
     
     public List<RequestData> getRequests() {
-        List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        List<RequestData> requests = new ArrayList<RequestData>(live);
+        requests.addAll(history.list());
         return requests;
     }
         
     public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
         List<Predicate> predicates = new ArrayList();
         if (q.getFilter() != null) {
-            Filter f = q.getFilter();
-            predicates.add(new PropertyCompare(f.getLeft(), f.getType(), f.getRight()));
+            predicates.add(toPredicate(q.getFilter()));
         }
         if (q.getFromDate() != null || q.getToDate() != null) {
             predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
         }
         
-        int i = 1, count = 0;
+        // the history candidates can be a superset of the matches, the predicates are still
+        // evaluated on all of them
+        List<RequestData> requests = new ArrayList<RequestData>(live);
+        requests.addAll(historyCandidates(q));
         
 O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
             RequestData r = it.next();
@@ -85,16 +112,6 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
                     continue O;
                 }
             }
-        
-            if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
-                continue;
-            }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
-            }
-            count++;
         }
         
         if (q.getSortBy() != null) {
@@ -103,9 +120,65 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
         else if (q.getFromDate() != null || q.getToDate() != null) {
             Collections.sort(requests, new Sorter("startTime", SortOrder.DESC));
         }
+        
+        // page after sorting, so that pages are consistent with the order
+        int offset = q.getOffset() != null ? Math.max(0, q.getOffset().intValue()) : 0;
+        int end = q.getCount() != null ? offset + Math.max(0, q.getCount().intValue()) 
+            : requests.size();
+        offset = Math.min(offset, requests.size());
+        end = Math.min(end, requests.size());
+        if (offset > 0 || end < requests.size()) {
+            requests = new ArrayList<RequestData>(requests.subList(offset, end));
+        }
         return requests;
     }
     
+    /**
+     * Uses the history indexes to narrow down the requests matching the query, when possible.
+     */
+    List<RequestData> historyCandidates(Query q) {
+        Filter f = q.getFilter();
+        if (f != null && !(f instanceof CompositeFilter) 
+            && (f.getType() == Comparison.EQ || f.getType() == Comparison.IN)) {
+            String property = null;
+            Object value = null;
+            if (f.getLeft() instanceof String && RequestHistory.indexOf((String)f.getLeft()) != -1) {
+                property = (String) f.getLeft();
+                value = f.getRight();
+            }
+            else if (f.getRight() instanceof String 
+                && RequestHistory.indexOf((String)f.getRight()) != -1) {
+                property = (String) f.getRight();
+                value = f.getLeft();
+            }
+            
+            if (property != null && value != null) {
+                if (f.getType() == Comparison.EQ) {
+                    return history.lookup(property, Collections.singletonList(value));
+                }
+                if (value instanceof Collection) {
+                    return history.lookup(property, (Collection) value);
+                }
+            }
+        }
+        
+        if (q.getFromDate() != null || q.getToDate() != null) {
+            return history.between(q.getFromDate(), q.getToDate());
+        }
+        return history.list();
+    }
+    
+    Predicate toPredicate(Filter f) {
+        if (f instanceof CompositeFilter) {
+            final List<Predicate> predicates = new ArrayList<Predicate>();
+            for (Filter child : ((CompositeFilter) f).getFilters()) {
+                predicates.add(toPredicate(child));
+            }
+            return f instanceof Or ? new AnyOf(predicates) : new AllOf(predicates);
+        }
+        return new PropertyCompare(f.getLeft(), f.getType(), f.getRight());
+    }
+    
     public void getRequests(Query query, RequestDataVisitor visitor) {
         for (RequestData r : getRequests(query)) {
             visitor.visit(r);
@@ -113,6 +186,11 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     }
     
     public long getCount(Query query) {
+        if (query.getFilter() == null && query.getFromDate() == null 
+            && query.getToDate() == null && query.getOffset() == null 
+            && query.getCount() == null) {
+            return live.size() + history.size();
+        }
         return getRequests(query).size();
     }
     
@@ -161,6 +239,42 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     static interface Predicate {
         boolean matches(RequestData data);
     }
+    
+    static class AllOf implements Predicate {
+        
+        List<Predicate> predicates;
+        
+        AllOf(List<Predicate> predicates) {
+            this.predicates = predicates;
+        }
+        
+        public boolean matches(RequestData data) {
+            for (Predicate p : predicates) {
+                if (!p.matches(data)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    static class AnyOf implements Predicate {
+        
+        List<Predicate> predicates;
+        
+        AnyOf(List<Predicate> predicates) {
+            this.predicates = predicates;
+        }
+        
+        public boolean matches(RequestData data) {
+            for (Predicate p : predicates) {
+                if (p.matches(data)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
     static class DateRange implements Predicate {
 
         Date from;
@@ -225,6 +339,16 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
                 return value == null && compare == Comparison.EQ; 
             }
             
+            if (o instanceof Collection && !(value instanceof Collection)
+                && (compare == Comparison.EQ || compare == Comparison.NEQ)) {
+                // multi valued property, such as the resources, compare its values
+                boolean contains = ((Collection)o).contains(value);
+                return compare == Comparison.EQ ? contains : !contains;
+            }
+            if (o instanceof Collection && compare == Comparison.IN && value instanceof List) {
+                return !Collections.disjoint((Collection)o, (List)value);
+            }
+            
             if (compare == Comparison.IN) {
                 if (!(value instanceof List)) {
                     throw new UnsupportedOperationException(
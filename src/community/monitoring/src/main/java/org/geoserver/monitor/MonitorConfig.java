@@ -92,7 +92,9 @@ public class MonitorConfig implements ApplicationContextAware {
         Mode m = getMode();
         
         if (m == Mode.LIVE) {
-            return new MemoryMonitorDAO();
+            Integer historySize = getProperty("memory", "historySize", Integer.class);
+            return new MemoryMonitorDAO(historySize != null ? historySize 
+                : MemoryMonitorDAO.DEFAULT_HISTORY_SIZE);
         }
         
         HibernateMonitorDAO2 dao = (HibernateMonitorDAO2) context.getBean("hibMonitorDAO");
@@ -0,0 +1,484 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.RequestData.Status;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Keeps rolling statistics about the completed requests, per minute over the last hour and per
+ * hour over the last day.
+ * <p>
+ * Statistics are kept for all the requests, and separately for each service, operation and
+ * layer. For each minute, or hour, the number of requests, the number of failed ones, the bytes
+ * written and a latency histogram are maintained, the histogram allowing to estimate the latency
+ * percentiles. Memory usage does not depend on the number of requests, the number of distinct
+ * services, operations and layers tracked is limited by the <tt>stats.maxKeys</tt> property of
+ * the monitoring configuration. Once the limit is reached the least recently updated key is
+ * dropped to make room for the new one.
+ * </p>
+ * <p>
+ * The requests are recorded once post processed, so that the layer names are normalized, which
+ * also keeps the work out of the request threads.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class RequestAggregator implements RequestDataListener {
+
+    static final Logger LOGGER = Logging.getLogger(RequestAggregator.class);
+
+    /**
+     * Default number of distinct keys tracked per dimension
+     */
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    /**
+     * Upper bounds, in milliseconds, of the latency histogram bins. The last bin collects all
+     * the requests slower than the last bound.
+     */
+    static final long[] LATENCY_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+            10000, 20000, 60000 };
+
+    /**
+     * The time resolutions statistics are kept at
+     */
+    public static enum Resolution {
+        /** one minute buckets over the last hour */
+        MINUTE(60 * 1000l, 60),
+        /** one hour buckets over the last day */
+        HOUR(60 * 60 * 1000l, 24);
+
+        final long width;
+
+        final int buckets;
+
+        Resolution(long width, int buckets) {
+            this.width = width;
+            this.buckets = buckets;
+        }
+
+        /**
+         * The bucket duration in milliseconds
+         */
+        public long getWidth() {
+            return width;
+        }
+
+        /**
+         * The number of buckets kept
+         */
+        public int getBuckets() {
+            return buckets;
+        }
+    }
+
+    /**
+     * The ways requests are grouped
+     */
+    public static enum Dimension {
+        /** all the requests, the only key is {@link RequestAggregator#TOTAL} */
+        TOTAL,
+        /** requests by OWS service */
+        SERVICE,
+        /** requests by OWS service and operation, as in <tt>WMS.GetMap</tt> */
+        OPERATION,
+        /** requests by layer, a request involving many layers counts for each of them */
+        LAYER
+    }
+
+    /**
+     * The key of the {@link Dimension#TOTAL} statistics
+     */
+    public static final String TOTAL = "total";
+
+    final int maxKeys;
+
+    final List<ConcurrentMap<String, Series>> series;
+
+    /**
+     * Orders the updates of the series, to find the least recently updated one
+     */
+    final AtomicLong updates = new AtomicLong();
+
+    public RequestAggregator(MonitorConfig config) {
+        this(maxKeys(config));
+    }
+
+    public RequestAggregator(int maxKeys) {
+        this.maxKeys = maxKeys;
+        this.series = new ArrayList<ConcurrentMap<String, Series>>();
+        for (int i = 0; i < Dimension.values().length; i++) {
+            series.add(new ConcurrentHashMap<String, Series>());
+        }
+        series.get(Dimension.TOTAL.ordinal()).put(TOTAL, new Series());
+    }
+
+    static int maxKeys(MonitorConfig config) {
+        Integer maxKeys = null;
+        try {
+            maxKeys = config.getProperty("stats", "maxKeys", Integer.class);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage() + ", using the default of " + DEFAULT_MAX_KEYS);
+        }
+        return maxKeys != null ? maxKeys : DEFAULT_MAX_KEYS;
+    }
+
+    public void requestStarted(RequestData rd) {
+    }
+
+    public void requestUpdated(RequestData rd) {
+    }
+
+    public void requestCompleted(RequestData rd) {
+    }
+
+    public void requestPostProcessed(RequestData rd) {
+        record(rd);
+    }
+
+    /**
+     * Adds the request to the statistics of all the dimensions it belongs to
+     */
+    void record(RequestData rd) {
+        long time = rd.getEndTime() != null ? rd.getEndTime().getTime()
+                : System.currentTimeMillis();
+        boolean error = rd.getStatus() == Status.FAILED || rd.getResponseStatus() >= 400;
+        long bytes = Math.max(0, rd.getResponseLength());
+        long latency = Math.max(0, rd.getTotalTime());
+
+        record(Dimension.TOTAL, TOTAL, time, latency, error, bytes);
+        if (rd.getService() != null) {
+            record(Dimension.SERVICE, rd.getService(), time, latency, error, bytes);
+            if (rd.getOperation() != null) {
+                record(Dimension.OPERATION, rd.getService() + "." + rd.getOperation(), time,
+                        latency, error, bytes);
+            }
+        }
+        List<String> layers = rd.getResources();
+        if (layers != null) {
+            for (String layer : layers) {
+                if (layer != null) {
+                    record(Dimension.LAYER, layer, time, latency, error, bytes);
+                }
+            }
+        }
+    }
+
+    void record(Dimension dimension, String key, long time, long latency, boolean error,
+            long bytes) {
+        Series s = getSeries(dimension, key, true);
+        if (s != null) {
+            s.lastUpdate = updates.incrementAndGet();
+            for (Window w : s.windows) {
+                w.add(time, latency, error, bytes);
+            }
+        }
+    }
+
+    Series getSeries(Dimension dimension, String key, boolean create) {
+        ConcurrentMap<String, Series> map = series.get(dimension.ordinal());
+        Series s = map.get(key);
+        if (s == null && create) {
+            if (maxKeys <= 0) {
+                return null;
+            }
+            synchronized (map) {
+                s = map.get(key);
+                if (s == null) {
+                    if (map.size() >= maxKeys) {
+                        evict(map);
+                    }
+                    s = new Series();
+                    s.lastUpdate = updates.get();
+                    map.put(key, s);
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Drops the least recently updated series of the map
+     */
+    void evict(ConcurrentMap<String, Series> map) {
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Series> entry : map.entrySet()) {
+            if (entry.getValue().lastUpdate < oldest) {
+                oldest = entry.getValue().lastUpdate;
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldestKey != null) {
+            map.remove(oldestKey);
+        }
+    }
+
+    /**
+     * The keys with statistics in the specified dimension, sorted
+     */
+    public Set<String> getKeys(Dimension dimension) {
+        return new TreeSet<String>(series.get(dimension.ordinal()).keySet());
+    }
+
+    /**
+     * The statistics of each bucket of the specified resolution, oldest first, or null if there
+     * are no statistics for the key, the {@link #TOTAL} ones are always available. The last
+     * bucket is the current one, still in progress.
+     */
+    public List<Statistics> getBuckets(Dimension dimension, String key, Resolution resolution) {
+        Series s = getSeries(dimension, key, false);
+        if (s == null) {
+            return null;
+        }
+        return s.windows[resolution.ordinal()].snapshot(System.currentTimeMillis());
+    }
+
+    /**
+     * The statistics over all the buckets of the specified resolution, or null if there are no
+     * statistics for the key.
+     */
+    public Statistics getSummary(Dimension dimension, String key, Resolution resolution) {
+        List<Statistics> buckets = getBuckets(dimension, key, resolution);
+        return buckets != null ? summarize(buckets) : null;
+    }
+
+    /**
+     * Merges the statistics of contiguous buckets, oldest first
+     */
+    public static Statistics summarize(List<Statistics> buckets) {
+        Statistics summary = new Statistics();
+        summary.startTime = buckets.get(0).startTime;
+        summary.endTime = buckets.get(buckets.size() - 1).endTime;
+        for (Statistics bucket : buckets) {
+            summary.merge(bucket);
+        }
+        return summary;
+    }
+
+    /**
+     * Drops all the statistics
+     */
+    public void clear() {
+        for (ConcurrentMap<String, Series> map : series) {
+            map.clear();
+        }
+        series.get(Dimension.TOTAL.ordinal()).put(TOTAL, new Series());
+    }
+
+    /**
+     * Request statistics over a time interval
+     */
+    public static class Statistics {
+
+        long startTime;
+
+        long endTime;
+
+        long count;
+
+        long errors;
+
+        long totalTime;
+
+        long maxTime;
+
+        long bytes;
+
+        int[] histogram = new int[LATENCY_BOUNDS.length + 1];
+
+        /**
+         * Start of the interval, included
+         */
+        public Date getStartTime() {
+            return new Date(startTime);
+        }
+
+        /**
+         * End of the interval, excluded
+         */
+        public Date getEndTime() {
+            return new Date(endTime);
+        }
+
+        /**
+         * Number of requests
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Number of failed requests
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Ratio of failed requests, between 0 and 1
+         */
+        public double getErrorRate() {
+            return count > 0 ? errors / (double) count : 0;
+        }
+
+        /**
+         * Average request time in milliseconds
+         */
+        public double getAverageTime() {
+            return count > 0 ? totalTime / (double) count : 0;
+        }
+
+        /**
+         * Maximum request time in milliseconds
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * Total bytes written in the responses
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Estimates the request time, in milliseconds, below which the specified percentile of
+         * the requests falls. The estimate is the upper bound of the histogram bin containing
+         * the percentile, so it's never lower than the actual value, and never higher than the
+         * maximum request time.
+         *
+         * @param percentile a value between 0 and 100
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100d);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(LATENCY_BOUNDS[i], maxTime);
+                }
+            }
+            return maxTime;
+        }
+
+        void add(long latency, boolean error, long bytes) {
+            count++;
+            if (error) {
+                errors++;
+            }
+            totalTime += latency;
+            maxTime = Math.max(maxTime, latency);
+            this.bytes += bytes;
+
+            int bin = 0;
+            while (bin < LATENCY_BOUNDS.length && latency > LATENCY_BOUNDS[bin]) {
+                bin++;
+            }
+            histogram[bin]++;
+        }
+
+        void merge(Statistics other) {
+            count += other.count;
+            errors += other.errors;
+            totalTime += other.totalTime;
+            maxTime = Math.max(maxTime, other.maxTime);
+            bytes += other.bytes;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+        }
+    }
+
+    /**
+     * The statistics of a single key, at all resolutions
+     */
+    static class Series {
+        Window[] windows;
+
+        volatile long lastUpdate;
+
+        Series() {
+            Resolution[] resolutions = Resolution.values();
+            windows = new Window[resolutions.length];
+            for (int i = 0; i < resolutions.length; i++) {
+                windows[i] = new Window(resolutions[i]);
+            }
+        }
+    }
+
+    /**
+     * A ring of buckets at a given resolution. Buckets are allocated on first use and recycled
+     * once they fall out of the window.
+     */
+    static class Window {
+
+        final long width;
+
+        final Statistics[] buckets;
+
+        Window(Resolution resolution) {
+            this.width = resolution.width;
+            this.buckets = new Statistics[resolution.buckets];
+        }
+
+        synchronized void add(long time, long latency, boolean error, long bytes) {
+            long start = time - time % width;
+            int slot = (int) ((time / width) % buckets.length);
+            Statistics bucket = buckets[slot];
+            if (bucket == null) {
+                bucket = new Statistics();
+                buckets[slot] = bucket;
+            } else if (bucket.startTime > start) {
+                // the slot already holds a more recent interval, too old to be recorded
+                return;
+            } else if (bucket.startTime < start) {
+                // recycle the bucket
+                bucket.count = bucket.errors = bucket.totalTime = bucket.maxTime = 0;
+                bucket.bytes = 0;
+                for (int i = 0; i < bucket.histogram.length; i++) {
+                    bucket.histogram[i] = 0;
+                }
+            }
+            bucket.startTime = start;
+            bucket.endTime = start + width;
+            bucket.add(latency, error, bytes);
+        }
+
+        synchronized List<Statistics> snapshot(long now) {
+            List<Statistics> result = new ArrayList<Statistics>(buckets.length);
+            long last = now - now % width;
+            for (int i = buckets.length - 1; i >= 0; i--) {
+                long start = last - i * width;
+                Statistics copy = new Statistics();
+                copy.startTime = start;
+                copy.endTime = start + width;
+
+                Statistics bucket = buckets[(int) ((start / width) % buckets.length)];
+                if (bucket != null && bucket.startTime == start) {
+                    copy.merge(bucket);
+                }
+                result.add(copy);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size, thread safe history of completed requests used by {@link MemoryMonitorDAO}.
+ * <p>
+ * Requests are stored in a ring buffer, once the buffer is full each new request replaces the
+ * oldest one, so memory usage is bounded regardless of the request rate. Besides the buffer the
+ * history keeps indexes on the request id, the start time and the {@link #INDEXED_PROPERTIES},
+ * allowing the common monitoring queries to avoid a scan of the whole history. Entries are
+ * removed from the indexes when they are evicted from the buffer.
+ * </p>
+ * <p>
+ * Adding and evicting happen under the history lock, while lookups are lock free and check the
+ * entries they find against the buffer, so a request that is being evicted concurrently is
+ * never returned once its slot has been reused.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+class RequestHistory {
+
+    /**
+     * Properties with an equality index. The values of collection properties are indexed
+     * separately.
+     */
+    static final String[] INDEXED_PROPERTIES = { "service", "operation", "resources" };
+
+    static final Comparator<Entry> BY_SEQUENCE = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            return e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+        }
+    };
+
+    static final Comparator<Entry> BY_TIME = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            if (e1.time != e2.time) {
+                return e1.time < e2.time ? -1 : 1;
+            }
+            return BY_SEQUENCE.compare(e1, e2);
+        }
+    };
+
+    final int capacity;
+
+    final AtomicReferenceArray<Entry> slots;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    final AtomicInteger size = new AtomicInteger();
+
+    final ConcurrentMap<Long, Entry> byId = new ConcurrentHashMap<Long, Entry>();
+
+    final ConcurrentSkipListSet<Entry> byTime = new ConcurrentSkipListSet<Entry>(BY_TIME);
+
+    final List<ConcurrentMap<Object, Set<Entry>>> indexes;
+
+    /**
+     * Creates a history holding at most <code>capacity</code> requests.
+     */
+    RequestHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<Entry>(capacity);
+        this.indexes = new ArrayList<ConcurrentMap<Object, Set<Entry>>>();
+        for (int i = 0; i < INDEXED_PROPERTIES.length; i++) {
+            indexes.add(new ConcurrentHashMap<Object, Set<Entry>>());
+        }
+    }
+
+    /**
+     * The index of the property, or -1 if the property is not indexed.
+     */
+    static int indexOf(String property) {
+        for (int i = 0; i < INDEXED_PROPERTIES.length; i++) {
+            if (INDEXED_PROPERTIES[i].equals(property)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a request to the history, evicting the oldest one if the history is full. Adds are
+     * serialized so that the slot being reused always holds the entry being evicted.
+     */
+    synchronized void add(RequestData data) {
+        long seq = sequence.get();
+        Entry entry = new Entry(seq, data);
+        index(entry);
+        // replace before unindexing, so that a concurrent update sees the eviction
+        Entry evicted = slots.getAndSet(slot(seq), entry);
+        sequence.set(seq + 1);
+        if (evicted != null) {
+            unindex(evicted);
+        } else {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Updates the indexes of a request already in the history, does nothing if the request has
+     * been evicted.
+     */
+    void update(RequestData data) {
+        Entry entry = byId.get(data.getId());
+        if (entry != null && isLive(entry)) {
+            synchronized (entry) {
+                unindex(entry);
+                entry.read(data);
+                index(entry);
+            }
+            if (!isLive(entry)) {
+                // evicted while updating
+                unindex(entry);
+            }
+        }
+    }
+
+    /**
+     * The request with the specified id, or null if it is not in the history.
+     */
+    RequestData get(long id) {
+        Entry entry = byId.get(id);
+        return entry != null && isLive(entry) ? entry.data : null;
+    }
+
+    /**
+     * The number of requests in the history.
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * All the requests in the history, oldest first.
+     */
+    List<RequestData> list() {
+        long end = sequence.get();
+        long start = Math.max(0, end - capacity);
+        List<RequestData> result = new ArrayList<RequestData>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Entry entry = slots.get(slot(seq));
+            if (entry != null && entry.seq == seq) {
+                result.add(entry.data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The requests started in the specified time range, both ends included and optional, oldest
+     * added first.
+     */
+    List<RequestData> between(Date from, Date to) {
+        Entry low = new Entry(Long.MIN_VALUE, from != null ? from.getTime() : Long.MIN_VALUE);
+        Entry high = new Entry(Long.MAX_VALUE, to != null ? to.getTime() : Long.MAX_VALUE);
+        return live(byTime.subSet(low, true, high, true));
+    }
+
+    /**
+     * The requests whose property is equal to, or for collections contains, any of the
+     * values, oldest added first.
+     *
+     * @param property one of the {@link #INDEXED_PROPERTIES}
+     */
+    List<RequestData> lookup(String property, Collection<?> values) {
+        ConcurrentMap<Object, Set<Entry>> index = indexes.get(indexOf(property));
+        if (values.size() == 1) {
+            Object value = values.iterator().next();
+            Set<Entry> entries = value != null ? index.get(value) : null;
+            return entries != null ? live(entries) : new ArrayList<RequestData>();
+        }
+
+        NavigableSet<Entry> entries = new TreeSet<Entry>(BY_SEQUENCE);
+        for (Object value : values) {
+            Set<Entry> matches = value != null ? index.get(value) : null;
+            if (matches != null) {
+                entries.addAll(matches);
+            }
+        }
+        return live(entries);
+    }
+
+    /**
+     * Removes all the requests from the history.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < capacity; i++) {
+            Entry entry = slots.getAndSet(i, null);
+            if (entry != null) {
+                size.decrementAndGet();
+                unindex(entry);
+            }
+        }
+    }
+
+    List<RequestData> live(Collection<Entry> entries) {
+        // cheap when already sorted, as for the equality indexes
+        List<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted, BY_SEQUENCE);
+        List<RequestData> result = new ArrayList<RequestData>(sorted.size());
+        for (Entry entry : sorted) {
+            if (isLive(entry)) {
+                result.add(entry.data);
+            }
+        }
+        return result;
+    }
+
+    boolean isLive(Entry entry) {
+        return slots.get(slot(entry.seq)) == entry;
+    }
+
+    int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    void index(Entry entry) {
+        synchronized (entry) {
+            byId.put(entry.id, entry);
+            byTime.add(entry);
+            for (int i = 0; i < INDEXED_PROPERTIES.length; i++) {
+                ConcurrentMap<Object, Set<Entry>> index = indexes.get(i);
+                for (Object key : entry.keys[i]) {
+                    Set<Entry> entries = index.get(key);
+                    if (entries == null) {
+                        entries = new ConcurrentSkipListSet<Entry>(BY_SEQUENCE);
+                        Set<Entry> existing = index.putIfAbsent(key, entries);
+                        if (existing != null) {
+                            entries = existing;
+                        }
+                    }
+                    entries.add(entry);
+                }
+            }
+        }
+    }
+
+    void unindex(Entry entry) {
+        synchronized (entry) {
+            byId.remove(entry.id, entry);
+            byTime.remove(entry);
+            for (int i = 0; i < INDEXED_PROPERTIES.length; i++) {
+                ConcurrentMap<Object, Set<Entry>> index = indexes.get(i);
+                for (Object key : entry.keys[i]) {
+                    Set<Entry> entries = index.get(key);
+                    if (entries != null) {
+                        entries.remove(entry);
+                        // empty sets are left in place, racing with a concurrent add would
+                        // otherwise lose it, the number of distinct values is small anyway
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A request in the history along with the values it is indexed by, the values are copied
+     * so that the entry can be removed from the indexes even if the request is modified.
+     */
+    static class Entry {
+
+        final long seq;
+
+        final RequestData data;
+
+        long id;
+
+        long time;
+
+        Object[][] keys;
+
+        Entry(long seq, RequestData data) {
+            this.seq = seq;
+            this.data = data;
+            read(data);
+        }
+
+        /**
+         * Builds a search bound for the time index.
+         */
+        Entry(long seq, long time) {
+            this.seq = seq;
+            this.data = null;
+            this.time = time;
+        }
+
+        void read(RequestData data) {
+            id = data.getId();
+            time = data.getStartTime() != null ? data.getStartTime().getTime() : Long.MIN_VALUE;
+            keys = new Object[][] { keys(data.getService()), keys(data.getOperation()),
+                    keys(data.getResources()) };
+        }
+
+        static Object[] keys(Object value) {
+            if (value == null) {
+                return new Object[0];
+            }
+            if (value instanceof Collection) {
+                List<Object> keys = new ArrayList<Object>();
+                for (Object o : (Collection<?>) value) {
+                    if (o != null) {
+                        keys.add(o);
+                    }
+                }
+                return keys.toArray();
+            }
+            return new Object[] { value };
+        }
+    }
+}
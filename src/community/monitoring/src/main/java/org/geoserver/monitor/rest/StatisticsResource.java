@@ -0,0 +1,115 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.RequestAggregator;
+import org.geoserver.monitor.RequestAggregator.Dimension;
+import org.geoserver.monitor.RequestAggregator.Resolution;
+import org.geoserver.monitor.RequestAggregator.Statistics;
+import org.geoserver.rest.MapResource;
+import org.geoserver.rest.RestletException;
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+
+/**
+ * Exposes the rolling request statistics kept by the {@link RequestAggregator}.
+ * <p>
+ * The <tt>resolution</tt> parameter selects the per minute (default) or per hour statistics,
+ * and <tt>buckets=true</tt> adds the statistics of each minute, or hour, to the summary of the
+ * whole period.
+ * </p>
+ */
+public class StatisticsResource extends MapResource {
+
+    static final double[] PERCENTILES = { 50, 90, 95, 99 };
+
+    RequestAggregator aggregator;
+
+    public StatisticsResource(RequestAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Form form = getRequest().getResourceRef() != null ?
+            getRequest().getResourceRef().getQueryAsForm() : new Form();
+
+        Resolution resolution = Resolution.MINUTE;
+        String value = form.getFirstValue("resolution");
+        if (value != null) {
+            try {
+                resolution = Resolution.valueOf(value.toUpperCase());
+            }
+            catch(IllegalArgumentException e) {
+                throw new RestletException("Unknown resolution " + value + ", use one of "
+                    + "minute, hour", Status.CLIENT_ERROR_BAD_REQUEST);
+            }
+        }
+        boolean buckets = Boolean.valueOf(form.getFirstValue("buckets"));
+
+        Map map = new LinkedHashMap();
+        map.put("resolution", resolution.name().toLowerCase());
+        map.put("total", series(Dimension.TOTAL, RequestAggregator.TOTAL, resolution, buckets));
+        map.put("services", dimension(Dimension.SERVICE, resolution, buckets));
+        map.put("operations", dimension(Dimension.OPERATION, resolution, buckets));
+        map.put("layers", dimension(Dimension.LAYER, resolution, buckets));
+        return map;
+    }
+
+    List dimension(Dimension dimension, Resolution resolution, boolean buckets) {
+        List list = new ArrayList();
+        for (String key : aggregator.getKeys(dimension)) {
+            Map series = series(dimension, key, resolution, buckets);
+            if (series != null) {
+                list.add(series);
+            }
+        }
+        return list;
+    }
+
+    Map series(Dimension dimension, String key, Resolution resolution, boolean buckets) {
+        List<Statistics> stats = aggregator.getBuckets(dimension, key, resolution);
+        if (stats == null) {
+            return null;
+        }
+        Statistics summary = RequestAggregator.summarize(stats);
+
+        // layer names are not valid element names, use a property instead of a key
+        Map map = new LinkedHashMap();
+        map.put("name", key);
+        map.putAll(statistics(summary));
+        if (buckets) {
+            List list = new ArrayList();
+            for (Statistics s : stats) {
+                list.add(statistics(s));
+            }
+            map.put("buckets", list);
+        }
+        return map;
+    }
+
+    Map statistics(Statistics stats) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        Map map = new LinkedHashMap();
+        map.put("startTime", format.format(stats.getStartTime()));
+        map.put("endTime", format.format(stats.getEndTime()));
+        map.put("count", stats.getCount());
+        map.put("errors", stats.getErrors());
+        map.put("errorRate", stats.getErrorRate());
+        map.put("averageTime", stats.getAverageTime());
+        map.put("maxTime", stats.getMaxTime());
+        for (double p : PERCENTILES) {
+            map.put("p" + (int) p, stats.getPercentile(p));
+        }
+        map.put("bytes", stats.getBytes());
+        return map;
+    }
+}
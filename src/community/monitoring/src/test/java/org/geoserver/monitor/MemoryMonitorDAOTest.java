@@ -4,7 +4,18 @@
  */
 package org.geoserver.monitor;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static org.geoserver.monitor.MonitorTestData.assertCoveredInOrder;
+import static org.geoserver.monitor.MonitorTestData.toDate;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.monitor.Query.Comparison;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -13,4 +24,100 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+
+    @Test
+    public void testHistorySize() throws Exception {
+        MemoryMonitorDAO small = new MemoryMonitorDAO(5);
+        new MonitorTestData(small).setup();
+
+        // only the last 5 requests are kept, and the evicted ones are not indexed anymore
+        assertEquals(5, small.getCount(new Query()));
+        assertCoveredInOrder(small.getRequests(), 16, 17, 18, 19, 20);
+        assertNull(small.getRequest(15));
+        assertNotNull(small.getRequest(16));
+
+        assertCoveredInOrder(small.getRequests(
+            new Query().filter("service", "foo", Comparison.EQ)), 16, 20);
+        assertCoveredInOrder(small.getRequests(
+            new Query().between(toDate("2010-08-23T15:00:00"), toDate("2010-08-23T16:30:00"))),
+            17, 16);
+    }
+
+    @Test
+    public void testLiveRequests() throws Exception {
+        MemoryMonitorDAO mem = new MemoryMonitorDAO(5);
+        RequestData data = mem.init(new RequestData());
+        data.setService("wms");
+        mem.add(data);
+
+        assertEquals(data, mem.getRequest(data.getId()));
+        assertCoveredInOrder(mem.getRequests(
+            new Query().filter("service", "wms", Comparison.EQ)), (int) data.getId());
+
+        mem.save(data);
+        assertEquals(data, mem.getRequest(data.getId()));
+        assertEquals(1, mem.getCount(new Query()));
+    }
+
+    @Test
+    public void testFilterIndexedProperties() throws Exception {
+        assertCoveredInOrder(dao.getRequests(
+            new Query().filter("operation", "y", Comparison.EQ)), 12, 18, 19);
+        assertCoveredInOrder(dao.getRequests(
+            new Query().filter("service", Arrays.asList("bar", "baz"), Comparison.IN)),
+            12, 13, 17);
+        assertCoveredInOrder(dao.getRequests(
+            new Query().filter("resources", "widgets", Comparison.EQ)), 11, 14, 18);
+        assertCoveredInOrder(dao.getRequests(new Query().filter("service", "foo", Comparison.EQ)
+            .and("operation", "x", Comparison.EQ)), 11, 15, 16, 20);
+    }
+
+    @Test
+    public void testUpdateIndexes() throws Exception {
+        MemoryMonitorDAO mem = new MemoryMonitorDAO(5);
+        RequestData data = mem.init(new RequestData());
+        data.setService("wms");
+        mem.add(data);
+        mem.save(data);
+
+        data.setService("wfs");
+        mem.update(data);
+        assertEquals(0, mem.getRequests(
+            new Query().filter("service", "wms", Comparison.EQ)).size());
+        assertCoveredInOrder(mem.getRequests(
+            new Query().filter("service", "wfs", Comparison.EQ)), (int) data.getId());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final RequestHistory history = new RequestHistory(10);
+        final AtomicLong ids = new AtomicLong();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        RequestData data = new RequestData();
+                        data.setId(ids.getAndIncrement());
+                        data.setService("wms");
+                        history.add(data);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // only the live requests are left in the indexes
+        assertEquals(10, history.size());
+        assertEquals(10, history.list().size());
+        assertEquals(10, history.byId.size());
+        assertEquals(10, history.byTime.size());
+        assertEquals(10, history.indexes.get(RequestHistory.indexOf("service")).get("wms").size());
+        for (RequestData data : history.list()) {
+            assertEquals(data, history.get(data.getId()));
+        }
+    }
 }
@@ -0,0 +1,155 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.geoserver.monitor.RequestAggregator.Dimension;
+import org.geoserver.monitor.RequestAggregator.Resolution;
+import org.geoserver.monitor.RequestAggregator.Statistics;
+import org.geoserver.monitor.RequestData.Status;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestAggregatorTest {
+
+    RequestAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        aggregator = new RequestAggregator(2);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Statistics total = aggregator.getSummary(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.MINUTE);
+        assertEquals(0, total.getCount());
+        assertEquals(0, total.getPercentile(99));
+        assertEquals(60, aggregator.getBuckets(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.MINUTE).size());
+        assertEquals(24, aggregator.getBuckets(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.HOUR).size());
+        assertNull(aggregator.getSummary(Dimension.SERVICE, "WMS", Resolution.MINUTE));
+    }
+
+    @Test
+    public void testDimensions() throws Exception {
+        long now = System.currentTimeMillis();
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 10, 1000, false,
+                "topp:states", "sf:roads"));
+        aggregator.requestPostProcessed(data(now, "WMS", "GetFeatureInfo", 30, 100, false,
+                "topp:states"));
+        aggregator.requestPostProcessed(data(now, "WFS", "GetFeature", 200, 0, true,
+                "sf:roads"));
+
+        Statistics total = aggregator.getSummary(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.MINUTE);
+        assertEquals(3, total.getCount());
+        assertEquals(1, total.getErrors());
+        assertEquals(1100, total.getBytes());
+        assertEquals(80, total.getAverageTime(), 0.001);
+        assertEquals(200, total.getMaxTime());
+
+        assertEquals(2, aggregator.getSummary(Dimension.SERVICE, "WMS", Resolution.HOUR)
+                .getCount());
+        assertEquals(1, aggregator.getSummary(Dimension.OPERATION, "WMS.GetFeatureInfo",
+                Resolution.MINUTE).getCount());
+        assertEquals(2, aggregator.getSummary(Dimension.LAYER, "sf:roads", Resolution.MINUTE)
+                .getCount());
+        assertEquals(0.5, aggregator.getSummary(Dimension.LAYER, "sf:roads",
+                Resolution.MINUTE).getErrorRate(), 0.001);
+
+        // only two operations are tracked, the least recently updated one got dropped
+        assertEquals(2, aggregator.getKeys(Dimension.OPERATION).size());
+        assertNull(aggregator.getSummary(Dimension.OPERATION, "WMS.GetMap", Resolution.MINUTE));
+        assertEquals(1, aggregator.getSummary(Dimension.OPERATION, "WFS.GetFeature",
+                Resolution.MINUTE).getCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        long now = System.currentTimeMillis();
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 10, 0, false));
+        aggregator.requestPostProcessed(data(now, "WMS", "GetFeatureInfo", 10, 0, false));
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 10, 0, false));
+
+        // GetFeatureInfo is the least recently updated, it makes room for GetLegendGraphic
+        aggregator.requestPostProcessed(data(now, "WMS", "GetLegendGraphic", 10, 0, false));
+        assertEquals(Arrays.asList("WMS.GetLegendGraphic", "WMS.GetMap"), new ArrayList<String>(
+                aggregator.getKeys(Dimension.OPERATION)));
+        assertEquals(2, aggregator.getSummary(Dimension.OPERATION, "WMS.GetMap",
+                Resolution.MINUTE).getCount());
+
+        // and the keys keep rolling
+        aggregator.requestPostProcessed(data(now, "WMS", "GetFeatureInfo", 10, 0, false));
+        assertEquals(Arrays.asList("WMS.GetFeatureInfo", "WMS.GetLegendGraphic"),
+                new ArrayList<String>(aggregator.getKeys(Dimension.OPERATION)));
+        assertEquals(1, aggregator.getSummary(Dimension.OPERATION, "WMS.GetFeatureInfo",
+                Resolution.MINUTE).getCount());
+
+        // the totals are not affected
+        assertEquals(5, aggregator.getSummary(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.MINUTE).getCount());
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        long now = System.currentTimeMillis();
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 10, 0, false));
+        aggregator.requestPostProcessed(data(now - 2 * 60 * 1000, "WMS", "GetMap", 10, 0,
+                false));
+        // out of the minutes window, but not of the hours one
+        aggregator.requestPostProcessed(data(now - 2 * 60 * 60 * 1000, "WMS", "GetMap", 10, 0,
+                false));
+
+        List<Statistics> buckets = aggregator.getBuckets(Dimension.SERVICE, "WMS",
+                Resolution.MINUTE);
+        // the current minute might have just changed
+        assertTrue(buckets.get(59).getCount() + buckets.get(58).getCount() >= 1);
+        assertEquals(2, RequestAggregator.summarize(buckets).getCount());
+        assertEquals(3, aggregator.getSummary(Dimension.SERVICE, "WMS", Resolution.HOUR)
+                .getCount());
+        assertEquals(buckets.get(0).getEndTime(), buckets.get(1).getStartTime());
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 100; i++) {
+            aggregator.requestPostProcessed(data(now, "WMS", "GetMap", i * 10, 0, false));
+        }
+
+        Statistics stats = aggregator.getSummary(Dimension.TOTAL, RequestAggregator.TOTAL,
+                Resolution.MINUTE);
+        // the estimates are the upper bounds of the histogram bins
+        assertEquals(500, stats.getPercentile(50));
+        assertEquals(1000, stats.getPercentile(90));
+        assertEquals(1000, stats.getPercentile(99));
+        assertEquals(1000, stats.getPercentile(100));
+        assertEquals(10, stats.getPercentile(1));
+    }
+
+    RequestData data(long time, String service, String operation, long totalTime, long bytes,
+            boolean failed, String... layers) {
+        RequestData data = new RequestData();
+        data.setStartTime(new Date(time - totalTime));
+        data.setEndTime(new Date(time));
+        data.setTotalTime(totalTime);
+        data.setService(service);
+        data.setOperation(operation);
+        data.setResponseLength(bytes);
+        data.setStatus(failed ? Status.FAILED : Status.FINISHED);
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.RequestAggregator;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.rest.RestletException;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.Reference;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+
+public class StatisticsResourceTest {
+
+    RequestAggregator aggregator;
+
+    StatisticsResource resource;
+
+    @Before
+    public void setUp() throws Exception {
+        aggregator = new RequestAggregator(10);
+        long now = System.currentTimeMillis();
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 10, 1000, false,
+                "topp:states", "sf:roads"));
+        aggregator.requestPostProcessed(data(now, "WMS", "GetMap", 30, 500, false,
+                "topp:states"));
+        aggregator.requestPostProcessed(data(now, "WFS", "GetFeature", 200, 0, true,
+                "sf:roads"));
+        resource = new StatisticsResource(aggregator);
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        Map map = get();
+        assertEquals("minute", map.get("resolution"));
+
+        Map total = (Map) map.get("total");
+        assertEquals(RequestAggregator.TOTAL, total.get("name"));
+        assertEquals(3l, total.get("count"));
+        assertEquals(1l, total.get("errors"));
+        assertEquals(1500l, total.get("bytes"));
+        assertEquals(200l, total.get("maxTime"));
+        assertTrue(total.containsKey("p50"));
+        assertTrue(total.containsKey("p99"));
+        assertFalse(total.containsKey("buckets"));
+
+        assertEquals(2l, series(map, "services", "WMS").get("count"));
+        assertEquals(1l, series(map, "services", "WFS").get("count"));
+        assertEquals(2l, series(map, "operations", "WMS.GetMap").get("count"));
+        assertEquals(2l, series(map, "layers", "sf:roads").get("count"));
+        assertEquals(1l, series(map, "layers", "sf:roads").get("errors"));
+        assertNull(series(map, "layers", "topp:roads"));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        Map map = get("resolution", "hour", "buckets", "true");
+        assertEquals("hour", map.get("resolution"));
+
+        Map total = (Map) map.get("total");
+        List buckets = (List) total.get("buckets");
+        assertEquals(24, buckets.size());
+        // the current hour is the last one
+        assertEquals(3l, ((Map) buckets.get(buckets.size() - 1)).get("count"));
+        assertEquals(0l, ((Map) buckets.get(0)).get("count"));
+
+        assertEquals(24, ((List) series(map, "services", "WMS").get("buckets")).size());
+    }
+
+    @Test
+    public void testUnknownResolution() throws Exception {
+        try {
+            get("resolution", "week");
+            fail("An unknown resolution should have been rejected");
+        } catch (RestletException e) {
+            assertEquals(400, e.getStatus().getCode());
+        }
+    }
+
+    Map get(String... kvp) throws Exception {
+        Request req = new Request();
+        if (kvp.length > 0) {
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < kvp.length; i += 2) {
+                sb.append(kvp[i]).append("=").append(kvp[i + 1]).append("&");
+            }
+            sb.setLength(sb.length() - 1);
+            Reference ref = new Reference();
+            ref.setQuery(sb.toString());
+            req.setResourceRef(ref);
+        }
+        resource.init(null, req, new Response(req));
+        return resource.getMap();
+    }
+
+    Map series(Map map, String dimension, String name) {
+        for (Object o : (List) map.get(dimension)) {
+            Map series = (Map) o;
+            if (name.equals(series.get("name"))) {
+                return series;
+            }
+        }
+        return null;
+    }
+
+    RequestData data(long time, String service, String operation, long totalTime, long bytes,
+            boolean failed, String... layers) {
+        RequestData data = new RequestData();
+        data.setStartTime(new Date(time - totalTime));
+        data.setEndTime(new Date(time));
+        data.setTotalTime(totalTime);
+        data.setService(service);
+        data.setOperation(operation);
+        data.setResponseLength(bytes);
+        data.setStatus(failed ? Status.FAILED : Status.FINISHED);
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+}
@@ -14,10 +14,17 @@ import java.util.logging.Logger;
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
+import org.geoserver.flow.controller.IpKeyGenerator;
+import org.geoserver.flow.controller.KeyGenerator;
+import org.geoserver.flow.controller.KvpCostEstimator;
+import org.geoserver.flow.controller.OWSRequestMatcher;
+import org.geoserver.flow.controller.RateFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
+import org.geoserver.flow.controller.UserKeyGenerator;
 import org.geoserver.security.PropertyFileWatcher;
 import org.geotools.util.logging.Logging;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
@@ -54,11 +61,39 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        // shared by all the cost based controllers, configured by the cost.* rules
+        KvpCostEstimator estimator = new KvpCostEstimator();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
             String[] keys = key.trim().split("\\s*\\.\\s*");
 
+            if ("cost".equals(keys[0])) {
+                if (!configureEstimator(estimator, key, value.trim())) {
+                    LOGGER.severe("Could not parse rule '" + okey + "=" + value);
+                }
+                continue;
+            }
+            if (keys.length >= 2 && "ows".equals(keys[0]) && "cost".equals(keys[1])) {
+                FlowController controller = buildCostController(keys, value.trim(), estimator);
+                if (controller == null) {
+                    LOGGER.severe("Could not parse rule '" + okey + "=" + value);
+                } else {
+                    newControllers.add(controller);
+                }
+                continue;
+            }
+
+            if (keys.length >= 2 && "rate".equals(keys[1])) {
+                FlowController controller = buildRateController(keys, value.trim());
+                if (controller == null) {
+                    LOGGER.severe("Could not parse rule '" + okey + "=" + value);
+                } else {
+                    newControllers.add(controller);
+                }
+                continue;
+            }
+
             int queueSize = 0;
             StringTokenizer tokenizer = new StringTokenizer(value, ",");
             try {
@@ -109,6 +144,102 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
         return newControllers;
     }
 
+    /**
+     * Parses a cost rule, in the form
+     * <code>ows.cost[.service[.request[.outputFormat]]]=budget</code>
+     */
+    FlowController buildCostController(String[] keys, String value, KvpCostEstimator estimator) {
+        String service = keys.length > 2 ? keys[2] : null;
+        String method = keys.length > 3 ? keys[3] : null;
+        String outputFormat = keys.length > 4 ? keys[4] : null;
+        try {
+            long budget = Long.parseLong(value);
+            return new CostFlowController(new OWSRequestMatcher(service, method, outputFormat),
+                    estimator, (int) Math.min(Integer.MAX_VALUE, budget));
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            return null;
+        }
+    }
+
+    /**
+     * Parses the cost estimation rules, <code>cost.default=cost</code>,
+     * <code>cost.feature=cost</code> and <code>cost.format.outputFormat=weight</code>
+     * 
+     * @return false if the rule could not be parsed
+     */
+    boolean configureEstimator(KvpCostEstimator estimator, String key, String value) {
+        try {
+            if ("cost.default".equals(key)) {
+                estimator.setDefaultCost(Long.parseLong(value));
+            } else if ("cost.feature".equals(key)) {
+                estimator.setFeatureCost(Long.parseLong(value));
+            } else if (key.startsWith("cost.format.")) {
+                estimator.setFormatWeight(key.substring("cost.format.".length()), Double
+                        .parseDouble(value));
+            } else {
+                return false;
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a rate rule, in the form
+     * <code>{ows|user|ip}.rate[.service[.request[.outputFormat]]]=requests/{s|m|h|d}[;maxDelay]</code>
+     * where ows uses a single rate for all clients, and the max delay is in milliseconds
+     */
+    FlowController buildRateController(String[] keys, String value) {
+        KeyGenerator keyGenerator;
+        if ("ows".equals(keys[0])) {
+            keyGenerator = null;
+        } else if ("user".equals(keys[0])) {
+            keyGenerator = new UserKeyGenerator();
+        } else if ("ip".equals(keys[0])) {
+            keyGenerator = new IpKeyGenerator();
+        } else {
+            return null;
+        }
+
+        String service = keys.length > 2 ? keys[2] : null;
+        String method = keys.length > 3 ? keys[3] : null;
+        String outputFormat = keys.length > 4 ? keys[4] : null;
+
+        String rate = value;
+        long maxDelay = 0;
+        int idx = value.indexOf(';');
+        try {
+            if (idx > 0) {
+                rate = value.substring(0, idx).trim();
+                maxDelay = Long.parseLong(value.substring(idx + 1).trim());
+            }
+            String[] elements = rate.split("\\s*/\\s*");
+            if (elements.length != 2) {
+                return null;
+            }
+            int requests = Integer.parseInt(elements[0]);
+            long interval;
+            if ("s".equals(elements[1])) {
+                interval = 1000;
+            } else if ("m".equals(elements[1])) {
+                interval = 60 * 1000;
+            } else if ("h".equals(elements[1])) {
+                interval = 60 * 60 * 1000;
+            } else if ("d".equals(elements[1])) {
+                interval = 24 * 60 * 60 * 1000;
+            } else {
+                return null;
+            }
+            return new RateFlowController(new OWSRequestMatcher(service, method, outputFormat),
+                    keyGenerator, requests, interval, maxDelay);
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            return null;
+        }
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
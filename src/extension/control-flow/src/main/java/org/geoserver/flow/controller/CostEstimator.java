@@ -0,0 +1,23 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates how expensive a request is going to be, for the {@link CostFlowController}
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public interface CostEstimator {
+
+    /**
+     * Returns the estimated cost of the request, a positive number
+     * 
+     * @param request
+     * @return
+     */
+    public long getCost(Request request);
+}
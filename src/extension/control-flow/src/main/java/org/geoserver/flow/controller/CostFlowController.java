@@ -0,0 +1,138 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller that weighs the matching requests by their estimated cost, and makes sure
+ * the total cost of the requests running in parallel stays within a budget.
+ * <p>
+ * Requests that do not fit in the budget left wait for the running ones to complete, while
+ * requests that fit run right away, even if others are waiting, so that a waiting expensive
+ * request does not hold back the cheap ones behind it. Under sustained load expensive requests
+ * may thus wait for a long time, configuring a request timeout bounds their wait. Requests
+ * costing more than the whole budget are considered to cost as much as the budget, and run
+ * alone.
+ * </p>
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class CostFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    OWSRequestMatcher matcher;
+
+    CostEstimator estimator;
+
+    int budget;
+
+    Semaphore available;
+
+    /**
+     * The budget taken by the running requests
+     */
+    Map<Request, Integer> taken = new ConcurrentHashMap<Request, Integer>();
+
+    /**
+     * Builds a new cost based flow controller
+     * 
+     * @param matcher
+     *            the requests subject to the budget
+     * @param estimator
+     *            the request cost estimator
+     * @param budget
+     *            the maximum total cost of the matching requests running in parallel
+     */
+    public CostFlowController(OWSRequestMatcher matcher, CostEstimator estimator, int budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The budget must be positive");
+        }
+        this.matcher = matcher;
+        this.estimator = estimator;
+        this.budget = budget;
+        // not fair, requests fitting in the budget left must not queue behind expensive ones
+        this.available = new Semaphore(budget);
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.matches(request)) {
+            return true;
+        }
+
+        int cost = (int) Math.min(budget, Math.max(1, estimator.getCost(request)));
+        boolean retval = true;
+        try {
+            if (timeout > 0) {
+                retval = available.tryAcquire(cost, timeout, TimeUnit.MILLISECONDS);
+            } else {
+                available.acquire(cost);
+            }
+            if (retval) {
+                taken.put(request, cost);
+            }
+        } catch (InterruptedException e) {
+            // the request did not get its budget, it must not run
+            Thread.currentThread().interrupt();
+            throw new HttpErrorCodeException(503, "Interrupted while "
+                    + "waiting for the request budget");
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " request cost " + cost + ", budget left "
+                    + available.availablePermits());
+        }
+        return retval;
+    }
+
+    public void requestComplete(Request request) {
+        Integer cost = taken.remove(request);
+        if (cost != null) {
+            available.release(cost);
+        }
+    }
+
+    /**
+     * Runs right after the rate controllers, so that requests waiting for budget do not hold
+     * slots in the queue based controllers
+     */
+    public int getPriority() {
+        return 1;
+    }
+
+    public OWSRequestMatcher getMatcher() {
+        return matcher;
+    }
+
+    public CostEstimator getEstimator() {
+        return estimator;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * The budget not taken by running requests
+     */
+    public int getAvailableBudget() {
+        return available.availablePermits();
+    }
+
+    @Override
+    public String toString() {
+        return "CostFlowController(" + matcher + "," + budget + ")";
+    }
+}
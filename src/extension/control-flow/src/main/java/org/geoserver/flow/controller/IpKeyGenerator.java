@@ -0,0 +1,26 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Identifies clients by their ip address, the first one in X-Forwarded-For if the request went
+ * through a proxy
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class IpKeyGenerator implements KeyGenerator {
+
+    public String getKey(Request request) {
+        String ip = IpFlowController.getRemoteAddr(request.getHttpRequest());
+        return ip == null ? "" : ip;
+    }
+
+    @Override
+    public String toString() {
+        return "ip";
+    }
+}
@@ -0,0 +1,23 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Identifies the client that made a request, so that per client limits can be applied
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public interface KeyGenerator {
+
+    /**
+     * Returns the key identifying the client that made the request
+     * 
+     * @param request
+     * @return
+     */
+    public String getKey(Request request);
+}
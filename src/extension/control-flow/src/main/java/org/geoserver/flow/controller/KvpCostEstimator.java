@@ -0,0 +1,125 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates the cost of a request from its key/value pairs, in pixels:
+ * <ul>
+ * <li>requests with a size, such as WMS GetMap or WCS 1.0 GetCoverage, cost the number of pixels
+ * requested (width x height)</li>
+ * <li>requests with a feature limit, such as WFS GetFeature, cost the maximum number of features
+ * times the {@link #getFeatureCost() cost of a single feature}</li>
+ * <li>requests without a limit on features, and any other request, cost the
+ * {@link #getDefaultCost() default cost}</li>
+ * </ul>
+ * The cost is then multiplied by the weight of the output format, if any was set. Requests made
+ * via POST have no key/value pairs and get the default cost too.
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class KvpCostEstimator implements CostEstimator {
+
+    /**
+     * The cost of a 256x256 tile
+     */
+    static final long DEFAULT_COST = 256 * 256;
+
+    static final long FEATURE_COST = 100;
+
+    long defaultCost = DEFAULT_COST;
+
+    long featureCost = FEATURE_COST;
+
+    Map<String, Double> formatWeights = new ConcurrentHashMap<String, Double>();
+
+    public long getCost(Request request) {
+        Map kvp = request.getRawKvp();
+        long cost = defaultCost;
+        String format = request.getOutputFormat();
+        if (kvp != null) {
+            Long width = getLong(kvp, "WIDTH");
+            Long height = getLong(kvp, "HEIGHT");
+            Long features = getLong(kvp, "MAXFEATURES");
+            if (features == null) {
+                features = getLong(kvp, "COUNT");
+            }
+
+            if (width != null && height != null) {
+                cost = width * height;
+            } else if (features != null) {
+                cost = features * featureCost;
+            }
+
+            if (format == null) {
+                format = (String) kvp.get("FORMAT");
+            }
+        }
+
+        if (format != null && !formatWeights.isEmpty()) {
+            Double weight = formatWeights.get(format.toLowerCase());
+            if (weight != null) {
+                cost = Math.round(cost * weight);
+            }
+        }
+
+        return Math.max(1, cost);
+    }
+
+    static Long getLong(Map kvp, String key) {
+        Object value = kvp.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            long result = Long.parseLong(String.valueOf(value).trim());
+            return result > 0 ? result : null;
+        } catch (NumberFormatException e) {
+            // let the service complain about it
+            return null;
+        }
+    }
+
+    /**
+     * The cost of requests whose size cannot be estimated
+     */
+    public long getDefaultCost() {
+        return defaultCost;
+    }
+
+    public void setDefaultCost(long defaultCost) {
+        this.defaultCost = defaultCost;
+    }
+
+    /**
+     * The cost of a single feature
+     */
+    public long getFeatureCost() {
+        return featureCost;
+    }
+
+    public void setFeatureCost(long featureCost) {
+        this.featureCost = featureCost;
+    }
+
+    /**
+     * Sets the weight of an output format (case insensitive)
+     */
+    public void setFormatWeight(String format, double weight) {
+        formatWeights.put(format.toLowerCase(), weight);
+    }
+
+    /**
+     * Returns the weight of the output format, 1 if none was set
+     */
+    public double getFormatWeight(String format) {
+        Double weight = formatWeights.get(format.toLowerCase());
+        return weight != null ? weight : 1;
+    }
+}
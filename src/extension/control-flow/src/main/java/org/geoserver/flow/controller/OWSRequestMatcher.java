@@ -0,0 +1,102 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Matches requests by service, method and output format, all case insensitive. A null value
+ * matches any request.
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class OWSRequestMatcher {
+
+    String service;
+
+    String method;
+
+    String outputFormat;
+
+    /**
+     * Builds a matcher accepting any request
+     */
+    public OWSRequestMatcher() {
+        this(null, null, null);
+    }
+
+    public OWSRequestMatcher(String service, String method, String outputFormat) {
+        this.service = service;
+        this.method = method;
+        this.outputFormat = outputFormat;
+
+        if (service == null && method != null)
+            throw new IllegalArgumentException(
+                    "Invalid OWS definition, method cannot be specified if service is not provided");
+        else if (method == null && outputFormat != null)
+            throw new IllegalArgumentException(
+                    "Invalid OWS definition, output format cannot be null if method is not provided");
+    }
+
+    public boolean matches(Request request) {
+        if (service == null)
+            return true;
+        else if (!service.equalsIgnoreCase(request.getService()))
+            return false;
+
+        if (method == null)
+            return true;
+        else if (!method.equalsIgnoreCase(request.getRequest()))
+            return false;
+
+        if (outputFormat == null)
+            return true;
+        else if (!outputFormat.equalsIgnoreCase(request.getOutputFormat()))
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Returns the matched service (case insensitive)
+     * @return
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * Returns the matched method (case insensitive)
+     * @return
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the matched output format (case insensitive)
+     * @return
+     */
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (service != null) {
+            sb.append(service);
+            if (method != null) {
+                sb.append(".").append(method);
+                if (outputFormat != null) {
+                    sb.append(".").append(outputFormat);
+                }
+            }
+        } else {
+            sb.append("*");
+        }
+        return sb.toString();
+    }
+}
@@ -46,6 +46,9 @@ public abstract class QueueController implements FlowController {
     public void requestComplete(Request request) {
         String queueId = QUEUE_ID.get();
         QUEUE_ID.remove();
+        // the request might have been rejected before getting to this controller
+        if (queueId == null)
+            return;
         BlockingQueue<Request> queue = queues.get(queueId);
         if (queue != null)
             queue.remove(request);
@@ -0,0 +1,270 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller limiting the rate of the matching requests using a token bucket for each
+ * client, or a single bucket shared by all clients if no {@link KeyGenerator} is provided.
+ * <p>
+ * Each bucket holds up to {@code maxRequests} tokens and is refilled at a rate of
+ * {@code maxRequests} every {@code timeInterval} milliseconds, every request consumes one token.
+ * When the bucket is empty the request is delayed until a token is available, if that takes no
+ * more than {@code maxDelay} milliseconds, or rejected right away with a 429 otherwise, so that
+ * clients going over their allowance do not keep servlet threads busy.
+ * </p>
+ * <p>
+ * The controller has the highest priority, so requests are rejected before they get to wait in
+ * any of the queue based controllers.
+ * </p>
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class RateFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The key used for the bucket shared by all clients
+     */
+    static final String GLOBAL_KEY = "";
+
+    OWSRequestMatcher matcher;
+
+    KeyGenerator keyGenerator;
+
+    int maxRequests;
+
+    long timeInterval;
+
+    long maxDelay;
+
+    /**
+     * Number of buckets at which we start looking for purging stale ones
+     */
+    int maxBuckets = 1000;
+
+    /**
+     * Last time we've performed a bucket cleanup
+     */
+    volatile long lastCleanup = System.currentTimeMillis();
+
+    Map<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Builds a new rate flow controller
+     * 
+     * @param matcher
+     *            the requests subject to the limit
+     * @param keyGenerator
+     *            identifies the clients, if null a single bucket is shared among all clients
+     * @param maxRequests
+     *            the maximum number of requests per time interval
+     * @param timeInterval
+     *            the time interval, in milliseconds
+     * @param maxDelay
+     *            the maximum time a request can be delayed waiting for a token, in milliseconds,
+     *            0 to reject the request right away
+     */
+    public RateFlowController(OWSRequestMatcher matcher, KeyGenerator keyGenerator,
+            int maxRequests, long timeInterval, long maxDelay) {
+        if (maxRequests <= 0 || timeInterval <= 0) {
+            throw new IllegalArgumentException("The number of requests and the time interval "
+                    + "must be positive");
+        }
+        this.matcher = matcher;
+        this.keyGenerator = keyGenerator;
+        this.maxRequests = maxRequests;
+        this.timeInterval = timeInterval;
+        this.maxDelay = Math.max(0, maxDelay);
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.matches(request)) {
+            return true;
+        }
+
+        String key = keyGenerator != null ? keyGenerator.getKey(request) : GLOBAL_KEY;
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            // beware of multiple concurrent requests...
+            synchronized (buckets) {
+                bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new TokenBucket(maxRequests, timeInterval);
+                    buckets.put(key, bucket);
+                }
+            }
+        }
+
+        long delay = maxDelay;
+        if (timeout > 0 && timeout < delay) {
+            delay = timeout;
+        }
+        long wait = bucket.take(delay);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " request from " + key + " must wait " + wait + "ms");
+        }
+
+        cleanup();
+
+        if (wait < 0) {
+            // tell the client when it's worth trying again
+            long retryAfter = Math.max(1, (bucket.timeToToken() + 999) / 1000);
+            request.getHttpResponse().setHeader("Retry-After", String.valueOf(retryAfter));
+            throw new HttpErrorCodeException(429, "Too many requests, no more than "
+                    + maxRequests + " requests every " + timeInterval + "ms are allowed");
+        } else if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                // the request did not wait its turn, don't let it through
+                Thread.currentThread().interrupt();
+                throw new HttpErrorCodeException(503, "Interrupted while "
+                        + "waiting for the request rate to go down");
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the buckets that have not been used for long enough to be full again
+     */
+    void cleanup() {
+        long now = System.currentTimeMillis();
+        if ((buckets.size() > maxBuckets && (now - lastCleanup) > (timeInterval / 10))
+                || (now - lastCleanup) > Math.max(timeInterval, 10000)) {
+            int cleanupCount = 0;
+            synchronized (buckets) {
+                for (Iterator<TokenBucket> it = buckets.values().iterator(); it.hasNext();) {
+                    if (it.next().isIdle()) {
+                        it.remove();
+                        cleanupCount++;
+                    }
+                }
+                lastCleanup = now;
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " purged " + cleanupCount + " stale buckets");
+            }
+        }
+    }
+
+    public void requestComplete(Request request) {
+        // nothing to do, tokens are not given back
+    }
+
+    /**
+     * Rate controllers do not hold any resource while the request runs, and should reject
+     * requests before they get to queue up in the other controllers
+     */
+    public int getPriority() {
+        return 0;
+    }
+
+    public OWSRequestMatcher getMatcher() {
+        return matcher;
+    }
+
+    public KeyGenerator getKeyGenerator() {
+        return keyGenerator;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public long getTimeInterval() {
+        return timeInterval;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "RateFlowController(" + matcher + "," + (keyGenerator != null ? keyGenerator :
+                "global") + "," + maxRequests + "/" + timeInterval + "ms," + maxDelay + ")";
+    }
+
+    /**
+     * A bucket refilled with {@code capacity} tokens every {@code interval} milliseconds, that
+     * can go in debt to allow for delayed requests
+     */
+    static class TokenBucket {
+
+        final double capacity;
+
+        /**
+         * The nanoseconds needed to refill one token
+         */
+        final double nanosPerToken;
+
+        double tokens;
+
+        long lastRefill;
+
+        TokenBucket(int capacity, long interval) {
+            this.capacity = capacity;
+            this.nanosPerToken = interval * 1000000d / capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * Takes a token, returning how many milliseconds the caller has to wait before going
+         * on, or -1 if the wait would be longer than {@code maxWait}, in which case no token is
+         * taken
+         */
+        synchronized long take(long maxWait) {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+
+            long wait = (long) Math.ceil((1 - tokens) * nanosPerToken / 1000000d);
+            if (wait > maxWait) {
+                return -1;
+            }
+            tokens -= 1;
+            return wait;
+        }
+
+        /**
+         * Milliseconds until a token is available
+         */
+        synchronized long timeToToken() {
+            refill();
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * nanosPerToken / 1000000d);
+        }
+
+        /**
+         * True if the bucket is full, and thus equivalent to a new one
+         */
+        synchronized boolean isIdle() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
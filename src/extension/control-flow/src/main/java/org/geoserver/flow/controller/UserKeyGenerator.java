@@ -0,0 +1,36 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Identifies clients by the name of the authenticated user. Anonymous requests are identified by
+ * their ip address instead, as anything else the client sends, like a cookie, can be changed at
+ * will to get a fresh key.
+ * 
+ * @author Andrea Aime - OpenGeo
+ */
+public class UserKeyGenerator implements KeyGenerator {
+
+    IpKeyGenerator ipKeyGenerator = new IpKeyGenerator();
+
+    public String getKey(Request request) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.isAuthenticated()
+                && !(auth instanceof AnonymousAuthenticationToken) && auth.getName() != null) {
+            return "user:" + auth.getName();
+        }
+        return "ip:" + ipKeyGenerator.getKey(request);
+    }
+
+    @Override
+    public String toString() {
+        return "user";
+    }
+}
@@ -6,6 +6,9 @@ import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.geoserver.flow.controller.CostEstimator;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.OWSRequestMatcher;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.ows.Request;
 
@@ -50,6 +53,57 @@ public class ControlFlowCallbackTest extends TestCase {
         callback.finished(null);
     }
 
+    public void testInterruptedWhileWaiting() throws Exception {
+        final ControlFlowCallback callback = new ControlFlowCallback();
+        TestingConfigurator tc = new TestingConfigurator();
+        // no timeout, the request would wait forever
+        tc.timeout = -1;
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(),
+                new CostEstimator() {
+                    public long getCost(Request request) {
+                        return 1;
+                    }
+                }, 1);
+        tc.controllers.add(controller);
+        callback.configurator = tc;
+
+        // take the whole budget
+        Request running = new Request();
+        assertTrue(controller.requestIncoming(running, -1));
+
+        final Request request = new Request();
+        final Throwable[] error = new Throwable[1];
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    callback.operationDispatched(request, null);
+                } catch (Throwable t) {
+                    error[0] = t;
+                } finally {
+                    callback.finished(request);
+                }
+            }
+        };
+        waiting.start();
+        long start = System.currentTimeMillis();
+        while (waiting.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > start + 10000) {
+                fail("The request did not start waiting for the budget");
+            }
+            Thread.sleep(10);
+        }
+        waiting.interrupt();
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+
+        // the interrupted request is rejected, and does not release budget it never got
+        assertTrue(error[0] instanceof HttpErrorCodeException);
+        assertEquals(503, ((HttpErrorCodeException) error[0]).getErrorCode());
+        assertEquals(0, controller.getAvailableBudget());
+        controller.requestComplete(running);
+        assertEquals(1, controller.getAvailableBudget());
+    }
+
     /**
      * A wide open configurator to be used for testing
      */
@@ -10,10 +10,15 @@ import junit.framework.TestCase;
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
+import org.geoserver.flow.controller.IpKeyGenerator;
+import org.geoserver.flow.controller.KvpCostEstimator;
+import org.geoserver.flow.controller.RateFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
+import org.geoserver.flow.controller.UserKeyGenerator;
 import org.geoserver.security.PropertyFileWatcher;
 
 public class DefaultControlFlowConfigurationTest extends TestCase {
@@ -61,6 +66,66 @@ public class DefaultControlFlowConfigurationTest extends TestCase {
         assertEquals(14, ipSc.getPriority());
     }
 
+    public void testParsingRate() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.rate", "1000/s");
+        p.put("ip.rate.wms.getmap", "10/s;500");
+        p.put("user.rate", "3600/h");
+        p.put("ip.rate.wms", "nonsense");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(3, controllers.size());
+
+        for (FlowController controller : controllers) {
+            RateFlowController rc = (RateFlowController) controller;
+            assertEquals(0, rc.getPriority());
+            if (rc.getKeyGenerator() == null) {
+                assertEquals(1000, rc.getMaxRequests());
+                assertEquals(1000, rc.getTimeInterval());
+                assertEquals(0, rc.getMaxDelay());
+                assertNull(rc.getMatcher().getService());
+            } else if (rc.getKeyGenerator() instanceof IpKeyGenerator) {
+                assertEquals(10, rc.getMaxRequests());
+                assertEquals(1000, rc.getTimeInterval());
+                assertEquals(500, rc.getMaxDelay());
+                assertEquals("wms", rc.getMatcher().getService());
+                assertEquals("getmap", rc.getMatcher().getMethod());
+            } else {
+                assertTrue(rc.getKeyGenerator() instanceof UserKeyGenerator);
+                assertEquals(3600, rc.getMaxRequests());
+                assertEquals(60 * 60 * 1000, rc.getTimeInterval());
+            }
+        }
+    }
+
+    public void testParsingCost() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.cost", "100000000");
+        p.put("ows.cost.wcs", "50000000");
+        p.put("cost.feature", "50");
+        p.put("cost.format.image/geotiff", "4");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(2, controllers.size());
+
+        for (FlowController controller : controllers) {
+            CostFlowController cc = (CostFlowController) controller;
+            KvpCostEstimator estimator = (KvpCostEstimator) cc.getEstimator();
+            assertEquals(50, estimator.getFeatureCost());
+            assertEquals(4d, estimator.getFormatWeight("image/GeoTIFF"));
+            if (cc.getMatcher().getService() == null) {
+                assertEquals(100000000, cc.getBudget());
+            } else {
+                assertEquals("wcs", cc.getMatcher().getService());
+                assertEquals(50000000, cc.getBudget());
+            }
+        }
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,183 @@
+package org.geoserver.flow.controller;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.KvpMap;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class CostFlowControllerTest extends AbstractFlowControllerTest {
+
+    private static final long MAX_WAIT = 10000;
+
+    public void testEstimator() {
+        KvpCostEstimator estimator = new KvpCostEstimator();
+        assertEquals(256 * 512, estimator.getCost(buildRequest("WMS", "GetMap", "WIDTH", "256",
+                "HEIGHT", "512")));
+        assertEquals(KvpCostEstimator.DEFAULT_COST, estimator.getCost(buildRequest("WMS",
+                "GetCapabilities")));
+        assertEquals(50 * KvpCostEstimator.FEATURE_COST, estimator.getCost(buildRequest("WFS",
+                "GetFeature", "MAXFEATURES", "50")));
+        assertEquals(20 * KvpCostEstimator.FEATURE_COST, estimator.getCost(buildRequest("WFS",
+                "GetFeature", "COUNT", "20")));
+        // invalid values are ignored
+        assertEquals(KvpCostEstimator.DEFAULT_COST, estimator.getCost(buildRequest("WMS",
+                "GetMap", "WIDTH", "abc", "HEIGHT", "512")));
+
+        estimator.setFormatWeight("image/TIFF", 4);
+        assertEquals(4 * 100 * 100, estimator.getCost(buildRequest("WMS", "GetMap", "WIDTH",
+                "100", "HEIGHT", "100", "FORMAT", "image/tiff")));
+        assertEquals(100 * 100, estimator.getCost(buildRequest("WMS", "GetMap", "WIDTH", "100",
+                "HEIGHT", "100", "FORMAT", "image/png")));
+    }
+
+    public void testBudget() {
+        // room for a big map, or 4 tiles
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher("WMS",
+                null, null), new KvpCostEstimator(), 4 * 256 * 256);
+
+        FlowControllerTestingThread big = new FlowControllerTestingThread(controller,
+                buildRequest("WMS", "GetMap", "WIDTH", "1024", "HEIGHT", "256"), 0,
+                Long.MAX_VALUE);
+        FlowControllerTestingThread tile = new FlowControllerTestingThread(controller,
+                buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256"), 0,
+                Long.MAX_VALUE);
+        // does not match, does not wait
+        FlowControllerTestingThread wfs = new FlowControllerTestingThread(controller,
+                buildRequest("WFS", "GetFeature"), 0, 0);
+        try {
+            big.start();
+            waitBlocked(big, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, big.state);
+            assertEquals(0, controller.getAvailableBudget());
+
+            tile.start();
+            waitBlocked(tile, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, tile.state);
+
+            wfs.start();
+            waitTerminated(wfs, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, wfs.state);
+
+            // the big request completes, the tile can go
+            big.interrupt();
+            waitTerminated(big, MAX_WAIT);
+            waitProcessing(tile, MAX_WAIT);
+            assertEquals(3 * 256 * 256, controller.getAvailableBudget());
+
+            tile.interrupt();
+            waitTerminated(tile, MAX_WAIT);
+            assertEquals(4 * 256 * 256, controller.getAvailableBudget());
+        } finally {
+            waitAndKill(big, MAX_WAIT);
+            waitAndKill(tile, MAX_WAIT);
+            waitAndKill(wfs, MAX_WAIT);
+        }
+    }
+
+    public void testTimeout() {
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(),
+                new KvpCostEstimator(), 256 * 256);
+        Request first = buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256");
+        assertTrue(controller.requestIncoming(first, 100));
+        // larger than the budget, it waits for the whole budget to be available
+        Request second = buildRequest("WMS", "GetMap", "WIDTH", "2048", "HEIGHT", "2048");
+        assertFalse(controller.requestIncoming(second, 100));
+        controller.requestComplete(second);
+        assertEquals(0, controller.getAvailableBudget());
+
+        controller.requestComplete(first);
+        assertTrue(controller.requestIncoming(second, 100));
+        assertEquals(0, controller.getAvailableBudget());
+        controller.requestComplete(second);
+        assertEquals(256 * 256, controller.getAvailableBudget());
+    }
+
+    public void testCheapRequestsNotBlocked() {
+        // room for 4 tiles
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(),
+                new KvpCostEstimator(), 4 * 256 * 256);
+        Request first = buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256");
+        assertTrue(controller.requestIncoming(first, 0));
+
+        FlowControllerTestingThread big = new FlowControllerTestingThread(controller,
+                buildRequest("WMS", "GetMap", "WIDTH", "1024", "HEIGHT", "256"), 0,
+                Long.MAX_VALUE);
+        FlowControllerTestingThread tile = new FlowControllerTestingThread(controller,
+                buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256"), 0,
+                Long.MAX_VALUE);
+        try {
+            big.start();
+            waitBlocked(big, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, big.state);
+
+            // the tile fits in the budget left, it does not wait behind the big request
+            tile.start();
+            waitProcessing(tile, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, big.state);
+            assertEquals(2 * 256 * 256, controller.getAvailableBudget());
+
+            controller.requestComplete(first);
+            assertEquals(ThreadState.STARTED, big.state);
+            tile.interrupt();
+            waitTerminated(tile, MAX_WAIT);
+            waitProcessing(big, MAX_WAIT);
+            assertEquals(0, controller.getAvailableBudget());
+
+            big.interrupt();
+            waitTerminated(big, MAX_WAIT);
+            assertEquals(4 * 256 * 256, controller.getAvailableBudget());
+        } finally {
+            waitAndKill(big, MAX_WAIT);
+            waitAndKill(tile, MAX_WAIT);
+        }
+    }
+
+    public void testInterrupted() {
+        CostFlowController controller = new CostFlowController(new OWSRequestMatcher(),
+                new KvpCostEstimator(), 256 * 256);
+        Request request = buildRequest("WMS", "GetMap", "WIDTH", "256", "HEIGHT", "256");
+        Thread.currentThread().interrupt();
+        try {
+            // interrupted while waiting, the request does not get to run
+            controller.requestIncoming(request, 0);
+            fail("The interrupted request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+            assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        controller.requestComplete(request);
+        assertEquals(256 * 256, controller.getAvailableBudget());
+    }
+
+    void waitProcessing(FlowControllerTestingThread t, long maxWait) {
+        long start = System.currentTimeMillis();
+        while (t.state != ThreadState.PROCESSING) {
+            if (System.currentTimeMillis() > (start + maxWait))
+                fail("Waited for the thread to be processing more than maxWait: " + maxWait);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                fail("Sometime interrupeted our wait: " + e);
+            }
+        }
+    }
+
+    Request buildRequest(String service, String operation, String... kvp) {
+        Request request = new Request();
+        request.setHttpRequest(new MockHttpServletRequest());
+        request.setHttpResponse(new MockHttpServletResponse());
+        request.setService(service);
+        request.setRequest(operation);
+        KvpMap rawKvp = new KvpMap();
+        for (int i = 0; i < kvp.length; i += 2) {
+            rawKvp.put(kvp[i], kvp[i + 1]);
+        }
+        request.setRawKvp(rawKvp);
+        return request;
+    }
+}
@@ -0,0 +1,160 @@
+package org.geoserver.flow.controller;
+
+import java.util.Collections;
+
+import javax.servlet.http.Cookie;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class RateFlowControllerTest extends TestCase {
+
+    public void testGlobalRate() {
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher(), null, 2,
+                60000, 0);
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.2", "WMS", "GetMap"), -1));
+
+        Request request = buildRequest("127.0.0.3", "WMS", "GetMap");
+        try {
+            controller.requestIncoming(request, -1);
+            fail("The third request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(429, e.getErrorCode());
+        }
+        MockHttpServletResponse response = (MockHttpServletResponse) request.getHttpResponse();
+        assertNotNull(response.getHeader("Retry-After"));
+    }
+
+    public void testIpRate() {
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher(),
+                new IpKeyGenerator(), 1, 60000, 0);
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        // another client has its own bucket
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.2", "WMS", "GetMap"), -1));
+        try {
+            controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1);
+            fail("The second request from the same ip should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(429, e.getErrorCode());
+        }
+    }
+
+    public void testUserRate() {
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher(),
+                new UserKeyGenerator(), 1, 60000, 0);
+        try {
+            // authenticated users have their own bucket, wherever they come from
+            SecurityContextHolder.getContext().setAuthentication(
+                    new UsernamePasswordAuthenticationToken("joe", "secret", Collections
+                            .singletonList(new GrantedAuthorityImpl("ROLE_USER"))));
+            assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+            try {
+                controller.requestIncoming(buildRequest("127.0.0.2", "WMS", "GetMap"), -1);
+                fail("The second request from the same user should have been rejected");
+            } catch (HttpErrorCodeException e) {
+                assertEquals(429, e.getErrorCode());
+            }
+
+            // anonymous ones are identified by ip, cookies do not get them a new bucket
+            SecurityContextHolder.getContext().setAuthentication(null);
+            assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+            Request request = buildRequest("127.0.0.1", "WMS", "GetMap");
+            ((MockHttpServletRequest) request.getHttpRequest()).addCookie(new Cookie(
+                    UserFlowController.COOKIE_NAME, "fresh"));
+            try {
+                controller.requestIncoming(request, -1);
+                fail("The second request from the same ip should have been rejected");
+            } catch (HttpErrorCodeException e) {
+                assertEquals(429, e.getErrorCode());
+            }
+        } finally {
+            SecurityContextHolder.getContext().setAuthentication(null);
+        }
+    }
+
+    public void testMatcher() {
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher("WMS",
+                "GetMap", null), null, 1, 60000, 0);
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        // not matching, not counted
+        for (int i = 0; i < 5; i++) {
+            assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WFS", "GetFeature"),
+                    -1));
+            assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS",
+                    "GetFeatureInfo"), -1));
+        }
+        try {
+            controller.requestIncoming(buildRequest("127.0.0.1", "wms", "getmap"), -1);
+            fail("The second GetMap should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(429, e.getErrorCode());
+        }
+    }
+
+    public void testDelay() {
+        // one request every 200ms, waiting up to 5 seconds
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher(), null, 1,
+                200, 5000);
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        long start = System.currentTimeMillis();
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Elapsed " + elapsed, elapsed >= 300);
+
+        // the overall timeout is shorter than the delay, reject
+        try {
+            controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), 10);
+            fail("The request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(429, e.getErrorCode());
+        }
+    }
+
+    public void testInterruptedDelay() {
+        RateFlowController controller = new RateFlowController(new OWSRequestMatcher(), null, 1,
+                60000, 120000);
+        assertTrue(controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1));
+        Thread.currentThread().interrupt();
+        try {
+            controller.requestIncoming(buildRequest("127.0.0.1", "WMS", "GetMap"), -1);
+            fail("The interrupted request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        } finally {
+            // the interruption is preserved, clear it
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    public void testTokenBucketRefill() throws Exception {
+        RateFlowController.TokenBucket bucket = new RateFlowController.TokenBucket(2, 100);
+        assertEquals(0, bucket.take(0));
+        assertEquals(0, bucket.take(0));
+        assertEquals(-1, bucket.take(0));
+        assertFalse(bucket.isIdle());
+        Thread.sleep(150);
+        assertTrue(bucket.isIdle());
+        assertEquals(0, bucket.take(0));
+    }
+
+    Request buildRequest(String ipAddress, String service, String operation) {
+        Request request = new Request();
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr(ipAddress);
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new MockHttpServletResponse());
+        request.setService(service);
+        request.setRequest(operation);
+        return request;
+    }
+}
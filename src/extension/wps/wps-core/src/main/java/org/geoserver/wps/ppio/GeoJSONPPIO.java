@@ -4,32 +4,127 @@
  */
 package org.geoserver.wps.ppio;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
+import net.sf.json.JSONException;
+
+import org.geoserver.wfs.response.GeoJSONBuilder;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.geojson.feature.FeatureJSON;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Inputs and outputs feature collections in GeoJSON format using gt-geojson
+ * <p>
+ * Simple feature collections are encoded with the streaming {@link GeoJSONBuilder}, producing
+ * the same structure and number of decimals as gt-geojson.
+ * </p>
  * 
  * @author Andrea Aime - OpenGeo
  * 
  */
 public class GeoJSONPPIO extends CDataPPIO {
 
+    /**
+     * number of decimals used to encode coordinates, same as the FeatureJSON default
+     */
+    static final int NUM_DECIMALS = 4;
+
     protected GeoJSONPPIO() {
         super(FeatureCollection.class, FeatureCollection.class, "application/json");
     }
 
     @Override
     public void encode(Object value, OutputStream os) throws IOException {
+        FeatureCollection fc = (FeatureCollection) value;
+        if (fc.getSchema() instanceof SimpleFeatureType) {
+            encodeSimple(fc, os);
+            return;
+        }
+
         FeatureJSON json = new FeatureJSON();
         // commented out due to GEOT-3209
         // json.setEncodeFeatureCRS(true);
         // json.setEncodeFeatureCollectionCRS(true);
-        json.writeFeatureCollection((FeatureCollection) value, os);
+        json.writeFeatureCollection(fc, os);
+    }
+
+    void encodeSimple(FeatureCollection fc, OutputStream os) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+        GeoJSONBuilder json = new GeoJSONBuilder(w);
+        json.setNumberOfDecimals(NUM_DECIMALS);
+
+        FeatureIterator it = fc.features();
+        try {
+            json.object().key("type").value("FeatureCollection");
+            json.key("features").array();
+            while (it.hasNext()) {
+                writeFeature(json, (SimpleFeature) it.next());
+            }
+            json.endArray();
+            json.endObject();
+        } catch (JSONException e) {
+            throw (IOException) new IOException("Error encoding GeoJSON").initCause(e);
+        } finally {
+            fc.close(it);
+        }
+        w.flush();
+    }
+
+    /**
+     * Writes a feature the way FeatureJSON does: the default geometry, the other attributes as
+     * properties skipping the null ones, then the id. Unlike the WFS output there is no 
+     * geometry_name.
+     */
+    void writeFeature(GeoJSONBuilder json, SimpleFeature feature) throws JSONException {
+        SimpleFeatureType type = feature.getFeatureType();
+        GeometryDescriptor defaultGeometry = type.getGeometryDescriptor();
+
+        json.object().key("type").value("Feature");
+        json.key("geometry");
+        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+        if (geometry != null) {
+            json.writeGeom(geometry);
+        } else {
+            json.value(null);
+        }
+
+        json.key("properties").object();
+        for (int i = 0; i < type.getAttributeCount(); i++) {
+            AttributeDescriptor ad = type.getDescriptor(i);
+            if (ad.equals(defaultGeometry)) {
+                continue;
+            }
+            Object value = feature.getAttribute(i);
+            if (value == null) {
+                continue;
+            }
+
+            json.key(ad.getLocalName());
+            if (value instanceof Geometry) {
+                json.writeGeom((Geometry) value);
+            } else if (value instanceof Number || value instanceof Boolean
+                    || value instanceof String) {
+                json.value(value);
+            } else {
+                json.value(value.toString());
+            }
+        }
+        json.endObject();
+
+        json.key("id").value(feature.getID());
+        json.endObject();
     }
 
     @Override
@@ -0,0 +1,119 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.ppio;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONPPIOTest extends TestCase {
+
+    SimpleFeatureCollection features;
+
+    @Override
+    protected void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.add("geom", Point.class);
+        tb.add("name", String.class);
+        tb.add("count", Integer.class);
+        tb.add("value", Double.class);
+        tb.add("flag", Boolean.class);
+        tb.add("track", LineString.class);
+        tb.setDefaultGeometry("geom");
+        SimpleFeatureType type = tb.buildFeatureType();
+
+        WKTReader reader = new WKTReader();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        ListFeatureCollection fc = new ListFeatureCollection(type);
+        fb.addAll(new Object[] { reader.read("POINT(1.123456 -0.00001)"), "first \"one\"", 1,
+            2.5, true, reader.read("LINESTRING(0 0, 10.55555 123456789.1)") });
+        fc.add(fb.buildFeature("test.1"));
+        fb.addAll(new Object[] { null, null, 2, 0.1, false, null });
+        fc.add(fb.buildFeature("test.2"));
+        features = fc;
+    }
+
+    public void testSameAsFeatureJSON() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new FeatureJSON().writeFeatureCollection(features, expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new GeoJSONPPIO().encode(features, actual);
+
+        // same structure, keys and values
+        JSONArray expectedFeatures = JSONObject.fromObject(expected.toString("UTF-8"))
+            .getJSONArray("features");
+        JSONArray actualFeatures = JSONObject.fromObject(actual.toString("UTF-8"))
+            .getJSONArray("features");
+        assertEquals(expectedFeatures.size(), actualFeatures.size());
+        for (int i = 0; i < expectedFeatures.size(); i++) {
+            JSONObject e = expectedFeatures.getJSONObject(i);
+            JSONObject a = actualFeatures.getJSONObject(i);
+            assertEquals(e.keySet(), a.keySet());
+            assertEquals(e.get("id"), a.get("id"));
+            assertEquals(e.getJSONObject("properties").keySet(),
+                a.getJSONObject("properties").keySet());
+        }
+
+        // and the same features once parsed back
+        SimpleFeatureIterator ei = (SimpleFeatureIterator) new FeatureJSON()
+            .readFeatureCollection(expected.toString("UTF-8")).features();
+        SimpleFeatureIterator ai = (SimpleFeatureIterator) new FeatureJSON()
+            .readFeatureCollection(actual.toString("UTF-8")).features();
+        try {
+            while (ei.hasNext()) {
+                assertTrue(ai.hasNext());
+                assertSameFeature(ei.next(), ai.next());
+            }
+            assertFalse(ai.hasNext());
+        } finally {
+            ei.close();
+            ai.close();
+        }
+    }
+
+    public void testNoExponent() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GeoJSONPPIO().encode(features, out);
+        String json = out.toString("UTF-8");
+        assertFalse(json, json.contains("E-"));
+        assertTrue(json, json.contains("123456789.1"));
+    }
+
+    void assertSameFeature(SimpleFeature expected, SimpleFeature actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getAttributeCount(), actual.getAttributeCount());
+        for (Iterator it = expected.getProperties().iterator(); it.hasNext();) {
+            String name = ((Property) it.next()).getName().getLocalPart();
+            Object e = expected.getAttribute(name);
+            Object a = actual.getAttribute(name);
+            if (e instanceof Geometry) {
+                assertTrue(name, ((Geometry) e).equalsExact((Geometry) a));
+            } else if (e instanceof Number) {
+                assertEquals(name, ((Number) e).doubleValue(), ((Number) a).doubleValue(), 0);
+            } else {
+                assertEquals(name, e, a);
+            }
+        }
+    }
+}
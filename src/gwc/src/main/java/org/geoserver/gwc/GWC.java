@@ -47,11 +47,16 @@ import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
+import org.geoserver.wms.GetMap;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.JTS;
@@ -129,6 +134,14 @@ public class GWC implements DisposableBean, InitializingBean {
 
     static final Logger log = Logging.getLogger(GWC.class);
 
+    /**
+     * Property that, when set to {@code true}, makes metatile requests be rendered by calling the
+     * WMS {@link GetMap} operation directly instead of going through the OWS {@link Dispatcher}
+     * 
+     * @see #getMap(GetMapRequest, Cookie[])
+     */
+    public static final String DIRECT_GETMAP = "GWC_DIRECT_GETMAP";
+
     /**
      * @see #getResponseEncoder(MimeType, RenderedImageMap)
      */
@@ -156,6 +169,14 @@ public class GWC implements DisposableBean, InitializingBean {
 
     private final Catalog rawCatalog;
 
+    private volatile boolean directGetMapEnabled;
+
+    /**
+     * Looked up lazily as the WMS beans may not be available yet when GWC is built, volatile so
+     * that the instance is safely published to the other tile rendering threads
+     */
+    private volatile GetMap getMap;
+
     public GWC(final GWCConfigPersister gwcConfigPersister, final StorageBroker sb,
             final TileLayerDispatcher tld, final GridSetBroker gridSetBroker,
             final TileBreeder tileBreeder, final QuotaStore quotaStore,
@@ -170,6 +191,8 @@ public class GWC implements DisposableBean, InitializingBean {
         this.owsDispatcher = owsDispatcher;
         this.quotaStore = quotaStore;
         this.rawCatalog = rawCatalog;
+        this.directGetMapEnabled = Boolean.valueOf(GeoServerExtensions
+                .getProperty(DIRECT_GETMAP));
 
         catalogLayerEventListener = new CatalogLayerEventListener(this);
         catalogStyleChangeListener = new CatalogStyleChangeListener(this);
@@ -1034,6 +1057,105 @@ public class GWC implements DisposableBean, InitializingBean {
         return new ByteArrayResource(resp.getBytes());
     }
 
+    /**
+     * @return whether metatiles are rendered by calling the WMS {@link GetMap} operation directly
+     *         rather than dispatching a KVP request to the OWS {@link Dispatcher}
+     * @see #DIRECT_GETMAP
+     */
+    public boolean isDirectGetMapEnabled() {
+        return directGetMapEnabled;
+    }
+
+    public void setDirectGetMapEnabled(boolean directGetMapEnabled) {
+        this.directGetMapEnabled = directGetMapEnabled;
+    }
+
+    /**
+     * Renders a map by calling the WMS {@link GetMap} operation directly, skipping the KVP parsing
+     * and the service interceptors involved in {@link #dispatchOwsRequest(Map, Cookie[])}.
+     * <p>
+     * The request is expected to be fully built, that is, with the layers and styles already
+     * resolved against the catalog. The {@link DispatcherCallback dispatcher callbacks} are run
+     * around the call as the dispatcher would do, so that service security, control flow and
+     * monitoring still apply, and for the duration of the call a {@link Request} describing it is
+     * made available through {@link Dispatcher#REQUEST}.
+     * </p>
+     * 
+     * @param request
+     *            the GetMap request to render
+     * @param cookies
+     *            the cookies of the tile request, if any
+     * @return the map produced by the output format matching the request's format
+     */
+    public WebMap getMap(final GetMapRequest request, Cookie[] cookies) {
+        GetMap getMap = this.getMap;
+        if (getMap == null) {
+            getMap = GeoServerExtensions.bean(GetMap.class);
+            if (getMap == null) {
+                getMap = new GetMap(WMS.get());
+            }
+            this.getMap = getMap;
+        }
+
+        org.geoserver.platform.Service service = (org.geoserver.platform.Service) GeoServerExtensions
+                .bean("wms-1_1_1-ServiceDescriptor");
+        if (service == null) {
+            throw new IllegalStateException(
+                    "Didn't find service descriptor 'wms-1_1_1-ServiceDescriptor'");
+        }
+
+        final Request previous = Dispatcher.REQUEST.get();
+        Request owsRequest = new Request();
+        owsRequest.setHttpRequest(new FakeHttpServletRequest(request.getRawKvp(), cookies));
+        owsRequest.setHttpResponse(new FakeHttpServletResponse());
+        owsRequest.setGet(true);
+        owsRequest.setService("WMS");
+        owsRequest.setVersion(request.getVersion());
+        owsRequest.setRequest("GetMap");
+        owsRequest.setOutputFormat(request.getFormat());
+        owsRequest.setKvp(new HashMap(request.getRawKvp()));
+        owsRequest.setRawKvp(request.getRawKvp());
+        owsRequest.setServiceDescriptor(service);
+
+        final List<DispatcherCallback> callbacks = GeoServerExtensions
+                .extensions(DispatcherCallback.class);
+        Dispatcher.REQUEST.set(owsRequest);
+        try {
+            for (DispatcherCallback cb : callbacks) {
+                Request r = cb.init(owsRequest);
+                owsRequest = r != null ? r : owsRequest;
+            }
+            Dispatcher.REQUEST.set(owsRequest);
+            for (DispatcherCallback cb : callbacks) {
+                org.geoserver.platform.Service s = cb.serviceDispatched(owsRequest, service);
+                service = s != null ? s : service;
+            }
+            Method method = OwsUtils.method(service.getService().getClass(), "getMap");
+            Operation operation = new Operation("GetMap", service, method,
+                    new Object[] { request });
+            for (DispatcherCallback cb : callbacks) {
+                Operation o = cb.operationDispatched(owsRequest, operation);
+                operation = o != null ? o : operation;
+            }
+
+            Object result = getMap.run((GetMapRequest) operation.getParameters()[0]);
+            for (DispatcherCallback cb : callbacks) {
+                Object r = cb.operationExecuted(owsRequest, operation, result);
+                result = r != null ? r : result;
+            }
+            return (WebMap) result;
+        } finally {
+            for (DispatcherCallback cb : callbacks) {
+                cb.finished(owsRequest);
+            }
+            if (previous == null) {
+                Dispatcher.REQUEST.remove();
+            } else {
+                Dispatcher.REQUEST.set(previous);
+            }
+        }
+    }
+
     public GridSetBroker getGridSetBroker() {
         return gridSetBroker;
     }
@@ -11,14 +11,28 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
 
 import org.geoserver.gwc.GWC;
 import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
@@ -26,6 +40,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.crop.GTCropDescriptor;
 import org.geotools.resources.i18n.ErrorKeys;
 import org.geotools.resources.i18n.Errors;
+import org.geotools.util.logging.Logging;
 import org.geowebcache.grid.BoundingBox;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.io.Resource;
@@ -33,10 +48,32 @@ import org.geowebcache.layer.MetaTile;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeType;
 
+/**
+ * A {@link MetaTile} cut from a GeoServer {@link RenderedImageMap}.
+ * <p>
+ * The tiles can be encoded ahead of time on a shared, bounded pool of encoder threads with
+ * {@link #startEncoding(long[], boolean)}, in which case {@link #writeTileToStream} just copies
+ * the encoded bytes. A tile whose encoding has not started yet when it is asked for is encoded by
+ * the calling thread instead, so that the caller never waits on a queued task. The size of the
+ * pool is controlled by the {@link #ENCODER_THREADS} property, a value of 1 or less disables the
+ * parallel encoding.
+ * </p>
+ */
 public class GeoServerMetaTile extends MetaTile {
 
+    private static final Logger LOGGER = Logging.getLogger(GeoServerMetaTile.class);
+
+    /**
+     * Property controlling the number of threads used to encode the tiles of metatiles in parallel
+     */
+    public static final String ENCODER_THREADS = "GWC_METATILE_ENCODER_THREADS";
+
+    private static ExecutorService executor;
+
     private RenderedImageMap metaTileMap;
 
+    private Future<byte[]>[] encoded;
+
     public GeoServerMetaTile(GridSubset gridSubset, MimeType responseFormat,
             FormatModifier formatModifier, long[] tileGridPosition, int metaX, int metaY,
             Integer gutter) {
@@ -49,17 +86,109 @@ public class GeoServerMetaTile extends MetaTile {
         setImage(webMap.getImage());
     }
 
+    /**
+     * Starts encoding, in the background, the tiles that are going to be written out by
+     * {@code TileLayer.saveTiles}: the requested one and, if the tiles are going to be stored, all
+     * the other ones falling inside the grid subset.
+     * <p>
+     * Does nothing if the meta tile is made of a single tile or parallel encoding is disabled.
+     * </p>
+     * 
+     * @param requestedTile
+     *            the grid position of the tile that was requested
+     * @param store
+     *            whether the tiles other than the requested one are going to be stored
+     */
+    public void startEncoding(final long[] requestedTile, final boolean store) {
+        startEncoding(requestedTile, store, getExecutor());
+    }
+
+    /**
+     * Same as {@link #startEncoding(long[], boolean)}, but submits the encoding to the specified
+     * executor, or does nothing if it's {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    void startEncoding(final long[] requestedTile, final boolean store,
+            final ExecutorService executor) {
+        checkNotNull(metaTileMap, "webMap is not set");
+        if (this.tiles.length <= 1 || executor == null) {
+            return;
+        }
+
+        final long[][] positions = getTilesGridPositions();
+        encoded = new Future[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            final boolean requested = Arrays.equals(requestedTile, positions[i]);
+            if ((requested || store) && gridSubset.covers(positions[i])) {
+                final int tileIdx = i;
+                encoded[i] = executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        encodeTile(tileIdx, out);
+                        return out.toByteArray();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes the tile at index {@code tileIdx}, using the bytes encoded in the background by
+     * {@link #startEncoding(long[], boolean)} if available, or encoding it on the spot otherwise.
+     * 
+     * @see org.geowebcache.layer.MetaTile#writeTileToStream(int, org.geowebcache.io.Resource)
+     * @see #encodeTile(int, OutputStream)
+     */
+    @Override
+    public boolean writeTileToStream(final int tileIdx, Resource target) throws IOException {
+        final Future<byte[]> future = encoded == null ? null : encoded[tileIdx];
+        if (future != null && !future.cancel(false)) {
+            // already encoding or encoded, wait for it
+            final byte[] bytes;
+            try {
+                bytes = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException("Interrupted while encoding tile " + tileIdx)
+                        .initCause(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw (IOException) new IOException("Failed to encode tile " + tileIdx)
+                        .initCause(cause);
+            }
+
+            OutputStream outStream = target.getOutputStream();
+            try {
+                outStream.write(bytes);
+                return true;
+            } finally {
+                outStream.close();
+            }
+        }
+
+        OutputStream outStream = target.getOutputStream();
+        try {
+            encodeTile(tileIdx, outStream);
+            return true;
+        } finally {
+            outStream.close();
+        }
+    }
+
     /**
      * Creates the {@link RenderedImage} corresponding to the tile at index {@code tileIdx} and uses
      * a {@link RenderedImageMapResponse} to encode it into the {@link #getResponseFormat() response
      * format}.
+     * <p>
+     * Can be called by several threads at the same time.
+     * </p>
      * 
-     * @see org.geowebcache.layer.MetaTile#writeTileToStream(int, org.geowebcache.io.Resource)
      * @see RenderedImageMapResponse#write
-     * 
      */
-    @Override
-    public boolean writeTileToStream(final int tileIdx, Resource target) throws IOException {
+    void encodeTile(final int tileIdx, OutputStream outStream) throws IOException {
 
         checkNotNull(metaTileMap, "webMap is not set");
         if (!(metaTileMap instanceof RenderedImageMap)) {
@@ -80,7 +209,9 @@ public class GeoServerMetaTile extends MetaTile {
         if (this.tiles.length > 1) {
             final Rectangle tileDim = this.tiles[tileIdx];
             tile = createTile(tileDim.x, tileDim.y, tileDim.width, tileDim.height);
-            disposeLater(tile);
+            synchronized (this) {
+                disposeLater(tile);
+            }
             {
                 final WMSMapContent metaTileContext = metaTileMap.getMapContext();
                 // do not create tileContext with metaTileContext.getLayers() as the layer list.
@@ -103,16 +234,10 @@ public class GeoServerMetaTile extends MetaTile {
             }
         }
 
-        OutputStream outStream = target.getOutputStream();
-        try {
-            // call formatImageOuputStream instead of write to avoid disposition of rendered images
-            // when processing a tile from a metatile and instead defer it to this class' dispose()
-            // method
-            mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
-            return true;
-        } finally {
-            outStream.close();
-        }
+        // call formatImageOuputStream instead of write to avoid disposition of rendered images
+        // when processing a tile from a metatile and instead defer it to this class' dispose()
+        // method
+        mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
     }
 
     /**
@@ -145,7 +270,9 @@ public class GeoServerMetaTile extends MetaTile {
                     .create(metaTileImage, Float.valueOf(x), Float.valueOf(y),
                             Float.valueOf(tileWidth), Float.valueOf(tileHeight), NO_CACHE);
             tile = cropped.getAsBufferedImage();
-            disposeLater(cropped);
+            synchronized (this) {
+                disposeLater(cropped);
+            }
             break;
         case 1:
             final PlanarImage pImage = (PlanarImage) metaTileImage;
@@ -181,10 +308,61 @@ public class GeoServerMetaTile extends MetaTile {
 
     @Override
     public void dispose() {
+        if (encoded != null) {
+            // the background encoders are still using the meta tile image, wait for them
+            for (Future<byte[]> future : encoded) {
+                if (future != null && !future.cancel(false)) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        LOGGER.log(Level.FINE, "Tile encoding failed", e.getCause());
+                    }
+                }
+            }
+            encoded = null;
+        }
         if (metaTileMap != null) {
             metaTileMap.dispose();
             metaTileMap = null;
         }
         super.dispose();
     }
+
+    /**
+     * Returns the shared pool used to encode tiles in parallel, or {@code null} if parallel
+     * encoding is disabled
+     */
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            String value = GeoServerExtensions.getProperty(ENCODER_THREADS);
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + ENCODER_THREADS
+                            + ", using " + threads);
+                }
+            }
+            if (threads <= 1) {
+                return null;
+            }
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GWCMetaTileEncoder-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
 }
@@ -25,20 +25,24 @@ import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
+import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.styling.Style;
 import org.geotools.util.CanonicalSet;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
@@ -498,6 +502,10 @@ public class GeoServerTileLayer extends TileLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
+                    // encode the tiles in parallel while they are being stored
+                    final int zoomLevel = (int) tile.getTileIndex()[2];
+                    metaTile.startEncoding(tile.getTileIndex(),
+                            getExpireCache(zoomLevel) != GWCVars.CACHE_DISABLE_CACHE);
                     saveTiles(metaTile, tile);
                 } catch (Exception e) {
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
@@ -516,11 +524,26 @@ public class GeoServerTileLayer extends TileLayer {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
         WebMap map;
-        try {
-            HttpServletRequest actualRequest = tile.servletReq;
-            Cookie[] cookies = actualRequest == null ? null : actualRequest.getCookies();
 
-            GWC.get().dispatchOwsRequest(params, cookies);
+        final GWC gwc = GWC.get();
+        final HttpServletRequest actualRequest = tile.servletReq;
+        final Cookie[] cookies = actualRequest == null ? null : actualRequest.getCookies();
+        if (gwc.isDirectGetMapEnabled()) {
+            GetMapRequest request = buildGetMapRequest(tile, metaTile, params);
+            if (request != null) {
+                map = gwc.getMap(request, cookies);
+                if (!(map instanceof RenderedImageMap)) {
+                    if (map != null) {
+                        map.dispose();
+                    }
+                    throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
+                }
+                return (RenderedImageMap) map;
+            }
+        }
+
+        try {
+            gwc.dispatchOwsRequest(params, cookies);
             map = WEB_MAP.get();
             if (!(map instanceof RenderedImageMap)) {
                 throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
@@ -586,6 +609,107 @@ public class GeoServerTileLayer extends TileLayer {
         return params;
     }
 
+    /**
+     * Builds the GetMap request for a metatile out of the catalog objects backing this tile layer,
+     * so that it can be rendered without going through the OWS dispatcher.
+     * <p>
+     * Only the plain case is handled here: no parameter filters, default styles, no cascaded WMS
+     * layers and no time or elevation dimensions. If any of those is in play, or the layer cannot
+     * be found through the (secured) WMS catalog, {@code null} is returned and the request shall
+     * be dispatched as a KVP request instead.
+     * </p>
+     * 
+     * @param params
+     *            the KVP parameters of the equivalent GetMap request, as built by
+     *            {@link #buildGetMap(ConveyorTile, MetaTile)}
+     */
+    private GetMapRequest buildGetMapRequest(final ConveyorTile tile, final MetaTile metaTile,
+            final Map<String, String> params) throws Exception {
+
+        Map<String, String> filteredParams = tile.getFullParameters();
+        if (filteredParams.isEmpty()) {
+            filteredParams = getDefaultParameterFilters();
+        }
+        if (!filteredParams.isEmpty()) {
+            return null;
+        }
+
+        // look the layer up again through the secured catalog, as the dispatcher would do
+        final WMS wms = WMS.get();
+        final String name = getName();
+        List<LayerInfo> layers;
+        List<StyleInfo> layerStyles;
+        if (layerInfo != null) {
+            LayerInfo layer = wms.getLayerByName(name);
+            if (layer == null) {
+                return null;
+            }
+            layers = Collections.singletonList(layer);
+            layerStyles = Collections.singletonList(layer.getDefaultStyle());
+        } else {
+            LayerGroupInfo group = wms.getLayerGroupByName(name);
+            if (group == null) {
+                return null;
+            }
+            layers = group.getLayers();
+            layerStyles = group.getStyles();
+        }
+
+        List<MapLayerInfo> mapLayers = new ArrayList<MapLayerInfo>(layers.size());
+        List<Style> styles = new ArrayList<Style>(layers.size());
+        for (int i = 0; i < layers.size(); i++) {
+            LayerInfo layer = layers.get(i);
+            ResourceInfo resource = layer.getResource();
+            if (!layer.enabled() || resource instanceof WMSLayerInfo
+                    || isDimensionEnabled(resource, ResourceInfo.TIME)
+                    || isDimensionEnabled(resource, ResourceInfo.ELEVATION)) {
+                return null;
+            }
+
+            StyleInfo styleInfo = i < layerStyles.size() ? layerStyles.get(i) : null;
+            if (styleInfo == null) {
+                styleInfo = layer.getDefaultStyle();
+            }
+            if (styleInfo == null) {
+                return null;
+            }
+
+            mapLayers.add(new MapLayerInfo(layer));
+            styles.add(styleInfo.getStyle());
+        }
+
+        final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
+        final String srs = gridSubset.getSRS().toString();
+        final BoundingBox bbox = metaTile.getMetaTileBounds();
+
+        GetMapRequest request = new GetMapRequest();
+        request.setVersion("1.1.1");
+        request.setFormat(tile.getMimeType().getFormat());
+        request.setLayers(mapLayers);
+        request.setStyles(styles);
+        request.setSRS(srs);
+        request.setCrs(CRS.decode(srs));
+        request.setBbox(new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox
+                .getMaxY()));
+        request.setWidth(metaTile.getMetaTileWidth());
+        request.setHeight(metaTile.getMetaTileHeight());
+        request.setTransparent(true);
+        request.setExceptions(GetMapRequest.SE_XML);
+
+        // keep the raw parameters around for the code that looks at them, minus the token
+        // telling the seeding interceptor to swallow the response
+        Map<String, String> rawKvp = new HashMap<String, String>(params);
+        rawKvp.remove(GWC_SEED_INTERCEPT_TOKEN);
+        request.setRawKvp(rawKvp);
+
+        return request;
+    }
+
+    private static boolean isDimensionEnabled(ResourceInfo resource, String dimension) {
+        DimensionInfo info = resource.getMetadata().get(dimension, DimensionInfo.class);
+        return info != null && info.isEnabled();
+    }
+
     private boolean tryCacheFetch(ConveyorTile tile) {
         int expireCache = this.getExpireCache((int) tile.getTileIndex()[2]);
         if (expireCache != GWCVars.CACHE_DISABLE_CACHE) {
@@ -6,6 +6,9 @@ package org.geoserver.gwc;
 
 import static org.geoserver.data.test.MockData.BASIC_POLYGONS;
 import static org.geoserver.gwc.GWC.tileLayerName;
+
+import javax.xml.namespace.QName;
+
 import junit.framework.Test;
 
 import org.geoserver.catalog.Catalog;
@@ -13,6 +16,8 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.gwc.layer.CatalogConfiguration;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.impl.ServiceAccessRule;
+import org.geoserver.security.impl.ServiceAccessRuleDAO;
 import org.geoserver.test.GeoServerTestSupport;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.GeoWebCacheExtensions;
@@ -47,6 +52,61 @@ public class GWCIntegrationTest extends GeoServerTestSupport {
         assertEquals("image/png", sr.getContentType());
     }
 
+    public void testPngIntegrationDirectGetMap() throws Exception {
+        final GWC gwc = GWC.get();
+        assertFalse(gwc.isDirectGetMapEnabled());
+        gwc.setDirectGetMapEnabled(true);
+        try {
+            String layerId = getLayerId(MockData.LAKES);
+            MockHttpServletResponse sr = getAsServletResponse("gwc/service/wmts?request=GetTile&layer="
+                    + layerId
+                    + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=0");
+            assertEquals(200, sr.getErrorCode());
+            assertEquals("image/png", sr.getContentType());
+        } finally {
+            gwc.setDirectGetMapEnabled(false);
+        }
+    }
+
+    public void testServiceSecurity() throws Exception {
+        assertGetMapDenied(MockData.FORESTS);
+    }
+
+    public void testServiceSecurityDirectGetMap() throws Exception {
+        final GWC gwc = GWC.get();
+        gwc.setDirectGetMapEnabled(true);
+        try {
+            assertGetMapDenied(MockData.BRIDGES);
+        } finally {
+            gwc.setDirectGetMapEnabled(false);
+        }
+    }
+
+    /**
+     * Restricts wms.GetMap to a role nobody has, and checks the tiles of the layer cannot be
+     * rendered anonymously
+     */
+    void assertGetMapDenied(QName layer) throws Exception {
+        ServiceAccessRuleDAO dao = GeoServerExtensions.bean(ServiceAccessRuleDAO.class);
+        ServiceAccessRule rule = new ServiceAccessRule("wms", "GetMap", "ROLE_NOBODY");
+        dao.addRule(rule);
+        try {
+            MockHttpServletResponse sr;
+            try {
+                sr = getAsServletResponse("gwc/service/wmts?request=GetTile&layer="
+                        + getLayerId(layer)
+                        + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=0");
+            } catch (Exception e) {
+                // the security exception made it up to the servlet, fine
+                return;
+            }
+            assertFalse(200 == sr.getErrorCode());
+            assertFalse("image/png".equals(sr.getContentType()));
+        } finally {
+            dao.removeRule(rule);
+        }
+    }
+
     /**
      * If direct WMS integration is enabled, a GetMap requests that hits the regular WMS but matches
      * a gwc tile should return with the proper {@code geowebcache-tile-index} HTTP response header.
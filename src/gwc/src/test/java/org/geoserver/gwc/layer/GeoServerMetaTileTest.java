@@ -0,0 +1,173 @@
+/* Copyright (c) 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.geoserver.gwc.GWC;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.mime.MimeType;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class GeoServerMetaTileTest extends TestCase {
+
+    private GridSubset gridSubset;
+
+    private MimeType mimeType;
+
+    private BufferedImage image;
+
+    @Override
+    protected void setUp() throws Exception {
+        // an "encoder" writing out the raw pixels of the tile, so that tiles can be compared
+        RenderedImageMapResponse encoder = mock(RenderedImageMapResponse.class);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                RenderedImage tile = (RenderedImage) invocation.getArguments()[0];
+                DataOutputStream out = new DataOutputStream((OutputStream) invocation
+                        .getArguments()[1]);
+                Raster raster = tile.getData();
+                out.writeInt(raster.getWidth());
+                out.writeInt(raster.getHeight());
+                int[] pixels = raster.getPixels(raster.getMinX(), raster.getMinY(),
+                        raster.getWidth(), raster.getHeight(), (int[]) null);
+                for (int pixel : pixels) {
+                    out.writeInt(pixel);
+                }
+                out.flush();
+                return null;
+            }
+        }).when(encoder).formatImageOutputStream((RenderedImage) any(), (OutputStream) any(),
+                (WMSMapContent) any());
+
+        mimeType = MimeType.createFromFormat("image/png");
+        GWC mockGWC = mock(GWC.class);
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject()))
+                .thenReturn(encoder);
+        GWC.set(mockGWC);
+
+        GridSetBroker gridSetBroker = new GridSetBroker(true, false);
+        gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+
+        image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 31 + y * 7));
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GWC.set(null);
+    }
+
+    public void testParallelEncodingMatchesSynchronous() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        GeoServerMetaTile metaTile = createMetaTile();
+        try {
+            metaTile.startEncoding(new long[] { 0, 0, 1 }, true, executor);
+            // let all the tiles be encoded in the background
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            assertSameTiles(encodeSynchronously(), encode(metaTile));
+        } finally {
+            executor.shutdownNow();
+            metaTile.dispose();
+        }
+    }
+
+    public void testQueuedTilesEncodedByCaller() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        GeoServerMetaTile metaTile = createMetaTile();
+        try {
+            // keep the pool busy, the tiles stay queued and the caller has to encode them
+            executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    latch.await();
+                    return null;
+                }
+            });
+            metaTile.startEncoding(new long[] { 0, 0, 1 }, true, executor);
+
+            byte[][] tiles = encode(metaTile);
+            latch.countDown();
+
+            assertSameTiles(encodeSynchronously(), tiles);
+        } finally {
+            latch.countDown();
+            executor.shutdownNow();
+            metaTile.dispose();
+        }
+    }
+
+    private GeoServerMetaTile createMetaTile() {
+        GeoServerMetaTile metaTile = new GeoServerMetaTile(gridSubset, mimeType, null, new long[] {
+                0, 0, 1 }, 2, 2, 0);
+        assertEquals(image.getWidth(), metaTile.getMetaTileWidth());
+        assertEquals(image.getHeight(), metaTile.getMetaTileHeight());
+        metaTile.setWebMap(new RenderedImageMap(new WMSMapContent(), image, "image/png"));
+        return metaTile;
+    }
+
+    private byte[][] encodeSynchronously() throws Exception {
+        GeoServerMetaTile metaTile = createMetaTile();
+        try {
+            return encode(metaTile);
+        } finally {
+            metaTile.dispose();
+        }
+    }
+
+    private byte[][] encode(GeoServerMetaTile metaTile) throws Exception {
+        long[][] positions = metaTile.getTilesGridPositions();
+        byte[][] tiles = new byte[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            ByteArrayResource resource = new ByteArrayResource();
+            assertTrue(metaTile.writeTileToStream(i, resource));
+            tiles[i] = resource.getContents();
+        }
+        return tiles;
+    }
+
+    private void assertSameTiles(byte[][] expected, byte[][] actual) {
+        assertEquals(4, expected.length);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("tile " + i, expected[i].length > 8);
+            assertTrue("tile " + i, Arrays.equals(expected[i], actual[i]));
+        }
+        // and the tiles are actually different from each other
+        assertFalse(Arrays.equals(expected[0], expected[1]));
+    }
+}
@@ -33,6 +33,12 @@ public class AdvertisedResourceFilter extends AbstractCatalogFilter {
         }
     }
 
+    @Override
+    public boolean isActive() {
+        // non advertised objects are only hidden in capabilities documents
+        return isOgcCapabilitiesRequest();
+    }
+
     boolean isOgcCapabilitiesRequest() {
         Request request = Dispatcher.REQUEST.get();
         return request != null && "GetCapabilities".equalsIgnoreCase(request.getRequest());
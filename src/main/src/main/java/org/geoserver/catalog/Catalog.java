@@ -11,8 +11,11 @@ import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.event.impl.CatalogAddEventImpl;
 import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
 import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 /**
  * The GeoServer catalog which provides access to meta information about the 
@@ -1545,6 +1548,62 @@ public interface Catalog extends CatalogInfo {
      */
     WorkspaceInfo getWorkspaceByName( String name );
 
+    /**
+     * Returns the number of catalog objects of the requested type that match the given filter.
+     * <p>
+     * Filters are usually built with the {@link Predicates} factory methods.
+     * </p>
+     * @param of The type of catalog objects to count, may be an interface such as
+     *  {@link ResourceInfo} to count all the objects of its sub types.
+     * @param filter The query predicate, use {@link Filter#INCLUDE} to count all objects.
+     */
+    <T extends CatalogInfo> int count( Class<T> of, Filter filter );
+
+    /**
+     * Returns the single catalog object of the requested type that matches the given filter, or
+     * <code>null</code> if no object matches.
+     *
+     * @throws IllegalArgumentException If more than one object matches the filter.
+     */
+    <T extends CatalogInfo> T get( Class<T> type, Filter filter ) throws IllegalArgumentException;
+
+    /**
+     * Returns all the catalog objects of the requested type that match the given filter.
+     * <p>
+     * Shortcut for <code>list(of, filter, null, null, null)</code>.
+     * </p>
+     * @see #list(Class, Filter, Integer, Integer, SortBy)
+     */
+    <T extends CatalogInfo> CloseableIterator<T> list( Class<T> of, Filter filter );
+
+    /**
+     * Returns a page of the catalog objects of the requested type that match the given filter.
+     * <p>
+     * Unlike the <tt>getXXX()</tt> methods returning lists this method does not require the
+     * full set of objects to be loaded in memory, allowing clients such as paged user interfaces
+     * to work on very large catalogs. The returned iterator must be closed once it is no longer
+     * needed:
+     * <pre>
+     * CloseableIterator&lt;LayerInfo> layers = catalog.list(LayerInfo.class,
+     *     Predicates.equal("enabled", true), 0, 25, Predicates.asc("name"));
+     * try {
+     *     while(layers.hasNext()) {
+     *         ...
+     *     }
+     * } finally {
+     *     layers.close();
+     * }
+     * </pre>
+     * </p>
+     * @param of The type of catalog objects to return.
+     * @param filter The query predicate, use {@link Filter#INCLUDE} to return all objects.
+     * @param offset The number of matching objects to skip, or <code>null</code>.
+     * @param count The maximum number of objects to return, or <code>null</code> for no limit.
+     * @param sortBy The sort order, or <code>null</code> for an unspecified order.
+     */
+    <T extends CatalogInfo> CloseableIterator<T> list( Class<T> of, Filter filter,
+        Integer offset, Integer count, SortBy sortBy );
+
     /**
      * catalog listeners.
      * 
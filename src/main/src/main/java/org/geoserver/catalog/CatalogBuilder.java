@@ -18,7 +18,6 @@ import javax.media.jai.PlanarImage;
 
 import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
 import org.geoserver.catalog.impl.ModificationProxy;
-import org.geoserver.catalog.impl.ResourceInfoImpl;
 import org.geoserver.catalog.impl.StoreInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.catalog.impl.WMSStoreInfoImpl;
@@ -1429,7 +1428,7 @@ public class CatalogBuilder {
      */
     public void attach(ResourceInfo resourceInfo) {
         resourceInfo = ModificationProxy.unwrap(resourceInfo);
-        ((ResourceInfoImpl) resourceInfo).setCatalog(catalog);
+        resourceInfo.setCatalog(catalog);
     }
 
     /**
@@ -7,6 +7,9 @@ import java.util.List;
 
 import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.impl.DefaultCatalogFacade;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 /**
  * Data access facade for the catalog.
@@ -735,6 +738,50 @@ public interface CatalogFacade {
      */
     List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace);
 
+    //
+    // Queries
+    //
+    /**
+     * Returns the number of catalog objects of the requested type that match the given filter.
+     *
+     * @param of The type of catalog objects to count, may be an interface such as
+     *        {@link ResourceInfo} to count all the objects of its sub types.
+     * @param filter The query predicate, use {@link Filter#INCLUDE} to count all objects.
+     *
+     * @return The number of matching objects.
+     */
+    <T extends CatalogInfo> int count(Class<T> of, Filter filter);
+
+    /**
+     * Returns whether the facade is able to sort objects of the given type natively on the
+     * given property.
+     *
+     * @param type The type of catalog objects being queried.
+     * @param propertyName The property path to sort on.
+     */
+    boolean canSort(Class<? extends CatalogInfo> type, String propertyName);
+
+    /**
+     * Loads the catalog objects of the requested type that match the given filter.
+     * <p>
+     * The returned iterator must be closed by the caller once it is no longer needed.
+     * </p>
+     *
+     * @param of The type of catalog objects to return.
+     * @param filter The query predicate, use {@link Filter#INCLUDE} to return all objects.
+     * @param offset The number of matching objects to skip, or <code>null</code>.
+     * @param count The maximum number of objects to return, or <code>null</code> for no limit.
+     * @param sortOrder The sort order of the returned objects, or <code>null</code> for the
+     *        natural order of the facade.
+     *
+     * @return An iterator over the matching objects, possibly empty.
+     *
+     * @throws IllegalArgumentException If sorting was requested on a property the facade can
+     *         not sort on, see {@link #canSort(Class, String)}.
+     */
+    <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortOrder);
+
     /**
      * Disposes the dao.
      * <p>
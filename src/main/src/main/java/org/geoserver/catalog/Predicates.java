@@ -0,0 +1,141 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Factory methods for the filters used to query the catalog through
+ * {@link Catalog#list(Class, Filter, Integer, Integer, SortBy)} and
+ * {@link Catalog#count(Class, Filter)}.
+ * <p>
+ * Property names are java bean property paths relative to the queried object, using "." as the
+ * path separator, for example <tt>"resource.store.workspace.name"</tt> when querying layers.
+ * Multi valued properties (such as <tt>"styles.name"</tt>) match if any of their values match.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ * Filter filter = Predicates.and(Predicates.equal("resource.namespace.prefix", "topp"),
+ *     Predicates.equal("enabled", Boolean.TRUE));
+ * CloseableIterator&lt;LayerInfo> it = catalog.list(LayerInfo.class, filter, 0, 25,
+ *     Predicates.asc("name"));
+ * </pre>
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class Predicates {
+
+    static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    /**
+     * A filter matching all catalog objects.
+     */
+    public static Filter acceptAll() {
+        return Filter.INCLUDE;
+    }
+
+    /**
+     * A filter matching no catalog object.
+     */
+    public static Filter acceptNone() {
+        return Filter.EXCLUDE;
+    }
+
+    /**
+     * Filter matching objects whose <tt>property</tt> equals <tt>expected</tt>.
+     */
+    public static Filter equal(String property, Object expected) {
+        return ff.equals(ff.property(property), ff.literal(expected));
+    }
+
+    /**
+     * Case insensitive filter matching objects whose string <tt>property</tt> contains
+     * <tt>subsequence</tt>.
+     */
+    public static Filter contains(String property, String subsequence) {
+        String pattern = "*" + subsequence.replace("\\", "\\\\").replace("*", "\\*")
+                .replace("?", "\\?") + "*";
+        return ff.like(ff.property(property), pattern, "*", "?", "\\", false);
+    }
+
+    /**
+     * Filter matching objects whose <tt>property</tt> is <code>null</code>.
+     */
+    public static Filter isNull(String property) {
+        return ff.isNull(ff.property(property));
+    }
+
+    /**
+     * Logical conjunction of the specified filters.
+     */
+    public static Filter and(Filter... filters) {
+        List<Filter> list = flatten(filters, Filter.INCLUDE);
+        if (list.contains(Filter.EXCLUDE)) {
+            return Filter.EXCLUDE;
+        }
+        if (list.isEmpty()) {
+            return Filter.INCLUDE;
+        }
+        return list.size() == 1 ? list.get(0) : ff.and(list);
+    }
+
+    /**
+     * Logical disjunction of the specified filters.
+     */
+    public static Filter or(Filter... filters) {
+        List<Filter> list = flatten(filters, Filter.EXCLUDE);
+        if (list.contains(Filter.INCLUDE)) {
+            return Filter.INCLUDE;
+        }
+        if (list.isEmpty()) {
+            return Filter.EXCLUDE;
+        }
+        return list.size() == 1 ? list.get(0) : ff.or(list);
+    }
+
+    /**
+     * Logical negation of the specified filter.
+     */
+    public static Filter not(Filter filter) {
+        if (Filter.INCLUDE.equals(filter)) {
+            return Filter.EXCLUDE;
+        }
+        if (Filter.EXCLUDE.equals(filter)) {
+            return Filter.INCLUDE;
+        }
+        return ff.not(filter);
+    }
+
+    /**
+     * Ascending sort order on the specified property.
+     */
+    public static SortBy asc(String property) {
+        return ff.sort(property, SortOrder.ASCENDING);
+    }
+
+    /**
+     * Descending sort order on the specified property.
+     */
+    public static SortBy desc(String property) {
+        return ff.sort(property, SortOrder.DESCENDING);
+    }
+
+    static List<Filter> flatten(Filter[] filters, Filter neutral) {
+        List<Filter> list = new ArrayList<Filter>(Arrays.asList(filters));
+        while (list.remove(null));
+        while (list.remove(neutral));
+        return list;
+    }
+}
@@ -44,10 +44,13 @@ import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.catalog.util.BoundedCache;
+import org.geoserver.catalog.util.BoundedCache.EvictionPolicy;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.feature.retype.RetypingFeatureSource;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.data.DataAccess;
@@ -78,7 +81,6 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -143,6 +145,27 @@ public class ResourcePool {
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
     
+    /**
+     * Default maximum number of entries of the store, coverage reader and wms caches. These are
+     * unbounded unless configured, as evicting a store disposes it while other requests might
+     * still be using it.
+     */
+    static int STORE_CACHE_SIZE_DEFAULT = 0;
+    
+    /**
+     * Default maximum number of entries in the style cache
+     */
+    static int STYLE_CACHE_SIZE_DEFAULT = 1000;
+    
+    /**
+     * Prefix of the properties used to configure the caches, the maximum size of a cache is set 
+     * with <tt>org.geoserver.catalog.cache.&lt;cache name&gt;.maxSize</tt>, for instance
+     * <tt>org.geoserver.catalog.cache.dataStore.maxSize</tt>, the eviction policy (LRU or LFU) 
+     * of all caches with <tt>org.geoserver.catalog.cache.policy</tt>. A size of 0 or less makes
+     * the cache unbounded, which is the default for the store caches.
+     */
+    public static final String CACHE_PROPERTY_PREFIX = "org.geoserver.catalog.cache.";
+    
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
@@ -154,7 +177,7 @@ public class ResourcePool {
     WMSCache wmsCache;
     CoverageReaderCache coverageReaderCache;
     CoverageHintReaderCache hintCoverageReaderCache;
-    HashMap<StyleInfo,Style> styleCache;
+    StyleCache styleCache;
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
@@ -173,7 +196,7 @@ public class ResourcePool {
         
         wmsCache = new WMSCache();
         
-        styleCache = new HashMap<StyleInfo, Style>();
+        styleCache = new StyleCache();
         listeners = new CopyOnWriteArrayList<Listener>();
         
         catalog.addListener( new CacheClearingListener() );
@@ -182,18 +205,31 @@ public class ResourcePool {
     /**
      * Sets the size of the feature type cache.
      * <p>
-     * A warning that calling this method will blow away the existing cache.
+     * If the cache holds more feature types than the new size the exceeding ones are evicted.
      * </p>
      */
     public void setFeatureTypeCacheSize(int featureTypeCacheSize) {
         synchronized (this) {
-            featureTypeCache.clear();
-            featureTypeCache = new FeatureTypeCache(featureTypeCacheSize);
-            featureTypeAttributeCache.clear();
-            featureTypeAttributeCache = new FeatureTypeAttributeCache(featureTypeCacheSize);
+            featureTypeCache.setMaxSize(featureTypeCacheSize);
+            featureTypeAttributeCache.setMaxSize(featureTypeCacheSize);
         }
     }
     
+    /**
+     * Returns the resource caches, mostly to report their usage statistics.
+     */
+    public List<BoundedCache<?, ?>> getCaches() {
+        List<BoundedCache<?, ?>> caches = new ArrayList<BoundedCache<?, ?>>();
+        caches.add(dataStoreCache);
+        caches.add(featureTypeCache);
+        caches.add(featureTypeAttributeCache);
+        caches.add(coverageReaderCache);
+        caches.add(hintCoverageReaderCache);
+        caches.add(wmsCache);
+        caches.add(styleCache);
+        return caches;
+    }
+    
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -305,9 +341,11 @@ public class ResourcePool {
             String id = info.getId();
             dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
             if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
+                synchronized (dataStoreCache.lock(id)) {
+                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.peek( id );
                     if ( dataStore == null ) {
+                        long start = System.nanoTime();
+                        
                         //create data store
                         Map<String, Serializable> connectionParameters = info.getConnectionParameters();
                         
@@ -385,6 +423,7 @@ public class ResourcePool {
                         // harmful, NPE when trying to dispose of them)
                         if(id != null) {
                             dataStoreCache.put( id, dataStore );
+                            dataStoreCache.loaded(System.nanoTime() - start);
                         }
                     }
                 } 
@@ -472,9 +511,11 @@ public class ResourcePool {
         //check the cache
         List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
         if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
+            synchronized (featureTypeAttributeCache.lock(info.getId())) {
+                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.peek(info.getId());
                 if (atts == null) {
+                    long start = System.nanoTime();
+                    
                     //load from feature type
                     atts = loadAttributes(info);
                     
@@ -490,6 +531,7 @@ public class ResourcePool {
                     // cache attributes only if the id is not null -> the feature type is not new
                     if(info.getId() != null) {
                         featureTypeAttributeCache.put(info.getId(), atts);
+                        featureTypeAttributeCache.loaded(System.nanoTime() - start);
                     }
                 }
             }
@@ -624,9 +666,10 @@ public class ResourcePool {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
         FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
         if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
+            synchronized ( featureTypeCache.lock(info.getId()) ) {
+                ft = (FeatureType) featureTypeCache.peek( info.getId() );
                 if ( ft == null || !cacheable) {
+                    long start = System.nanoTime();
                     
                     //grab the underlying feature type
                     DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
@@ -706,6 +749,7 @@ public class ResourcePool {
                     
                     if(cacheable) {
                         featureTypeCache.put( info.getId(), ft );
+                        featureTypeCache.loaded(System.nanoTime() - start);
                     } else if(vtName != null) {
                         JDBCDataStore jstore = (JDBCDataStore) dataAccess;
                         jstore.removeVirtualTable(vtName);
@@ -1006,15 +1050,17 @@ public class ResourcePool {
             return reader;
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
+        synchronized ( hints != null ? hintCoverageReaderCache.lock(key) : coverageReaderCache.lock(key) ) {
         	if(key != null) {
 	            if (hints != null) {
-	                reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
+	                reader = (GridCoverageReader) hintCoverageReaderCache.peek(key);
 	            } else {
-	                reader = (GridCoverageReader) coverageReaderCache.get(key);
+	                reader = (GridCoverageReader) coverageReaderCache.peek(key);
 	            }
         	}
             if (reader == null) {
+                long start = System.nanoTime();
+                
                 /////////////////////////////////////////////////////////
                 //
                 // Getting coverage reader using the format and the real path.
@@ -1025,8 +1071,10 @@ public class ResourcePool {
                 reader = gridFormat.getReader(obj,hints);
                 if(hints != null) {
                     hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
+                    hintCoverageReaderCache.loaded(System.nanoTime() - start);
                 } else {
                     coverageReaderCache.put((String) key, reader);
+                    coverageReaderCache.loaded(System.nanoTime() - start);
                 }
             }
         }
@@ -1202,9 +1250,11 @@ public class ResourcePool {
             String id = info.getId();
             WebMapServer wms = (WebMapServer) wmsCache.get(id);
             if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
+                synchronized (wmsCache.lock(id)) {
+                    wms = (WebMapServer) wmsCache.peek(id);
                     if (wms == null) {
+                        long start = System.nanoTime();
+
                         HTTPClient client;
                         if (info.isUseConnectionPooling()) {
                             client = new MultithreadedHttpClient();
@@ -1229,6 +1279,7 @@ public class ResourcePool {
                         wms = new WebMapServer(serverURL, client);
                         
                         wmsCache.put(id, wms);
+                        wmsCache.loaded(System.nanoTime() - start);
                     }
                 }
             }
@@ -1285,9 +1336,10 @@ public class ResourcePool {
     public Style getStyle( StyleInfo info ) throws IOException {
         Style style = styleCache.get( info );
         if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
+            synchronized (styleCache.lock(info)) {
+                style = styleCache.peek( info );
                 if ( style == null ) {
+                    long start = System.nanoTime();
                     
                     //JD: it is important that we call the SLDParser(File) constructor because
                     // if not the sourceURL will not be set which will mean it will fail to 
@@ -1303,6 +1355,7 @@ public class ResourcePool {
                     // remove this when wms works off style info
                     style.setName( info.getName() );
                     styleCache.put( info, style );
+                    styleCache.loaded(System.nanoTime() - start);
                 }
             }
         }
@@ -1433,63 +1486,75 @@ public class ResourcePool {
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The maximum size of the cache can be overridden with the 
+     * <tt>org.geoserver.catalog.cache.&lt;name&gt;.maxSize</tt> property, see 
+     * {@link ResourcePool#CACHE_PROPERTY_PREFIX}. 
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends BoundedCache<K, V> {
 
-        public CatalogResourceCache() {
-            this(100);
+        public CatalogResourceCache(String name) {
+            this(name, STORE_CACHE_SIZE_DEFAULT);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
-
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
-                }
-            };
+        public CatalogResourceCache(String name, int maxSize) {
+            super(name, cacheSize(name, maxSize), cachePolicy());
         }
 
-        @Override
-        public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, (V) object);
+        protected abstract void dispose(K key, V object);
+    }
+    
+    static int cacheSize(String name, int defaultSize) {
+        String value = GeoServerExtensions.getProperty(CACHE_PROPERTY_PREFIX + name + ".maxSize");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch(NumberFormatException e) {
+                LOGGER.warning("Invalid size '" + value + "' for cache " + name + ", using " 
+                    + defaultSize);
             }
-            return object;
         }
-
-        @Override
-        public void clear() {
-            for (Entry entry : entrySet()) {
-                dispose((K) entry.getKey(), (V) entry.getValue());
+        return defaultSize;
+    }
+    
+    static EvictionPolicy cachePolicy() {
+        String value = GeoServerExtensions.getProperty(CACHE_PROPERTY_PREFIX + "policy");
+        if (value != null) {
+            try {
+                return EvictionPolicy.valueOf(value.trim().toUpperCase());
+            } catch(IllegalArgumentException e) {
+                LOGGER.warning("Invalid cache eviction policy '" + value + "', using LRU");
             }
-            super.clear();
         }
-
-        protected abstract void dispose(K key, V object);
+        return EvictionPolicy.LRU;
     }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super("featureType", maxSize);
         }
         
         protected void dispose(String id, FeatureType featureType) {
         	FeatureTypeInfo info = catalog.getFeatureType(id);
-            LOGGER.info( "Disposing feature type '" + info.getName() + "'");
-            fireDisposed(info, featureType);
+        	if (info != null) {
+                LOGGER.info( "Disposing feature type '" + info.getName() + "'");
+                fireDisposed(info, featureType);
+        	}
         }
     }
     
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+        
+        DataStoreCache() {
+            super("dataStore");
+        }
     	
         protected void dispose(String id, DataAccess da) {
         	DataStoreInfo info = catalog.getDataStore(id);
@@ -1512,6 +1577,10 @@ public class ResourcePool {
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
         
+        CoverageReaderCache() {
+            super("coverageReader");
+        }
+        
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
         	if(info != null) {
@@ -1532,6 +1601,10 @@ public class ResourcePool {
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
         
+        CoverageHintReaderCache() {
+            super("coverageHintReader");
+        }
+        
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
         	if(info != null) {
@@ -1601,7 +1674,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttribute", size);
         }
 
         @Override
@@ -1612,6 +1685,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        WMSCache() {
+            super("wms");
+        }
+
         @Override
         protected void dispose(String key, WebMapServer object) {
             // nothing to do
@@ -1619,6 +1696,18 @@ public class ResourcePool {
 
     }
     
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+
+        StyleCache() {
+            super("style", STYLE_CACHE_SIZE_DEFAULT);
+        }
+
+        @Override
+        protected void dispose(StyleInfo key, Style object) {
+            // nothing to do
+        }
+    }
+    
     /**
      * Listens to catalog events clearing cache entires when resources are modified.
      */
@@ -54,12 +54,15 @@ import org.geoserver.catalog.event.impl.CatalogAddEventImpl;
 import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
 import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
 import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.ows.util.ClassProperties;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 /**
  * A default catalog implementation that is memory based.
@@ -1223,6 +1226,42 @@ public class CatalogImpl implements Catalog {
         return detached(style, facade.detach(style));
     }
 
+    // Query methods
+    public <T extends CatalogInfo> int count(Class<T> of, Filter filter) {
+        return facade.count(of, filter);
+    }
+
+    public <T extends CatalogInfo> T get(Class<T> type, Filter filter)
+            throws IllegalArgumentException {
+        CloseableIterator<T> it = list(type, filter, null, 2, null);
+        try {
+            if (!it.hasNext()) {
+                return null;
+            }
+            T result = it.next();
+            if (it.hasNext()) {
+                throw new IllegalArgumentException("Specified query predicate resulted in more "
+                        + "than one object");
+            }
+            return result;
+        } finally {
+            it.close();
+        }
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter) {
+        return list(of, filter, null, null, null);
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortBy) {
+        if (sortBy != null && !facade.canSort(of, sortBy.getPropertyName().getPropertyName())) {
+            throw new IllegalArgumentException("Can't sort objects of type " + of.getName()
+                    + " by " + sortBy.getPropertyName().getPropertyName());
+        }
+        return facade.list(of, filter == null ? Filter.INCLUDE : filter, offset, count, sortBy);
+    }
+
     // Event methods
     public Collection getListeners() {
         return Collections.unmodifiableCollection(listeners);
@@ -0,0 +1,382 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.geoserver.catalog.CatalogInfo;
+
+/**
+ * In memory store for catalog objects of a single type, indexed by id, by name and by any number
+ * of additional keys such as the containing workspace or store.
+ * <p>
+ * Objects are kept in insertion order. Index keys are computed by {@link Indexer} instances when
+ * an object is added and recomputed when {@link #reindex(CatalogInfo)} is called, which has to
+ * happen every time a property contributing to a key is modified. All operations are guarded by
+ * a read/write lock so that lookups do not block each other.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class CatalogInfoLookup<T extends CatalogInfo> implements Iterable<T> {
+
+    /**
+     * Computes the keys an object is indexed by.
+     */
+    public static abstract class Indexer<T> {
+
+        /**
+         * Returns the keys for the object, possibly empty. Keys must have stable equals/hashCode.
+         */
+        public abstract Collection<?> keys(T info);
+
+        /**
+         * Helper returning a single key.
+         */
+        protected static Collection<?> key(Object key) {
+            return Collections.singletonList(key);
+        }
+    }
+
+    /**
+     * Indexer for the "name" property.
+     */
+    public static final Indexer<CatalogInfo> NAME = new Indexer<CatalogInfo>() {
+        public Collection<?> keys(CatalogInfo info) {
+            try {
+                return key(CatalogPropertyAccessor.property(info, "name"));
+            } catch (IllegalArgumentException e) {
+                //name derived from an unset property, such as a layer without a resource
+                return key(null);
+            }
+        }
+    };
+
+    /**
+     * Key under which objects are indexed when their key is <code>null</code>, for instance
+     * styles and layer groups that are not contained in a workspace.
+     */
+    public static final Object NULL_KEY = new Object() {
+        public String toString() {
+            return "NULL_KEY";
+        }
+    };
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * objects by id, also defines the iteration order. Objects without an id, for instance those
+     * just read from persistence, are keyed by identity
+     */
+    final Map<Object, T> byId = new LinkedHashMap<Object, T>();
+
+    /**
+     * secondary indexes, by index name
+     */
+    final Map<String, Index<T>> indexes = new LinkedHashMap<String, Index<T>>();
+
+    public CatalogInfoLookup() {
+        addIndex("name", (Indexer) NAME);
+    }
+
+    /**
+     * Registers a secondary index, must be called before any object is added.
+     */
+    public CatalogInfoLookup<T> addIndex(String name, Indexer<? super T> indexer) {
+        lock.writeLock().lock();
+        try {
+            indexes.put(name, new Index<T>(indexer));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Adds an object, replacing any object with the same id.
+     */
+    public void add(T info) {
+        lock.writeLock().lock();
+        try {
+            T old = byId.put(idKey(info), info);
+            for (Index<T> index : indexes.values()) {
+                if (old != null) {
+                    index.remove(old);
+                }
+                index.add(info);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an object, returning true if it was found.
+     */
+    public boolean remove(T info) {
+        lock.writeLock().lock();
+        try {
+            T removed = byId.remove(idKey(info));
+            if (removed == null) {
+                //id may have changed, look up by identity
+                for (Iterator<T> it = byId.values().iterator(); it.hasNext(); ) {
+                    T candidate = it.next();
+                    if (candidate == info) {
+                        it.remove();
+                        removed = candidate;
+                        break;
+                    }
+                }
+            }
+            if (removed != null) {
+                for (Index<T> index : indexes.values()) {
+                    index.remove(removed);
+                }
+            }
+            return removed != null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Recomputes the index keys of an object after it has been modified.
+     */
+    public void reindex(T info) {
+        lock.writeLock().lock();
+        try {
+            if (byId.get(idKey(info)) != info) {
+                //id may have changed, re-key the object
+                boolean found = false;
+                for (Iterator<T> it = byId.values().iterator(); it.hasNext(); ) {
+                    if (it.next() == info) {
+                        it.remove();
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return;
+                }
+                byId.put(idKey(info), info);
+            }
+            for (Index<T> index : indexes.values()) {
+                index.remove(info);
+                index.add(info);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds all the indexes from scratch.
+     */
+    public void reindex() {
+        lock.writeLock().lock();
+        try {
+            List<T> all = new ArrayList<T>(byId.values());
+            byId.clear();
+            for (Index<T> index : indexes.values()) {
+                index.clear();
+            }
+            for (T info : all) {
+                byId.put(idKey(info), info);
+                for (Index<T> index : indexes.values()) {
+                    index.add(info);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the object with the specified id, or <code>null</code>.
+     */
+    public T findById(String id) {
+        if (id == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if a secondary index with the specified name has been registered.
+     */
+    public boolean hasIndex(String index) {
+        lock.readLock().lock();
+        try {
+            return indexes.containsKey(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the objects with the specified name, in insertion order.
+     */
+    public List<T> findByName(String name) {
+        return find("name", name);
+    }
+
+    /**
+     * Returns the objects matching a key in the specified secondary index, in insertion order.
+     */
+    public List<T> find(String index, Object key) {
+        lock.readLock().lock();
+        try {
+            Index<T> idx = indexes.get(index);
+            if (idx == null) {
+                throw new IllegalArgumentException("No such index: " + index);
+            }
+            return idx.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of all the objects, in insertion order.
+     */
+    public List<T> values() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<T>(byId.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the objects, concurrent modifications are not reflected.
+     */
+    public Iterator<T> iterator() {
+        return values().iterator();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            byId.clear();
+            for (Index<T> index : indexes.values()) {
+                index.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static Object idKey(CatalogInfo info) {
+        String id = info.getId();
+        return id != null ? id : new IdentityKey(info);
+    }
+
+    /**
+     * Key for objects that have no id yet.
+     */
+    static class IdentityKey {
+
+        Object object;
+
+        IdentityKey(Object object) {
+            this.object = object;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof IdentityKey && ((IdentityKey) obj).object == object;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+    }
+
+    /**
+     * A multi valued index, remembering the keys each object was indexed with so that it can be
+     * removed even after the properties the keys derive from have changed.
+     */
+    static class Index<T> {
+
+        Indexer<? super T> indexer;
+
+        Map<Object, List<T>> entries = new HashMap<Object, List<T>>();
+
+        Map<T, Collection<?>> keys = new IdentityHashMap<T, Collection<?>>();
+
+        Index(Indexer<? super T> indexer) {
+            this.indexer = indexer;
+        }
+
+        void add(T info) {
+            Collection<?> k = indexer.keys(info);
+            keys.put(info, k);
+            for (Object key : k) {
+                key = key != null ? key : NULL_KEY;
+                List<T> list = entries.get(key);
+                if (list == null) {
+                    list = new ArrayList<T>(1);
+                    entries.put(key, list);
+                }
+                list.add(info);
+            }
+        }
+
+        void remove(T info) {
+            Collection<?> k = keys.remove(info);
+            if (k == null) {
+                return;
+            }
+            for (Object key : k) {
+                key = key != null ? key : NULL_KEY;
+                List<T> list = entries.get(key);
+                if (list != null) {
+                    for (Iterator<T> it = list.iterator(); it.hasNext(); ) {
+                        if (it.next() == info) {
+                            it.remove();
+                        }
+                    }
+                    if (list.isEmpty()) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+
+        List<T> get(Object key) {
+            List<T> list = entries.get(key != null ? key : NULL_KEY);
+            return list != null ? new ArrayList<T>(list) : new ArrayList<T>(0);
+        }
+
+        void clear() {
+            entries.clear();
+            keys.clear();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.Info;
+import org.geoserver.ows.util.OwsUtils;
+import org.geotools.filter.expression.PropertyAccessor;
+import org.geotools.util.Converters;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Property accessor allowing filters to be evaluated against catalog objects.
+ * <p>
+ * Property names are java bean property paths separated by "." or "/". When a path goes through
+ * a collection (for instance <tt>"styles.name"</tt> on a layer) the values of all the elements
+ * are collected and returned as a list, which filters treat as a multi valued property. Map
+ * properties such as <tt>"metadata.cachingEnabled"</tt> are resolved by key.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class CatalogPropertyAccessor implements PropertyAccessor {
+
+    public boolean canHandle(Object object, String xpath, Class<?> target) {
+        return object instanceof Info;
+    }
+
+    public <T> T get(Object object, String xpath, Class<T> target)
+            throws IllegalArgumentException {
+        Object value = getProperty(object, xpath);
+        if (target == null || value == null || value instanceof List) {
+            return (T) value;
+        }
+        T converted = Converters.convert(value, target);
+        return converted != null ? converted : (T) value;
+    }
+
+    public <T> void set(Object object, String xpath, T value, Class<T> target)
+            throws IllegalArgumentException {
+        OwsUtils.set(object, xpath.replace('/', '.'), value);
+    }
+
+    /**
+     * Evaluates a property path against an object, returning <code>null</code> if any of the
+     * properties along the path are unset or unknown.
+     */
+    public static Object getProperty(Object object, String propertyPath) {
+        String[] props = propertyPath.replace('/', '.').split("\\.");
+
+        List<Object> current = new ArrayList<Object>(1);
+        current.add(object);
+        boolean multiValued = false;
+
+        for (String prop : props) {
+            List<Object> next = new ArrayList<Object>(current.size());
+            for (Object o : current) {
+                Object value = property(o, prop);
+                if (value instanceof Collection) {
+                    multiValued = true;
+                    next.addAll((Collection) value);
+                } else if (value != null) {
+                    next.add(value);
+                }
+            }
+            current = next;
+            if (current.isEmpty()) {
+                return multiValued ? current : null;
+            }
+        }
+
+        if (multiValued) {
+            return current;
+        }
+        return current.get(0);
+    }
+
+    static Object property(Object object, String prop) {
+        if (object == null) {
+            return null;
+        }
+        if (object instanceof Map) {
+            return ((Map) object).get(prop);
+        }
+        Method g = OwsUtils.getter(object.getClass(), prop, null);
+        if (g == null) {
+            return null;
+        }
+        try {
+            return g.invoke(object, (Object[]) null);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unable to evaluate property '" + prop
+                    + "' on " + object, e);
+        }
+    }
+
+    /**
+     * Determines if objects of the specified type can be sorted on a property path, that is if
+     * all the properties along the path are single valued and the last one is comparable.
+     */
+    public static boolean isSortable(Class<?> type, String propertyPath) {
+        Class<?> clazz = type;
+        for (String prop : propertyPath.replace('/', '.').split("\\.")) {
+            Method getter = OwsUtils.getter(clazz, prop, null);
+            if (getter == null) {
+                return false;
+            }
+            clazz = getter.getReturnType();
+        }
+        return clazz.isPrimitive() || Comparable.class.isAssignableFrom(clazz);
+    }
+
+    /**
+     * Returns a comparator sorting catalog objects on the property of the specified sort order,
+     * <code>null</code> values sorting first.
+     */
+    public static <T> Comparator<T> comparator(SortBy sortBy) {
+        return new PropertyComparator<T>(sortBy);
+    }
+
+    /**
+     * Compares catalog objects by the value of one of their properties, <code>null</code> 
+     * values sorting first.
+     */
+    static class PropertyComparator<T> implements Comparator<T> {
+        
+        String property;
+        boolean ascending;
+        
+        PropertyComparator(SortBy sortBy) {
+            this.property = sortBy.getPropertyName().getPropertyName();
+            this.ascending = sortBy.getSortOrder() != SortOrder.DESCENDING;
+        }
+        
+        public int compare(T o1, T o2) {
+            Comparable v1 = (Comparable) getProperty(o1, property);
+            Comparable v2 = (Comparable) getProperty(o2, property);
+            
+            int result;
+            if (v1 == null) {
+                result = v2 == null ? 0 : -1;
+            }
+            else if (v2 == null) {
+                result = 1;
+            }
+            else {
+                result = v1.compareTo(v2);
+            }
+            return ascending ? result : -result;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import org.geoserver.catalog.Info;
+import org.geotools.factory.Hints;
+import org.geotools.filter.expression.PropertyAccessor;
+import org.geotools.filter.expression.PropertyAccessorFactory;
+
+/**
+ * Factory for {@link CatalogPropertyAccessor}, registered through the GeoTools SPI mechanism
+ * so that filters can be evaluated directly against catalog objects.
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class CatalogPropertyAccessorFactory implements PropertyAccessorFactory {
+
+    static final CatalogPropertyAccessor INSTANCE = new CatalogPropertyAccessor();
+
+    public PropertyAccessor createPropertyAccessor(Class<?> type, String xpath,
+            Class<?> target, Hints hints) {
+        if (type != null && Info.class.isAssignableFrom(type)) {
+            return INSTANCE;
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package org.geoserver.catalog.impl;
 
+import java.io.Closeable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -7,6 +8,7 @@ import java.rmi.server.UID;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,9 +16,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
 import org.geoserver.catalog.CatalogInfo;
@@ -34,8 +34,17 @@ import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.util.ClassProperties;
 import org.geoserver.ows.util.OwsUtils;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
 
 /**
  * Default catalog facade implementation in which all objects are stored in memory.
@@ -72,9 +81,9 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     /**
-     * Contains the stores keyed by implementation class
+     * stores, indexed by workspace
      */
-    protected MultiHashMap/* <Class> */stores = new MultiHashMap();
+    protected CatalogInfoLookup<StoreInfo> stores = newStoreLookup();
     
     /**
      * The default store keyed by workspace id
@@ -82,9 +91,9 @@ public class DefaultCatalogFacade implements CatalogFacade {
     protected Map<String, DataStoreInfo> defaultStores = new HashMap<String, DataStoreInfo>();
 
     /**
-     * resources
+     * resources, indexed by store and namespace
      */
-    protected MultiHashMap/* <Class> */resources = new MultiHashMap();
+    protected CatalogInfoLookup<ResourceInfo> resources = newResourceLookup();
 
     /**
      * namespaces
@@ -96,28 +105,25 @@ public class DefaultCatalogFacade implements CatalogFacade {
      */
     protected HashMap<String, WorkspaceInfo> workspaces = new HashMap<String, WorkspaceInfo>();
     
-    //JD: Using a CopyOnWriteArrayList is a temporary measure here to deal with some 
-    // concurrency issues around layer access. See GEOS-4404. Long term solution is to us
-    // concurrent collections (set and map) for all the collections in this class
     /**
-     * layers
+     * layers, indexed by resource and style
      */
-    protected List<LayerInfo> layers = new CopyOnWriteArrayList<LayerInfo>();
+    protected CatalogInfoLookup<LayerInfo> layers = newLayerLookup();
 
     /**
      * maps
      */
-    protected List<MapInfo> maps = new ArrayList<MapInfo>();
+    protected CatalogInfoLookup<MapInfo> maps = newMapLookup();
 
     /**
-     * layer groups
+     * layer groups, indexed by workspace
      */
-    protected List<LayerGroupInfo> layerGroups = new CopyOnWriteArrayList<LayerGroupInfo>();
+    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = newLayerGroupLookup();
     
     /**
-     * styles
+     * styles, indexed by workspace
      */
-    protected List<StyleInfo> styles = new CopyOnWriteArrayList<StyleInfo>();
+    protected CatalogInfoLookup<StyleInfo> styles = newStyleLookup();
 
     /**
      * the catalog
@@ -141,18 +147,12 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public StoreInfo add(StoreInfo store) {
         resolve(store);
-        synchronized(stores) {
-            stores.put(store.getClass(), store);
-        }
+        stores.add(store);
         return ModificationProxy.create(store, StoreInfo.class);
     }
     
     public void remove(StoreInfo store) {
-        store = unwrap(store);
-
-        synchronized(stores) {
-            stores.remove(store.getClass(),store);
-        }
+        stores.remove(unwrap(store));
     }
     
     public void save(StoreInfo store) {
@@ -164,12 +164,9 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
 
     public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
-        List l = lookup(clazz, stores);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            StoreInfo store = (StoreInfo) i.next();
-            if (id.equals(store.getId())) {
-                return ModificationProxy.create( (T) store, clazz );
-            }
+        StoreInfo store = stores.findById(id);
+        if (clazz.isInstance(store)) {
+            return ModificationProxy.create( (T) store, clazz );
         }
 
         return null;
@@ -178,27 +175,17 @@ public class DefaultCatalogFacade implements CatalogFacade {
     public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace,
             String name, Class<T> clazz) {
         
-        List l = lookup(clazz, stores);
+        List<T> l = filter(stores.findByName(name), clazz);
         if (workspace == ANY_WORKSPACE) {
             //do an exhaustive search through all workspaces
-            ArrayList matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                T store = (T) i.next();
-                if ( name.equals( store.getName() ) ) {
-                    matches.add( store );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz);
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), clazz);
             }
         }
         else {
-            
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                StoreInfo store = (StoreInfo) i.next();
-                if (name.equals(store.getName()) && store.getWorkspace().equals( workspace )) {
-                    return ModificationProxy.create( (T) store, clazz );
+            for (T store : l) {
+                if (store.getWorkspace().equals( workspace )) {
+                    return ModificationProxy.create( store, clazz );
                 }
             }
         }
@@ -213,22 +200,16 @@ public class DefaultCatalogFacade implements CatalogFacade {
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
         }
-
-        List all = lookup(clazz, stores);
-        List matches = new ArrayList();
-
-        for (Iterator s = all.iterator(); s.hasNext();) {
-            StoreInfo store = (StoreInfo) s.next();
-            if (workspace.equals(store.getWorkspace())) {
-                matches.add(store);
-            }
+        if ( workspace == null ) {
+            return Collections.emptyList();
         }
 
+        List<T> matches = filter(stores.find("workspace", workspace.getId()), clazz);
         return ModificationProxy.createList(matches,clazz);
     }
     
     public List getStores(Class clazz) {
-        return ModificationProxy.createList(lookup(clazz, stores) , clazz);
+        return ModificationProxy.createList(filter(stores.values(), clazz) , clazz);
     }
     
     public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
@@ -261,21 +242,22 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public ResourceInfo add(ResourceInfo resource) {
         resolve(resource);
-        synchronized(resources) {
-            resources.put(resource.getClass(), resource);
-        }
+        resources.add(resource);
         return ModificationProxy.create(resource, ResourceInfo.class);
     }
     
     public void remove(ResourceInfo resource) {
-        resource = unwrap(resource);
-        synchronized(resources) {
-            resources.remove(resource.getClass(), resource);
-        }
+        resources.remove(unwrap(resource));
     }
     
    
     public void save(ResourceInfo resource) {
+        //keep lazily loaded resources around once modified, the changes would be lost if the
+        // resource was evicted before being persisted
+        LazyResourceProxy lazy = LazyResourceProxy.handler(unwrap(resource));
+        if (lazy != null) {
+            lazy.pin();
+        }
         saved(resource);
     }
     
@@ -284,12 +266,9 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
-        List l = lookup(clazz, resources);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) i.next();
-            if (id.equals(resource.getId())) {
-                return ModificationProxy.create((T) resource, clazz );
-            }
+        ResourceInfo resource = resources.findById(id);
+        if (clazz.isInstance(resource)) {
+            return ModificationProxy.create((T) resource, clazz );
         }
 
         return null;
@@ -297,30 +276,19 @@ public class DefaultCatalogFacade implements CatalogFacade {
     
     public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name, Class<T> clazz) {
         
-        List l = lookup(clazz, resources);
+        List<T> l = filter(resources.findByName(name), clazz);
         
         if (namespace == ANY_NAMESPACE) {
             //do an exhaustive lookup
-            List matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    matches.add( resource );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz );
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), clazz );
             }
         }
         else {
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    NamespaceInfo namespace1 = resource.getNamespace();
-                    if (namespace1 != null && namespace1.equals( namespace )) {
-                            return ModificationProxy.create( (T) resource, clazz );
-                    }
+            for (T resource : l) {
+                NamespaceInfo namespace1 = resource.getNamespace();
+                if (namespace1 != null && namespace1.equals( namespace )) {
+                        return ModificationProxy.create( resource, clazz );
                 }
             }
         }
@@ -329,41 +297,26 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
  
     public List getResources(Class clazz) {
-        return ModificationProxy.createList( lookup(clazz,resources), clazz );
+        return ModificationProxy.createList( filter(resources.values(), clazz), clazz );
     }
     
     public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
         //TODO: support ANY_NAMESPACE?
         
-        List all = lookup(clazz, resources);
-        List matches = new ArrayList();
-
         if ( namespace == null ) {
             namespace = getDefaultNamespace();
         }
 
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (namespace != null ) {
-                if (namespace.equals(resource.getNamespace())) {
-                    matches.add( resource );
-                }
-            }
-            else if ( resource.getNamespace() == null ) {
-                matches.add(resource);
-            }
-        }
-
+        List matches = filter(resources.find("namespace", 
+            namespace != null ? namespace.getId() : null), clazz);
         return ModificationProxy.createList( matches, clazz );
     }
     
     public <T extends ResourceInfo> T getResourceByStore(StoreInfo store,
             String name, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        for (Iterator r = all.iterator(); r.hasNext(); ) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if ( name.equals( resource.getName() ) && store.equals( resource.getStore() ) ) {
-                return ModificationProxy.create((T)resource, clazz);
+        for (T resource : filter(resources.findByName(name), clazz)) {
+            if ( store.equals( resource.getStore() ) ) {
+                return ModificationProxy.create(resource, clazz);
             }
         }
         
@@ -372,16 +325,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        List matches = new ArrayList();
-        
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (store.equals(resource.getStore())) {
-                matches.add(resource);
-            }
-        }
-
+        List<T> matches = filter(resources.find("store", store.getId()), clazz);
         return  ModificationProxy.createList( matches, clazz );
     }
     
@@ -408,49 +352,28 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public LayerInfo getLayer(String id) {
-        for (LayerInfo layer : layers) {
-            if (id.equals(layer.getId())) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-
-        return null;
+        LayerInfo layer = layers.findById(id);
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
     
     public LayerInfo getLayerByName(String name) {
-        for (LayerInfo layer : layers) {
-            if ( name.equals( layer.getName() ) ) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-      
-        return null;
+        List<LayerInfo> matches = layers.findByName(name);
+        return !matches.isEmpty() ? ModificationProxy.create( matches.get(0), LayerInfo.class ) 
+            : null;
     }
     
     public List<LayerInfo> getLayers(ResourceInfo resource) {
-        List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( resource.equals( layer.getResource() ) ) {
-                matches.add( layer );
-            }
-        }
-
+        List<LayerInfo> matches = layers.find("resource", resource.getId());
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
     
     public List<LayerInfo> getLayers(StyleInfo style) {
-        List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
-                matches.add( layer );
-            }
-        }
-
+        List<LayerInfo> matches = layers.find("style", style.getId());
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
     
     public List<LayerInfo> getLayers() {
-        return ModificationProxy.createList( new ArrayList(layers), LayerInfo.class );
+        return ModificationProxy.createList( layers.values(), LayerInfo.class );
     }
     
     //
@@ -458,17 +381,13 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public MapInfo add(MapInfo map) {
         resolve(map);
-        synchronized(maps) {
-            maps.add(map);
-        }
+        maps.add(map);
         
         return ModificationProxy.create(map, MapInfo.class);
     }
 
     public void remove(MapInfo map) {
-        synchronized(maps) {
-            maps.remove(unwrap(map));
-        }
+        maps.remove(unwrap(map));
     }
 
     public void save(MapInfo map) {
@@ -480,27 +399,17 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public MapInfo getMap(String id) {
-        for (MapInfo map : maps) {
-            if (id.equals(map.getId())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        MapInfo map = maps.findById(id);
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
 
     public MapInfo getMapByName(String name) {
-        for (MapInfo map : maps) {
-            if (name.equals(map.getName())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        List<MapInfo> matches = maps.findByName(name);
+        return !matches.isEmpty() ? ModificationProxy.create(matches.get(0),MapInfo.class) : null;
     }
     
     public List<MapInfo> getMaps() {
-        return ModificationProxy.createList( new ArrayList(maps), MapInfo.class );
+        return ModificationProxy.createList( maps.values(), MapInfo.class );
     }
     
     //
@@ -508,9 +417,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public LayerGroupInfo add (LayerGroupInfo layerGroup) {
         resolve(layerGroup);
-        synchronized(layerGroups) {
-            layerGroups.add( layerGroup );
-        }
+        layerGroups.add( layerGroup );
         return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
     }
     
@@ -518,9 +425,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
      * @see org.geoserver.catalog.impl.CatalogDAO#remove(org.geoserver.catalog.LayerGroupInfo)
      */
     public void remove(LayerGroupInfo layerGroup) {
-        synchronized(layerGroups) {
-            layerGroups.remove( unwrap(layerGroup) );
-        }
+        layerGroups.remove( unwrap(layerGroup) );
     }
     
     /* (non-Javadoc)
@@ -535,7 +440,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public List<LayerGroupInfo> getLayerGroups() {
-        return ModificationProxy.createList( new ArrayList(layerGroups), LayerGroupInfo.class );
+        return ModificationProxy.createList( layerGroups.values(), LayerGroupInfo.class );
     }
 
 
@@ -545,36 +450,20 @@ public class DefaultCatalogFacade implements CatalogFacade {
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
         }
-
-        List<LayerGroupInfo> matches = new ArrayList();
-
-        for (Iterator s = layerGroups.iterator(); s.hasNext();) {
-            LayerGroupInfo layerGroup = (LayerGroupInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = layerGroup.getWorkspace() == null;
-            }
-            else {
-                match = workspace.equals(layerGroup.getWorkspace());
-            }
-            if (match) {
-                matches.add(layerGroup);
-            }
+        if ( workspace == null ) {
+            return Collections.emptyList();
         }
 
-
+        List<LayerGroupInfo> matches = layerGroups.find("workspace", 
+            workspace == NO_WORKSPACE ? null : workspace.getId());
         return ModificationProxy.createList(matches,LayerGroupInfo.class);
 
     }
 
     public LayerGroupInfo getLayerGroup(String id) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( id.equals( layerGroup.getId() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
-            }
-        }
-        
-        return null;
+        LayerGroupInfo layerGroup = layerGroups.findById(id);
+        return layerGroup != null ? 
+            ModificationProxy.create(layerGroup,LayerGroupInfo.class) : null;
     }
     
     @Override
@@ -587,10 +476,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
 
         ArrayList<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>(2);
 
-        for (LayerGroupInfo layerGroup : layerGroups) {
-            if (!name.equals(layerGroup.getName())) {
-                continue;
-            }
+        for (LayerGroupInfo layerGroup : layerGroups.findByName(name)) {
             WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
             if (NO_WORKSPACE == workspace) {
                 if (lgWorkspace == null) {
@@ -811,16 +697,12 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public StyleInfo add(StyleInfo style) {
         resolve(style);
-        synchronized(styles) {
-            styles.add(style);
-        }
+        styles.add(style);
         return ModificationProxy.create(style, StyleInfo.class);
     }
 
     public void remove(StyleInfo style) {
-        synchronized(styles) {
-            styles.remove(unwrap(style));
-        }
+        styles.remove(unwrap(style));
     }
 
     public void save(StyleInfo style) {
@@ -832,20 +714,13 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
 
     public StyleInfo getStyle(String id) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (id.equals(style.getId())) {
-                return ModificationProxy.create(style,StyleInfo.class);
-            }
-        }
-
-        return null;
+        StyleInfo style = styles.findById(id);
+        return style != null ? ModificationProxy.create(style,StyleInfo.class) : null;
     }
 
     public StyleInfo getStyleByName(String name) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (null == style.getWorkspace() && name.equals(style.getName())) {
+        for (StyleInfo style : styles.findByName(name)) {
+            if (null == style.getWorkspace()) {
                 return ModificationProxy.create(style, StyleInfo.class);
             }
         }
@@ -861,28 +736,18 @@ public class DefaultCatalogFacade implements CatalogFacade {
         if (null == name) {
             throw new NullPointerException("name");
         }
+        List<StyleInfo> l = styles.findByName(name);
         if (workspace == ANY_WORKSPACE) {
             //do an exhaustive search through all workspaces
-            ArrayList<StyleInfo> matches = new ArrayList();
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if ( name.equals( style.getName() ) ) {
-                    matches.add( style );
-                }
-            }
-            
-            if ( matches.size() == 1 ) {
-                return ModificationProxy.create( matches.get( 0 ), StyleInfo.class);
+            if ( l.size() == 1 ) {
+                return ModificationProxy.create( l.get( 0 ), StyleInfo.class);
             }
         }
         else {
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if (name.equals(style.getName())) {
-                    if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
-                        style.getWorkspace() == null && workspace == NO_WORKSPACE) {
-                        return ModificationProxy.create( style, StyleInfo.class );
-                    }
+            for (StyleInfo style : l) {
+                if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
+                    style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                    return ModificationProxy.create( style, StyleInfo.class );
                 }
             }
         }
@@ -890,7 +755,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public List<StyleInfo> getStyles() {
-        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles), StyleInfo.class);
+        return ModificationProxy.createList(styles.values(), StyleInfo.class);
     }
 
     public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
@@ -899,24 +764,245 @@ public class DefaultCatalogFacade implements CatalogFacade {
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
         }
+        if ( workspace == null ) {
+            return Collections.emptyList();
+        }
 
-        List<StyleInfo> matches = new ArrayList();
+        List<StyleInfo> matches = styles.find("workspace", 
+            workspace == NO_WORKSPACE ? null : workspace.getId());
+        return ModificationProxy.createList(matches,StyleInfo.class);
+    }
 
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = style.getWorkspace() == null;
+    //
+    // Queries
+    //
+    public <T extends CatalogInfo> int count(Class<T> of, Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE) {
+            //every candidate matches, no need to evaluate the filter
+            return candidates(of, filter).size();
+        }
+        CloseableIterator<T> it = CloseableIteratorAdapter.filter(
+            candidates(of, filter).iterator(), filter);
+        try {
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
             }
-            else {
-                match = workspace.equals(style.getWorkspace());
+            return count;
+        } finally {
+            it.close();
+        }
+    }
+
+    public boolean canSort(Class<? extends CatalogInfo> type, String propertyName) {
+        return CatalogPropertyAccessor.isSortable(type, propertyName);
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortOrder) {
+        
+        CloseableIterator<T> it = CloseableIteratorAdapter.filter(
+            candidates(of, filter).iterator(), filter);
+        if (sortOrder == null) {
+            //unsorted, stream the matches and stop as soon as the page is filled
+            return new CloseableIteratorAdapter<T>(new ProxyingIterator<T>(
+                CloseableIteratorAdapter.limit(it, offset, count), of));
+        }
+
+        List<T> matches = new ArrayList<T>();
+        try {
+            while (it.hasNext()) {
+                matches.add(it.next());
             }
-            if (match) {
-                matches.add(style);
+        } finally {
+            it.close();
+        }
+        Collections.sort(matches, CatalogPropertyAccessor.<T>comparator(sortOrder));
+
+        int from = offset != null ? Math.min(Math.max(offset, 0), matches.size()) : 0;
+        int to = count != null ? Math.min(from + Math.max(count, 0), matches.size()) 
+            : matches.size();
+        
+        List<T> page = ModificationProxy.createList(matches.subList(from, to), of);
+        return new CloseableIteratorAdapter<T>(page.iterator());
+    }
+
+    /**
+     * Iterator wrapping the objects in modification proxies as they are read
+     */
+    static class ProxyingIterator<T> implements Iterator<T>, Closeable {
+
+        CloseableIterator<T> delegate;
+
+        Class<T> of;
+
+        ProxyingIterator(CloseableIterator<T> delegate, Class<T> of) {
+            this.delegate = delegate;
+            this.of = of;
+        }
+
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        public T next() {
+            return ModificationProxy.create(delegate.next(), of);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Returns all the objects managed by this facade that are instances of the specified type. 
+     */
+    <T extends CatalogInfo> List<T> all(Class<T> of) {
+        return candidates(of, null, null);
+    }
+
+    /**
+     * Returns the objects of the specified type that may match the filter. When the filter, or
+     * a member of a top level And, is an equality on the id, the name or the id of the 
+     * containing workspace, namespace, store or resource the candidates are looked up in the
+     * indexes, otherwise all the objects of the type are returned. The filter still has to be
+     * evaluated against the candidates.
+     */
+    <T extends CatalogInfo> List<T> candidates(Class<T> of, Filter filter) {
+        PropertyIsEqualTo equality = indexable(filter);
+        if (equality == null) {
+            return all(of);
+        }
+        String property;
+        Object value;
+        if (equality.getExpression1() instanceof PropertyName) {
+            property = ((PropertyName) equality.getExpression1()).getPropertyName();
+            value = ((Literal) equality.getExpression2()).getValue();
+        } else {
+            property = ((PropertyName) equality.getExpression2()).getPropertyName();
+            value = ((Literal) equality.getExpression1()).getValue();
+        }
+        return candidates(of, property, value != null ? value.toString() : null);
+    }
+
+    /**
+     * Returns the first equality in the filter, or in the members of a top level And, that can
+     * be answered from the indexes.
+     */
+    static PropertyIsEqualTo indexable(Filter filter) {
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                PropertyIsEqualTo equality = indexable(child);
+                if (equality != null) {
+                    return equality;
+                }
             }
+            return null;
+        }
+        if (!(filter instanceof PropertyIsEqualTo)) {
+            return null;
         }
+        PropertyIsEqualTo equality = (PropertyIsEqualTo) filter;
+        if (!equality.isMatchingCase()) {
+            return null;
+        }
+        Expression e1 = equality.getExpression1();
+        Expression e2 = equality.getExpression2();
+        String property;
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            property = ((PropertyName) e1).getPropertyName();
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            property = ((PropertyName) e2).getPropertyName();
+        } else {
+            return null;
+        }
+        return INDEXED_PROPERTIES.contains(property) ? equality : null;
+    }
 
-        return ModificationProxy.createList(matches,StyleInfo.class);
+    /**
+     * Properties that can be looked up in the indexes, the ids of the containers are indexed 
+     * under the container property name
+     */
+    static final Set<String> INDEXED_PROPERTIES = new HashSet<String>(Arrays.asList("id", "name",
+        "workspace.id", "namespace.id", "store.id", "resource.id"));
+
+    /**
+     * Returns the objects of the specified type, looked up in the indexes when the property is
+     * not null and indexed for the type.
+     */
+    <T extends CatalogInfo> List<T> candidates(Class<T> of, String property, String value) {
+        List all = new ArrayList();
+        if (matches(of, WorkspaceInfo.class)) {
+            for (Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet()) {
+                if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                    all.add(e.getValue());
+                }
+            }
+        }
+        if (matches(of, NamespaceInfo.class)) {
+            for (Map.Entry<String, NamespaceInfo> e : namespaces.entrySet()) {
+                if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                    all.add(e.getValue());
+                }
+            }
+        }
+        if (matches(of, StoreInfo.class)) {
+            all.addAll(select(stores, property, value));
+        }
+        if (matches(of, ResourceInfo.class)) {
+            all.addAll(select(resources, property, value));
+        }
+        if (matches(of, StyleInfo.class)) {
+            all.addAll(select(styles, property, value));
+        }
+        if (matches(of, LayerInfo.class)) {
+            all.addAll(select(layers, property, value));
+        }
+        if (matches(of, LayerGroupInfo.class)) {
+            all.addAll(select(layerGroups, property, value));
+        }
+        if (matches(of, MapInfo.class)) {
+            all.addAll(select(maps, property, value));
+        }
+        
+        //stores and resources are shared by sub types, make sure only instances of the 
+        // requested type are returned
+        for (Iterator i = all.iterator(); i.hasNext();) {
+            if (!of.isInstance(i.next())) {
+                i.remove();
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Looks up the objects with the specified property value in the lookup indexes, returning 
+     * all the objects if the property is null or not indexed
+     */
+    static <T extends CatalogInfo> List<T> select(CatalogInfoLookup<T> lookup, String property, 
+            String value) {
+        if (property == null) {
+            return lookup.values();
+        }
+        if ("id".equals(property)) {
+            T info = lookup.findById(value);
+            return info != null ? Collections.singletonList(info) : Collections.<T>emptyList();
+        }
+        String index = property.endsWith(".id") ? 
+            property.substring(0, property.length() - ".id".length()) : property;
+        if (lookup.hasIndex(index)) {
+            return lookup.find(index, value);
+        }
+        return lookup.values();
+    }
+
+    static boolean matches(Class<?> of, Class<?> category) {
+        return category.isAssignableFrom(of) || of.isAssignableFrom(category);
     }
 
     //
@@ -948,22 +1034,127 @@ public class DefaultCatalogFacade implements CatalogFacade {
         //resolve to do a sync on the object
         //syncIdWithName(real);
         
+        //the modified properties may be part of the index keys
+        reindex(real);
+        
         //fire the post modify event
         catalog.firePostModified( real );
     }
     
-    List lookup(Class clazz, MultiHashMap map) {
-        ArrayList result = new ArrayList();
-        for (Iterator k = map.keySet().iterator(); k.hasNext();) {
-            Class key = (Class) k.next();
-            if (clazz.isAssignableFrom(key)) {
-                result.addAll(map.getCollection(key));
+    /**
+     * Updates the indexes after an object has been modified.
+     */
+    protected void reindex(CatalogInfo object) {
+        if (object instanceof StoreInfo) {
+            stores.reindex((StoreInfo) object);
+        } else if (object instanceof ResourceInfo) {
+            resources.reindex((ResourceInfo) object);
+            //layer names derive from their resource name
+            for (LayerInfo layer : layers.find("resource", object.getId())) {
+                layers.reindex(layer);
+            }
+        } else if (object instanceof LayerInfo) {
+            layers.reindex((LayerInfo) object);
+        } else if (object instanceof LayerGroupInfo) {
+            layerGroups.reindex((LayerGroupInfo) object);
+        } else if (object instanceof StyleInfo) {
+            styles.reindex((StyleInfo) object);
+        } else if (object instanceof MapInfo) {
+            maps.reindex((MapInfo) object);
+        }
+    }
+
+    static <T> List<T> filter(List<? super T> list, Class<T> clazz) {
+        List<T> result = new ArrayList<T>(list.size());
+        for (Object o : list) {
+            if (clazz.isInstance(o)) {
+                result.add((T) o);
             }
         }
-
         return result;
     }
 
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static CatalogInfoLookup<StoreInfo> newStoreLookup() {
+        return new CatalogInfoLookup<StoreInfo>().addIndex("workspace",
+            new CatalogInfoLookup.Indexer<StoreInfo>() {
+                public Collection<?> keys(StoreInfo store) {
+                    return key(id(store.getWorkspace()));
+                }
+            });
+    }
+
+    static CatalogInfoLookup<ResourceInfo> newResourceLookup() {
+        return new CatalogInfoLookup<ResourceInfo>().addIndex("store",
+            new CatalogInfoLookup.Indexer<ResourceInfo>() {
+                public Collection<?> keys(ResourceInfo resource) {
+                    return key(id(resource.getStore()));
+                }
+            }).addIndex("namespace", new CatalogInfoLookup.Indexer<ResourceInfo>() {
+                public Collection<?> keys(ResourceInfo resource) {
+                    return key(id(resource.getNamespace()));
+                }
+            });
+    }
+
+    static CatalogInfoLookup<LayerInfo> newLayerLookup() {
+        return new CatalogInfoLookup<LayerInfo>().addIndex("resource",
+            new CatalogInfoLookup.Indexer<LayerInfo>() {
+                public Collection<?> keys(LayerInfo layer) {
+                    return key(id(layer.getResource()));
+                }
+            }).addIndex("style", new CatalogInfoLookup.Indexer<LayerInfo>() {
+                public Collection<?> keys(LayerInfo layer) {
+                    Set<String> ids = new LinkedHashSet<String>();
+                    if (layer.getDefaultStyle() != null) {
+                        ids.add(layer.getDefaultStyle().getId());
+                    }
+                    for (StyleInfo style : layer.getStyles()) {
+                        ids.add(id(style));
+                    }
+                    return ids;
+                }
+            });
+    }
+
+    static CatalogInfoLookup<LayerGroupInfo> newLayerGroupLookup() {
+        return new CatalogInfoLookup<LayerGroupInfo>().addIndex("workspace",
+            new CatalogInfoLookup.Indexer<LayerGroupInfo>() {
+                public Collection<?> keys(LayerGroupInfo layerGroup) {
+                    return key(id(layerGroup.getWorkspace()));
+                }
+            });
+    }
+
+    static CatalogInfoLookup<StyleInfo> newStyleLookup() {
+        return new CatalogInfoLookup<StyleInfo>().addIndex("workspace",
+            new CatalogInfoLookup.Indexer<StyleInfo>() {
+                public Collection<?> keys(StyleInfo style) {
+                    return key(id(style.getWorkspace()));
+                }
+            });
+    }
+
+    static CatalogInfoLookup<MapInfo> newMapLookup() {
+        return new CatalogInfoLookup<MapInfo>();
+    }
+
+    /**
+     * Copies the contents of a lookup into a freshly created one, rebuilding all the indexes.
+     */
+    static <T extends CatalogInfo> CatalogInfoLookup<T> rebuild(Iterable<T> values, 
+            CatalogInfoLookup<T> lookup) {
+        if (values != null) {
+            for (T value : values) {
+                lookup.add(value);
+            }
+        }
+        return lookup;
+    }
+
     public void dispose() {
         if ( stores != null ) stores.clear();
         if ( defaultStores != null ) defaultStores.clear();
@@ -996,53 +1187,52 @@ public class DefaultCatalogFacade implements CatalogFacade {
             resolve(ns);
         }
         
+        //the remaining collections are rebuilt, xstream does not persist the secondary indexes
+        // and resolving may assign ids and replace references the keys derive from
+        
         //stores
-        if ( stores == null ) {
-            stores = new MultiHashMap();
-        }
-        for ( Object o : stores.values() ) {
-            resolve((StoreInfoImpl)o);
+        List<StoreInfo> storeList = stores != null ? stores.values() : new ArrayList<StoreInfo>();
+        for ( StoreInfo s : storeList ) {
+            resolve(s);
         }
+        stores = rebuild(storeList, newStoreLookup());
         
         //styles
-        if ( styles == null ) {
-            styles = new ArrayList<StyleInfo>();
-        }
-        for ( StyleInfo s : styles ) {
+        List<StyleInfo> styleList = styles != null ? styles.values() : new ArrayList<StyleInfo>();
+        for ( StyleInfo s : styleList ) {
             resolve(s);
         }
+        styles = rebuild(styleList, newStyleLookup());
         
         //resources
-        if ( resources == null ) {
-            resources = new MultiHashMap();    
-        }
-        for( Object o : resources.values() ) {
-            resolve((ResourceInfo)o);
+        List<ResourceInfo> resourceList = 
+            resources != null ? resources.values() : new ArrayList<ResourceInfo>();
+        for( ResourceInfo r : resourceList ) {
+            resolve(r);
         }
+        resources = rebuild(resourceList, newResourceLookup());
         
         //layers
-        if ( layers == null ) {
-            layers = new CopyOnWriteArrayList<LayerInfo>();
-        }
-        for ( LayerInfo l : layers ) { 
+        List<LayerInfo> layerList = layers != null ? layers.values() : new ArrayList<LayerInfo>();
+        for ( LayerInfo l : layerList ) { 
             resolve(l);
         }
+        layers = rebuild(layerList, newLayerLookup());
         
         //layer groups
-        if ( layerGroups == null ) {
-            layerGroups = new ArrayList<LayerGroupInfo>();    
-        }
-        for ( LayerGroupInfo lg : layerGroups ) {
+        List<LayerGroupInfo> layerGroupList = 
+            layerGroups != null ? layerGroups.values() : new ArrayList<LayerGroupInfo>();
+        for ( LayerGroupInfo lg : layerGroupList ) {
             resolve(lg);
         }
+        layerGroups = rebuild(layerGroupList, newLayerGroupLookup());
         
         //maps
-        if ( maps == null ) {
-            maps = new ArrayList<MapInfo>();
-        }
-        for ( MapInfo m : maps ) {
+        List<MapInfo> mapList = maps != null ? maps.values() : new ArrayList<MapInfo>();
+        for ( MapInfo m : mapList ) {
             resolve(m);
         }
+        maps = rebuild(mapList, newMapLookup());
     }
     
     protected void resolve(WorkspaceInfo workspace) {
@@ -1070,7 +1260,8 @@ public class DefaultCatalogFacade implements CatalogFacade {
 
     protected void resolve(ResourceInfo resource) {
         setId(resource);
-        ResourceInfoImpl r = (ResourceInfoImpl) resource;
+        //go through the interface, the resource may be a lazy proxy
+        ResourceInfo r = resource;
         
         //resolve the store
         StoreInfo store = ResolvingProxy.resolve( catalog, r.getStore() );
@@ -1175,22 +1366,8 @@ public class DefaultCatalogFacade implements CatalogFacade {
                 }
             }
             
-            for (Iterator k = stores.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<StoreInfo> val = stores.getCollection(key);
-                for (StoreInfo s : val) {
-                    dao.add(s);
-                }
-            }
-            
-            for (Iterator k = resources.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<ResourceInfo> val = resources.getCollection(key);
-                for (ResourceInfo r : val) {
-                    dao.add(r);
-                }
-            }
-            
+            for (StoreInfo s : stores) { dao.add(s); }
+            for (ResourceInfo r : resources) { dao.add(r); }
             for (StyleInfo s : styles) { dao.add(s); }
             for (LayerInfo l : layers) { dao.add(l); }
             for (LayerGroupInfo lg : layerGroups) { dao.add(lg); }
@@ -0,0 +1,319 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.ows.util.OwsUtils;
+
+/**
+ * A proxy for a resource whose full definition is only read from persistence when first
+ * accessed.
+ * <p>
+ * The proxy holds onto the properties required to index the resource in the catalog, that is
+ * the id, name, namespace, store and enabled flag, and answers those without loading the
+ * resource. Any other method call loads the resource through a {@link Loader}, which is free to
+ * cache it and to evict it again later on, in which case it will simply be loaded again on the
+ * next access.
+ * </p>
+ * <p>
+ * Once the resource has an id, equals and hashCode are answered from it as well, so proxies can be
+ * kept in sets and maps without loading them.
+ * </p>
+ * <p>
+ * Calling a setter for one of the properties above only updates the proxy. Calling any other
+ * setter, or saving the resource through the catalog, "pins" the loaded resource to the proxy so
+ * that the changes are not lost when the loader evicts it.
+ * </p>
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class LazyResourceProxy implements WrappingProxy {
+
+    /**
+     * Loads the resources for lazy proxies.
+     */
+    public static interface Loader {
+
+        /**
+         * Returns the resource for the proxy, reading it from persistence if it is not cached.
+         * <p>
+         * Resources read from persistence must be passed to {@link LazyResourceProxy#attach(ResourceInfo)}
+         * before being handed out.
+         * </p>
+         */
+        ResourceInfo load(LazyResourceProxy proxy) throws IOException;
+
+        /**
+         * Drops the resource for the proxy from any cache.
+         */
+        void evict(LazyResourceProxy proxy);
+    }
+
+    /**
+     * Creates a lazy proxy for a resource.
+     *
+     * @param loader The loader used to read the resource.
+     * @param file The file the resource was read from.
+     * @param clazz The resource interface, FeatureTypeInfo, CoverageInfo, etc...
+     */
+    public static <T extends ResourceInfo> T create(Loader loader, File file, Class<T> clazz) {
+        LazyResourceProxy h = new LazyResourceProxy(loader, file, clazz);
+
+        Class proxyClass = Proxy.getProxyClass(clazz.getClassLoader(), clazz);
+
+        T proxy;
+        try {
+            proxy = (T) proxyClass.getConstructor(
+                new Class[] { InvocationHandler.class }).newInstance(new Object[] { h });
+        }
+        catch( Exception e ) {
+            throw new RuntimeException( e );
+        }
+
+        h.proxy = proxy;
+        return proxy;
+    }
+
+    /**
+     * Returns the underlying resource of a lazy proxy, loading it if necessary.
+     * <p>
+     * If the object is not a lazy proxy it is passed back.
+     * </p>
+     */
+    public static <T> T unwrap(T object) {
+        return ProxyUtils.unwrap(object, LazyResourceProxy.class);
+    }
+
+    /**
+     * Returns the LazyResourceProxy invocation handler for a proxy object, or <code>null</code>
+     * if the object is not a lazy proxy.
+     */
+    public static LazyResourceProxy handler(Object object) {
+        return ProxyUtils.handler(object, LazyResourceProxy.class);
+    }
+
+    Loader loader;
+    File file;
+    Class<? extends ResourceInfo> type;
+    ResourceInfo proxy;
+
+    /**
+     * the resource, once pinned
+     */
+    volatile ResourceInfo pinned;
+
+    //indexed properties
+    volatile String id;
+    volatile String name;
+    volatile NamespaceInfo namespace;
+    volatile StoreInfo store;
+    volatile boolean enabled;
+    volatile Catalog catalog;
+
+    LazyResourceProxy(Loader loader, File file, Class<? extends ResourceInfo> type) {
+        this.loader = loader;
+        this.file = file;
+        this.type = type;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Class<? extends ResourceInfo> getType() {
+        return type;
+    }
+
+    /**
+     * The proxy object this handler is attached to.
+     */
+    public ResourceInfo getProxy() {
+        return proxy;
+    }
+
+    public boolean isPinned() {
+        return pinned != null;
+    }
+
+    /**
+     * Loads the resource and keeps it around for the lifetime of the proxy.
+     */
+    public ResourceInfo pin() {
+        ResourceInfo r = pinned;
+        if (r == null) {
+            synchronized (this) {
+                r = pinned;
+                if (r == null) {
+                    r = resource();
+                    pinned = r;
+                    loader.evict(this);
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the resource, loading it if necessary.
+     */
+    public Object getProxyObject() {
+        return resource();
+    }
+
+    /**
+     * Copies the properties held by the proxy to a resource freshly read from persistence, and
+     * resolves it against the catalog.
+     */
+    public void attach(ResourceInfo resource) {
+        resource.setId(id);
+        resource.setName(name);
+        resource.setNamespace(namespace);
+        resource.setStore(store);
+        resource.setEnabled(enabled);
+        if (catalog instanceof CatalogImpl) {
+            ((CatalogImpl) catalog).resolve(resource);
+        } else {
+            resource.setCatalog(catalog);
+            OwsUtils.resolveCollections(resource);
+        }
+    }
+
+    ResourceInfo resource() {
+        ResourceInfo r = pinned;
+        if (r != null) {
+            return r;
+        }
+        try {
+            return loader.load(this);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load " + type.getSimpleName() + " '" + name
+                + "' from " + file, e);
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String m = method.getName();
+        int n = args != null ? args.length : 0;
+
+        if (n == 0) {
+            if ("getId".equals(m)) {
+                return id;
+            }
+            if ("getName".equals(m)) {
+                return name;
+            }
+            if ("getNamespace".equals(m)) {
+                return namespace;
+            }
+            if ("getStore".equals(m)) {
+                return store;
+            }
+            if ("getCatalog".equals(m)) {
+                return catalog;
+            }
+            if ("isEnabled".equals(m)) {
+                return enabled;
+            }
+            if ("enabled".equals(m)) {
+                StoreInfo s = store;
+                return enabled && s != null && s.isEnabled();
+            }
+            if ("getPrefixedName".equals(m) || "prefixedName".equals(m)) {
+                return namespace.getPrefix() + ":" + name;
+            }
+            if ("toString".equals(m)) {
+                return new StringBuilder(type.getSimpleName()).append('[').append(name)
+                    .append(']').toString();
+            }
+            if ("hashCode".equals(m)) {
+                String i = id;
+                if (i != null) {
+                    return i.hashCode();
+                }
+            }
+        }
+        else if (n == 1) {
+            if (handleSet(method, args)) {
+                return null;
+            }
+            if ("equals".equals(m)) {
+                Object other = ModificationProxy.unwrap(args[0]);
+                if (other == proxy) {
+                    return true;
+                }
+                LazyResourceProxy h = handler(other);
+
+                //resources are identified by id once added to the catalog, compare those 
+                // rather than loading the resources
+                String i = id;
+                String otherId = null;
+                if (h != null) {
+                    otherId = h.id;
+                } else if (other instanceof ResourceInfo) {
+                    otherId = ((ResourceInfo) other).getId();
+                }
+                if (i != null && otherId != null) {
+                    return i.equals(otherId);
+                }
+                return resource().equals(h != null ? h.resource() : other);
+            }
+        }
+
+        //any other setter modifies the resource, pin it
+        ResourceInfo target =
+            m.startsWith("set") && n == 1 ? pin() : resource();
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Handles the setters for the properties held by the proxy, returning false if the method
+     * is not one of them.
+     */
+    boolean handleSet(Method method, Object[] args) throws Throwable {
+        String m = method.getName();
+        Object value = args[0];
+        if ("setId".equals(m)) {
+            id = (String) value;
+        } else if ("setName".equals(m)) {
+            name = (String) value;
+        } else if ("setNamespace".equals(m)) {
+            namespace = (NamespaceInfo) value;
+        } else if ("setStore".equals(m)) {
+            store = (StoreInfo) value;
+        } else if ("setEnabled".equals(m)) {
+            enabled = (Boolean) value;
+        } else if ("setCatalog".equals(m)) {
+            catalog = (Catalog) value;
+        } else {
+            return false;
+        }
+
+        ResourceInfo r = pinned;
+        if (r != null) {
+            try {
+                method.invoke(r, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        } else {
+            //the loaded copy is out of date, it will be read again
+            loader.evict(this);
+        }
+        return true;
+    }
+}
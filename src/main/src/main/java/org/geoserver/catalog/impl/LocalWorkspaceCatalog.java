@@ -9,15 +9,20 @@ import java.lang.reflect.Method;
 import java.util.List;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.LocalWorkspaceCatalogFilter;
 import org.geotools.feature.NameImpl;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 /**
  * Catalog decorator handling cases when a {@link LocalWorkspace} is set.
@@ -206,6 +211,44 @@ public class LocalWorkspaceCatalog extends AbstractCatalogDecorator implements C
     }
 
     
+    @Override
+    public <T extends CatalogInfo> T get(Class<T> type, Filter filter)
+            throws IllegalArgumentException {
+        T result = super.get(type, filter);
+        if (result instanceof LayerInfo || result instanceof LayerGroupInfo) {
+            return wrap(result, type);
+        }
+        return result;
+    }
+
+    @Override
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortBy) {
+        CloseableIterator<T> it = super.list(of, filter, offset, count, sortBy);
+        if (LocalWorkspace.get() != null && 
+            (LayerInfo.class.isAssignableFrom(of) || LayerGroupInfo.class.isAssignableFrom(of))) {
+            return new WrappingIterator<T>(it, of);
+        }
+        return it;
+    }
+
+    /**
+     * Iterator wrapping layers and layer groups into name dequalifying proxies.
+     */
+    class WrappingIterator<T> extends CloseableIteratorAdapter<T> {
+        Class<T> clazz;
+
+        WrappingIterator(CloseableIterator<T> wrapped, Class<T> clazz) {
+            super(wrapped);
+            this.clazz = clazz;
+        }
+
+        @Override
+        public T next() {
+            return wrap(super.next(), clazz);
+        }
+    }
+
     LayerGroupInfo wrap(LayerGroupInfo layerGroup) {
         return wrap(layerGroup, LayerGroupInfo.class);
     }
@@ -0,0 +1,394 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache holding at most a fixed number of entries, evicting them according to an
+ * {@link EvictionPolicy} once full.
+ * <p>
+ * Evicted, removed and cleared entries are handed to {@link #dispose(Object, Object)} so that
+ * subclasses can release the underlying resources. Disposal happens outside of the cache lock.
+ * </p>
+ * <p>
+ * Loading of the cached resources is left to the caller, which can synchronize on
+ * {@link #lock(Object)} so that loading one entry does not block the loading of entries with
+ * different keys:
+ * <pre>
+ * V value = cache.get(key);
+ * if (value == null) {
+ *     synchronized (cache.lock(key)) {
+ *         value = cache.peek(key);
+ *         if (value == null) {
+ *             long start = System.nanoTime();
+ *             value = load(key);
+ *             cache.put(key, value);
+ *             cache.loaded(System.nanoTime() - start);
+ *         }
+ *     }
+ * }
+ * </pre>
+ * </p>
+ * <p>
+ * The cache keeps track of hits, misses, evictions and load times, see {@link #getHits()} and
+ * the other statistics accessors.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Policy used to pick the entry to evict when the cache is full.
+     */
+    public static enum EvictionPolicy {
+        /**
+         * evicts the least recently used entry
+         */
+        LRU,
+        /**
+         * evicts the least frequently used entry
+         */
+        LFU
+    }
+
+    /**
+     * number of lock stripes used for per key locking
+     */
+    static final int LOCK_STRIPES = 32;
+
+    String name;
+    int maxSize;
+    EvictionPolicy policy;
+
+    /**
+     * entries in access order
+     */
+    LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * guards the entries map
+     */
+    final Object mutex = new Object();
+
+    final Object[] locks;
+
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+    AtomicLong loads = new AtomicLong();
+    AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param name The name of the cache, used to report statistics.
+     * @param maxSize The maximum number of entries, a value <= 0 means unbounded.
+     * @param policy The eviction policy, <code>null</code> to default to {@link EvictionPolicy#LRU}.
+     */
+    public BoundedCache(String name, int maxSize, EvictionPolicy policy) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.policy = policy != null ? policy : EvictionPolicy.LRU;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes the maximum size of the cache, evicting entries if the cache is over the new size.
+     */
+    public void setMaxSize(int maxSize) {
+        List<Map.Entry<K, V>> evicted;
+        synchronized (mutex) {
+            this.maxSize = maxSize;
+            evicted = evict(null);
+        }
+        disposeAll(evicted);
+    }
+
+    /**
+     * Returns the cached value for the key, or <code>null</code>, recording a hit or a miss.
+     */
+    public V get(Object key) {
+        V value = peek(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value for the key, or <code>null</code>, without recording a hit or a
+     * miss.
+     */
+    public V peek(Object key) {
+        synchronized (mutex) {
+            Entry<V> e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            e.accessed++;
+            return e.value;
+        }
+    }
+
+    /**
+     * Caches a value, evicting other entries if the cache is full. A previous value for the same
+     * key is disposed.
+     */
+    public V put(K key, V value) {
+        Entry<V> old;
+        List<Map.Entry<K, V>> evicted;
+        synchronized (mutex) {
+            old = entries.put(key, new Entry<V>(value));
+            evicted = evict(key);
+        }
+        if (old != null && old.value != value) {
+            dispose(key, old.value);
+        }
+        disposeAll(evicted);
+        return old != null ? old.value : null;
+    }
+
+    /**
+     * Removes and disposes the value cached for the key.
+     */
+    public V remove(Object key) {
+        Entry<V> e;
+        synchronized (mutex) {
+            e = entries.remove(key);
+        }
+        if (e != null) {
+            dispose((K) key, e.value);
+            return e.value;
+        }
+        return null;
+    }
+
+    /**
+     * Removes and disposes all the cached values.
+     */
+    public void clear() {
+        List<Map.Entry<K, V>> cleared = new ArrayList<Map.Entry<K, V>>();
+        synchronized (mutex) {
+            for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+                cleared.add(new SimpleEntry<K, V>(e.getKey(), e.getValue().value));
+            }
+            entries.clear();
+        }
+        disposeAll(cleared);
+    }
+
+    /**
+     * Returns a snapshot of the keys in the cache.
+     */
+    public Set<K> keySet() {
+        synchronized (mutex) {
+            return new HashSet<K>(entries.keySet());
+        }
+    }
+
+    public int size() {
+        synchronized (mutex) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the object to synchronize on while loading the value for the specified key.
+     * <p>
+     * Locks are striped, loading values for different keys will usually not contend.
+     * </p>
+     */
+    public Object lock(Object key) {
+        int h = key != null ? key.hashCode() : 0;
+        h ^= (h >>> 16);
+        return locks[(h & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * Records the time it took to load a value, in nanoseconds.
+     */
+    public void loaded(long nanos) {
+        loads.incrementAndGet();
+        loadTime.addAndGet(nanos);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The ratio of hits over the total number of lookups, 0 if the cache was never used.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? ((double) h) / total : 0;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * Total time spent loading values, in milliseconds.
+     */
+    public long getTotalLoadTime() {
+        return loadTime.get() / 1000000;
+    }
+
+    /**
+     * Average time spent loading a value, in milliseconds.
+     */
+    public double getAverageLoadTime() {
+        long l = loads.get();
+        return l > 0 ? (loadTime.get() / 1000000d) / l : 0;
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        loads.set(0);
+        loadTime.set(0);
+    }
+
+    /**
+     * Disposes a value that has been evicted, removed or cleared from the cache. Called outside
+     * of the cache lock, default implementation does nothing.
+     */
+    protected void dispose(K key, V value) {
+    }
+
+    /**
+     * Evicts entries until the cache fits its maximum size, must be called holding the mutex.
+     * 
+     * @param added The key just added, never evicted since it has not had the chance to be used.
+     */
+    List<Map.Entry<K, V>> evict(K added) {
+        if (maxSize <= 0 || entries.size() <= maxSize) {
+            return null;
+        }
+
+        List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>();
+        while (entries.size() > maxSize) {
+            Map.Entry<K, Entry<V>> victim = null;
+            if (policy == EvictionPolicy.LFU) {
+                //least accessed, in case of ties the least recently used as iteration is in
+                // access order
+                for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+                    if (added != null && added.equals(e.getKey())) {
+                        continue;
+                    }
+                    if (victim == null || e.getValue().accessed < victim.getValue().accessed) {
+                        victim = e;
+                    }
+                }
+            } else {
+                //the least recently used, skipping the key just added in case the maximum size 
+                // is smaller than one
+                for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+                    if (added == null || !added.equals(e.getKey())) {
+                        victim = e;
+                        break;
+                    }
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+
+            evicted.add(new SimpleEntry<K, V>(victim.getKey(), victim.getValue().value));
+            entries.remove(victim.getKey());
+            evictions.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    void disposeAll(List<Map.Entry<K, V>> disposed) {
+        if (disposed == null) {
+            return;
+        }
+        for (Iterator<Map.Entry<K, V>> it = disposed.iterator(); it.hasNext();) {
+            Map.Entry<K, V> e = it.next();
+            dispose(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[size=" + size() + ", maxSize=" + maxSize + ", policy=" + policy
+            + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    static class Entry<V> {
+        V value;
+        long accessed;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    static class SimpleEntry<K, V> implements Map.Entry<K, V> {
+        K key;
+        V value;
+
+        SimpleEntry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
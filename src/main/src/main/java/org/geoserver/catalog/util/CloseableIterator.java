@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over catalog objects that holds on to some underlying resource (a database
+ * cursor, a lock, etc) and hence must be closed once the client is done with it.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * CloseableIterator&lt;LayerInfo> it = catalog.list(LayerInfo.class, filter);
+ * try {
+ *     while (it.hasNext()) {
+ *         LayerInfo layer = it.next();
+ *         ...
+ *     }
+ * } finally {
+ *     it.close();
+ * }
+ * </pre>
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Releases any resource held by the iterator. Calling this method more than once has no
+     * effect.
+     */
+    void close();
+}
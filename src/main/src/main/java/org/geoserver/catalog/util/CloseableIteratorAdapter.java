@@ -0,0 +1,203 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+
+/**
+ * Adapts a plain {@link Iterator} to the {@link CloseableIterator} interface, optionally
+ * filtering and paging its contents.
+ * <p>
+ * If the wrapped iterator is itself {@link Closeable} it is closed when this adapter is closed.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class CloseableIteratorAdapter<T> implements CloseableIterator<T> {
+
+    static final Logger LOGGER = Logging.getLogger(CloseableIteratorAdapter.class);
+
+    protected final Iterator<T> wrapped;
+
+    boolean closed;
+
+    public CloseableIteratorAdapter(Iterator<T> wrapped) {
+        this.wrapped = wrapped;
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        boolean hasNext = wrapped.hasNext();
+        if (!hasNext) {
+            close();
+        }
+        return hasNext;
+    }
+
+    public T next() {
+        if (closed) {
+            throw new NoSuchElementException("Iterator has been closed");
+        }
+        return wrapped.next();
+    }
+
+    public void remove() {
+        wrapped.remove();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (wrapped instanceof Closeable) {
+            try {
+                ((Closeable) wrapped).close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing wrapped iterator", e);
+            }
+        }
+    }
+
+    /**
+     * Returns an empty closeable iterator.
+     */
+    public static <T> CloseableIterator<T> empty() {
+        return new CloseableIteratorAdapter<T>(Collections.<T> emptyList().iterator());
+    }
+
+    /**
+     * Returns an iterator over the elements of <tt>iterator</tt> that match <tt>filter</tt>.
+     */
+    public static <T> CloseableIterator<T> filter(Iterator<T> iterator, Filter filter) {
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            return iterator instanceof CloseableIterator ? (CloseableIterator<T>) iterator
+                    : new CloseableIteratorAdapter<T>(iterator);
+        }
+        if (Filter.EXCLUDE.equals(filter)) {
+            close(iterator);
+            return empty();
+        }
+        return new CloseableIteratorAdapter<T>(new FilteringIterator<T>(iterator, filter));
+    }
+
+    /**
+     * Returns an iterator that skips the first <tt>offset</tt> elements of <tt>iterator</tt> and
+     * returns at most <tt>count</tt> elements. Either argument may be <code>null</code>.
+     */
+    public static <T> CloseableIterator<T> limit(Iterator<T> iterator, Integer offset,
+            Integer count) {
+        if (offset != null && offset.intValue() > 0) {
+            for (int i = 0; i < offset.intValue() && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+        }
+        if (count != null) {
+            iterator = new LimitingIterator<T>(iterator, count.intValue());
+        }
+        return iterator instanceof CloseableIterator ? (CloseableIterator<T>) iterator
+                : new CloseableIteratorAdapter<T>(iterator);
+    }
+
+    static void close(Iterator<?> iterator) {
+        if (iterator instanceof Closeable) {
+            try {
+                ((Closeable) iterator).close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing iterator", e);
+            }
+        }
+    }
+
+    /**
+     * Iterator that only returns the objects accepted by a filter.
+     */
+    static class FilteringIterator<T> implements Iterator<T>, Closeable {
+
+        Iterator<T> delegate;
+
+        Filter filter;
+
+        T next;
+
+        FilteringIterator(Iterator<T> delegate, Filter filter) {
+            this.delegate = delegate;
+            this.filter = filter;
+        }
+
+        public boolean hasNext() {
+            while (next == null && delegate.hasNext()) {
+                T candidate = delegate.next();
+                if (filter.evaluate(candidate)) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            CloseableIteratorAdapter.close(delegate);
+        }
+    }
+
+    /**
+     * Iterator that stops after a maximum number of elements.
+     */
+    static class LimitingIterator<T> implements Iterator<T>, Closeable {
+
+        Iterator<T> delegate;
+
+        int remaining;
+
+        LimitingIterator(Iterator<T> delegate, int max) {
+            this.delegate = delegate;
+            this.remaining = max;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0 && delegate.hasNext();
+        }
+
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return delegate.next();
+        }
+
+        public void remove() {
+            delegate.remove();
+        }
+
+        public void close() throws IOException {
+            CloseableIteratorAdapter.close(delegate);
+        }
+    }
+}
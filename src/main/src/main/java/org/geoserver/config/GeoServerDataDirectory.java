@@ -21,6 +21,7 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.platform.GeoServerResourceLoader;
 
@@ -507,7 +508,10 @@ public class GeoServerDataDirectory {
             return file(new File( rdir, "featuretype.xml"), create);
         }
         else if ( r instanceof CoverageInfo ) {
-            return file(new File( rdir, "coverage"), create);
+            return file(new File( rdir, "coverage.xml"), create);
+        }
+        else if ( r instanceof WMSLayerInfo ) {
+            return file(new File( rdir, "wmslayer.xml"), create);
         }
         
         return null;
@@ -13,8 +13,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +32,6 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
-import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -31,12 +39,16 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.DefaultCatalogFacade;
+import org.geoserver.catalog.impl.ResolvingProxy;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
@@ -69,10 +81,40 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Number of threads used to read the catalog, set as a system property, context parameter 
+     * or environment variable. Defaults to the number of available processors, a value of 1 
+     * reads the catalog sequentially.
+     */
+    public static final String LOADING_THREADS = "org.geoserver.catalog.loadingThreads";
+    
+    /**
+     * Flag enabling the lazy loading of resources, set as a system property, context parameter 
+     * or environment variable. When true only the properties needed to index feature types, 
+     * coverages and wms layers are read at startup, see {@link LazyResourceLoader}.
+     */
+    public static final String LAZY_RESOURCES = "org.geoserver.catalog.lazyResources";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
     
+    /**
+     * executor reading the catalog files, only set while the catalog is being read
+     */
+    ExecutorService loadingExecutor;
+    
+    /**
+     * persister of each loading thread, the persister passed to the loader is only used by the 
+     * calling thread
+     */
+    ThreadLocal<XStreamPersister> loadingPersister = new ThreadLocal<XStreamPersister>();
+    
+    /**
+     * loader for lazy resources, only set when lazy loading is enabled
+     */
+    LazyResourceLoader lazyLoader;
+    
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
     // this ugly hack can die
@@ -219,6 +261,12 @@ public abstract class GeoServerLoader {
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
             //assume 2.x style data directory
+            lazyLoader = null;
+            if (isLazy(catalog)) {
+                lazyLoader = new LazyResourceLoader(new GeoServerDataDirectory(resourceLoader), 
+                    xpf.createXMLPersister());
+                LOGGER.info("Lazy loading of resources enabled");
+            }
             CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
             ((CatalogImpl)catalog).sync( catalog2 );
         } else {
@@ -229,16 +277,53 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Determines if resources should be loaded lazily, which is only supported by the default
+     * in memory catalog facade.
+     */
+    boolean isLazy(Catalog catalog) {
+        if (!Boolean.valueOf(GeoServerExtensions.getProperty(LAZY_RESOURCES))) {
+            return false;
+        }
+        if (catalog instanceof CatalogImpl 
+            && ((CatalogImpl) catalog).getFacade() instanceof DefaultCatalogFacade) {
+            return true;
+        }
+        LOGGER.warning("Lazy loading of resources not supported by " + catalog + ", ignoring " 
+            + LAZY_RESOURCES);
+        return false;
+    }
+    
     /**
      * Reads the catalog from disk.
+     * <p>
+     * Files are read concurrently by {@link #LOADING_THREADS} threads and the resulting objects 
+     * added to the catalog in directory order, which resolves the references between them.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        loadingExecutor = createLoadingExecutor();
+        try {
+            long t = System.currentTimeMillis();
+            Catalog catalog = readCatalogFiles( xp );
+            LOGGER.info("Read catalog in " + (System.currentTimeMillis() - t) + " ms");
+            return catalog;
+        }
+        finally {
+            if ( loadingExecutor != null ) {
+                loadingExecutor.shutdownNow();
+                loadingExecutor = null;
+            }
+        }
+    }
+    
+    Catalog readCatalogFiles( XStreamPersister xp ) throws Exception {
         Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
         
-        CatalogFactory factory = catalog.getFactory();
-       
+        long t = System.currentTimeMillis();
+        
         //global styles
         loadStyles(resourceLoader.find( "styles" ), catalog, xp);
 
@@ -324,199 +409,374 @@ public abstract class GeoServerLoader {
                 }
             }
             
+            LOGGER.info("Read workspaces and styles in " + (System.currentTimeMillis() - t) + " ms");
+            
+            //stores, read concurrently and added to the catalog in directory order
+            t = System.currentTimeMillis();
+            List<PendingRead<StoreInfo>> stores = new ArrayList<PendingRead<StoreInfo>>();
             for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                
-                //load the stores for this workspace
                 for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
-                    File f = new File( sd, "datastore.xml");
+                    PendingRead<StoreInfo> store = null;
+                    if ( new File( sd, "datastore.xml" ).exists() ) {
+                        store = new PendingRead<StoreInfo>(sd, "data store", 
+                            this.<StoreInfo>submit(xp, new File(sd, "datastore.xml"), DataStoreInfo.class));
+                    }
+                    else if ( new File( sd, "coveragestore.xml" ).exists() ) {
+                        store = new PendingRead<StoreInfo>(sd, "coverage store", 
+                            this.<StoreInfo>submit(xp, new File(sd, "coveragestore.xml"), CoverageStoreInfo.class));
+                    }
+                    else if ( new File( sd, "wmsstore.xml" ).exists() ) {
+                        store = new PendingRead<StoreInfo>(sd, "wms store", 
+                            this.<StoreInfo>submit(xp, new File(sd, "wmsstore.xml"), WMSStoreInfo.class));
+                    }
+                    else {
+                        LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+                        continue;
+                    }
+                    stores.add(store);
+                }
+            }
+            
+            List<PendingRead<StoreInfo>> loadedStores = new ArrayList<PendingRead<StoreInfo>>();
+            for ( PendingRead<StoreInfo> store : stores ) {
+                try {
+                    StoreInfo s = resolve(catalog, get(store.object));
+                    catalog.add( s );
+                    
+                    LOGGER.info( "Loaded " + store.type + " '" + s.getName() +"'");
+                    
+                    store.loaded = s;
+                    loadedStores.add(store);
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load " + store.type + " '" + 
+                        store.file.getName() +"'", e);
+                }
+            }
+            LOGGER.info("Read " + loadedStores.size() + " stores in " + 
+                (System.currentTimeMillis() - t) + " ms");
+            
+            //connect to the enabled data stores to determine if we should disable them, 
+            // concurrently with the reading of the resources
+            t = System.currentTimeMillis();
+            Map<DataStoreInfo, Future<Throwable>> connections = 
+                new LinkedHashMap<DataStoreInfo, Future<Throwable>>();
+            for ( PendingRead<StoreInfo> store : loadedStores ) {
+                if ( store.loaded instanceof DataStoreInfo && store.loaded.isEnabled() ) {
+                    DataStoreInfo ds = (DataStoreInfo) store.loaded;
+                    connections.put(ds, checkConnection(ds));
+                }
+            }
+            
+            //resources and layers
+            List<PendingRead<ResourceInfo>> resources = new ArrayList<PendingRead<ResourceInfo>>();
+            for ( PendingRead<StoreInfo> store : loadedStores ) {
+                String type, file;
+                Class<? extends ResourceInfo> clazz;
+                if ( store.loaded instanceof DataStoreInfo ) {
+                    type = "feature type";
+                    file = "featuretype.xml";
+                    clazz = FeatureTypeInfo.class;
+                }
+                else if ( store.loaded instanceof CoverageStoreInfo ) {
+                    type = "coverage";
+                    file = "coverage.xml";
+                    clazz = CoverageInfo.class;
+                }
+                else {
+                    type = "wms layer";
+                    file = "wmslayer.xml";
+                    clazz = WMSLayerInfo.class;
+                }
+                
+                for ( File rd : list(store.file, DirectoryFileFilter.INSTANCE) ) {
+                    File f = new File( rd, file );
+                    if ( !f.exists() ) {
+                        LOGGER.warning( "Ignoring " + type + " directory " + rd.getAbsolutePath() );
+                        continue;
+                    }
+                    
+                    PendingRead<ResourceInfo> resource = new PendingRead<ResourceInfo>(rd, type, 
+                        lazyLoader != null ? submitLazy(f, clazz, catalog) : 
+                            this.<ResourceInfo>submit(xp, f, clazz));
+                    f = new File( rd, "layer.xml" );
                     if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
-                            continue;
-                        }
-                        
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
-                            if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
-                                if ( f.exists() ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
-                            }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
-                            }
-                        }
-                    } else {
-                        //look for a coverage store
-                        f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
-                            try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
-                                if( f.exists() ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = new File( cd, "layer.xml" );
-                                    if ( f.exists() ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                }
-                            }
-                        } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
-                            }
+                        resource.layer = submit(xp, f, LayerInfo.class);
+                    }
+                    resources.add(resource);
+                }
+            }
+            
+            //disable the stores we could not connect to, the catalog is only modified here
+            for ( Map.Entry<DataStoreInfo, Future<Throwable>> connection : connections.entrySet() ) {
+                Throwable error = get(connection.getValue());
+                if ( error != null ) {
+                    DataStoreInfo ds = connection.getKey();
+                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                    LOGGER.log( Level.INFO, "", error );
+                    
+                    ds.setError(error);
+                    ds.setEnabled(false);
+                }
+            }
+            
+            int count = 0;
+            for ( PendingRead<ResourceInfo> resource : resources ) {
+                ResourceInfo r = null;
+                try {
+                    r = get(resource.object);
+                    if ( lazyLoader != null ) {
+                        //bypass validation, it would load the resource
+                        if ( r.getNamespace() == null ) {
+                            r.setNamespace( catalog.getDefaultNamespace() );
                         }
+                        ((CatalogImpl) catalog).getFacade().add( r );
+                    }
+                    else {
+                        catalog.add( resolve(catalog, r) );
                     }
+                    
+                    LOGGER.info( "Loaded " + resource.type + " '" + r.getName() +"'");
+                    count++;
                 }
-
-                //load hte layer groups for this workspace
-                File layergroups = resourceLoader.find(wsd, "layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load " + resource.type + " '" + 
+                        resource.file.getName() +"'", e);
+                    continue;
+                }
+                
+                if ( resource.layer != null ) {
+                    try {
+                        LayerInfo l = resolve(catalog, get(resource.layer));
+                        catalog.add( l );
+                        
+                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load layer for " + resource.type + 
+                            " '" + r.getName() +"'", e);
+                    }
                 }
             }
+            LOGGER.info("Read " + count + " resources and layers in " + 
+                (System.currentTimeMillis() - t) + " ms");
         }
         else {
             LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
         }
 
-        //namespaces
-        
-        //layergroups
-        File layergroups = resourceLoader.find( "layergroups" );
-        if ( layergroups != null ) {
-           loadLayerGroups(layergroups, catalog, xp);
+        //layergroups, for each workspace and global
+        t = System.currentTimeMillis();
+        List<File> layergroups = new ArrayList<File>();
+        if ( workspaces != null ) {
+            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                File lgd = resourceLoader.find(wsd, "layergroups");
+                if ( lgd != null ) {
+                    layergroups.add(lgd);
+                }
+            }
         }
-
+        File lgd = resourceLoader.find( "layergroups" );
+        if ( lgd != null ) {
+            layergroups.add(lgd);
+        }
+        loadLayerGroups(layergroups, catalog, xp);
+        LOGGER.info("Read layer groups in " + (System.currentTimeMillis() - t) + " ms");
+        
         return catalog;
     }
     
+    /**
+     * Creates the executor used to read the catalog concurrently, or <code>null</code> if 
+     * the catalog should be read sequentially.
+     */
+    ExecutorService createLoadingExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty(LOADING_THREADS);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            }
+            catch( NumberFormatException e ) {
+                LOGGER.warning("Invalid value '" + value + "' for " + LOADING_THREADS + 
+                    ", using " + threads + " threads");
+            }
+        }
+        if (threads <= 1) {
+            return null;
+        }
+        
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServerLoader-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Reads an object from disk on the loading executor, or right away if the catalog is being 
+     * read sequentially.
+     * <p>
+     * The loading threads read with their own persister, which does not resolve the references 
+     * to other catalog objects since the calling thread is modifying the catalog in the 
+     * meantime. They are resolved by {@link #resolve(Catalog, Object)} instead. 
+     * </p>
+     */
+    <T> Future<T> submit( final XStreamPersister xp, final File f, final Class<? extends T> clazz ) {
+        if ( loadingExecutor == null ) {
+            return submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return depersist(xp, f, clazz);
+                }
+            });
+        }
+        return submit(new Callable<T>() {
+            public T call() throws Exception {
+                XStreamPersister p = loadingPersister.get();
+                if ( p == null ) {
+                    p = xpf.createXMLPersister();
+                    loadingPersister.set(p);
+                }
+                return depersist(p, f, clazz);
+            }
+        });
+    }
+    
+    /**
+     * Resolves the references of an object read by {@link #submit(XStreamPersister, File, Class)}
+     * against the catalog, the same way the persister does when it has a catalog set.
+     */
+    <T> T resolve( Catalog catalog, T object ) {
+        if ( object instanceof StoreInfo ) {
+            StoreInfo s = (StoreInfo) object;
+            s.setWorkspace( reference(catalog, s.getWorkspace()) );
+        }
+        else if ( object instanceof StyleInfo ) {
+            StyleInfo s = (StyleInfo) object;
+            s.setWorkspace( reference(catalog, s.getWorkspace()) );
+        }
+        else if ( object instanceof ResourceInfo ) {
+            ResourceInfo r = (ResourceInfo) object;
+            r.setStore( reference(catalog, r.getStore()) );
+            r.setNamespace( reference(catalog, r.getNamespace()) );
+        }
+        else if ( object instanceof LayerInfo ) {
+            LayerInfo l = (LayerInfo) object;
+            l.setResource( reference(catalog, l.getResource()) );
+            l.setDefaultStyle( reference(catalog, l.getDefaultStyle()) );
+            if ( l.getStyles() != null ) {
+                List<StyleInfo> styles = new ArrayList<StyleInfo>(l.getStyles());
+                l.getStyles().clear();
+                for ( StyleInfo s : styles ) {
+                    l.getStyles().add( reference(catalog, s) );
+                }
+            }
+        }
+        else if ( object instanceof LayerGroupInfo ) {
+            LayerGroupInfo lg = (LayerGroupInfo) object;
+            lg.setWorkspace( reference(catalog, lg.getWorkspace()) );
+            if ( lg.getLayers() != null ) {
+                for ( int i = 0; i < lg.getLayers().size(); i++ ) {
+                    lg.getLayers().set( i, reference(catalog, lg.getLayers().get(i)) );
+                }
+            }
+            if ( lg.getStyles() != null ) {
+                for ( int i = 0; i < lg.getStyles().size(); i++ ) {
+                    lg.getStyles().set( i, reference(catalog, lg.getStyles().get(i)) );
+                }
+            }
+        }
+        return object;
+    }
+    
+    static <T> T reference( Catalog catalog, T object ) {
+        if ( object == null ) {
+            return null;
+        }
+        return (T) CatalogImpl.unwrap( ResolvingProxy.resolve( catalog, object ) );
+    }
+    
+    /**
+     * Reads the indexed properties of a resource and creates a lazy proxy for it, see 
+     * {@link LazyResourceLoader#create(File, Class, Catalog)}.
+     */
+    Future<ResourceInfo> submitLazy( final File f, final Class<? extends ResourceInfo> clazz, 
+        final Catalog catalog ) {
+        return submit(new Callable<ResourceInfo>() {
+            public ResourceInfo call() throws Exception {
+                return lazyLoader.create(f, clazz, catalog);
+            }
+        });
+    }
+    
+    <T> Future<T> submit( Callable<T> task ) {
+        if ( loadingExecutor != null ) {
+            return loadingExecutor.submit(task);
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+    
+    /**
+     * Waits for an object submitted with {@link #submit(XStreamPersister, File, Class)}, 
+     * rethrowing the exception that occurred while reading it, if any.
+     */
+    <T> T get( Future<T> future ) throws Exception {
+        try {
+            return future.get();
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof Exception ) {
+                throw (Exception) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Connects to a data store, returning the connection error, if any. The store is not 
+     * modified, disabling it is up to the calling thread.
+     */
+    Future<Throwable> checkConnection( final DataStoreInfo ds ) {
+        return submit(new Callable<Throwable>() {
+            public Throwable call() throws Exception {
+                try {
+                    ds.getDataStore(null);
+                    return null;
+                }
+                catch( Throwable t ) {
+                    return t;
+                }
+            }
+        });
+    }
+    
+    /**
+     * A catalog object being read, along with the layer publishing it, if any.
+     */
+    static class PendingRead<T> {
+        /** the file or directory being read */
+        File file;
+        String type;
+        Future<T> object;
+        Future<LayerInfo> layer;
+        T loaded;
+        
+        PendingRead(File file, String type, Future<T> object) {
+            this.file = file;
+            this.type = type;
+            this.object = object;
+        }
+    }
+    
     /**
      * Reads the legacy (1.x) catalog from disk.
      */
@@ -648,14 +908,20 @@ public abstract class GeoServerLoader {
     }
 
     void loadStyles(File styles, Catalog catalog, XStreamPersister xp) {
+        List<PendingRead<StyleInfo>> pending = new ArrayList<PendingRead<StyleInfo>>();
         for ( File sf : list(styles,new SuffixFileFilter(".xml") ) ) {
+            //handle the .xml.xml case
+            if (new File(styles,sf.getName()+".xml").exists()) {
+                continue;
+            }
+            pending.add(new PendingRead<StyleInfo>(sf, "style", 
+                this.<StyleInfo>submit(xp, sf, StyleInfo.class)));
+        }
+        
+        for ( PendingRead<StyleInfo> p : pending ) {
+            File sf = p.file;
             try {
-                //handle the .xml.xml case
-                if (new File(styles,sf.getName()+".xml").exists()) {
-                    continue;
-                }
-                
-                StyleInfo s = depersist( xp, sf, StyleInfo.class );
+                StyleInfo s = resolve( catalog, get( p.object ) );
                 catalog.add( s );
                 
                 LOGGER.info( "Loaded style '" + s.getName() + "'" );
@@ -666,10 +932,19 @@ public abstract class GeoServerLoader {
         }
     }
 
-    void loadLayerGroups(File layergroups, Catalog catalog, XStreamPersister xp) {
-        for ( File lgf : list( layergroups, new SuffixFileFilter( ".xml" ) ) ) {
+    void loadLayerGroups(List<File> layergroups, Catalog catalog, XStreamPersister xp) {
+        List<PendingRead<LayerGroupInfo>> pending = new ArrayList<PendingRead<LayerGroupInfo>>();
+        for ( File dir : layergroups ) {
+            for ( File lgf : list( dir, new SuffixFileFilter( ".xml" ) ) ) {
+                pending.add(new PendingRead<LayerGroupInfo>(lgf, "layer group", 
+                    this.<LayerGroupInfo>submit(xp, lgf, LayerGroupInfo.class)));
+            }
+        }
+        
+        for ( PendingRead<LayerGroupInfo> p : pending ) {
+            File lgf = p.file;
             try {
-                LayerGroupInfo lg = depersist( xp, lgf, LayerGroupInfo.class );
+                LayerGroupInfo lg = resolve( catalog, get( p.object ) );
                 if(lg.getLayers() == null || lg.getLayers().size() == 0) {
                     LOGGER.warning("Skipping empty layer group '" + lg.getName() + "', it is invalid");
                     continue;
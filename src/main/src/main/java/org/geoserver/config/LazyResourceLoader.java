@@ -0,0 +1,243 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.impl.LazyResourceProxy;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.catalog.util.BoundedCache;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Creates {@link LazyResourceProxy lazy proxies} for the resources in the data directory and
+ * loads them on demand.
+ * <p>
+ * At startup only the id, name, namespace, store and enabled flag of each resource are read,
+ * the full resource is read when first accessed and kept in a bounded cache, the size of which
+ * is controlled by the {@link #CACHE_SIZE} property. Evicted resources are read again from the
+ * data directory the next time they are accessed.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class LazyResourceLoader implements LazyResourceProxy.Loader {
+
+    static final Logger LOGGER = Logging.getLogger(LazyResourceLoader.class);
+
+    /**
+     * property controlling the maximum number of fully loaded resources kept in memory
+     */
+    public static final String CACHE_SIZE = "org.geoserver.catalog.cache.lazyResource.maxSize";
+
+    static final int CACHE_SIZE_DEFAULT = 1000;
+
+    static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    GeoServerDataDirectory dataDirectory;
+    XStreamPersister xp;
+    BoundedCache<LazyResourceProxy, ResourceInfo> cache;
+
+    /**
+     * Creates the loader.
+     *
+     * @param dataDirectory The data directory the resources are read from.
+     * @param xp The persister used to read the resources, references to other catalog objects
+     *  are not resolved through it.
+     */
+    public LazyResourceLoader(GeoServerDataDirectory dataDirectory, XStreamPersister xp) {
+        this.dataDirectory = dataDirectory;
+        this.xp = xp;
+        this.cache = new BoundedCache<LazyResourceProxy, ResourceInfo>("lazyResource",
+            cacheSize(), BoundedCache.EvictionPolicy.LRU);
+    }
+
+    /**
+     * The cache of loaded resources.
+     */
+    public BoundedCache<LazyResourceProxy, ResourceInfo> getCache() {
+        return cache;
+    }
+
+    /**
+     * Creates a lazy proxy for a resource, reading only the properties required to add it to
+     * the catalog.
+     * <p>
+     * The namespace and store of the proxy are left as references to be resolved when the
+     * proxy is added to the catalog facade.
+     * </p>
+     * @param f The resource file, featuretype.xml, coverage.xml or wmslayer.xml.
+     * @param clazz The resource interface.
+     * @param catalog The catalog the resource is loaded into.
+     */
+    public <T extends ResourceInfo> T create(File f, Class<T> clazz, Catalog catalog)
+        throws IOException {
+        T resource = LazyResourceProxy.create(this, f, clazz);
+        resource.setCatalog(catalog);
+
+        String namespace = null, store = null;
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            XMLStreamReader r = XML_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                String parent = null;
+                while (r.hasNext()) {
+                    int event = r.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String name = r.getLocalName();
+                        if (depth == 2) {
+                            if ("id".equals(name)) {
+                                resource.setId(r.getElementText().trim());
+                                depth--;
+                            }
+                            else if ("name".equals(name)) {
+                                resource.setName(r.getElementText().trim());
+                                depth--;
+                            }
+                            else if ("enabled".equals(name)) {
+                                resource.setEnabled(Boolean.valueOf(r.getElementText().trim()));
+                                depth--;
+                            }
+                            else {
+                                parent = name;
+                            }
+                        }
+                        else if (depth == 3 && ("id".equals(name) || "name".equals(name))) {
+                            //reference by id or name, as written by XStreamPersister
+                            if ("namespace".equals(parent)) {
+                                namespace = r.getElementText().trim();
+                                depth--;
+                            }
+                            else if ("store".equals(parent)) {
+                                store = r.getElementText().trim();
+                                depth--;
+                            }
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == 2) {
+                            parent = null;
+                        }
+                        depth--;
+                    }
+                }
+            }
+            finally {
+                r.close();
+            }
+        }
+        catch(XMLStreamException e) {
+            throw (IOException) new IOException("Error reading " + f).initCause(e);
+        }
+        finally {
+            in.close();
+        }
+
+        if (namespace != null) {
+            resource.setNamespace(ResolvingProxy.create(namespace, NamespaceInfo.class));
+        }
+        if (store != null) {
+            resource.setStore(ResolvingProxy.create(store, storeClass(clazz)));
+        }
+        return resource;
+    }
+
+    public ResourceInfo load(LazyResourceProxy proxy) throws IOException {
+        ResourceInfo resource = cache.get(proxy);
+        if (resource == null) {
+            synchronized (cache.lock(proxy)) {
+                resource = cache.peek(proxy);
+                if (resource == null) {
+                    long start = System.nanoTime();
+                    resource = read(proxy);
+                    proxy.attach(resource);
+                    cache.put(proxy, resource);
+                    cache.loaded(System.nanoTime() - start);
+                }
+            }
+        }
+        return resource;
+    }
+
+    public void evict(LazyResourceProxy proxy) {
+        cache.remove(proxy);
+    }
+
+    /**
+     * Reads the resource from its file in the data directory, which may have moved since the
+     * proxy was created if the resource or its store was renamed.
+     */
+    ResourceInfo read(LazyResourceProxy proxy) throws IOException {
+        File f = null;
+        try {
+            f = dataDirectory.findResourceFile(proxy.getProxy());
+        }
+        catch(Exception e) {
+            LOGGER.log(Level.FINE, "Unable to locate file for " + proxy.getProxy(), e);
+        }
+        if (f == null) {
+            f = proxy.getFile();
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Loading " + proxy.getProxy() + " from " + f);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            return xp.load(in, proxy.getType());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    static Class<? extends StoreInfo> storeClass(Class<? extends ResourceInfo> clazz) {
+        if (FeatureTypeInfo.class.isAssignableFrom(clazz)) {
+            return DataStoreInfo.class;
+        }
+        if (CoverageInfo.class.isAssignableFrom(clazz)) {
+            return CoverageStoreInfo.class;
+        }
+        return WMSStoreInfo.class;
+    }
+
+    static int cacheSize() {
+        String value = GeoServerExtensions.getProperty(CACHE_SIZE);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            }
+            catch(NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + CACHE_SIZE + ", using "
+                    + CACHE_SIZE_DEFAULT);
+            }
+        }
+        return CACHE_SIZE_DEFAULT;
+    }
+}
@@ -23,7 +23,6 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
@@ -55,6 +54,7 @@ import org.geoserver.catalog.impl.CoverageDimensionImpl;
 import org.geoserver.catalog.impl.CoverageInfoImpl;
 import org.geoserver.catalog.impl.CoverageStoreInfoImpl;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
+import org.geoserver.catalog.impl.CatalogInfoLookup;
 import org.geoserver.catalog.impl.DefaultCatalogFacade;
 import org.geoserver.catalog.impl.DimensionInfoImpl;
 import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
@@ -63,6 +63,7 @@ import org.geoserver.catalog.impl.LayerIdentifier;
 import org.geoserver.catalog.impl.LayerInfoImpl;
 import org.geoserver.catalog.impl.MetadataLinkInfoImpl;
 import org.geoserver.catalog.impl.NamespaceInfoImpl;
+import org.geoserver.catalog.impl.LazyResourceProxy;
 import org.geoserver.catalog.impl.ResolvingProxy;
 import org.geoserver.catalog.impl.ResourceInfoImpl;
 import org.geoserver.catalog.impl.StoreInfoImpl;
@@ -316,7 +317,9 @@ public class XStreamPersister {
         xs.omitField(impl(DefaultCatalogFacade.class), "layerGroups");
         
         xs.registerLocalConverter(DefaultCatalogFacade.class, "stores",
-                new StoreMultiHashMapConverter());
+                new StoreLookupConverter());
+        xs.registerLocalConverter(DefaultCatalogFacade.class, "styles",
+                new StyleLookupConverter());
         xs.registerLocalConverter(DefaultCatalogFacade.class, "namespaces",
                 new SpaceMapConverter("namespace"));
         xs.registerLocalConverter(DefaultCatalogFacade.class, "workspaces",
@@ -491,6 +494,7 @@ public class XStreamPersister {
         obj = SecureCatalogImpl.unwrap( obj );
         obj = GeoServerImpl.unwrap( obj );
         obj = CatalogImpl.unwrap( obj );
+        obj = LazyResourceProxy.unwrap( obj );
         return obj;
     }
     
@@ -1419,17 +1423,17 @@ public class XStreamPersister {
     }
 
     /**
-     * Converter for multi hash maps containing coverage stores and data stores.
+     * Converter for the catalog lookup containing coverage stores and data stores.
      */
-    static class StoreMultiHashMapConverter implements Converter {
+    static class StoreLookupConverter implements Converter {
         public boolean canConvert(Class type) {
-            return MultiHashMap.class.equals(type);
+            return CatalogInfoLookup.class.equals(type);
         }
 
         public void marshal(Object source, HierarchicalStreamWriter writer,
                 MarshallingContext context) {
-            MultiHashMap map = (MultiHashMap) source;
-            for (Object v : map.values()) {
+            CatalogInfoLookup<StoreInfo> lookup = (CatalogInfoLookup<StoreInfo>) source;
+            for (Object v : lookup.values()) {
                 if (v instanceof DataStoreInfo) {
                     writer.startNode("dataStore");
                     context.convertAnother(v);
@@ -1445,24 +1449,58 @@ public class XStreamPersister {
 
         public Object unmarshal(HierarchicalStreamReader reader,
                 UnmarshallingContext context) {
-            MultiHashMap map = new MultiHashMap();
+            //secondary indexes are set up when the catalog is resolved
+            CatalogInfoLookup<StoreInfo> lookup = new CatalogInfoLookup<StoreInfo>();
             
             while( reader.hasMoreChildren() ) {
                 reader.moveDown();
                 
-                Object o = 0;
+                StoreInfo o;
                 if ( "dataStore".equals( reader.getNodeName() ) ) {
-                    o = context.convertAnother( map, DataStoreInfoImpl.class );
+                    o = (StoreInfo) context.convertAnother( lookup, DataStoreInfoImpl.class );
                 }
                 else {
-                    o = context.convertAnother( map, CoverageStoreInfoImpl.class );
+                    o = (StoreInfo) context.convertAnother( lookup, CoverageStoreInfoImpl.class );
                 }
-                map.put( o.getClass(), o );
+                lookup.add( o );
                 
                 reader.moveUp();
             }
             
-            return map;
+            return lookup;
+        }
+    }
+
+    /**
+     * Converter for the catalog lookup containing styles.
+     */
+    static class StyleLookupConverter implements Converter {
+        public boolean canConvert(Class type) {
+            return CatalogInfoLookup.class.equals(type);
+        }
+
+        public void marshal(Object source, HierarchicalStreamWriter writer,
+                MarshallingContext context) {
+            CatalogInfoLookup<StyleInfo> lookup = (CatalogInfoLookup<StyleInfo>) source;
+            for (StyleInfo style : lookup.values()) {
+                writer.startNode("style");
+                context.convertAnother(style);
+                writer.endNode();
+            }
+        }
+
+        public Object unmarshal(HierarchicalStreamReader reader,
+                UnmarshallingContext context) {
+            //secondary indexes are set up when the catalog is resolved
+            CatalogInfoLookup<StyleInfo> lookup = new CatalogInfoLookup<StyleInfo>();
+            
+            while( reader.hasMoreChildren() ) {
+                reader.moveDown();
+                lookup.add( (StyleInfo) context.convertAnother( lookup, StyleInfoImpl.class ) );
+                reader.moveUp();
+            }
+            
+            return lookup;
         }
     }
 
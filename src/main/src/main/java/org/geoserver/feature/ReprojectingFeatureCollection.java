@@ -5,8 +5,13 @@
 package org.geoserver.feature;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -20,7 +25,6 @@ import org.geotools.feature.SchemaException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.filter.spatial.DefaultCRSFilterVisitor;
 import org.geotools.filter.spatial.ReprojectingFilterVisitor;
-import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.ReferencingFactoryFinder;
@@ -37,7 +41,11 @@ import org.opengis.referencing.operation.OperationNotFoundException;
 import org.opengis.referencing.operation.TransformException;
 import org.opengis.util.ProgressListener;
 
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryComponentFilter;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
 
 /**
  * Decorating feature collection which reprojects feature geometries to a particular coordinate reference system on the fly.
@@ -51,6 +59,11 @@ import com.vividsolutions.jts.geom.Geometry;
  * itself. Leaving the property null specifies that the geometry will not be
  * transformed.
  * </p>
+ * <p>
+ * The math transforms are shared among all the collections through a bounded cache, and each
+ * geometry is transformed with a single call to the math transform, packing all of its
+ * coordinates in one array.
+ * </p>
  * 
  * @author Justin Deoliveira, The Open Planning Project
  * 
@@ -58,6 +71,21 @@ import com.vividsolutions.jts.geom.Geometry;
 public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
     static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
     
+    /**
+     * Maximum number of math transforms kept in the shared cache
+     */
+    static final int TRANSFORM_CACHE_SIZE = 100;
+
+    /**
+     * MathTransform cache shared by all collections, keyed by source, target and hints
+     */
+    static final Map<List<Object>, MathTransform2D> TRANSFORMS = 
+        new LinkedHashMap<List<Object>, MathTransform2D>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, MathTransform2D> eldest) {
+                return size() > TRANSFORM_CACHE_SIZE;
+            }
+        };
+
     /**
      * The schema of reprojected features
      */
@@ -77,7 +105,7 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
     /**
      * MathTransform cache, keyed by source CRS
      */
-    HashMap /* <CoordinateReferenceSystem,GeometryCoordinateSequenceTransformer> */transformers;
+    HashMap<CoordinateReferenceSystem, MathTransform2D> transformers;
 
     /**
      * Transformation hints
@@ -94,19 +122,13 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
         this.schema = FeatureTypes.transform(delegate.getSchema(), target);
 
         // create transform cache
-        transformers = new HashMap();
+        transformers = new HashMap<CoordinateReferenceSystem, MathTransform2D>();
 
         // cache "default" transform
         CoordinateReferenceSystem source = delegate.getSchema().getCoordinateReferenceSystem();
 
         if (source != null) {
-            MathTransform2D tx = (MathTransform2D) ReferencingFactoryFinder
-                    .getCoordinateOperationFactory(hints).createOperation(source, target)
-                    .getMathTransform();
-
-            GeometryCoordinateSequenceTransformer transformer = new GeometryCoordinateSequenceTransformer();
-            transformer.setMathTransform(tx);
-            transformers.put(source, transformer);
+            transformers.put(source, getTransform(source, target, hints));
         } else {
             throw new RuntimeException("Source was null in trying to create a reprojected feature collection!");
         }
@@ -124,6 +146,76 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
         }
     }
 
+    /**
+     * Returns the math transform between the two coordinate reference systems, from the shared
+     * cache if possible
+     */
+    static MathTransform2D getTransform(CoordinateReferenceSystem source,
+            CoordinateReferenceSystem target, Hints hints) throws FactoryException {
+        List<Object> key = Arrays.asList(source, target, hints);
+        synchronized (TRANSFORMS) {
+            MathTransform2D tx = TRANSFORMS.get(key);
+            if (tx != null) {
+                return tx;
+            }
+        }
+
+        MathTransform2D tx = (MathTransform2D) ReferencingFactoryFinder
+                .getCoordinateOperationFactory(hints).createOperation(source, target)
+                .getMathTransform();
+        synchronized (TRANSFORMS) {
+            TRANSFORMS.put(key, tx);
+        }
+        return tx;
+    }
+
+    /**
+     * Transforms the geometry packing all of its coordinates in a single array, so that the
+     * math transform is called once per geometry instead of once per coordinate sequence
+     */
+    static Geometry transform(Geometry geometry, MathTransform2D tx) throws TransformException {
+        Geometry transformed = (Geometry) geometry.clone();
+
+        final List<CoordinateSequence> sequences = new ArrayList<CoordinateSequence>();
+        transformed.apply(new GeometryComponentFilter() {
+            public void filter(Geometry g) {
+                // the source crs is not valid anymore
+                g.setUserData(null);
+                if (g instanceof LineString) {
+                    sequences.add(((LineString) g).getCoordinateSequence());
+                } else if (g instanceof Point) {
+                    sequences.add(((Point) g).getCoordinateSequence());
+                }
+            }
+        });
+
+        int size = 0;
+        for (CoordinateSequence cs : sequences) {
+            size += cs.size();
+        }
+        double[] ordinates = new double[size * 2];
+        int j = 0;
+        for (CoordinateSequence cs : sequences) {
+            for (int i = 0; i < cs.size(); i++) {
+                ordinates[j++] = cs.getX(i);
+                ordinates[j++] = cs.getY(i);
+            }
+        }
+
+        tx.transform(ordinates, 0, ordinates, 0, size);
+
+        j = 0;
+        for (CoordinateSequence cs : sequences) {
+            for (int i = 0; i < cs.size(); i++) {
+                cs.setOrdinate(i, CoordinateSequence.X, ordinates[j++]);
+                cs.setOrdinate(i, CoordinateSequence.Y, ordinates[j++]);
+            }
+        }
+        transformed.geometryChanged();
+
+        return transformed;
+    }
+
     public void setDefaultSource(CoordinateReferenceSystem defaultSource) {
         this.defaultSource = defaultSource;
     }
@@ -267,30 +359,22 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
                 if (crs != null) {
                     // if equal, nothing to do
                     if (!crs.equals(target)) {
-                        GeometryCoordinateSequenceTransformer transformer = (GeometryCoordinateSequenceTransformer) transformers
-                                .get(crs);
-
-                        if (transformer == null) {
-                            transformer = new GeometryCoordinateSequenceTransformer();
-
-                            MathTransform2D tx;
+                        MathTransform2D tx = transformers.get(crs);
 
+                        if (tx == null) {
                             try {
-                                tx = (MathTransform2D) ReferencingFactoryFinder
-                                        .getCoordinateOperationFactory(hints).createOperation(crs,
-                                                target).getMathTransform();
+                                tx = getTransform(crs, target, hints);
                             } catch (Exception e) {
                                 String msg = "Could not transform for crs: " + crs;
                                 throw (IOException) new IOException(msg).initCause(e);
                             }
 
-                            transformer.setMathTransform(tx);
-                            transformers.put(crs, transformer);
+                            transformers.put(crs, tx);
                         }
 
                         // do the transformation
                         try {
-                            object = transformer.transform(geometry);
+                            object = transform(geometry, tx);
                         } catch (TransformException e) {
                             String msg = "Error occured transforming " + geometry.toString();
                             throw (IOException) new IOException(msg).initCause(e);
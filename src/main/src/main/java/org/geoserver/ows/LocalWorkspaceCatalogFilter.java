@@ -38,6 +38,11 @@ public class LocalWorkspaceCatalogFilter extends AbstractCatalogFilter {
         this.catalog = catalog;
     }
 
+    @Override
+    public boolean isActive() {
+        return LocalWorkspace.get() != null || LocalLayer.get() != null;
+    }
+
     public boolean hideLayer(LayerInfo layer) {
         return LocalLayer.get() != null && !LocalLayer.get().equals(layer);
     }
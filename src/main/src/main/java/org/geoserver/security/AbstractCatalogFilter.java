@@ -45,4 +45,13 @@ public abstract class AbstractCatalogFilter implements CatalogFilter {
         return false;
     }
 
+    /**
+     * Returns true if the filter may hide some object in the current request. Filters that only
+     * hide objects in specific contexts should return false outside of them, allowing the
+     * secure catalog to page queries directly in the underlying catalog.
+     */
+    public boolean isActive() {
+        return true;
+    }
+
 }
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import java.util.List;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Optional interface for access managers that can decide the access to many layers at once
+ * more efficiently than one at a time.
+ * <p>
+ * The {@link SecureCatalogImpl} uses it, when operating in {@link CatalogMode#HIDE} mode, to
+ * drop the layers and resources the user cannot read before performing the per object checks.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public interface BulkAccessManager {
+
+    /**
+     * Returns the security mode in which the secure catalog must operate
+     */
+    public CatalogMode getMode();
+
+    /**
+     * Returns true if the user can read and write every layer and resource, in which case the
+     * secure catalog can return the catalog objects without checking them one by one
+     */
+    public boolean isUnrestricted(Authentication user);
+
+    /**
+     * Returns the layers the user can access in the specified mode, in the same order as the
+     * original list
+     */
+    public List<LayerInfo> filterLayers(Authentication user, List<LayerInfo> layers,
+            AccessMode mode);
+
+    /**
+     * Returns the resources the user can access in the specified mode, in the same order as the
+     * original list
+     */
+    public <T extends ResourceInfo> List<T> filterResources(Authentication user,
+            List<T> resources, AccessMode mode);
+}
@@ -137,6 +137,19 @@ public class CatalogFilterAccessManager extends ResourceAccessManagerWrapper {
         return false;
     }
     
+    /**
+     * Returns true if none of the catalog filters can hide anything in the current request
+     */
+    boolean hidesNothing() {
+        for (CatalogFilter filter : getCatalogFilters()) {
+            if (!(filter instanceof AbstractCatalogFilter) 
+                    || ((AbstractCatalogFilter) filter).isActive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private List<? extends CatalogFilter> getCatalogFilters() {
         if (filters == null) {
             filters = GeoServerExtensions.extensions(CatalogFilter.class);
@@ -4,6 +4,8 @@
  */
 package org.geoserver.security;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,11 +23,16 @@ import org.springframework.security.core.Authentication;
 
 /**
  * Adapts a {@link DataAccessManager} to the {@link ResourceAccessManager} interface
+ * <p>
+ * Bulk access checks are delegated to the adapted manager if it implements 
+ * {@link BulkAccessManager}, otherwise they are performed one object at a time. 
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  * 
  */
-public class DataAccessManagerAdapter extends AbstractResourceAccessManager {
+public class DataAccessManagerAdapter extends AbstractResourceAccessManager implements
+        BulkAccessManager {
     static final Logger LOGGER = Logging.getLogger(DataAccessManagerAdapter.class);
 
     DataAccessManager delegate;
@@ -80,6 +87,47 @@ public class DataAccessManagerAdapter extends AbstractResourceAccessManager {
         }
     }
 
+    public CatalogMode getMode() {
+        return delegate.getMode();
+    }
+
+    public boolean isUnrestricted(Authentication user) {
+        if (delegate instanceof BulkAccessManager) {
+            return ((BulkAccessManager) delegate).isUnrestricted(user);
+        }
+        return false;
+    }
+
+    public List<LayerInfo> filterLayers(Authentication user, List<LayerInfo> layers,
+            AccessMode mode) {
+        if (delegate instanceof BulkAccessManager) {
+            return ((BulkAccessManager) delegate).filterLayers(user, layers, mode);
+        }
+
+        List<LayerInfo> result = new ArrayList<LayerInfo>(layers.size());
+        for (LayerInfo layer : layers) {
+            if (delegate.canAccess(user, layer, mode)) {
+                result.add(layer);
+            }
+        }
+        return result;
+    }
+
+    public <T extends ResourceInfo> List<T> filterResources(Authentication user,
+            List<T> resources, AccessMode mode) {
+        if (delegate instanceof BulkAccessManager) {
+            return ((BulkAccessManager) delegate).filterResources(user, resources, mode);
+        }
+
+        List<T> result = new ArrayList<T>(resources.size());
+        for (T resource : resources) {
+            if (delegate.canAccess(user, resource, mode)) {
+                result.add(resource);
+            }
+        }
+        return result;
+    }
+
     public WorkspaceAccessLimits getAccessLimits(Authentication user, WorkspaceInfo workspace) {
         boolean readable = delegate.canAccess(user, workspace, AccessMode.READ);
         boolean writable = delegate.canAccess(user, workspace, AccessMode.WRITE);
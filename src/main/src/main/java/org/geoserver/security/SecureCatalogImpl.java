@@ -4,9 +4,12 @@
  */
 package org.geoserver.security;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
@@ -30,6 +33,8 @@ import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.AbstractDecorator;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerExtensions;
@@ -45,6 +50,7 @@ import org.geoserver.security.impl.DataAccessRuleDAO;
 import org.geoserver.security.impl.DefaultDataAccessManager;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.authentication.InsufficientAuthenticationException;
@@ -418,6 +424,59 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
         return filterWorkspaces(user(), delegate.getWorkspaces());
     }
 
+    public <T extends CatalogInfo> int count(Class<T> of, Filter filter) {
+        Authentication user = user();
+        if (isUnrestricted(user)) {
+            return delegate.count(of, filter);
+        }
+        CloseableIterator<T> it = new SecuredIterator<T>(user, delegate.list(of, filter));
+        try {
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            return count;
+        } finally {
+            it.close();
+        }
+    }
+
+    public <T extends CatalogInfo> T get(Class<T> type, Filter filter)
+            throws IllegalArgumentException {
+        // only the objects the user can see count as matches
+        CloseableIterator<T> it = list(type, filter, null, 2, null);
+        try {
+            if (!it.hasNext()) {
+                return null;
+            }
+            T result = it.next();
+            if (it.hasNext()) {
+                throw new IllegalArgumentException("Specified query predicate resulted in more "
+                        + "than one object");
+            }
+            return result;
+        } finally {
+            it.close();
+        }
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter) {
+        return list(of, filter, null, null, null);
+    }
+
+    public <T extends CatalogInfo> CloseableIterator<T> list(Class<T> of, Filter filter,
+            Integer offset, Integer count, SortBy sortBy) {
+        Authentication user = user();
+        if (isUnrestricted(user)) {
+            // nothing is going to be hidden or wrapped, let the delegate do the paging
+            return delegate.list(of, filter, offset, count, sortBy);
+        }
+        // security is applied after the query, so paging has to happen after it as well
+        CloseableIterator<T> it = delegate.list(of, filter, null, null, sortBy);
+        return CloseableIteratorAdapter.limit(new SecuredIterator<T>(user, it), offset, count);
+    }
+
     // -------------------------------------------------------------------
     // Security support method
     // -------------------------------------------------------------------
@@ -614,6 +673,67 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
     
     
     
+    /**
+     * Given a generic catalog object and a user, dispatches to the type specific access check
+     * @return
+     */
+    protected <T extends CatalogInfo> T checkAccess(Authentication user, T info) {
+        if (info instanceof WorkspaceInfo) {
+            return (T) checkAccess(user, (WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            return (T) checkAccess(user, (NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            return (T) checkAccess(user, (StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            return (T) checkAccess(user, (ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            return (T) checkAccess(user, (LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            return (T) checkAccess(user, (LayerGroupInfo) info);
+        } else if (info instanceof StyleInfo) {
+            return (T) checkAccess(user, (StyleInfo) info);
+        }
+        return info;
+    }
+
+    /**
+     * Iterator returning only the objects the user can access, eventually wrapped
+     */
+    class SecuredIterator<T extends CatalogInfo> implements Iterator<T>, Closeable {
+        Authentication user;
+        CloseableIterator<T> delegate;
+        T next;
+
+        SecuredIterator(Authentication user, CloseableIterator<T> delegate) {
+            this.user = user;
+            this.delegate = delegate;
+        }
+
+        public boolean hasNext() {
+            while (next == null && delegate.hasNext()) {
+                next = checkAccess(user, delegate.next());
+            }
+            return next != null;
+        }
+
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            delegate.close();
+        }
+    }
+
     /**
      * Factors out the policy that decides what access level the current user
      * has to a specific resource considering the read/write access, the security
@@ -770,6 +890,11 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
      */
     protected <T extends ResourceInfo> List<T> filterResources(Authentication user,
             List<T> resources) {
+        BulkAccessManager bulk = getBulkAccessManager();
+        if (bulk != null && resources.size() > 1) {
+            resources = bulk.filterResources(user, resources, AccessMode.READ);
+        }
+
         List<T> result = new ArrayList<T>();
         for (T original : resources) {
             T secured = checkAccess(user, original);
@@ -779,6 +904,40 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
         return result;
     }
 
+    /**
+     * Returns the access manager to be used to drop up front the layers and resources the user 
+     * cannot read, or null if there is none. This is possible only in {@link CatalogMode#HIDE} 
+     * mode, where such objects would be hidden by the per object checks anyways
+     */
+    BulkAccessManager getBulkAccessManager() {
+        ResourceAccessManager manager = accessManager;
+        // the catalog filters can only restrict access further
+        if (manager instanceof CatalogFilterAccessManager) {
+            manager = ((CatalogFilterAccessManager) manager).delegate;
+        }
+        if (manager instanceof BulkAccessManager 
+                && ((BulkAccessManager) manager).getMode() == CatalogMode.HIDE) {
+            return (BulkAccessManager) manager;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the access manager grants the user full access to every object and no 
+     * catalog filter is active, meaning the catalog objects can be returned as they are
+     */
+    boolean isUnrestricted(Authentication user) {
+        ResourceAccessManager manager = accessManager;
+        if (manager instanceof CatalogFilterAccessManager) {
+            if (!((CatalogFilterAccessManager) manager).hidesNothing()) {
+                return false;
+            }
+            manager = ((CatalogFilterAccessManager) manager).delegate;
+        }
+        return manager instanceof BulkAccessManager 
+            && ((BulkAccessManager) manager).isUnrestricted(user);
+    }
+
     /**
      * Given a list of stores, returns a copy of it containing only the
      * resources the user can access
@@ -827,6 +986,11 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
      * @return
      */
     protected List<LayerInfo> filterLayers(Authentication user, List<LayerInfo> layers) {
+        BulkAccessManager bulk = getBulkAccessManager();
+        if (bulk != null && layers.size() > 1) {
+            layers = bulk.filterLayers(user, layers, AccessMode.READ);
+        }
+
         List<LayerInfo> result = new ArrayList<LayerInfo>();
         for (LayerInfo original : layers) {
             LayerInfo secured = checkAccess(user, original);
@@ -6,7 +6,11 @@ package org.geoserver.security.impl;
 
 import static org.geoserver.security.impl.DataAccessRule.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +19,8 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.security.AccessMode;
+import org.geoserver.security.AdminRequest;
+import org.geoserver.security.BulkAccessManager;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessManager;
 import org.geotools.util.logging.Logging;
@@ -45,13 +51,34 @@ import org.geotools.util.logging.Logging;
  * If no {@link Properties} is provided, one will be looked upon in
  * <code>GEOSERVER_DATA_DIR/security/layers.properties, and the class will
  * keep up to date vs changes in the file</code>
+ * <p>
+ * Access decisions are cached by user roles, workspace, layer and access mode, the cache is 
+ * discarded every time the rules are reloaded.
+ * </p>
  * 
  * @author Andrea Aime - TOPP
  */
-public class DefaultDataAccessManager implements DataAccessManager {
+public class DefaultDataAccessManager implements DataAccessManager, BulkAccessManager {
     static final Logger LOGGER = Logging.getLogger(DataAccessManager.class);
 
-    SecureTreeNode root;
+    /**
+     * Maximum number of cached decisions, the cache is emptied when the limit is reached
+     */
+    static final int MAX_DECISIONS = 100000;
+
+    volatile SecureTreeNode root;
+
+    /**
+     * The decisions taken against the current tree. Replaced after the tree, and read before it,
+     * so that a decision taken against an old tree never ends up in the cache of a new one
+     */
+    volatile ConcurrentHashMap<DecisionKey, Boolean> decisions = 
+        new ConcurrentHashMap<DecisionKey, Boolean>();
+
+    /**
+     * The roles of the last user seen, saves rebuilding the role set for each check
+     */
+    volatile UserRoles lastRoles;
 
 //    Catalog catalog;
     
@@ -70,8 +97,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(getRoles(user), workspace.getName(), null, mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -89,6 +115,51 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, ResourceInfo resource, AccessMode mode) {
         checkPropertyFile();
+        return canAccess(getRoles(user), resource, mode);
+    }
+
+    public boolean isUnrestricted(Authentication user) {
+        checkPropertyFile();
+        Set<String> roles = getRoles(user);
+        if (roles.contains(SecureTreeNode.ROOT_ROLE)) {
+            // the administrator can do everything
+            return true;
+        }
+        // no rules other than the default ones granting read and write to everybody
+        SecureTreeNode root = this.root;
+        return root.children.isEmpty() && root.canAccess(roles, AccessMode.READ)
+                && root.canAccess(roles, AccessMode.WRITE)
+                && (AdminRequest.get() == null || root.canAccess(roles, AccessMode.ADMIN));
+    }
+
+    public List<LayerInfo> filterLayers(Authentication user, List<LayerInfo> layers,
+            AccessMode mode) {
+        checkPropertyFile();
+        Set<String> roles = getRoles(user);
+        List<LayerInfo> result = new ArrayList<LayerInfo>(layers.size());
+        for (LayerInfo layer : layers) {
+            // layers whose resource we don't know about are accessible, as in canAccess
+            if (layer.getResource() == null || canAccess(roles, layer.getResource(), mode)) {
+                result.add(layer);
+            }
+        }
+        return result;
+    }
+
+    public <T extends ResourceInfo> List<T> filterResources(Authentication user,
+            List<T> resources, AccessMode mode) {
+        checkPropertyFile();
+        Set<String> roles = getRoles(user);
+        List<T> result = new ArrayList<T>(resources.size());
+        for (T resource : resources) {
+            if (canAccess(roles, resource, mode)) {
+                result.add(resource);
+            }
+        }
+        return result;
+    }
+
+    boolean canAccess(Set<String> roles, ResourceInfo resource, AccessMode mode) {
         String workspace;
         try {
             workspace = resource.getStore().getWorkspace().getName();
@@ -99,14 +170,52 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(roles, workspace, resource.getName(), mode);
+    }
+
+    /**
+     * Decides the access to a workspace, or to a layer if not null, looking up the decision
+     * cache first
+     */
+    boolean canAccess(Set<String> roles, String workspace, String layer, AccessMode mode) {
+        ConcurrentHashMap<DecisionKey, Boolean> decisions = this.decisions;
+        SecureTreeNode root = this.root;
+
+        DecisionKey key = new DecisionKey(roles, workspace, layer, mode);
+        Boolean decision = decisions.get(key);
+        if (decision == null) {
+            SecureTreeNode node = layer == null ? 
+                root.getDeepestNode(new String[] { workspace }) : 
+                root.getDeepestNode(new String[] { workspace, layer });
+            decision = node.canAccess(roles, mode);
+
+            if (decisions.size() >= MAX_DECISIONS) {
+                decisions.clear();
+            }
+            decisions.put(key, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Returns the roles granted to the user, reusing the ones computed for the last user if
+     * it's the same
+     */
+    Set<String> getRoles(Authentication user) {
+        UserRoles last = lastRoles;
+        if (last != null && last.user == user) {
+            return last.roles;
+        }
+        Set<String> roles = SecureTreeNode.getRoles(user);
+        lastRoles = new UserRoles(user, roles);
+        return roles;
     }
 
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
             root = buildAuthorizationTree(dao);
+            decisions = new ConcurrentHashMap<DecisionKey, Boolean>();
             lastLoaded = daoLastModified;
         }
     }
@@ -155,4 +264,58 @@ public class DefaultDataAccessManager implements DataAccessManager {
         
         return root;
     }
+
+    /**
+     * Key of a cached access decision
+     */
+    static class DecisionKey {
+        Set<String> roles;
+        String workspace;
+        String layer;
+        AccessMode mode;
+        int hash;
+
+        DecisionKey(Set<String> roles, String workspace, String layer, AccessMode mode) {
+            this.roles = roles;
+            this.workspace = workspace;
+            this.layer = layer;
+            this.mode = mode;
+
+            int h = roles.hashCode();
+            h = 31 * h + (workspace != null ? workspace.hashCode() : 0);
+            h = 31 * h + (layer != null ? layer.hashCode() : 0);
+            h = 31 * h + mode.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && mode == other.mode 
+                && (workspace == null ? other.workspace == null : workspace.equals(other.workspace))
+                && (layer == null ? other.layer == null : layer.equals(other.layer))
+                && roles.equals(other.roles);
+        }
+    }
+
+    static class UserRoles {
+        Authentication user;
+        Set<String> roles;
+
+        UserRoles(Authentication user, Set<String> roles) {
+            this.user = user;
+            this.roles = roles;
+        }
+    }
 }
@@ -6,6 +6,7 @@ package org.geoserver.security.impl;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -119,31 +120,55 @@ class SecureTreeNode {
      * @return
      */
     boolean canAccess(Authentication user, AccessMode mode) {
+        return canAccess(getRoles(user), mode);
+    }
+
+    /**
+     * Same as {@link #canAccess(Authentication, AccessMode)}, but working off the set of roles
+     * granted to the user, as returned by {@link #getRoles(Authentication)}
+     * 
+     * @param userRoles
+     * @param mode
+     * @return
+     */
+    boolean canAccess(Set<String> userRoles, AccessMode mode) {
         Set<String> roles = getAuthorizedRoles(mode);
 
         // if we don't know, we ask the parent, otherwise we assume
         // the object is unsecured
         if (roles == null) {
-            return parent.canAccess(user, mode);
+            return parent.canAccess(userRoles, mode);
         }
 
         // if the roles is just "*" any granted authority will match
         if (roles.equals(EVERYBODY))
             return true;
 
-        // let's scan thru the the authorities granted to the user and
-        // see if he matches any of the write roles
-        if (user == null || user.getAuthorities() == null)
-            return false;
         // look for a match on the roles, using the "root" rules as well (root can do everything)
-        for (GrantedAuthority authority : user.getAuthorities()) {
-            final String userRole = authority.getAuthority();
-            if (roles.contains(userRole) || ROOT_ROLE.equals(userRole))
+        if (userRoles.contains(ROOT_ROLE))
+            return true;
+        for (String userRole : userRoles) {
+            if (roles.contains(userRole))
                 return true;
         }
         return false;
     }
 
+    /**
+     * Returns the names of the authorities granted to the user, an empty set if the user is 
+     * null or has no authorities
+     */
+    static Set<String> getRoles(Authentication user) {
+        if (user == null || user.getAuthorities() == null || user.getAuthorities().isEmpty())
+            return Collections.emptySet();
+
+        Set<String> roles = new HashSet<String>();
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        return roles;
+    }
+
     /**
      * Returns the authorized roles for the specified access mode. The
      * collection can be null if we don't have a rule, meaning the rule will
@@ -194,7 +194,14 @@ public class ResourcePoolTest extends GeoServerTestSupport {
         gs.save(global);
 
         Catalog catalog = getCatalog();
-        assertEquals(200, catalog.getResourcePool().featureTypeCache.getHardReferencesCount());
+        assertEquals(200, catalog.getResourcePool().featureTypeCache.getMaxSize());
+    }
+    
+    public void testStoreCacheUnboundedByDefault() {
+        ResourcePool pool = getCatalog().getResourcePool();
+        assertTrue(pool.dataStoreCache.getMaxSize() <= 0);
+        assertTrue(pool.coverageReaderCache.getMaxSize() <= 0);
+        assertTrue(pool.hintCoverageReaderCache.getMaxSize() <= 0);
     }
     
     public void testDropCoverageStore() throws Exception {
@@ -6,12 +6,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogFacade;
 import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
@@ -22,6 +24,7 @@ import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
@@ -32,6 +35,8 @@ import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.opengis.filter.Filter;
 
 public class CatalogImplTest extends TestCase {
 
@@ -1643,6 +1648,194 @@ public class CatalogImplTest extends TestCase {
         assertEquals(1, catalog.getLayerGroupsByWorkspace((WorkspaceInfo)null).size());
     }
 
+    public void testCountAndList() {
+        addLayerGroup();
+        addCoverage();
+
+        assertEquals(2, catalog.count(ResourceInfo.class, Filter.INCLUDE));
+        assertEquals(1, catalog.count(FeatureTypeInfo.class, Filter.INCLUDE));
+        assertEquals(0, catalog.count(ResourceInfo.class, Filter.EXCLUDE));
+        assertEquals(1, catalog.count(ResourceInfo.class, Predicates.equal("name", "cvName")));
+        assertEquals(1, catalog.count(LayerInfo.class, 
+            Predicates.equal("resource.store.name", "dsName")));
+        assertEquals(1, catalog.count(LayerInfo.class, 
+            Predicates.equal("defaultStyle.name", "styleName")));
+        assertEquals(1, catalog.count(LayerGroupInfo.class, 
+            Predicates.equal("layers.resource.name", "ftName")));
+        assertEquals(0, catalog.count(LayerGroupInfo.class, 
+            Predicates.equal("layers.resource.name", "cvName")));
+
+        CloseableIterator<ResourceInfo> it = 
+            catalog.list(ResourceInfo.class, Predicates.contains("name", "NAME"));
+        try {
+            List<String> names = new ArrayList<String>();
+            while (it.hasNext()) {
+                names.add(it.next().getName());
+            }
+            assertEquals(2, names.size());
+            assertTrue(names.contains("ftName"));
+            assertTrue(names.contains("cvName"));
+        } finally {
+            it.close();
+        }
+        
+        assertEquals(ft, catalog.get(FeatureTypeInfo.class, Predicates.equal("name", "ftName")));
+        assertNull(catalog.get(FeatureTypeInfo.class, Predicates.equal("name", "cvName")));
+        try {
+            catalog.get(ResourceInfo.class, Filter.INCLUDE);
+            fail("expected IllegalArgumentException, more than one object matches");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testIndexedQueries() {
+        addLayer();
+        addCoverage();
+
+        assertEquals(1, catalog.count(ResourceInfo.class, Predicates.equal("id", ft.getId())));
+        assertEquals(0, catalog.count(CoverageInfo.class, Predicates.equal("id", ft.getId())));
+        assertEquals(1, catalog.count(NamespaceInfo.class, Predicates.equal("id", ns.getId())));
+        assertEquals(1, catalog.count(DataStoreInfo.class, 
+            Predicates.equal("workspace.id", ws.getId())));
+        assertEquals(1, catalog.count(ResourceInfo.class, Predicates.and(
+            Predicates.equal("store.id", ds.getId()), Predicates.equal("name", "ftName"))));
+        assertEquals(0, catalog.count(ResourceInfo.class, Predicates.and(
+            Predicates.equal("store.id", ds.getId()), Predicates.equal("name", "cvName"))));
+        assertEquals(1, catalog.count(LayerInfo.class, Predicates.equal("resource.id", ft.getId())));
+
+        //equalities on indexed properties are answered from the indexes
+        CatalogFacade facade = ((CatalogImpl) catalog).getFacade();
+        if (facade instanceof DefaultCatalogFacade) {
+            DefaultCatalogFacade dcf = (DefaultCatalogFacade) facade;
+            assertEquals(1, dcf.candidates(ResourceInfo.class, 
+                Predicates.equal("store.id", cs.getId())).size());
+            assertEquals(2, dcf.candidates(ResourceInfo.class, 
+                Predicates.equal("abstract", "ftAbstract")).size());
+        }
+    }
+
+    public void testListSortedAndPaged() {
+        addDataStore();
+        addNamespace();
+        
+        CatalogFactory factory = catalog.getFactory();
+        for (int i = 0; i < 10; i++) {
+            FeatureTypeInfo fti = factory.createFeatureType();
+            fti.setName("ft" + i);
+            fti.setStore(ds);
+            fti.setNamespace(ns);
+            catalog.add(fti);
+        }
+
+        assertEquals(10, catalog.count(FeatureTypeInfo.class, Filter.INCLUDE));
+        
+        CloseableIterator<FeatureTypeInfo> it = catalog.list(FeatureTypeInfo.class, 
+            Filter.INCLUDE, 2, 3, Predicates.desc("name"));
+        try {
+            assertEquals("ft7", it.next().getName());
+            assertEquals("ft6", it.next().getName());
+            assertEquals("ft5", it.next().getName());
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+        
+        it = catalog.list(FeatureTypeInfo.class, Filter.INCLUDE, 8, 5, Predicates.asc("name"));
+        try {
+            assertEquals("ft8", it.next().getName());
+            assertEquals("ft9", it.next().getName());
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+        
+        //unsorted pages do not overlap and cover all the matches
+        Set<String> names = new HashSet<String>();
+        for (int offset = 0; offset < 10; offset += 3) {
+            it = catalog.list(FeatureTypeInfo.class, Filter.INCLUDE, offset, 3, null);
+            try {
+                int size = 0;
+                while (it.hasNext()) {
+                    assertTrue(names.add(it.next().getName()));
+                    size++;
+                }
+                assertEquals(Math.min(3, 10 - offset), size);
+            } finally {
+                it.close();
+            }
+        }
+        assertEquals(10, names.size());
+
+        //objects returned are modification proxies just like the list methods
+        it = catalog.list(FeatureTypeInfo.class, Predicates.equal("name", "ft0"));
+        try {
+            FeatureTypeInfo ft0 = it.next();
+            assertNotNull(ModificationProxy.handler(ft0));
+        } finally {
+            it.close();
+        }
+        
+        try {
+            catalog.list(LayerInfo.class, Filter.INCLUDE, null, null, Predicates.asc("styles"));
+            fail("sorting on a multi valued property should not be possible");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testLookupsAfterRename() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("ftRenamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getFeatureTypeByName("ftName"));
+        assertNotNull(catalog.getFeatureTypeByName("ftRenamed"));
+        assertNotNull(catalog.getFeatureTypeByStore(ds, "ftRenamed"));
+
+        //layer names derive from the resource
+        assertNull(catalog.getLayerByName("ftName"));
+        assertEquals(l.getId(), catalog.getLayerByName("ftRenamed").getId());
+
+        DataStoreInfo ds2 = catalog.getDataStoreByName(ds.getName());
+        ds2.setName("dsRenamed");
+        catalog.save(ds2);
+
+        assertNull(catalog.getDataStoreByName("dsName"));
+        assertNotNull(catalog.getDataStoreByName(ws, "dsRenamed"));
+        assertEquals(1, catalog.getDataStoresByWorkspace(ws).size());
+        assertEquals(1, catalog.getFeatureTypesByDataStore(ds2).size());
+
+        StyleInfo s2 = catalog.getStyleByName(s.getName());
+        s2.setName("styleRenamed");
+        catalog.save(s2);
+
+        assertNull(catalog.getStyleByName("styleName"));
+        assertNotNull(catalog.getStyleByName("styleRenamed"));
+    }
+
+    public void testGetLayersByStyle() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getFactory().createStyle();
+        s2.setName("styleName2");
+        s2.setFilename("styleFilename2");
+        catalog.add(s2);
+
+        assertEquals(1, catalog.getLayers(s).size());
+        assertTrue(catalog.getLayers(s2).isEmpty());
+
+        LayerInfo l2 = catalog.getLayerByName(l.getName());
+        l2.setDefaultStyle(s2);
+        catalog.save(l2);
+
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertEquals(1, catalog.getLayers(s2).size());
+
+        catalog.remove(s);
+        assertNull(catalog.getStyleByName("styleName"));
+    }
+
     static class TestListener implements CatalogListener {
 
         public List<CatalogAddEvent> added = new ArrayList();
@@ -0,0 +1,145 @@
+package org.geoserver.catalog.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+
+public class LazyResourceProxyTest extends TestCase {
+
+    Catalog catalog;
+    NamespaceInfo ns;
+    DataStoreInfo ds;
+    TestLoader loader;
+    FeatureTypeInfo ft;
+
+    @Override
+    protected void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        ns = catalog.getFactory().createNamespace();
+        ns.setPrefix("ns");
+        ns.setURI("http://ns.org");
+
+        ds = catalog.getFactory().createDataStore();
+        ds.setName("ds");
+        ds.setEnabled(true);
+
+        loader = new TestLoader();
+        ft = LazyResourceProxy.create(loader, new File("featuretype.xml"), FeatureTypeInfo.class);
+        ft.setId("ft");
+        ft.setName("foo");
+        ft.setNamespace(ns);
+        ft.setStore(ds);
+        ft.setEnabled(true);
+        ft.setCatalog(catalog);
+    }
+
+    public void testIndexedPropertiesDoNotLoad() {
+        assertEquals("ft", ft.getId());
+        assertEquals("foo", ft.getName());
+        assertSame(ns, ft.getNamespace());
+        assertSame(ds, ft.getStore());
+        assertTrue(ft.isEnabled());
+        assertTrue(ft.enabled());
+        assertEquals("ns:foo", ft.getPrefixedName());
+        assertEquals(0, loader.loads);
+    }
+
+    public void testLoad() {
+        assertEquals("foo title", ft.getTitle());
+        assertEquals(1, loader.loads);
+
+        //attached with the indexed properties
+        FeatureTypeInfo loaded = LazyResourceProxy.unwrap(ft);
+        assertEquals("ft", loaded.getId());
+        assertSame(ns, loaded.getNamespace());
+        assertSame(ds, loaded.getStore());
+        assertSame(catalog, loaded.getCatalog());
+
+        ft.getAbstract();
+        assertEquals(1, loader.loads);
+    }
+
+    public void testEvict() {
+        ft.getTitle();
+        loader.loaded = null;
+        ft.getTitle();
+        assertEquals(2, loader.loads);
+
+        //changing an indexed property discards the loaded copy
+        ft.setName("bar");
+        assertEquals("bar", ft.getName());
+        assertEquals("bar title", ft.getTitle());
+        assertEquals(3, loader.loads);
+    }
+
+    public void testSetterPins() {
+        ft.setTitle("modified");
+        assertTrue(LazyResourceProxy.handler(ft).isPinned());
+        assertEquals(1, loader.loads);
+
+        loader.loaded = null;
+        assertEquals("modified", ft.getTitle());
+        assertEquals(1, loader.loads);
+
+        //indexed properties are applied to the pinned resource
+        ft.setName("bar");
+        assertEquals("bar", LazyResourceProxy.unwrap(ft).getName());
+    }
+
+    public void testEquals() {
+        assertTrue(ft.equals(ft));
+        assertTrue(ft.equals(ModificationProxy.create(ft, FeatureTypeInfo.class)));
+        assertEquals("FeatureTypeInfo[foo]", ft.toString());
+    }
+
+    public void testEqualsAndHashCodeDoNotLoad() {
+        FeatureTypeInfo other = 
+            LazyResourceProxy.create(loader, new File("featuretype.xml"), FeatureTypeInfo.class);
+        other.setId("other");
+        FeatureTypeInfo same = 
+            LazyResourceProxy.create(loader, new File("featuretype.xml"), FeatureTypeInfo.class);
+        same.setId("ft");
+
+        assertFalse(ft.equals(other));
+        assertTrue(ft.equals(same));
+        assertEquals(ft.hashCode(), same.hashCode());
+
+        Set<FeatureTypeInfo> set = new HashSet<FeatureTypeInfo>();
+        set.add(ft);
+        set.add(other);
+        assertTrue(set.contains(same));
+        assertEquals(0, loader.loads);
+    }
+
+    static class TestLoader implements LazyResourceProxy.Loader {
+
+        int loads;
+        ResourceInfo loaded;
+
+        public ResourceInfo load(LazyResourceProxy proxy) throws IOException {
+            if (loaded == null) {
+                FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(null);
+                ft.setName(proxy.getProxy().getName());
+                ft.setTitle(ft.getName() + " title");
+                proxy.attach(ft);
+
+                loaded = ft;
+                loads++;
+            }
+            return loaded;
+        }
+
+        public void evict(LazyResourceProxy proxy) {
+            loaded = null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.util.BoundedCache.EvictionPolicy;
+
+public class BoundedCacheTest extends TestCase {
+
+    public void testLRU() {
+        TestCache cache = new TestCache(2, EvictionPolicy.LRU);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        //touch a so that b becomes the least recently used
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.peek("b"));
+        assertNotNull(cache.peek("a"));
+        assertNotNull(cache.peek("c"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.disposed.size());
+        assertEquals("B", cache.disposed.get(0));
+    }
+
+    public void testLFU() {
+        TestCache cache = new TestCache(2, EvictionPolicy.LFU);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        cache.get("b");
+        cache.get("b");
+        cache.get("b");
+
+        //a is more recently used than b, but less frequently
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertNull(cache.peek("a"));
+        assertNotNull(cache.peek("b"));
+        assertEquals("A", cache.disposed.get(0));
+    }
+
+    public void testUnbounded() {
+        TestCache cache = new TestCache(0, EvictionPolicy.LRU);
+        for (int i = 0; i < 100; i++) {
+            cache.put(String.valueOf(i), String.valueOf(i));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        cache.setMaxSize(10);
+        assertEquals(10, cache.size());
+        assertEquals(90, cache.disposed.size());
+        assertEquals("0", cache.disposed.get(0));
+    }
+
+    public void testRemoveAndClear() {
+        TestCache cache = new TestCache(10, EvictionPolicy.LRU);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        //replacing with the same value does not dispose
+        cache.put("a", "A");
+        assertTrue(cache.disposed.isEmpty());
+
+        assertEquals("A", cache.remove("a"));
+        assertEquals(1, cache.disposed.size());
+        assertNull(cache.remove("a"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.disposed.size());
+    }
+
+    public void testStatistics() {
+        TestCache cache = new TestCache(10, EvictionPolicy.LRU);
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        cache.loaded(2000000);
+        cache.get("a");
+        cache.get("a");
+        cache.get("a");
+
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRatio(), 0.0001);
+        assertEquals(1, cache.getLoads());
+        assertEquals(2, cache.getTotalLoadTime());
+        assertEquals(2.0, cache.getAverageLoadTime(), 0.0001);
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getHitRatio(), 0.0001);
+    }
+
+    public void testLock() {
+        TestCache cache = new TestCache(10, EvictionPolicy.LRU);
+        assertSame(cache.lock("a"), cache.lock(new String("a")));
+        assertNotNull(cache.lock(null));
+    }
+
+    static class TestCache extends BoundedCache<String, String> {
+        List<String> disposed = new ArrayList<String>();
+
+        TestCache(int maxSize, EvictionPolicy policy) {
+            super("test", maxSize, policy);
+        }
+
+        @Override
+        protected void dispose(String key, String value) {
+            disposed.add(value);
+        }
+    }
+}
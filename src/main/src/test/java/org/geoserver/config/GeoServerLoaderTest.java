@@ -0,0 +1,108 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.data.test.MockData;
+import org.geoserver.test.GeoServerTestSupport;
+
+public class GeoServerLoaderTest extends GeoServerTestSupport {
+
+    @Override
+    protected boolean useLegacyDataDirectory() {
+        return false;
+    }
+
+    public void testConcurrentLoading() throws Exception {
+        Catalog catalog = getCatalog();
+        LayerGroupInfo lg = catalog.getFactory().createLayerGroup();
+        lg.setName("nature");
+        lg.getLayers().add(catalog.getLayerByName(getLayerId(MockData.LAKES)));
+        lg.getLayers().add(catalog.getLayerByName(getLayerId(MockData.FORESTS)));
+        lg.getStyles().add(null);
+        lg.getStyles().add(null);
+        new CatalogBuilder(catalog).calculateLayerGroupBounds(lg);
+        catalog.add(lg);
+
+        List<String> sequential = describe(read(1));
+        List<String> concurrent = describe(read(4));
+
+        assertTrue(catalog.getWorkspaces().size() > 1);
+        assertTrue(sequential.contains("group nature " + lg.getLayers().get(0).getId() + " "
+            + lg.getLayers().get(1).getId()));
+        assertEquals(sequential, concurrent);
+    }
+
+    Catalog read(int threads) throws Exception {
+        System.setProperty(GeoServerLoader.LOADING_THREADS, String.valueOf(threads));
+        try {
+            GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+            XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+            return loader.readCatalog(xp);
+        }
+        finally {
+            System.clearProperty(GeoServerLoader.LOADING_THREADS);
+        }
+    }
+
+    /**
+     * Lists the catalog contents along with the references between them, in a stable order
+     */
+    List<String> describe(Catalog catalog) {
+        List<String> result = new ArrayList<String>();
+        for (WorkspaceInfo ws : catalog.getWorkspaces()) {
+            result.add("workspace " + ws.getName());
+        }
+        for (NamespaceInfo ns : catalog.getNamespaces()) {
+            result.add("namespace " + ns.getPrefix() + " " + ns.getURI());
+        }
+        for (StyleInfo s : catalog.getStyles()) {
+            result.add("style " + s.getName() + " " + s.getFilename() + " "
+                + (s.getWorkspace() != null ? s.getWorkspace().getName() : null));
+        }
+        for (StoreInfo s : catalog.getStores(StoreInfo.class)) {
+            result.add("store " + s.getName() + " " + s.getWorkspace().getName() + " "
+                + s.isEnabled());
+        }
+        for (ResourceInfo r : catalog.getResources(ResourceInfo.class)) {
+            result.add("resource " + r.getName() + " " + r.getStore().getName() + " "
+                + r.getNamespace().getPrefix());
+        }
+        for (LayerInfo l : catalog.getLayers()) {
+            String line = "layer " + l.getName() + " " + l.getResource().getId() + " "
+                + l.getDefaultStyle().getName();
+            List<String> styles = new ArrayList<String>();
+            for (StyleInfo s : l.getStyles()) {
+                styles.add(s.getName());
+            }
+            Collections.sort(styles);
+            line += " " + styles;
+            result.add(line);
+        }
+        for (LayerGroupInfo g : catalog.getLayerGroups()) {
+            String line = "group " + g.getName();
+            for (LayerInfo l : g.getLayers()) {
+                line += " " + l.getId();
+            }
+            result.add(line);
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
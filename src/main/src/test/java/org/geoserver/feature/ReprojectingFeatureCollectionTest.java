@@ -10,9 +10,13 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform2D;
 
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.io.WKTReader;
 
@@ -52,4 +56,46 @@ public class ReprojectingFeatureCollectionTest extends TestCase {
             it.close();
         }
     }
+
+    public void testSharedTransforms() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("foo");
+        tb.setSRS("epsg:4326");
+        tb.add("geom", Point.class);
+        DefaultFeatureCollection features = new DefaultFeatureCollection(null, 
+                tb.buildFeatureType());
+        CoordinateReferenceSystem source = features.getSchema().getCoordinateReferenceSystem();
+        
+        ReprojectingFeatureCollection first = 
+            new ReprojectingFeatureCollection(features, CRS.decode("EPSG:3005"));
+        ReprojectingFeatureCollection second = 
+            new ReprojectingFeatureCollection(features, CRS.decode("EPSG:3005"));
+        assertSame(first.transformers.get(source), second.transformers.get(source));
+    }
+    
+    public void testPackedTransform() throws Exception {
+        MathTransform2D tx = (MathTransform2D) CRS.findMathTransform(CRS.decode("EPSG:4326"), 
+                CRS.decode("EPSG:3005"), true);
+        GeometryCoordinateSequenceTransformer transformer = 
+            new GeometryCoordinateSequenceTransformer();
+        transformer.setMathTransform(tx);
+        
+        WKTReader reader = new WKTReader();
+        String[] wkts = new String[] { "POINT(50 -120)", "LINESTRING(50 -120, 51 -121, 52 -122)",
+            "MULTIPOLYGON(((50 -120, 50 -125, 55 -125, 55 -120, 50 -120), "
+                + "(51 -121, 52 -121, 52 -122, 51 -121)), ((56 -126, 56 -127, 57 -127, 56 -126)))",
+            "GEOMETRYCOLLECTION(POINT(50 -120), LINESTRING(50 -120, 51 -121))" };
+        for (String wkt : wkts) {
+            Geometry geometry = reader.read(wkt);
+            geometry.setUserData(CRS.decode("EPSG:4326"));
+            Geometry expected = transformer.transform(geometry);
+            Geometry actual = ReprojectingFeatureCollection.transform(geometry, tx);
+            
+            assertEquals(expected.getGeometryType(), actual.getGeometryType());
+            assertTrue(wkt, expected.equalsExact(actual, 1e-6));
+            assertNull(actual.getUserData());
+            // the original is left untouched
+            assertTrue(geometry.equalsExact(reader.read(wkt)));
+        }
+    }
 }
@@ -1,5 +1,9 @@
 package org.geoserver.security.impl;
+import java.util.Arrays;
+import java.util.List;
+
 import org.springframework.security.core.Authentication;
+import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
@@ -101,6 +105,39 @@ public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest
         assertTrue(wo.canAccess(milUser, arcGridLayer, AccessMode.WRITE));
     }
     
+    public void testFilterLayers() throws Exception {
+        DefaultDataAccessManager wo = 
+            (DefaultDataAccessManager) buildLegacyAccessManager("complex.properties");
+        List<LayerInfo> layers = Arrays.asList(statesLayer, roadsLayer, landmarksLayer, 
+                basesLayer, arcGridLayer);
+        
+        assertEquals(Arrays.asList(roadsLayer, landmarksLayer), 
+                wo.filterLayers(anonymous, layers, AccessMode.READ));
+        assertEquals(Arrays.asList(statesLayer, roadsLayer, landmarksLayer), 
+                wo.filterLayers(roUser, layers, AccessMode.READ));
+        assertEquals(Arrays.asList(basesLayer, arcGridLayer), 
+                wo.filterLayers(milUser, Arrays.asList(basesLayer, arcGridLayer), AccessMode.WRITE));
+        assertEquals(layers, wo.filterLayers(root, layers, AccessMode.WRITE));
+    }
+    
+    public void testDecisionCache() throws Exception {
+        DefaultDataAccessManager wo = 
+            (DefaultDataAccessManager) buildLegacyAccessManager("complex.properties");
+        assertFalse(wo.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertTrue(wo.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertEquals(2, wo.decisions.size());
+        
+        // cached decisions are the same
+        assertFalse(wo.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertTrue(wo.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertEquals(2, wo.decisions.size());
+        
+        // reloading the rules drops the cache
+        wo.lastLoaded = Long.MIN_VALUE;
+        assertTrue(wo.canAccess(roUser, toppWs, AccessMode.READ));
+        assertEquals(1, wo.decisions.size());
+    }
+    
     public void testDefaultMode() throws Exception {
         DataAccessManager wo = buildLegacyAccessManager("lockedDown.properties");
         assertEquals(CatalogMode.HIDE, wo.getMode());
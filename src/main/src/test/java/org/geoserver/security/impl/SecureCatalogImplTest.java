@@ -1,8 +1,21 @@
 package org.geoserver.security.impl;
 
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.Arrays;
+
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.security.ResourceAccessManager;
@@ -11,6 +24,8 @@ import org.geoserver.security.decorators.ReadOnlyDataStoreTest;
 import org.geoserver.security.decorators.SecuredDataStoreInfo;
 import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
 import org.geoserver.security.decorators.SecuredLayerInfo;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 public class SecureCatalogImplTest extends AbstractAuthorizationTest {
 
@@ -338,4 +353,73 @@ public class SecureCatalogImplTest extends AbstractAuthorizationTest {
         assertSame(bases, sc.getFeatureTypeByName("topp:bases"));
     }
      
+
+    public void testGetIgnoresHiddenMatches() throws Exception {
+        ResourceAccessManager manager = buildManager("complex.properties");
+        SecurityContextHolder.getContext().setAuthentication(anonymous);
+
+        // states and bases are hidden to the anonymous user, roads is visible
+        SecureCatalogImpl sc = new SecureCatalogImpl(listing(states, roads), manager);
+        assertTrue(sc.get(FeatureTypeInfo.class, Filter.INCLUDE) instanceof SecuredFeatureTypeInfo);
+
+        sc = new SecureCatalogImpl(listing(states, bases), manager);
+        assertNull(sc.get(FeatureTypeInfo.class, Filter.INCLUDE));
+
+        sc = new SecureCatalogImpl(listing(roads, landmarks), manager);
+        try {
+            sc.get(FeatureTypeInfo.class, Filter.INCLUDE);
+            fail("expected IllegalArgumentException, more than one visible object matches");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testPagingInDelegateWhenUnrestricted() throws Exception {
+        // the administrator can see everything
+        SecurityContextHolder.getContext().setAuthentication(root);
+        assertPagedInDelegate(paging(states, bases), buildManager("complex.properties"));
+
+        // without rules everybody can see everything
+        SecurityContextHolder.getContext().setAuthentication(anonymous);
+        assertPagedInDelegate(paging(states, bases), buildManager("wideOpen.properties"));
+    }
+
+    void assertPagedInDelegate(Catalog catalog, ResourceAccessManager manager) {
+        SecureCatalogImpl sc = new SecureCatalogImpl(catalog, manager);
+        assertEquals(5, sc.count(FeatureTypeInfo.class, Filter.INCLUDE));
+        CloseableIterator<FeatureTypeInfo> it = sc.list(FeatureTypeInfo.class, Filter.INCLUDE, 
+            2, 2, null);
+        try {
+            assertSame(states, it.next());
+            assertSame(bases, it.next());
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+        verify(catalog);
+    }
+
+    /**
+     * Mock catalog expecting the count and the paged query to be performed on it
+     */
+    Catalog paging(FeatureTypeInfo... featureTypes) {
+        Catalog catalog = createMock(Catalog.class);
+        expect(catalog.count(FeatureTypeInfo.class, Filter.INCLUDE)).andReturn(5);
+        expect(catalog.list(FeatureTypeInfo.class, Filter.INCLUDE, 2, 2, null)).andReturn(
+            new CloseableIteratorAdapter<FeatureTypeInfo>(Arrays.asList(featureTypes).iterator()));
+        replay(catalog);
+        return catalog;
+    }
+
+    /**
+     * Mock catalog whose queries return the specified feature types
+     */
+    Catalog listing(FeatureTypeInfo... featureTypes) {
+        Catalog catalog = createNiceMock(Catalog.class);
+        expect(catalog.list(eq(FeatureTypeInfo.class), (Filter) anyObject(), 
+            (Integer) anyObject(), (Integer) anyObject(), (SortBy) anyObject())).andReturn(
+            new CloseableIteratorAdapter<FeatureTypeInfo>(Arrays.asList(featureTypes).iterator()))
+            .anyTimes();
+        replay(catalog);
+        return catalog;
+    }
 }
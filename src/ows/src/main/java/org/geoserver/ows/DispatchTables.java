@@ -0,0 +1,249 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+
+/**
+ * Lookup tables used by the {@link Dispatcher} to locate services, request readers, responses
+ * and exception handlers without going through the application context on each request.
+ * <p>
+ * The tables are built from the extensions available when the dispatcher handles its first
+ * request, and thrown away when the application context is refreshed. Candidates for the same
+ * key are kept in extension order, sorted by version where the dispatcher needs them sorted.
+ * </p>
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+class DispatchTables {
+
+    /**
+     * sorts services by version, lowest first
+     */
+    static final Comparator<Service> SERVICE_VERSION = new Comparator<Service>() {
+        public int compare(Service s1, Service s2) {
+            return compareVersions(s1.getVersion(), s2.getVersion());
+        }
+    };
+
+    /**
+     * sorts xml readers by version and then service id, lowest first
+     */
+    static final Comparator<XmlRequestReader> XML_READER_VERSION =
+        new Comparator<XmlRequestReader>() {
+        public int compare(XmlRequestReader r1, XmlRequestReader r2) {
+            int versionCompare = compareVersions(r1.getVersion(), r2.getVersion());
+            if (versionCompare != 0) {
+                return versionCompare;
+            }
+
+            String sid1 = r1.getServiceId();
+            String sid2 = r2.getServiceId();
+            if (sid1 == null) {
+                return sid2 == null ? 0 : -1;
+            }
+            return sid2 == null ? 1 : sid1.compareTo(sid2);
+        }
+    };
+
+    final List<Service> services;
+    final Map<String, List<Service>> servicesById;
+    final Map<Service, Map<String, Method>> operations;
+
+    final Collection<KvpRequestReader> kvpReaders;
+    final Map<Class, KvpRequestReader> kvpReadersByType;
+
+    final Map<String, List<XmlRequestReader>> xmlReadersByElement;
+
+    final List<Response> responses;
+    final Map<Class, List<Response>> responsesByBinding;
+
+    final Map<Service, ServiceExceptionHandler> exceptionHandlers;
+
+    DispatchTables(Collection<Service> services, Collection<KvpRequestReader> kvpReaders,
+            Collection<XmlRequestReader> xmlReaders, List<Response> responses,
+            List<ServiceExceptionHandler> exceptionHandlers) {
+        this.services = Collections.unmodifiableList(new ArrayList<Service>(services));
+
+        //services by (case insensitive) id, sorted by version
+        Map<String, List<Service>> servicesById = new HashMap<String, List<Service>>();
+        for (Service s : services) {
+            String id = s.getId().toLowerCase();
+            List<Service> list = servicesById.get(id);
+            if (list == null) {
+                list = new ArrayList<Service>();
+                servicesById.put(id, list);
+            }
+            list.add(s);
+        }
+        for (Map.Entry<String, List<Service>> e : servicesById.entrySet()) {
+            Collections.sort(e.getValue(), SERVICE_VERSION);
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        this.servicesById = servicesById;
+
+        //operation methods by service descriptor and (case insensitive) request name, that is
+        // by service, version and request
+        Map<Service, Map<String, Method>> operations = 
+            new IdentityHashMap<Service, Map<String, Method>>();
+        for (Service s : services) {
+            operations.put(s, operations(s));
+        }
+        this.operations = operations;
+
+        //kvp readers are looked up by a request type that is not known in advance, remember
+        // the matches as they are found
+        this.kvpReaders = Collections.unmodifiableList(
+            new ArrayList<KvpRequestReader>(kvpReaders));
+        this.kvpReadersByType = new ConcurrentHashMap<Class, KvpRequestReader>();
+
+        //xml readers by (case insensitive) element name, sorted by version and service
+        Map<String, List<XmlRequestReader>> xmlReadersByElement =
+            new HashMap<String, List<XmlRequestReader>>();
+        for (XmlRequestReader r : xmlReaders) {
+            String element = r.getElement().getLocalPart().toLowerCase();
+            List<XmlRequestReader> list = xmlReadersByElement.get(element);
+            if (list == null) {
+                list = new ArrayList<XmlRequestReader>();
+                xmlReadersByElement.put(element, list);
+            }
+            list.add(r);
+        }
+        for (Map.Entry<String, List<XmlRequestReader>> e : xmlReadersByElement.entrySet()) {
+            Collections.sort(e.getValue(), XML_READER_VERSION);
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        this.xmlReadersByElement = xmlReadersByElement;
+
+        //responses are looked up by the class of the result, which is not known in advance
+        this.responses = Collections.unmodifiableList(new ArrayList<Response>(responses));
+        this.responsesByBinding = new ConcurrentHashMap<Class, List<Response>>();
+
+        //first handler declaring a service wins
+        Map<Service, ServiceExceptionHandler> handlers =
+            new HashMap<Service, ServiceExceptionHandler>();
+        for (ServiceExceptionHandler h : exceptionHandlers) {
+            for (Iterator s = h.getServices().iterator(); s.hasNext();) {
+                Service service = (Service) s.next();
+                if (!handlers.containsKey(service)) {
+                    handlers.put(service, h);
+                }
+            }
+        }
+        this.exceptionHandlers = handlers;
+    }
+
+    /**
+     * All the services.
+     */
+    List<Service> getServices() {
+        return services;
+    }
+
+    /**
+     * The services matching the id, ignoring case, sorted by version.
+     */
+    List<Service> getServices(String id) {
+        List<Service> list = servicesById.get(id.toLowerCase());
+        return list != null ? list : Collections.EMPTY_LIST;
+    }
+
+    /**
+     * The method implementing a request of the service, ignoring case, or <code>null</code> if 
+     * the service does not declare the operation or has no method for it.
+     */
+    Method getOperation(Service service, String request) {
+        Map<String, Method> methods = operations.get(service);
+        if (methods == null) {
+            //service descriptor replaced by a dispatcher callback
+            methods = operations(service);
+        }
+        return methods.get(request.toLowerCase());
+    }
+
+    static Map<String, Method> operations(Service service) {
+        Map<String, Method> methods = new HashMap<String, Method>();
+        Object bean = service.getService();
+        if (bean == null || service.getOperations() == null) {
+            return methods;
+        }
+        for (String op : service.getOperations()) {
+            Method m = OwsUtils.method(bean.getClass(), op);
+            if (m != null) {
+                methods.put(op.toLowerCase(), m);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * The kvp reader for the specified request type, or <code>null</code> if none is found.
+     */
+    KvpRequestReader getKvpRequestReader(Class type) {
+        KvpRequestReader reader = kvpReadersByType.get(type);
+        if (reader == null) {
+            reader = Dispatcher.findKvpRequestReader(type, kvpReaders);
+            if (reader != null) {
+                kvpReadersByType.put(type, reader);
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * The xml readers for the element name, ignoring case, sorted by version and service id.
+     */
+    List<XmlRequestReader> getXmlReaders(String element) {
+        List<XmlRequestReader> list =
+            element != null ? xmlReadersByElement.get(element.toLowerCase()) : null;
+        return list != null ? list : Collections.EMPTY_LIST;
+    }
+
+    /**
+     * The responses whose binding is compatible with the result class, in extension order.
+     */
+    List<Response> getResponses(Class resultClass) {
+        List<Response> list = responsesByBinding.get(resultClass);
+        if (list == null) {
+            list = new ArrayList<Response>();
+            for (Response r : responses) {
+                if (r.getBinding().isAssignableFrom(resultClass)) {
+                    list.add(r);
+                }
+            }
+            list = Collections.unmodifiableList(list);
+            responsesByBinding.put(resultClass, list);
+        }
+        return list;
+    }
+
+    /**
+     * The exception handler for the service, or <code>null</code> if none is found.
+     */
+    ServiceExceptionHandler getServiceExceptionHandler(Service service) {
+        return exceptionHandlers.get(service);
+    }
+
+    static int compareVersions(Version v1, Version v2) {
+        if (v1 == null) {
+            return v2 == null ? 0 : -1;
+        }
+        return v2 == null ? 1 : v1.compareTo(v2);
+    }
+}
@@ -56,6 +56,9 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -118,7 +121,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -147,6 +150,12 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * lookup tables for services, readers, responses and exception handlers, built on the
+     * first request and dropped when the application context is refreshed
+     */
+    volatile DispatchTables tables;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -191,6 +200,7 @@ public class Dispatcher extends AbstractController {
     protected void initApplicationContext(ApplicationContext context) {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
+        clearTables();
         
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
@@ -208,6 +218,38 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            clearTables();
+        }
+    }
+
+    /**
+     * Returns the dispatch lookup tables, building them if necessary.
+     */
+    DispatchTables tables() {
+        DispatchTables t = tables;
+        if (t == null) {
+            synchronized (this) {
+                t = tables;
+                if (t == null) {
+                    t = new DispatchTables(loadServices(), loadKvpRequestReaders(),
+                        loadXmlReaders(), GeoServerExtensions.extensions(Response.class),
+                        GeoServerExtensions.extensions(ServiceExceptionHandler.class));
+                    tables = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Drops the dispatch lookup tables, they will be rebuilt on the next request.
+     */
+    synchronized void clearTables() {
+        tables = null;
+    }
+
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -574,20 +616,11 @@ public class Dispatcher extends AbstractController {
             throw new ServiceException(msg, "MissingParameterValue", "request");
         }
 
-        // ensure the requested operation exists
-        boolean exists = false;
-        for ( String op : serviceDescriptor.getOperations() ) {
-            if ( op.equalsIgnoreCase( req.getRequest() ) ) {
-                exists = true;
-                break;
-            }
-        }
-
-        // lookup the operation, initial lookup based on (service,request)
-        Object serviceBean = serviceDescriptor.getService();
-        Method operation = OwsUtils.method(serviceBean.getClass(), req.getRequest());
+        // lookup the operation, initial lookup based on (service,version,request), it has to
+        // be declared by the service
+        Method operation = tables().getOperation(serviceDescriptor, req.getRequest());
 
-        if (operation == null || !exists) {
+        if (operation == null) {
             String msg = "No such operation " + req;
             throw new ServiceException(msg, "OperationNotSupported", req.getRequest());
         }
@@ -694,7 +727,7 @@ public class Dispatcher extends AbstractController {
                     boolean found = false;
                     Version version = new Version(req.getVersion());
 
-                    for (Iterator s = loadServices().iterator(); s.hasNext();) {
+                    for (Iterator s = tables().getServices().iterator(); s.hasNext();) {
                         Service service = (Service) s.next();
 
                         if (version.equals(service.getVersion())) {
@@ -793,17 +826,14 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
+            //look up respones, those bound to the result class come from the lookup tables
+            List responses = new ArrayList(tables().getResponses(result.getClass()));
 
             //first filter by binding, and canHandle
          O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
                 Response response = (Response) itr.next();
 
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
+                if (!response.canHandle(opDescriptor)) {
                     itr.remove();
 
                     continue;
@@ -1018,7 +1048,6 @@ public class Dispatcher extends AbstractController {
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1027,16 +1056,8 @@ public class Dispatcher extends AbstractController {
             id = id.substring(id.indexOf("/") + 1);
         }
 
-        //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
+        //first just match on service, the candidates are already sorted by version
+        List matches = tables().getServices(id);
 
         if (matches.isEmpty()) {
             return null;
@@ -1087,21 +1108,7 @@ public class Dispatcher extends AbstractController {
                 }
             }
             
-            //multiple services found, sort by version
-            if (vmatches.size() > 1) {
-                //use highest version
-                Comparator comparator = new Comparator() {
-                        public int compare(Object o1, Object o2) {
-                            Service s1 = (Service) o1;
-                            Service s2 = (Service) o2;
-
-                            return s1.getVersion().compareTo(s2.getVersion());
-                        }
-                    };
-
-                Collections.sort(vmatches, comparator);
-            }
-
+            //multiple services found, use highest version
             sBean = (Service) vmatches.get(vmatches.size() - 1);
         } else {
             //only a single match, that was easy
@@ -1123,8 +1130,10 @@ public class Dispatcher extends AbstractController {
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
+        return findKvpRequestReader(type, loadKvpRequestReaders());
+    }
 
+    static KvpRequestReader findKvpRequestReader(Class type, Collection kvpReaders) {
         List matches = new ArrayList();
 
         for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
@@ -1185,7 +1194,8 @@ public class Dispatcher extends AbstractController {
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
+        //the candidates are those with the same element name, sorted by version and service
+        Collection xmlReaders = tables().getXmlReaders(element);
 
         //first just match on namespace, element
         List matches = new ArrayList();
@@ -1285,57 +1295,7 @@ public class Dispatcher extends AbstractController {
                 }
             }
 
-            //multiple readers found, sort by version and by service match
-            if (vmatches.size() > 1) {
-                //use highest version
-                Comparator comparator = new Comparator() {
-                        public int compare(Object o1, Object o2) {
-                            XmlRequestReader r1 = (XmlRequestReader) o1;
-                            XmlRequestReader r2 = (XmlRequestReader) o2;
-
-                            Version v1 = r1.getVersion();
-                            Version v2 = r2.getVersion();
-
-                            if ((v1 == null) && (v2 == null)) {
-                                return 0;
-                            }
-
-                            if ((v1 != null) && (v2 == null)) {
-                                return 1;
-                            }
-
-                            if ((v1 == null) && (v2 != null)) {
-                                return -1;
-                            }
-
-                            int versionCompare = v1.compareTo(v2);
-
-                            if (versionCompare != 0) {
-                                return versionCompare;
-                            }
-
-                            String sid1 = r1.getServiceId();
-                            String sid2 = r2.getServiceId();
-
-                            if ((sid1 == null) && (sid2 == null)) {
-                                return 0;
-                            }
-
-                            if ((sid1 != null) && (sid2 == null)) {
-                                return 1;
-                            }
-
-                            if ((sid1 == null) && (sid2 != null)) {
-                                return -1;
-                            }
-
-                            return sid1.compareTo(sid2);
-                        }
-                    };
-
-                Collections.sort(vmatches, comparator);
-            }
-
+            //multiple readers found, they are already sorted by version and by service match
             if(vmatches.size() > 0 )
                 xmlReader = (XmlRequestReader) vmatches.get(vmatches.size() - 1);
         } else {
@@ -1391,7 +1351,7 @@ public class Dispatcher extends AbstractController {
 
     Object parseRequestKVP(Class type, Request request)
         throws Exception {
-        KvpRequestReader kvpReader = findKvpRequestReader(type);
+        KvpRequestReader kvpReader = tables().getKvpRequestReader(type);
 
         if (kvpReader != null) {
             //check for http request awareness
@@ -1602,17 +1562,7 @@ public class Dispatcher extends AbstractController {
 
         if (service != null) {
             //look up the service exception handler
-            Collection handlers = GeoServerExtensions.extensions(ServiceExceptionHandler.class);
-            for (Iterator h = handlers.iterator(); h.hasNext();) {
-                ServiceExceptionHandler seh = (ServiceExceptionHandler) h.next();
-
-                if (seh.getServices().contains(service)) {
-                    //found one,
-                    handler = seh;
-
-                    break;
-                }
-            }
+            handler = tables().getServiceExceptionHandler(service);
         }
 
         if (handler == null) {
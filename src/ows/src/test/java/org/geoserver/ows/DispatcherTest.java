@@ -25,6 +25,7 @@ import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.geotools.util.Version;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
@@ -450,4 +451,30 @@ public class DispatcherTest extends TestCase {
         dispatcher.handleRequest(request, response);
         assertEquals("Hello world!:V2", response.getOutputStreamContent());
     }
+
+    public void testDispatchTables() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = 
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        Service service = dispatcher.findService("HELLO", null, null);
+        assertNotNull(service);
+        assertSame(context.getBean("helloWorldService"), service);
+        assertNull(dispatcher.findService("goodbye", null, null));
+
+        DispatchTables tables = dispatcher.tables();
+        assertSame(tables, dispatcher.tables());
+        assertSame(context.getBean("messageKvpReader"), 
+                tables.getKvpRequestReader(Message.class));
+        assertEquals(1, tables.getXmlReaders("hello").size());
+        assertEquals(1, tables.getResponses(Message.class).size());
+        assertTrue(tables.getResponses(String.class).isEmpty());
+        assertEquals("hello", tables.getOperation(service, "HELLO").getName());
+        assertNull(tables.getOperation(service, "goodbye"));
+
+        //tables are rebuilt after a refresh
+        dispatcher.onApplicationEvent(new ContextRefreshedEvent(context));
+        assertNotSame(tables, dispatcher.tables());
+    }
 }
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.util.BoundedCache;
+import org.geoserver.rest.MapResource;
+
+/**
+ * Reports the usage statistics of the {@link org.geoserver.catalog.ResourcePool} caches.
+ *
+ * @author Justin Deoliveira, OpenGeo
+ */
+public class ResourcePoolResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map caches = new LinkedHashMap();
+        for (BoundedCache<?, ?> cache : catalog.getResourcePool().getCaches()) {
+            Map stats = new LinkedHashMap();
+            stats.put("size", cache.size());
+            stats.put("maxSize", cache.getMaxSize());
+            stats.put("policy", cache.getPolicy());
+            stats.put("hits", cache.getHits());
+            stats.put("misses", cache.getMisses());
+            stats.put("hitRatio", cache.getHitRatio());
+            stats.put("evictions", cache.getEvictions());
+            stats.put("loads", cache.getLoads());
+            stats.put("totalLoadTime", cache.getTotalLoadTime());
+            stats.put("averageLoadTime", cache.getAverageLoadTime());
+            caches.put(cache.getName(), stats);
+        }
+
+        Map map = new LinkedHashMap();
+        map.put("caches", caches);
+        return map;
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.util.BoundedCache;
+import org.geoserver.data.test.MockData;
+import org.w3c.dom.Document;
+
+public class ResourcePoolResourceTest extends CatalogRESTTestSupport {
+
+    public void testGetAsJSON() throws Exception {
+        // make sure the feature type cache gets some use
+        ResourcePool pool = catalog.getResourcePool();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(MockData.BUILDINGS));
+        pool.getFeatureType(ft);
+        pool.getFeatureType(ft);
+
+        JSON json = getAsJSON("/rest/resourcepool.json");
+        assertTrue(json instanceof JSONObject);
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        assertEquals(pool.getCaches().size(), caches.size());
+
+        for (BoundedCache<?, ?> cache : pool.getCaches()) {
+            JSONObject stats = caches.getJSONObject(cache.getName());
+            assertFalse(cache.getName(), stats.isNullObject());
+            assertEquals(cache.getMaxSize(), stats.getInt("maxSize"));
+            assertEquals(cache.getPolicy().toString(), stats.getString("policy"));
+            // the statistics only grow, the request itself might have used the caches
+            assertTrue(stats.getLong("hits") <= cache.getHits());
+            assertTrue(stats.getLong("misses") <= cache.getMisses());
+            assertTrue(stats.getLong("loads") <= cache.getLoads());
+            assertTrue(stats.getInt("size") >= 0);
+        }
+
+        JSONObject featureTypes = caches.getJSONObject("featureType");
+        assertTrue(featureTypes.getLong("hits") > 0);
+        assertTrue(featureTypes.getLong("loads") > 0);
+        assertTrue(featureTypes.getInt("size") > 0);
+    }
+
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM("/rest/resourcepool.xml");
+        for (BoundedCache<?, ?> cache : catalog.getResourcePool().getCaches()) {
+            assertEquals(cache.getName(), 1, dom.getElementsByTagName(cache.getName())
+                    .getLength());
+        }
+    }
+
+    public void testPutNotAllowed() throws Exception {
+        assertEquals(405, putAsServletResponse("/rest/resourcepool.json").getStatusCode());
+    }
+}
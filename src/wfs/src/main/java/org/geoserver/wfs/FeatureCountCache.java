@@ -0,0 +1,384 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.feature.NameImpl;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the total number of features matched by the GetFeature queries, used for numberMatched
+ * and resultType=hits, so that paging through a large layer does not count it again at each page.
+ * Only counts of queries without offset and limit are cached, the size of the returned pages is
+ * always computed.
+ * <p>
+ * Counts are keyed by layer, normalized filter, view parameters, user and roles, as the data
+ * security might filter the layer contents differently for each. They expire after
+ * {@link #DEFAULT_TIME_TO_LIVE} seconds, and are invalidated by the WFS transactions modifying
+ * the layer, both when the change occurs and once the request completes, by the catalog changes
+ * to layers and stores, and by the changes to the data access rules. Changes made to the data
+ * outside of WFS-T, or to the rules of a custom resource access manager, are picked up when the
+ * counts expire.
+ * </p>
+ * <p>
+ * The cache size, the time to live and whether counts are estimated can be set with the
+ * {@link #SIZE}, {@link #TIME_TO_LIVE} and {@link #ESTIMATE} properties, a size of 0 disables
+ * the cache.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class FeatureCountCache extends AbstractDispatcherCallback implements TransactionListener,
+        CatalogListener {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * Property controlling the maximum number of counts cached
+     */
+    public static final String SIZE = "WFS_COUNT_CACHE_SIZE";
+
+    /**
+     * Property controlling how long, in seconds, a count is cached
+     */
+    public static final String TIME_TO_LIVE = "WFS_COUNT_CACHE_TTL";
+
+    /**
+     * Property enabling estimated counts for numberMatched. When set the count is asked to the
+     * data store, and reported as unknown if the store cannot compute it without reading the
+     * features
+     */
+    public static final String ESTIMATE = "WFS_COUNT_ESTIMATE";
+
+    /**
+     * Default maximum number of counts cached
+     */
+    public static final int DEFAULT_SIZE = 1000;
+
+    /**
+     * Default time to live of a cached count, in seconds
+     */
+    public static final int DEFAULT_TIME_TO_LIVE = 60;
+
+    /**
+     * Computes a count on cache misses
+     */
+    public static interface Counter {
+        /**
+         * Returns the count, or a negative value if unknown
+         */
+        int count() throws IOException;
+    }
+
+    static final ThreadLocal<Set<Name>> modified = new ThreadLocal<Set<Name>>();
+
+    final int size;
+
+    final long timeToLive;
+
+    boolean estimate;
+
+    final Map<Key, Entry> entries;
+
+    /**
+     * The data access rules, counts are dropped when they change
+     */
+    final DataAccessRuleDAO rules;
+
+    /**
+     * Last modification time of the rules the cached counts were taken with
+     */
+    long rulesModified;
+
+    /**
+     * Incremented at each invalidation, counts computed across one are not cached
+     */
+    long generation;
+
+    public FeatureCountCache(GeoServer gs, DataAccessRuleDAO rules) {
+        this(gs, rules, getInt(SIZE, DEFAULT_SIZE), 
+            getInt(TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE) * 1000l);
+        this.estimate = Boolean.valueOf(GeoServerExtensions.getProperty(ESTIMATE));
+    }
+
+    FeatureCountCache(GeoServer gs, DataAccessRuleDAO rules, final int size, long timeToLive) {
+        this.rules = rules;
+        this.size = size;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > size;
+            }
+        };
+
+        if (gs != null) {
+            gs.getCatalog().addListener(this);
+            gs.addListener(new ConfigurationListenerAdapter() {
+                @Override
+                public void reloaded() {
+                    clear();
+                }
+            });
+        }
+    }
+
+    static int getInt(String property, int defaultValue) {
+        int result = defaultValue;
+        String value = GeoServerExtensions.getProperty(property);
+        if (value != null) {
+            try {
+                result = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + property + ", using "
+                        + result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if numberMatched should be estimated by the data store rather than computed
+     * reading the features
+     */
+    public boolean isEstimate() {
+        return estimate;
+    }
+
+    public void setEstimate(boolean estimate) {
+        this.estimate = estimate;
+    }
+
+    /**
+     * Returns the cached count of the features matched by the query, computing it with the
+     * counter if missing or expired. Negative counts, and counts of queries with an offset or a
+     * limit, are not cached.
+     */
+    public int getCount(FeatureTypeInfo meta, Query query, Counter counter) throws IOException {
+        if (size <= 0 || !query.getJoins().isEmpty() || !isUnpaged(query)) {
+            return counter.count();
+        }
+
+        // reads the rules file again if it changed
+        long modified = -1;
+        if (rules != null) {
+            rules.getMode();
+            modified = rules.getLastModified();
+        }
+
+        Key key = new Key(meta.getQualifiedName(), query);
+        long startGeneration;
+        synchronized (this) {
+            if (modified != rulesModified) {
+                clear();
+                rulesModified = modified;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() - entry.time <= timeToLive) {
+                    return entry.count;
+                }
+                entries.remove(key);
+            }
+            startGeneration = generation;
+        }
+
+        // count outside of the lock, it's the expensive part
+        long time = System.currentTimeMillis();
+        int count = counter.count();
+        if (count >= 0) {
+            synchronized (this) {
+                if (startGeneration == generation) {
+                    entries.put(key, new Entry(count, time));
+                }
+            }
+        }
+        return count;
+    }
+
+    static boolean isUnpaged(Query query) {
+        return (query.getStartIndex() == null || query.getStartIndex() <= 0)
+                && query.getMaxFeatures() == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Drops all the cached counts
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Drops the cached counts of the specified layer
+     */
+    public synchronized void clear(Name layer) {
+        generation++;
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+            if (it.next().layer.equals(layer)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of cached counts
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            return;
+        }
+        Name layer = new NameImpl(layerName.getNamespaceURI(), layerName.getLocalPart());
+        clear(layer);
+
+        // the change is not committed yet, counts taken in the meantime will be dropped
+        // again once the transaction request completes
+        Set<Name> layers = modified.get();
+        if (layers == null) {
+            layers = new HashSet<Name>();
+            modified.set(layers);
+        }
+        layers.add(layer);
+    }
+
+    @Override
+    public void finished(Request request) {
+        Set<Name> layers = modified.get();
+        if (layers != null) {
+            modified.remove();
+            for (Name layer : layers) {
+                clear(layer);
+            }
+        }
+    }
+
+    void handleChange(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo || info instanceof DataStoreInfo
+                || info instanceof NamespaceInfo || info instanceof WorkspaceInfo) {
+            clear();
+        }
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) {
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    static class Entry {
+
+        final int count;
+
+        final long time;
+
+        Entry(int count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+    }
+
+    static class Key {
+
+        final Name layer;
+
+        final Filter filter;
+
+        final Map viewParams;
+
+        final String user;
+
+        final Set<String> roles;
+
+        Key(Name layer, Query query) {
+            this.layer = layer;
+            Filter f = query.getFilter() != null ? query.getFilter() : Filter.INCLUDE;
+            this.filter = (Filter) f.accept(new SimplifyingFilterVisitor(), null);
+            Map params = query.getHints() != null ? (Map) query.getHints().get(
+                    Hints.VIRTUAL_TABLE_PARAMETERS) : null;
+            this.viewParams = params != null ? new HashMap(params) : null;
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            this.user = auth != null ? auth.getName() : null;
+            this.roles = new HashSet<String>();
+            if (auth != null && auth.getAuthorities() != null) {
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int result = layer.hashCode();
+            result = 31 * result + filter.hashCode();
+            result = 31 * result + (viewParams == null ? 0 : viewParams.hashCode());
+            result = 31 * result + (user == null ? 0 : user.hashCode());
+            return 31 * result + roles.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return layer.equals(other.layer) && filter.equals(other.filter)
+                    && equal(viewParams, other.viewParams) && equal(user, other.user)
+                    && roles.equals(other.roles);
+        }
+
+        static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
@@ -175,6 +175,9 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** feature count cache, optional */
+    FeatureCountCache countCache;
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -226,6 +229,14 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Sets the cache used for the feature counts, if not set the counts are computed at each
+     * request
+     */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request)
         throws WFSException {
         List<Query> queries = request.getQueries();
@@ -502,7 +513,12 @@ public class GetFeature {
 
                 int size = 0;
                 if (calculateSize) {
-                    size = features.size();
+                    if (request.isResultTypeHits() && FeatureCountCache.isUnpaged(gtQuery)) {
+                        // the size is the total number of matches, worth caching
+                        size = count(meta, gtQuery, source, false);
+                    } else {
+                        size = features.size();
+                    }
                 }
                 
                 //update the count
@@ -540,7 +556,10 @@ public class GetFeature {
                     else {
                         org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
                             source, request, allPropNames.get(0), viewParam, joins);
-                        totalCount += source.getFeatures(q2).size();
+                        int matched = count(meta, q2, source,
+                            countCache != null && countCache.isEstimate());
+                        // an unknown count makes the whole numberMatched unknown
+                        totalCount = matched < 0 ? -1 : totalCount + matched;
                     }
                 }
 
@@ -698,7 +717,7 @@ public class GetFeature {
 
                 //calculate the count of the next result set 
                 int nextCount = total - (offset + count);
-                if (nextCount > 0) {
+                if (nextCount > 0 || (total < 0 && count >= maxFeatures)) {
                     kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
                     //kvp.put("count", String.valueOf(nextCount));
                     kvp.put("count", String.valueOf(maxFeatures));
@@ -850,6 +869,28 @@ public class GetFeature {
         return source.getFeatures(gtQuery);
     }
 
+    /**
+     * Counts the features matched by the query, using the count cache if available. When
+     * estimating the count is asked to the source, and -1 is returned if it cannot be computed
+     * without reading the features.
+     */
+    int count(FeatureTypeInfo meta, final org.geotools.data.Query query,
+            final FeatureSource<? extends FeatureType, ? extends Feature> source,
+            final boolean estimate) throws IOException {
+        FeatureCountCache.Counter counter = new FeatureCountCache.Counter() {
+            public int count() throws IOException {
+                if (estimate) {
+                    return source.getCount(query);
+                }
+                return source.getFeatures(query).size();
+            }
+        };
+        if (countCache == null) {
+            return counter.count();
+        }
+        return countCache.getCount(meta, query, counter);
+    }
+
     /**
      * Get this query as a geotools Query.
      *
@@ -6,10 +6,8 @@ package org.geoserver.wfs;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,17 +25,19 @@ import org.eclipse.emf.ecore.EObject;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.feature.ReprojectingFeatureCollection;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.Insert;
 import org.geoserver.wfs.request.TransactionElement;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.StreamingInsertParser;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureStore;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.factory.Hints;
-import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.operation.projection.PointOutsideEnvelopeException;
 import org.opengis.feature.simple.SimpleFeature;
@@ -61,11 +61,51 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
      * logger
      */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * Property controlling how many features are sent to the store at once
+     */
+    public static final String BATCH_SIZE = "WFS_INSERT_BATCH_SIZE";
+
+    /**
+     * Default number of features sent to the store at once
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
     private FilterFactory filterFactory;
 
+    int batchSize;
+
     public InsertElementHandler(GeoServer gs, FilterFactory filterFactory) {
         super(gs);
         this.filterFactory = filterFactory;
+        this.batchSize = lookupBatchSize();
+    }
+
+    static int lookupBatchSize() {
+        int size = DEFAULT_BATCH_SIZE;
+        String value = GeoServerExtensions.getProperty(BATCH_SIZE);
+        if (value != null) {
+            try {
+                size = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + BATCH_SIZE + ", using "
+                        + size);
+            }
+        }
+        return size > 0 ? size : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * The maximum number of features sent to the store in a single
+     * {@link FeatureStore#addFeatures} call, and parsed at once when the inserts are streamed
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
     }
 
     public void checkValidity(TransactionElement element, Map<QName, FeatureTypeInfo> featureTypeInfos)
@@ -85,21 +125,21 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         long inserted = response.getTotalInserted().longValue();
 
         try {
-            // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+            // write the features in batches of consecutive features sharing the same schema,
+            // this keeps the fids in the same order as the features, and bounds the size of
+            // each write instead of accumulating the whole insert per schema
+            List<SimpleFeature> batch = new ArrayList<SimpleFeature>();
+            SimpleFeatureType batchSchema = null;
 
-            
-            List featureList = insert.getFeatures();
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
+            for (Iterator f = features(insert); f.hasNext();) {
                 SimpleFeature feature = (SimpleFeature) f.next();
                 SimpleFeatureType schema = feature.getFeatureType();
-                SimpleFeatureCollection collection;
-                collection = (SimpleFeatureCollection) schema2features.get(schema);
-
-                if (collection == null) {
-                    collection = new DefaultFeatureCollection(null, schema);
-                    schema2features.put(schema, collection);
+                if (batchSchema != null
+                        && (batch.size() >= batchSize || !batchSchema.equals(schema))) {
+                    insert(batchSchema, batch, insert, request, featureStores, response, listener);
+                    batch = new ArrayList<SimpleFeature>();
                 }
+                batchSchema = schema;
 
                 // do a check for idegen = useExisting, if set try to tell the datastore to use
                 // the privided fid
@@ -107,107 +147,12 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                     feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
                 }
 
-                collection.add(feature);
-            }
-
-            // JD: change from set fo list because if inserting
-            // features into different feature stores, they could very well
-            // get given the same id
-            // JD: change from list to map so that the map can later be
-            // processed and we can report the fids back in the same order
-            // as they were supplied
-            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
-
-            for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
-                SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                SimpleFeatureStore store;
-                store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
-
-                if (store == null) {
-                    throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
-                        + "'");
-                }
-
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List<FeatureId> fids = schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList<FeatureId>();
-                        schema2fids.put(schema.getTypeName(), fids);
-                    }
-
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            request, elementName, collection);
-                    event.setSource( insert );
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event = new TransactionEvent(TransactionEventType.POST_INSERT, request, elementName, features, insert );
-                    listener.dataStoreChange( event );
-                }
+                batch.add(feature);
+                inserted++;
             }
-
-            // report back fids, we need to keep the same order the
-            // fids were reported in the original feature collection
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-
-                // get the next fid
-                LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
-                FeatureId fid = fids.removeFirst();
-
-                response.addInsertedFeature(insert.getHandle(), fid);
+            if (!batch.isEmpty()) {
+                insert(batchSchema, batch, insert, request, featureStores, response, listener);
             }
-
-            // update the insert counter
-            inserted += featureList.size();
         } catch (Exception e) {
             String msg = "Error performing insert: " + e.getMessage();
             throw new WFSTransactionException(msg, e, insert.getHandle());
@@ -217,7 +162,91 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
-    
+    /**
+     * Returns the features of the insert, parsing them as they are read if the insert was
+     * streamed by the {@link StreamingInsertParser}
+     */
+    Iterator features(Insert insert) {
+        Iterator features = StreamingInsertParser.getFeatures(insert.getAdaptee(), batchSize);
+        return features != null ? features : insert.getFeatures().iterator();
+    }
+
+    /**
+     * Adds a batch of features sharing the same schema to their store, and reports back the fids
+     */
+    void insert(SimpleFeatureType schema, List<SimpleFeature> features, Insert insert,
+            TransactionRequest request, Map featureStores, TransactionResponse response,
+            TransactionListener listener) throws Exception {
+        final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+        SimpleFeatureStore store;
+        store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
+
+        if (store == null) {
+            throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
+                + "'");
+        }
+
+        SimpleFeatureCollection collection = new ListFeatureCollection(schema, features);
+
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(getInfo().isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+        
+        // Need to use the namespace here for the
+        // lookup, due to our weird
+        // prefixed internal typenames. see
+        // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
+
+        // Once we get our datastores making features
+        // with the correct namespaces
+        // we can do something like this:
+        // FeatureTypeInfo typeInfo =
+        // catalog.getFeatureTypeInfo(schema.getTypeName(),
+        // schema.getNamespace());
+        // until then (when geos-144 is resolved) we're
+        // stuck with:
+        // QName qName = (QName) typeNames.get( i );
+        // FeatureTypeInfo typeInfo =
+        // catalog.featureType( qName.getPrefix(),
+        // qName.getLocalPart() );
+
+        // this is possible with the insert hack above.
+        LOGGER.finer("Use featureValidation to check contents of insert");
+
+        // featureValidation(
+        // typeInfo.getDataStore().getId(), schema,
+        // collection );
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                request, elementName, collection);
+        event.setSource( insert );
+        
+        listener.dataStoreChange( event );
+        List<FeatureId> fids = store.addFeatures(collection);
+        
+        //fire post insert event
+        SimpleFeatureCollection inserted = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
+        event = new TransactionEvent(TransactionEventType.POST_INSERT, request, elementName, inserted, insert );
+        listener.dataStoreChange( event );
+
+        // report back fids, the store returns them in the same order as the features
+        for (FeatureId fid : fids) {
+            response.addInsertedFeature(insert.getHandle(), fid);
+        }
+    }
+
     /**
      * Checks that all features coordinates are within the expected coordinate range
      * @param collection
@@ -253,6 +282,11 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
     public QName[] getTypeNames(TransactionElement element) throws WFSTransactionException {
         Insert insert = (Insert) element;
         
+        Set<QName> streamed = StreamingInsertParser.getTypeNames(insert.getAdaptee());
+        if (streamed != null) {
+            return (QName[]) streamed.toArray(new QName[streamed.size()]);
+        }
+
         List typeNames = new ArrayList();
 
         List features = insert.getFeatures();
@@ -8,6 +8,8 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -29,6 +31,10 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.WKTWriter;
+
 /**
  * WFS output format for a GetFeature operation in which the outputFormat is "csv".
  * The refence specification for this format can be found in this RFC:
@@ -40,6 +46,8 @@ import org.opengis.feature.type.AttributeDescriptor;
  */
 public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
+    static final int BUFFER_SIZE = 64 * 1024;
+
     public CSVOutputFormat(GeoServer gs) {
         //this is the name of your output format, it is the string
         // that will be used when requesting the format in a 
@@ -80,8 +88,8 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             ServiceException {
     	   //write out content here
         
-        //create a writer
-        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output ) );
+        //create a writer, large buffer since rows are written a few chars at a time
+        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output ), BUFFER_SIZE );
                    
         //get the feature collection
         SimpleFeatureCollection fc = 
@@ -92,10 +100,10 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         w.write("FID,");
         for ( int i = 0; i < ft.getAttributeCount(); i++ ) {
             AttributeDescriptor ad = ft.getDescriptor( i );
-            w.write( prepCSVField(ad.getLocalName()) );
+            writeField( w, ad.getLocalName() );
                
             if ( i < ft.getAttributeCount()-1 ) {
-               w.write( "," );
+               w.write( ',' );
             }
         }
         // by RFC each line is terminated by CRLF
@@ -105,6 +113,12 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         NumberFormat coordFormatter = NumberFormat.getInstance(Locale.US);
         coordFormatter.setMaximumFractionDigits(getInfo().getGeoServer().getSettings().getNumDecimals());
         coordFormatter.setGroupingUsed(false);
+        
+        // buffers reused across all the features
+        StringBuffer number = new StringBuffer();
+        FieldPosition position = new FieldPosition(0);
+        char[] chars = new char[64];
+        WKTWriter wkt = new WKTWriter();
            
         //write out the features
         SimpleFeatureIterator i = fc.features();
@@ -112,33 +126,49 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             while( i.hasNext() ) {
                 SimpleFeature f = i.next();
                 // dump fid
-                w.write(prepCSVField(f.getID()));
-                w.write(",");
+                writeField(w, f.getID());
+                w.write(',');
                 // dump attributes
-                for ( int j = 0; j < f.getAttributeCount(); j++ ) {
+                int count = f.getAttributeCount();
+                for ( int j = 0; j < count; j++ ) {
                     Object att = f.getAttribute( j );
-                    if ( att != null ) {
-                        String value = null;
-                        if(att instanceof Number) {
-                            // don't allow scientific notation in the output, as OpenOffice won't 
-                            // recognize that as a number 
-                            value = coordFormatter.format(att);
-                        } else if(att instanceof Date) {
-                            // serialize dates in ISO format
-                            if(att instanceof java.sql.Date)
-                                value = DateUtil.serializeSqlDate((java.sql.Date) att);
-                            else if(att instanceof java.sql.Time)
-                                value = DateUtil.serializeSqlTime((java.sql.Time) att);
-                            else
-                                value = DateUtil.serializeDateTime((Date) att);
+                    if ( att instanceof Number ) {
+                        // don't allow scientific notation in the output, as OpenOffice won't 
+                        // recognize that as a number. Numbers never need escaping
+                        number.setLength(0);
+                        coordFormatter.format(att, number, position);
+                        int length = number.length();
+                        if (length > chars.length) {
+                            chars = new char[length];
+                        }
+                        number.getChars(0, length, chars, 0);
+                        w.write(chars, 0, length);
+                    } else if ( att instanceof Geometry ) {
+                        // write the wkt straight into the output, only points are free of 
+                        // commas and can go unquoted
+                        if (att instanceof Point) {
+                            wkt.write((Geometry) att, w);
                         } else {
-                            // everything else we just "toString"
-                            value = att.toString();
+                            w.write('"');
+                            wkt.write((Geometry) att, w);
+                            w.write('"');
                         }
-                        w.write( prepCSVField(value) );
+                    } else if ( att instanceof Date ) {
+                        // serialize dates in ISO format
+                        String value;
+                        if(att instanceof java.sql.Date)
+                            value = DateUtil.serializeSqlDate((java.sql.Date) att);
+                        else if(att instanceof java.sql.Time)
+                            value = DateUtil.serializeSqlTime((java.sql.Time) att);
+                        else
+                            value = DateUtil.serializeDateTime((Date) att);
+                        writeField( w, value );
+                    } else if ( att != null ) {
+                        // everything else we just "toString"
+                        writeField( w, att.toString() );
                     }
-                    if ( j < f.getAttributeCount()-1 ) {
-                        w.write(",");    
+                    if ( j < count-1 ) {
+                        w.write(',');    
                     }
                 }
                 // by RFC each line is terminated by CRLF
@@ -154,22 +184,34 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     /*
      * The CSV "spec" explains that fields with certain properties must be
      * delimited by double quotes, and also that double quotes within fields
-     * must be escaped.  This method takes a field and returns one that
-     * obeys the CSV spec.
+     * must be escaped.  This method writes out a field obeying the CSV spec,
+     * scanning it first so that fields not needing escapes are written as is.
      */    
-    private String prepCSVField(String field){
-    	// "embedded double-quote characters must be represented by a pair of double-quote characters."
-    	String mod = field.replaceAll("\"", "\"\"");
-    	
-    	/*
-    	 * Enclose string in double quotes if it contains double quotes, commas, or newlines
-    	 */
-    	if(mod.matches(".*(\"|\n|,).*")){
-    		mod = "\"" + mod + "\"";
-    	}
-    	
-		return mod;
-    	
+    static void writeField(Writer w, String field) throws IOException {
+        int length = field.length();
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == '"' || c == ',' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(field);
+            return;
+        }
+        
+        // enclose in double quotes, "embedded double-quote characters must be represented by 
+        // a pair of double-quote characters."
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (field.charAt(i) == '"') {
+                w.write(field, start, i - start + 1);
+                w.write('"');
+                start = i + 1;
+            }
+        }
+        w.write(field, start, length - start);
+        w.write('"');
     }
     
     @Override
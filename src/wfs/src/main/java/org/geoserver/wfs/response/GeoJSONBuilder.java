@@ -5,17 +5,25 @@
  */
 package org.geoserver.wfs.response;
 
+import java.io.IOException;
 import java.io.Writer;
+import java.math.BigDecimal;
 import java.util.Calendar;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
 
 import net.sf.json.JSONException;
+import net.sf.json.JSONString;
 import net.sf.json.util.JSONBuilder;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -26,13 +34,19 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
 
 
 /**
  * This class extends the JSONBuilder to be able to write out geometric types.  It is coded
  * against the draft 5 version of the spec on http://geojson.org
  *
+ * <p>
+ * Coordinates are written straight from the geometry {@link CoordinateSequence} to the
+ * underlying writer, bypassing the generic value handling of the JSONBuilder, and numbers are
+ * formatted without creating intermediate objects when a fixed number of decimals is set with
+ * {@link #setNumberOfDecimals(int)}.
+ * </p>
+ *
  * @author Chris Holmes, The Open Planning Project
  * @version $Id$
  *
@@ -40,9 +54,140 @@ import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
 public class GeoJSONBuilder extends JSONBuilder {
     private final Logger LOGGER = org.geotools.util.logging.Logging
     .getLogger(this.getClass().toString());
-    
+
+    /**
+     * Value written after raw content has been written directly to the writer, updates the
+     * state of the builder without writing anything
+     */
+    static final JSONString RAW = new JSONString() {
+        public String toJSONString() {
+            return "";
+        }
+    };
+
+    /**
+     * largest scaled value formatted through a long, beyond that we fall back on the default
+     * formatting
+     */
+    static final double MAX_SCALED = 1e17;
+
+    static final double[] POWERS = new double[18];
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    Writer out;
+
+    int numberOfDecimals = -1;
+
+    /**
+     * buffer used to format numbers
+     */
+    char[] digits = new char[32];
+
     public GeoJSONBuilder(Writer w) {
         super(w);
+        this.out = w;
+    }
+
+    /**
+     * The number of decimals used to write coordinates, a negative value means full precision.
+     */
+    public int getNumberOfDecimals() {
+        return numberOfDecimals;
+    }
+
+    /**
+     * Sets the number of decimals used to write coordinates and bounding boxes, coordinates are
+     * rounded and trailing zeros are omitted. A negative value, the default, writes coordinates
+     * with full precision.
+     */
+    public void setNumberOfDecimals(int numberOfDecimals) {
+        this.numberOfDecimals = Math.min(numberOfDecimals, POWERS.length - 1);
+    }
+
+    /**
+     * Writes a simple feature as a GeoJSON feature object.
+     * <p>
+     * If the feature has no default geometry the first geometry attribute found is used
+     * instead.
+     * </p>
+     * @param feature The feature to encode.
+     * @param featureBounding Whether to write the feature bounding box.
+     * @return <code>true</code> if a geometry was written for the feature.
+     * @throws JSONException If anything goes wrong
+     */
+    public boolean writeFeature(SimpleFeature feature, boolean featureBounding)
+        throws JSONException {
+        SimpleFeatureType fType = feature.getFeatureType();
+        List<AttributeDescriptor> types = fType.getAttributeDescriptors();
+        GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
+
+        this.object();
+        this.key("type").value("Feature");
+        this.key("id").value(feature.getID());
+
+        this.key("geometry");
+        Geometry aGeom = (Geometry) feature.getDefaultGeometry();
+
+        if (aGeom == null) {
+            // In case the default geometry is not set, we will
+            // just use the first geometry we find
+            for (int j = 0; j < types.size() && aGeom == null; j++) {
+                Object value = feature.getAttribute(j);
+                if (value != null && value instanceof Geometry) {
+                    aGeom = (Geometry) value;
+                }
+            }
+        }
+        // Write the geometry, whether it is a null or not
+        if (aGeom != null) {
+            writeGeom(aGeom);
+        } else {
+            this.value(null);
+        }
+        if (defaultGeomType != null) {
+            this.key("geometry_name").value(defaultGeomType.getLocalName());
+        }
+
+        this.key("properties");
+        this.object();
+
+        for (int j = 0; j < types.size(); j++) {
+            Object value = feature.getAttribute(j);
+            AttributeDescriptor ad = types.get(j);
+
+            if (value instanceof Geometry) {
+                // This is an area of the spec where they decided to 'let convention evolve',
+                // that is how to handle multiple geometries. My take is to print the geometry
+                // here if it's not the default. If it's the default that you already printed
+                // above, so you don't need it here.
+                if (!ad.equals(defaultGeomType)) {
+                    this.key(ad.getLocalName());
+                    writeGeom((Geometry) value);
+                }
+            } else {
+                this.key(ad.getLocalName());
+                this.value(value);
+            }
+        }
+
+        // Bounding box for feature in properties
+        if (featureBounding) {
+            BoundingBox bounds = feature.getBounds();
+            if (!bounds.isEmpty()) {
+                writeBoundingBox(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(),
+                    bounds.getMaxY());
+            }
+        }
+
+        this.endObject(); // end the properties
+        this.endObject(); // end the feature
+
+        return aGeom != null;
     }
 
     /**
@@ -62,44 +207,64 @@ public class GeoJSONBuilder extends JSONBuilder {
         if (geometryType != MULTIGEOMETRY) {
             this.key("coordinates");
 
-            switch (geometryType) {
-            case POINT:
-                Point point = (Point)geometry;
-                writeCoordinate(point.getX(), point.getY());
-                break;
-            case LINESTRING:
-                writeCoordinates(((LineString)geometry).getCoordinateSequence());
-                break;
-            case MULTIPOINT:
-                writeCoordinates(geometry.getCoordinates());
-                break;
-            case POLYGON:
-                writePolygon((Polygon) geometry);
-
-                break;
-
-            case MULTILINESTRING:
-                this.array();
-
-                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
-                    writeCoordinates(((LineString)geometry.getGeometryN(i)).getCoordinateSequence());
-                }
-
-                this.endArray();
-
-                break;
-
-            case MULTIPOLYGON:
-                this.array();
-
-                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
-                    writePolygon((Polygon) geometry.getGeometryN(i));
+            try {
+                switch (geometryType) {
+                case POINT:
+                    Point point = (Point)geometry;
+                    writeCoordinate(point.getX(), point.getY());
+                    break;
+                case LINESTRING:
+                    writeCoordinates(((LineString)geometry).getCoordinateSequence());
+                    break;
+                case MULTIPOINT:
+                    out.write('[');
+                    for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        Point p = (Point) geometry.getGeometryN(i);
+                        writeCoordinate(p.getX(), p.getY());
+                    }
+                    out.write(']');
+                    break;
+                case POLYGON:
+                    writePolygon((Polygon) geometry);
+
+                    break;
+
+                case MULTILINESTRING:
+                    out.write('[');
+
+                    for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        writeCoordinates(((LineString)geometry.getGeometryN(i)).getCoordinateSequence());
+                    }
+
+                    out.write(']');
+
+                    break;
+
+                case MULTIPOLYGON:
+                    out.write('[');
+
+                    for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        writePolygon((Polygon) geometry.getGeometryN(i));
+                    }
+
+                    out.write(']');
+
+                    break;
                 }
-
-                this.endArray();
-
-                break;
+            } catch (IOException e) {
+                throw new JSONException(e);
             }
+            // coordinates were written directly, update the builder state
+            this.value(RAW);
         } else {
             writeGeomCollection((GeometryCollection) geometry);
         }
@@ -108,8 +273,8 @@ public class GeoJSONBuilder extends JSONBuilder {
     }
 
     private JSONBuilder writeGeomCollection(GeometryCollection collection) {
-        this.array();
         this.key("geometries");
+        this.array();
 
         for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
             writeGeom(collection.getGeometryN(i));
@@ -118,66 +283,161 @@ public class GeoJSONBuilder extends JSONBuilder {
         return this.endArray();
     }
 
-    private JSONBuilder writeCoordinates(Coordinate[] coords)
-        throws JSONException {
-        return writeCoordinates(new CoordinateArraySequence(coords));
-    }
-    
     /**
      * Write the coordinates of a geometry
      * @param coords The coordinates to write
-     * @return this
-     * @throws JSONException
+     * @throws IOException
      */
-    private JSONBuilder writeCoordinates(CoordinateSequence coords)
-        throws JSONException {
-        this.array();
+    private void writeCoordinates(CoordinateSequence coords) throws IOException {
+        out.write('[');
 
         final int coordCount = coords.size();
         for (int i = 0; i < coordCount; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
             writeCoordinate(coords.getX(i), coords.getY(i));
         }
 
-        return this.endArray();
+        out.write(']');
     }
 
-    private JSONBuilder writeCoordinate(double x, double y) {
-        this.array();
-        this.value(x);
-        this.value(y);
-
-        return this.endArray();
+    private void writeCoordinate(double x, double y) throws IOException {
+        out.write('[');
+        writeNumber(x);
+        out.write(',');
+        writeNumber(y);
+        out.write(']');
     }
+
     /**
      * Turns an envelope into an array [minX,minY,maxX,maxY]
      * @param env envelope representing bounding box
      * @return this
      */
     protected JSONBuilder writeBoundingBox(Envelope env) {
+        return writeBoundingBox(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY());
+    }
+
+    JSONBuilder writeBoundingBox(double minx, double miny, double maxx, double maxy) {
         this.key("bbox");
-        this.array();
-        this.value(env.getMinX());
-        this.value(env.getMinY());
-        this.value(env.getMaxX());
-        this.value(env.getMaxY());
-        return this.endArray();
+        try {
+            out.write('[');
+            writeNumber(minx);
+            out.write(',');
+            writeNumber(miny);
+            out.write(',');
+            writeNumber(maxx);
+            out.write(',');
+            writeNumber(maxy);
+            out.write(']');
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.value(RAW);
     }
 
     /**
      * Writes a polygon
      * @param geometry The polygon to write
-     * @throws JSONException
+     * @throws IOException
      */
-    private void writePolygon(Polygon geometry) throws JSONException {
-        this.array();
+    private void writePolygon(Polygon geometry) throws IOException {
+        out.write('[');
         writeCoordinates(geometry.getExteriorRing().getCoordinateSequence());
 
         for (int i = 0, ii = geometry.getNumInteriorRing(); i < ii; i++) {
+            out.write(',');
             writeCoordinates(geometry.getInteriorRingN(i).getCoordinateSequence());
         }
 
-        this.endArray(); //end the linear ring
-                         //this.endObject(); //end the 
+        out.write(']'); //end the linear ring
+    }
+
+    /**
+     * Writes a number directly to the writer, rounded to the configured number of decimals.
+     */
+    void writeNumber(double d) throws IOException {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+
+        int n = numberOfDecimals;
+        double abs = Math.abs(d);
+        if (n < 0 || abs * POWERS[n] >= MAX_SCALED) {
+            if (abs < MAX_SCALED && d == (long) d) {
+                // integral value, same as the default formatting without allocating
+                writeLong((long) d);
+            } else {
+                out.write(formatNumber(d));
+            }
+            return;
+        }
+
+        long scaled = Math.round(abs * POWERS[n]);
+        boolean negative = d < 0 && scaled != 0;
+        int pos = digits.length;
+
+        // fractional part, skipping trailing zeros
+        boolean significant = false;
+        for (int i = 0; i < n; i++) {
+            int digit = (int) (scaled % 10);
+            scaled /= 10;
+            if (digit != 0 || significant) {
+                digits[--pos] = (char) ('0' + digit);
+                significant = true;
+            }
+        }
+        if (significant) {
+            digits[--pos] = '.';
+        }
+
+        // integral part
+        do {
+            digits[--pos] = (char) ('0' + (scaled % 10));
+            scaled /= 10;
+        } while (scaled > 0);
+
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    void writeLong(long l) throws IOException {
+        int pos = digits.length;
+        boolean negative = l < 0;
+        do {
+            digits[--pos] = (char) ('0' + Math.abs(l % 10));
+            l /= 10;
+        } while (l != 0);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * Formats a number using the shortest representation that round trips, in plain notation
+     * and dropping trailing zeros.
+     */
+    static String formatNumber(double d) {
+        String s = Double.toString(d);
+        if (s.indexOf('E') > 0) {
+            // very small or large value, avoid the exponent notation
+            s = new BigDecimal(s).toPlainString();
+        }
+        if (s.indexOf('.') > 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            s = s.substring(0, end);
+        }
+        return s;
     }
 
     /** Internal representation of OGC SF Point */
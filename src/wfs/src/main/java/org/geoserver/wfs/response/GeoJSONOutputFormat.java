@@ -24,13 +24,10 @@ import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.NamedIdentifier;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.ReferenceIdentifier;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import com.vividsolutions.jts.geom.Geometry;
 
 public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
     private final Logger LOGGER = org.geotools.util.logging.Logging
@@ -57,6 +54,23 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
         return "GEOJSON";
     }
 
+    /**
+     * The number of decimals to write coordinates with, from the NUMDECIMALS format option,
+     * full precision is used by default.
+     */
+    int getNumberOfDecimals(GetFeatureRequest gft) {
+        Object value = gft.getFormatOptions().get("NUMDECIMALS");
+        if (value != null && !"".equals(value)) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new ServiceException("Invalid NUMDECIMALS format option: " + value,
+                    "InvalidParameterValue", "format_options");
+            }
+        }
+        return -1;
+    }
+
     protected String getContentDisposition(FeatureCollectionResponse featureCollection) {
 
         StringBuffer sb = new StringBuffer();
@@ -89,6 +103,7 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
         }
 
         GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+        jsonWriter.setNumberOfDecimals(getNumberOfDecimals(gft));
 
         // execute should of set all the header information
         // including the lockID
@@ -116,87 +131,15 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
                 FeatureIterator iterator = collection.features();
 
                 try {
-                    SimpleFeatureType fType;
-                    List<AttributeDescriptor> types;
-
                     while (iterator.hasNext()) {
                         SimpleFeature feature = (SimpleFeature) iterator.next();
-                        jsonWriter.object();
-                        jsonWriter.key("type").value("Feature");
-                        jsonWriter.key("id").value(feature.getID());
-
-                        fType = feature.getFeatureType();
-                        types = fType.getAttributeDescriptors();
-
-                        GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
-
-                        if (crs == null && defaultGeomType != null)
-                            crs = fType.getGeometryDescriptor().getCoordinateReferenceSystem();
-
-                        jsonWriter.key("geometry");
-                        Geometry aGeom = (Geometry) feature.getDefaultGeometry();
-
-                        if (aGeom == null) {
-                            // In case the default geometry is not set, we will
-                            // just use the first geometry we find
-                            for (int j = 0; j < types.size() && aGeom == null; j++) {
-                                Object value = feature.getAttribute(j);
-                                if (value != null && value instanceof Geometry) {
-                                    aGeom = (Geometry) value;
-                                }
+                        if (crs == null) {
+                            GeometryDescriptor gd = feature.getFeatureType().getGeometryDescriptor();
+                            if (gd != null) {
+                                crs = gd.getCoordinateReferenceSystem();
                             }
                         }
-                        // Write the geometry, whether it is a null or not
-                        if (aGeom != null) {
-                            jsonWriter.writeGeom(aGeom);
-                            hasGeom = true;
-                        } else {
-                            jsonWriter.value(null);
-                        }
-                        if (defaultGeomType != null)
-                            jsonWriter.key("geometry_name").value(
-                                    defaultGeomType.getLocalName());
-
-                        jsonWriter.key("properties");
-                        jsonWriter.object();
-
-                        for (int j = 0; j < types.size(); j++) {
-                            Object value = feature.getAttribute(j);
-                            AttributeDescriptor ad = types.get(j);
-
-                            if (value != null) {
-                                if (value instanceof Geometry) {
-                                    // This is an area of the spec where they
-                                    // decided to 'let convention evolve', 
-                                    // that is how to handle multiple
-                                    // geometries. My take is to print the
-                                    // geometry here if it's not the default. 
-                                    // If it's the default that you already
-                                    // printed above, so you don't need it here.
-                                    if (ad.equals(defaultGeomType)) {
-                                        // Do nothing, we wrote it above
-                                        // jsonWriter.value("geometry_name");
-                                    } else {
-                                        jsonWriter.key(ad.getLocalName());
-                                        jsonWriter.writeGeom((Geometry) value);
-                                    }
-                                } else {
-                                    jsonWriter.key(ad.getLocalName());
-                                    jsonWriter.value(value);
-                                }
-
-                            } else {
-                                jsonWriter.key(ad.getLocalName());
-                                jsonWriter.value(null);
-                            }
-                        }
-                        // Bounding box for feature in properties
-                        ReferencedEnvelope refenv = new ReferencedEnvelope(feature.getBounds());
-                        if (featureBounding && !refenv.isEmpty())
-                            jsonWriter.writeBoundingBox(refenv);
-
-                        jsonWriter.endObject(); // end the properties
-                        jsonWriter.endObject(); // end the feature
+                        hasGeom |= jsonWriter.writeFeature(feature, featureBounding);
                     }
                 } // catch an exception here?
                 finally {
@@ -13,6 +13,7 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -29,8 +30,17 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -66,7 +76,6 @@ import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
@@ -101,6 +110,13 @@ import freemarker.template.Template;
  *
  * Based on ShapeFeatureResponseDelegate.java from geoserver 1.5.x
  *
+ * <p>
+ * When multiple feature collections are returned the shapefiles are written in parallel by a
+ * pool of {@link #GS_SHAPEFILE_THREADS} threads shared among all requests, and each shapefile
+ * set is added to the zip file as soon as it is complete. The temporary disk space used while
+ * writing can be limited with {@link #GS_SHAPEFILE_MAX_DISK}.
+ * </p>
+ *
  * @author originally authored by Chris Holmes, The Open Planning Project, cholmes@openplans.org
  * @author ported to gs 1.6.x by Saul Farber, MassGIS, saul.farber@state.ma.us
  *
@@ -109,6 +125,34 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private static final Logger LOGGER = Logging.getLogger(ShapeZipOutputFormat.class);
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
+
+    /**
+     * Number of threads writing shapefiles in parallel, defaults to the number of processors, 1
+     * writes them sequentially in the request thread
+     */
+    public static final String GS_SHAPEFILE_THREADS = "GS-SHAPEFILE-THREADS";
+
+    /**
+     * Maximum temporary disk space, in megabytes, the shapefiles of a single request can use
+     * before the request is aborted. Unlimited by default
+     */
+    public static final String GS_SHAPEFILE_MAX_DISK = "GS-SHAPEFILE-MAX-DISK";
+
+    /**
+     * number of features written between two checks of the temporary disk space used
+     */
+    static final int DISK_CHECK_INTERVAL = 1000;
+
+    /**
+     * The files making up the zip file
+     */
+    static final FilenameFilter ZIP_FILTER = new FilenameFilter() {
+
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
+                   || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
+        }
+    };
     
     private static final Configuration templateConfig = new Configuration();
     
@@ -116,6 +160,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private Catalog catalog;
 	private GeoServerResourceLoader resourceLoader;
     
+    /**
+     * Thread pool shared by all the instances, the threads go away when idle
+     */
+    private static ExecutorService executor;
+    
     /**
      * Tuple used when fanning out a collection with generic geometry types to multiple outputs 
      * @author Administrator
@@ -126,6 +175,96 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
     }
 
+    /**
+     * Keeps track of the temporary disk space used by the shapefiles of a request, and allows
+     * the writers still running to be stopped when one of them fails
+     */
+    static class WriteMonitor {
+        File directory;
+        long maxSize;
+        volatile String abortMessage;
+
+        WriteMonitor(File directory, long maxSize) {
+            this.directory = directory;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Called by the writers for each feature written, throws an exception if the writing
+         * has been aborted or the disk space limit has been exceeded.
+         */
+        void checkpoint(long features) {
+            if (abortMessage != null) {
+                throw new ServiceException(abortMessage);
+            }
+            if (maxSize > 0 && features % DISK_CHECK_INTERVAL == 0 && sizeOf(directory) > maxSize) {
+                abort("The shapefiles exceed the maximum temporary disk space of "
+                        + (maxSize / 1024 / 1024) + "MB");
+                throw new ServiceException(abortMessage);
+            }
+        }
+
+        void abort(String message) {
+            if (abortMessage == null) {
+                abortMessage = message;
+            }
+        }
+
+        /**
+         * Size of a directory, tolerating files being removed while it is computed
+         */
+        static long sizeOf(File file) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                return file.length();
+            }
+            long size = 0;
+            for (File f : files) {
+                size += sizeOf(f);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Writes a single feature collection into its own directory
+     */
+    class ShapefileWriter implements Runnable {
+        SimpleFeatureCollection collection;
+        FeatureTypeInfo ftInfo;
+        File directory;
+        Charset charset;
+        GetFeatureRequest request;
+        WriteMonitor monitor;
+
+        boolean created;
+
+        ShapefileWriter(SimpleFeatureCollection collection, FeatureTypeInfo ftInfo,
+                File directory, Charset charset, GetFeatureRequest request, WriteMonitor monitor) {
+            this.collection = collection;
+            this.ftInfo = ftInfo;
+            this.directory = directory;
+            this.charset = charset;
+            this.request = request;
+            this.monitor = monitor;
+        }
+
+        public void run() {
+            monitor.checkpoint(0);
+            Class geomType = collection.getSchema().getGeometryDescriptor().getType().getBinding();
+            if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
+                // in this case we fan out the output to multiple shapefiles
+                created = writeCollectionToShapefiles(collection, ftInfo, directory, charset,
+                        request, monitor);
+            } else {
+                // simple case, only one and supported type
+                writeCollectionToShapefile(collection, ftInfo, directory, charset, request,
+                        monitor);
+                created = true;
+            }
+        }
+    }
+
     /**
      * @deprecated use {@link #ShapeZipOutputFormat(GeoServer)}
      */
@@ -216,53 +355,48 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         File tempDir = IOUtils.createTempDirectory("shpziptemp");
-        
-        // target charset
+        WriteMonitor monitor = new WriteMonitor(tempDir, getMaxDiskSize());
         
         try {
-           // if an empty result out of feature type with unknown geometry is created, the
-            // zip file will be empty and the zip output stream will break
-            boolean shapefileCreated = false;
-            for (SimpleFeatureCollection curCollection : collections) {
-                
+            // look up the feature types and prepare the writers in the request thread, each
+            // collection is written in its own directory
+            List<ShapefileWriter> writers = new ArrayList<ShapefileWriter>();
+            for (int i = 0; i < collections.size(); i++) {
+                SimpleFeatureCollection curCollection = collections.get(i);
                 if(curCollection.getSchema().getGeometryDescriptor() == null) {
                     throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
                             + curCollection.getSchema() + " has no geometry field");
                 } 
-                Class geomType = curCollection.getSchema().getGeometryDescriptor().getType().getBinding();
-                if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
-                    // in this case we fan out the output to multiple shapefiles
-                    shapefileCreated |= writeCollectionToShapefiles(curCollection, tempDir, charset, request);
-                } else {
-                    // simple case, only one and supported type
-                    writeCollectionToShapefile(curCollection, tempDir, charset, request);
-                    shapefileCreated = true;
+                File dir = new File(tempDir, String.valueOf(i));
+                if (!dir.mkdir()) {
+                    throw new IOException("Could not create directory " + dir.getAbsolutePath());
                 }
-
+                writers.add(new ShapefileWriter(curCollection, getFeatureTypeInfo(curCollection),
+                        dir, charset, request, monitor));
             }
+
+            ZipOutputStream zipOut = new ZipOutputStream(output);
+            Set<String> zipped = new HashSet<String>();
+
+            // if an empty result out of feature type with unknown geometry is created, the
+            // zip file will be empty and the zip output stream will break
+            boolean shapefileCreated = writeShapefiles(writers, zipOut, zipped, monitor);
             
             // take care of the case the output is completely empty
             if(!shapefileCreated) {
                 SimpleFeatureCollection fc;
                 fc = (SimpleFeatureCollection) collections.get(0);
+                FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc);
                 fc = remapCollectionSchema(fc, Point.class);
-                writeCollectionToShapefile(fc, tempDir, charset, request);
+                writeCollectionToShapefile(fc, ftInfo, tempDir, charset, request, monitor);
                 createEmptyZipWarning(tempDir);
             }
             
             // dump the request
             createRequestDump(tempDir, request, collections.get(0));
             
-            // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
-            ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
+            // zip the remaining files
+            zipFiles(tempDir, zipOut, zipped);
             zipOut.finish();
 
             // This is an error, because this closes the output stream too... it's
@@ -278,6 +412,190 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Runs the shapefile writers, in parallel if more than one and a thread pool is available,
+     * adding the files of each one to the zip in query order, as soon as it completes.
+     * 
+     * @return true if a shapefile has been created, false otherwise
+     */
+    boolean writeShapefiles(List<ShapefileWriter> writers, ZipOutputStream zipOut,
+            Set<String> zipped, WriteMonitor monitor) throws IOException {
+        boolean shapefileCreated = false;
+
+        ExecutorService executor = writers.size() > 1 ? getExecutor() : null;
+        if (executor == null) {
+            for (ShapefileWriter writer : writers) {
+                writer.run();
+                shapefileCreated |= writer.created;
+                zipFiles(writer.directory, zipOut, zipped);
+            }
+            return shapefileCreated;
+        }
+
+        List<Future<ShapefileWriter>> futures = new ArrayList<Future<ShapefileWriter>>();
+        for (ShapefileWriter writer : writers) {
+            futures.add(executor.submit(writer, writer));
+        }
+
+        // zip in query order so that the names given to duplicate shapefiles do not depend
+        // on which writer completes first
+        int completed = 0;
+        try {
+            for (; completed < futures.size(); completed++) {
+                ShapefileWriter writer = futures.get(completed).get();
+                shapefileCreated |= writer.created;
+                zipFiles(writer.directory, zipOut, zipped);
+            }
+        } catch (InterruptedException e) {
+            throw new ServiceException("Interrupted while writing the shapefiles", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ServiceException(cause);
+        } finally {
+            if (completed < futures.size()) {
+                // stop the writers still running, and wait for them to complete before the 
+                // temporary directory gets removed
+                monitor.abort("Shapefile generation aborted");
+                for (Future<ShapefileWriter> f : futures) {
+                    try {
+                        f.get();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, "Shapefile writer failed after abort", e);
+                    }
+                }
+            }
+        }
+        return shapefileCreated;
+    }
+
+    /**
+     * Adds the files in a directory to the zip file. Files whose name has been already used,
+     * for example when two queries return the same feature type, get a numeric suffix, the same 
+     * for all the files of a shapefile.
+     */
+    void zipFiles(File directory, ZipOutputStream zipOut, Set<String> zipped) throws IOException {
+        File[] files = directory.listFiles(ZIP_FILTER);
+        if (files == null) {
+            return;
+        }
+        Map<String, String> renamed = new HashMap<String, String>();
+        byte[] buffer = new byte[4 * 1024];
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            String base = dot > 0 ? name.substring(0, dot) : name;
+            String extension = dot > 0 ? name.substring(dot) : "";
+            String unique = renamed.get(base);
+            if (unique == null) {
+                unique = uniqueName(base, files, zipped);
+                renamed.put(base, unique);
+            }
+            zipped.add(unique + extension);
+            zipOut.putNextEntry(new ZipEntry(unique + extension));
+            InputStream in = new FileInputStream(file);
+            try {
+                int c;
+                while (-1 != (c = in.read(buffer))) {
+                    zipOut.write(buffer, 0, c);
+                }
+                zipOut.closeEntry();
+            } finally {
+                in.close();
+            }
+            // release the disk space as soon as possible
+            file.delete();
+        }
+        zipOut.flush();
+    }
+
+    /**
+     * Returns a base name for the files sharing the specified base name that does not clash with
+     * the files already zipped
+     */
+    String uniqueName(String base, File[] files, Set<String> zipped) {
+        String candidate = base;
+        for (int i = 1; clashes(base, candidate, files, zipped); i++) {
+            candidate = base + "_" + i;
+        }
+        return candidate;
+    }
+
+    boolean clashes(String base, String candidate, File[] files, Set<String> zipped) {
+        for (File file : files) {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot == base.length() && name.startsWith(base)
+                    && zipped.contains(candidate + name.substring(dot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the thread pool used to write shapefiles in parallel, or null if they should be
+     * written sequentially
+     */
+    ExecutorService getExecutor() {
+        synchronized (ShapeZipOutputFormat.class) {
+            if (executor != null) {
+                return executor;
+            }
+
+            int threads = Runtime.getRuntime().availableProcessors();
+            String value = GeoServerExtensions.getProperty(GS_SHAPEFILE_THREADS, applicationContext);
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + GS_SHAPEFILE_THREADS
+                            + ", using " + threads);
+                }
+            }
+            if (threads <= 1) {
+                return null;
+            }
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, 
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ShapeZipWriter-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            return executor;
+        }
+    }
+
+    /**
+     * The maximum temporary disk space a request can use, in bytes, 0 for no limit
+     */
+    long getMaxDiskSize() {
+        String value = GeoServerExtensions.getProperty(GS_SHAPEFILE_MAX_DISK, applicationContext);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + GS_SHAPEFILE_MAX_DISK
+                        + ", temporary disk space won't be limited");
+            }
+        }
+        return 0;
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
@@ -349,10 +667,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      * @param c the featurecollection to write
      * @param tempDir the temp directory into which it should be written
      */
-    private void writeCollectionToShapefile(SimpleFeatureCollection c, File tempDir, Charset charset, 
-        GetFeatureRequest request) {
-        FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
-
+    private void writeCollectionToShapefile(SimpleFeatureCollection c, FeatureTypeInfo ftInfo,
+        File tempDir, Charset charset, GetFeatureRequest request, WriteMonitor monitor) {
         c = remapCollectionSchema(c, null);
         
         SimpleFeatureType schema = c.getSchema();
@@ -366,7 +682,6 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         	c = new RetypingFeatureCollection(c, renamed);
         }
 
-        SimpleFeatureStore fstore = null;
         ShapefileDataStore dstore = null;
         try {
             // create attribute name mappings, to be compatible 
@@ -378,11 +693,26 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             SimpleFeatureCollection remapped = new RemappingFeatureCollection(c,attributeMappings);
             SimpleFeatureType remappedSchema=(SimpleFeatureType)remapped.getSchema();
             dstore = buildStore(tempDir, charset,  remappedSchema); 
-            fstore = (SimpleFeatureStore) dstore.getFeatureSource();
+            SimpleFeatureType storeSchema = dstore.getSchema();
             // we need retyping too, because the shapefile datastore
             // could have sorted fields in a different order
-            SimpleFeatureCollection retyped = new RetypingFeatureCollection(remapped, fstore.getSchema());
-            fstore.addFeatures(retyped);
+            SimpleFeatureCollection retyped = new RetypingFeatureCollection(remapped, storeSchema);
+            FeatureWriter<SimpleFeatureType, SimpleFeature> writer = 
+                dstore.getFeatureWriterAppend(storeSchema.getTypeName(), Transaction.AUTO_COMMIT);
+            SimpleFeatureIterator it = retyped.features();
+            try {
+                long count = 0;
+                while (it.hasNext()) {
+                    monitor.checkpoint(++count);
+                    SimpleFeature f = it.next();
+                    SimpleFeature fw = writer.next();
+                    fw.setAttributes(f.getAttributes());
+                    writer.write();
+                }
+            } finally {
+                it.close();
+                writer.close();
+            }
             
             changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName,
 					remappedSchema);
@@ -595,19 +925,20 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      * @param request 
      * @return true if a shapefile has been created, false otherwise
      */
-    private boolean writeCollectionToShapefiles(SimpleFeatureCollection c, File tempDir, Charset charset, 
-        GetFeatureRequest request) {
-        FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
+    private boolean writeCollectionToShapefiles(SimpleFeatureCollection c, FeatureTypeInfo ftInfo,
+        File tempDir, Charset charset, GetFeatureRequest request, WriteMonitor monitor) {
         c = remapCollectionSchema(c, null);
         SimpleFeatureType schema = c.getSchema();
         
         boolean shapefileCreated = false;
         
         Map<Class, StoreWriter> writers = new HashMap<Class, StoreWriter>();
-        SimpleFeatureIterator it;
+        SimpleFeatureIterator it = null;
         try {
             it = c.features(); 
+            long count = 0;
             while(it.hasNext()) {
+                monitor.checkpoint(++count);
                 SimpleFeature f = it.next();
                 
                 if(f.getDefaultGeometry() == null) {
@@ -615,7 +946,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                     continue;
                 }
                 
-                FeatureWriter<SimpleFeatureType, SimpleFeature> writer = getFeatureWriter(ftInfo, f, writers, tempDir, charset);
+                FeatureWriter<SimpleFeatureType, SimpleFeature> writer = getFeatureWriter(ftInfo, f,
+                        writers, tempDir, charset, request, schema);
                 SimpleFeature fw = writer.next();
                 
                 // we cannot trust attribute order, shapefile changes the location and name of the geometry
@@ -625,11 +957,6 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 fw.setDefaultGeometry(f.getDefaultGeometry());
                 writer.write();
                 shapefileCreated = true;
-                writer.getFeatureType().getName().getLocalPart();
-                String geometryType = (String) getGeometryType((Geometry)f.getDefaultGeometry()).get("geometryType");
-				String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, geometryType);
-                changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName,
-                		schema);
             }
             
         } catch (FactoryException fe) {
@@ -644,6 +971,9 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             // close all writers, dispose all datastores, even if an exception occurs
             // during closeup (shapefile datastore will have to copy the shapefiles, that migh
             // fail in many ways)
+            if(it != null) {
+                it.close();
+            }
             IOException stored = null;
             for (StoreWriter sw : writers.values()) {
                 try {
@@ -666,7 +996,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      * and a new writer if there are none so far
      */
     private FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(FeatureTypeInfo ftInfo, SimpleFeature f, 
-            Map<Class, StoreWriter> writers, File tempDir, Charset charset) throws IOException {
+            Map<Class, StoreWriter> writers, File tempDir, Charset charset, GetFeatureRequest request,
+            SimpleFeatureType schema) throws IOException, FactoryException {
         // get the target class
     	Map<String, Object> map = getGeometryType((Geometry) f.getDefaultGeometry());
         Class<?> target = (Class<?>) map.get("target");
@@ -700,6 +1031,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             storeWriter.dstore = dstore;
             storeWriter.writer = dstore.getFeatureWriter(retyped.getTypeName(), Transaction.AUTO_COMMIT);
             writers.put(target, storeWriter);
+
+            changeWKTFormatIfFileFormatIsESRI(tempDir, request, fileName, schema);
         }
         return storeWriter.writer;
     }
@@ -45,6 +45,7 @@ import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.WFSInfo;
@@ -102,6 +103,12 @@ public abstract class FeatureTypeSchemaBuilder {
     protected String gmlPrefix;
     protected Configuration xmlConfiguration;
     protected volatile XSDElementDeclaration featureSubGroupElement;
+    
+    /**
+     * the shared schema cache, looked up on first use
+     */
+    FeatureTypeSchemaCache schemaCache;
+    boolean schemaCacheLookedUp;
 
     protected FeatureTypeSchemaBuilder(GeoServer gs) {
         this.wfs = gs.getService( WFSInfo.class );
@@ -143,6 +150,15 @@ public abstract class FeatureTypeSchemaBuilder {
 
     public XSDSchema build(FeatureTypeInfo[] featureTypeInfos, String baseUrl, 
         boolean resolveAppSchemaImports, boolean scheduleSchemaCleanup) throws IOException {
+        // use the cache if the schema can be released at the end of the request, callers 
+        // managing the schema lifecycle get their own copy
+        if (scheduleSchemaCleanup) {
+            FeatureTypeSchemaCache cache = getSchemaCache();
+            if (cache != null && cache.isCacheable(featureTypeInfos, resolveAppSchemaImports)) {
+                return cache.get(this, featureTypeInfos, baseUrl, resolveAppSchemaImports);
+            }
+        }
+        
         // build the schema and make sure to schedule it for destruction at the end of the request
         XSDSchema schema = buildSchemaInternal(featureTypeInfos, baseUrl, resolveAppSchemaImports);
         if(schema != null && scheduleSchemaCleanup) {
@@ -151,6 +167,14 @@ public abstract class FeatureTypeSchemaBuilder {
         return schema;
     }
     
+    synchronized FeatureTypeSchemaCache getSchemaCache() {
+        if (!schemaCacheLookedUp) {
+            schemaCache = GeoServerExtensions.bean(FeatureTypeSchemaCache.class);
+            schemaCacheLookedUp = true;
+        }
+        return schemaCache;
+    }
+    
     public final XSDSchema buildSchemaInternal(FeatureTypeInfo[] featureTypeInfos, String baseUrl, 
         boolean resolveAppSchemaImports) throws IOException {
 
@@ -304,8 +328,10 @@ public abstract class FeatureTypeSchemaBuilder {
                             featureTypes.add(catalog.getFeatureTypeByName(typeName));
                         }
 
-                        resolved = build(featureTypes.toArray(
-                            new FeatureTypeInfo[featureTypes.size()]), baseUrl);
+                        // not cached, the import below changes the resolved schema
+                        resolved = buildSchemaInternal(featureTypes.toArray(
+                            new FeatureTypeInfo[featureTypes.size()]), baseUrl, false);
+                        SchemaCleanerCallback.addSchema(resolved);
                         
                         //ensure we declare the wfs and gml namespaces as well
                         schema.getQNamePrefixToNamespaceMap().put("gml", gmlNamespace);
@@ -0,0 +1,410 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.xsd.XSDSchema;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.xml.Schemas;
+
+/**
+ * Caches the schemas built by the {@link FeatureTypeSchemaBuilder}, so that DescribeFeatureType
+ * and the GetFeature requests needing the application schema do not rebuild it each time.
+ * <p>
+ * Schemas are keyed by the builder class, that is, the GML version, the feature types in request
+ * order, the base URL and whether the application schema imports are resolved. Heterogeneous
+ * schemas with resolved imports are not cached, as they reference other schemas built along
+ * with them. The cache is invalidated by changes to the catalog and to the service
+ * configuration, the schemas of a modified or removed feature type are dropped, any other change
+ * to namespaces, workspaces or stores, or a catalog reload, drops all of them.
+ * </p>
+ * <p>
+ * The EMF model behind a schema is not thread safe, it resolves references lazily and its DOM is
+ * updated when serialized, so a cached schema is used by a single request at a time: a request
+ * takes the schema out of the cache, and gives it back once it completes. Concurrent requests
+ * for the same schema build their own copy, the copies are then cached as well. A schema in use
+ * by a request is disposed only once the request completes, even if it's evicted in the meantime.
+ * The cache holds up to {@link #DEFAULT_SIZE} schemas, the size can be changed with the
+ * {@link #SIZE} property, a size of 0 disables the cache.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class FeatureTypeSchemaCache implements CatalogListener {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * Property controlling the maximum number of schemas cached
+     */
+    public static final String SIZE = "WFS_SCHEMA_CACHE_SIZE";
+
+    /**
+     * Default maximum number of schemas cached
+     */
+    public static final int DEFAULT_SIZE = 64;
+
+    final int size;
+
+    /**
+     * The schemas not in use by any request, least recently used key first
+     */
+    final Map<Key, List<Entry>> idle;
+
+    /**
+     * The schemas in use by a request
+     */
+    final Set<Entry> inUse = new HashSet<Entry>();
+
+    /**
+     * Number of schemas in {@link #idle}
+     */
+    int idleCount;
+
+    /**
+     * Incremented at each invalidation, schemas built across one are not cached
+     */
+    long generation;
+
+    public FeatureTypeSchemaCache(GeoServer gs) {
+        this(gs, getSize());
+    }
+
+    FeatureTypeSchemaCache(GeoServer gs, final int size) {
+        this.size = size;
+        this.idle = new LinkedHashMap<Key, List<Entry>>(16, 0.75f, true);
+
+        if (gs != null) {
+            gs.getCatalog().addListener(this);
+            gs.addListener(new ConfigurationListenerAdapter() {
+                @Override
+                public void handlePostGlobalChange(GeoServerInfo global) {
+                    // the proxy base url is part of the schema locations
+                    clear();
+                }
+
+                @Override
+                public void handlePostServiceChange(ServiceInfo service) {
+                    clear();
+                }
+
+                @Override
+                public void reloaded() {
+                    clear();
+                }
+            });
+        }
+    }
+
+    static int getSize() {
+        int size = DEFAULT_SIZE;
+        String value = GeoServerExtensions.getProperty(SIZE);
+        if (value != null) {
+            try {
+                size = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + SIZE + ", using " + size);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if the schema of the specified types can be cached
+     */
+    boolean isCacheable(FeatureTypeInfo[] featureTypeInfos, boolean resolveAppSchemaImports) {
+        if (size <= 0) {
+            return false;
+        }
+        if (resolveAppSchemaImports) {
+            for (int i = 1; i < featureTypeInfos.length; i++) {
+                if (!featureTypeInfos[0].getNamespace().equals(featureTypeInfos[i].getNamespace())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cached schema for the exclusive use of the current request, building it if
+     * none is available. The schema goes back to the cache, or is disposed if evicted, when the
+     * current request completes.
+     */
+    XSDSchema get(FeatureTypeSchemaBuilder builder, FeatureTypeInfo[] featureTypeInfos,
+            String baseUrl, boolean resolveAppSchemaImports) throws IOException {
+        Key key = new Key(builder.getClass(), featureTypeInfos, baseUrl, resolveAppSchemaImports);
+
+        // the current request might be using it already
+        for (Entry entry : SchemaCleanerCallback.getCachedSchemas()) {
+            if (entry.cache == this && entry.key.equals(key) && !entry.isEvicted()) {
+                return entry.schema;
+            }
+        }
+
+        Entry entry = null;
+        long startGeneration;
+        synchronized (this) {
+            List<Entry> entries = idle.get(key);
+            if (entries != null) {
+                entry = entries.remove(entries.size() - 1);
+                idleCount--;
+                if (entries.isEmpty()) {
+                    idle.remove(key);
+                }
+                inUse.add(entry);
+            }
+            startGeneration = generation;
+        }
+        if (entry != null) {
+            SchemaCleanerCallback.addCachedSchema(entry);
+            return entry.schema;
+        }
+
+        // build outside of the lock, it's the expensive part
+        XSDSchema schema = builder.buildSchemaInternal(featureTypeInfos, baseUrl,
+                resolveAppSchemaImports);
+        if (schema == null) {
+            return null;
+        }
+
+        entry = new Entry(this, key, schema);
+        synchronized (this) {
+            if (startGeneration == generation) {
+                inUse.add(entry);
+            } else {
+                // the catalog changed while building, do not cache it
+                entry.evicted = true;
+            }
+        }
+        SchemaCleanerCallback.addCachedSchema(entry);
+        return schema;
+    }
+
+    /**
+     * Gives back a schema once the request using it completes, disposing it if evicted in the
+     * meantime, or if there is no room left in the cache
+     */
+    void release(Entry entry) {
+        synchronized (this) {
+            inUse.remove(entry);
+            if (!entry.evicted) {
+                List<Entry> entries = idle.get(entry.key);
+                if (entries == null) {
+                    entries = new ArrayList<Entry>(1);
+                    idle.put(entry.key, entries);
+                }
+                entries.add(entry);
+                idleCount++;
+                if (idleCount <= size) {
+                    return;
+                }
+                // drop a schema of the least recently used key
+                Iterator<List<Entry>> it = idle.values().iterator();
+                entries = it.next();
+                entry = entries.remove(0);
+                idleCount--;
+                if (entries.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        entry.dispose();
+    }
+
+    /**
+     * Drops all the cached schemas
+     */
+    public void clear() {
+        List<Entry> disposed = new ArrayList<Entry>();
+        synchronized (this) {
+            generation++;
+            for (List<Entry> entries : idle.values()) {
+                disposed.addAll(entries);
+            }
+            idle.clear();
+            idleCount = 0;
+            for (Entry entry : inUse) {
+                entry.evicted = true;
+            }
+        }
+        for (Entry entry : disposed) {
+            entry.dispose();
+        }
+    }
+
+    /**
+     * Drops the cached schemas containing the specified feature type
+     */
+    void clear(String featureTypeId) {
+        List<Entry> disposed = new ArrayList<Entry>();
+        synchronized (this) {
+            generation++;
+            for (Iterator<List<Entry>> it = idle.values().iterator(); it.hasNext();) {
+                List<Entry> entries = it.next();
+                if (entries.get(0).key.ids.contains(featureTypeId)) {
+                    disposed.addAll(entries);
+                    idleCount -= entries.size();
+                    it.remove();
+                }
+            }
+            for (Entry entry : inUse) {
+                if (entry.key.ids.contains(featureTypeId)) {
+                    entry.evicted = true;
+                }
+            }
+        }
+        for (Entry entry : disposed) {
+            entry.dispose();
+        }
+    }
+
+    /**
+     * Number of cached schemas not in use by any request
+     */
+    synchronized int size() {
+        return idleCount;
+    }
+
+    void handleChange(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo) {
+            clear(((FeatureTypeInfo) info).getId());
+        } else if (info instanceof NamespaceInfo || info instanceof WorkspaceInfo
+                || info instanceof DataStoreInfo) {
+            clear();
+        }
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) {
+        // new namespaces are declared in the existing schemas
+        if (event.getSource() instanceof NamespaceInfo) {
+            clear();
+        }
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    /**
+     * A cached schema, used by one request at a time
+     */
+    static class Entry {
+
+        final FeatureTypeSchemaCache cache;
+
+        final Key key;
+
+        final XSDSchema schema;
+
+        /**
+         * Set, under the cache lock, when the schema is not to be given back to the cache
+         */
+        boolean evicted;
+
+        Entry(FeatureTypeSchemaCache cache, Key key, XSDSchema schema) {
+            this.cache = cache;
+            this.key = key;
+            this.schema = schema;
+        }
+
+        boolean isEvicted() {
+            synchronized (cache) {
+                return evicted;
+            }
+        }
+
+        void release() {
+            cache.release(this);
+        }
+
+        void dispose() {
+            try {
+                Schemas.dispose(schema);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to dispose cached schema", e);
+            }
+        }
+    }
+
+    static class Key {
+
+        final Class builder;
+
+        final List<String> typeIds;
+
+        final Set<String> ids;
+
+        final String baseUrl;
+
+        final boolean resolveAppSchemaImports;
+
+        Key(Class builder, FeatureTypeInfo[] featureTypeInfos, String baseUrl,
+                boolean resolveAppSchemaImports) {
+            this.builder = builder;
+            this.typeIds = new ArrayList<String>(featureTypeInfos.length);
+            for (FeatureTypeInfo info : featureTypeInfos) {
+                typeIds.add(info.getId());
+            }
+            this.ids = new HashSet<String>(typeIds);
+            this.baseUrl = baseUrl;
+            this.resolveAppSchemaImports = resolveAppSchemaImports;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = builder.hashCode();
+            result = 31 * result + typeIds.hashCode();
+            result = 31 * result + (baseUrl == null ? 0 : baseUrl.hashCode());
+            return 31 * result + (resolveAppSchemaImports ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return builder.equals(other.builder) && typeIds.equals(other.typeIds)
+                    && (baseUrl == null ? other.baseUrl == null : baseUrl.equals(other.baseUrl))
+                    && resolveAppSchemaImports == other.resolveAppSchemaImports;
+        }
+    }
+}
@@ -91,11 +91,22 @@ public class GML32OutputFormat extends GML3OutputFormat {
     }
 
     @Override
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected void setAdditionalSchemaLocations(Map<String, String> schemaLocations,
+            GetFeatureRequest request, WFSInfo wfs) {
         //since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
         String loc = wfs.isCanonicalSchemaLocation() ? GML.CANONICAL_SCHEMA_LOCATION : 
             ResponseUtils.buildSchemaURL(request.getBaseUrl(), "gml/3.2.1/gml.xsd");
-        encoder.setSchemaLocation(GML.NAMESPACE, loc);
+        schemaLocations.put(GML.NAMESPACE, loc);
+    }
+
+    @Override
+    protected GML3FeatureWriter createFeatureWriter(WFSInfo wfs) {
+        FeatureTypeSchemaBuilder schemaBuilder = this.schemaBuilder;
+        if (schemaBuilder == null) {
+            schemaBuilder = new FeatureTypeSchemaBuilder.GML32(geoServer);
+            this.schemaBuilder = schemaBuilder;
+        }
+        return new GML3FeatureWriter(geoServer.getCatalog(), schemaBuilder, wfs);
     }
 
     @Override
@@ -0,0 +1,735 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.wfs.GMLInfo;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.xml.xs.DateBinding;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.gml2.bindings.GML2EncodingUtils;
+import org.geotools.xml.Encoder;
+import org.geotools.xml.SimpleBinding;
+import org.geotools.xs.bindings.XSDateBinding;
+import org.geotools.xs.bindings.XSDateTimeBinding;
+import org.geotools.xs.bindings.XSTimeBinding;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes simple feature collections as a WFS 1.1 GML 3.1, or WFS 2.0 GML 3.2, feature
+ * collection directly on a {@link XMLStreamWriter}, instead of going through the schema driven
+ * bindings of the {@link Encoder}.
+ * <p>
+ * Element names and namespace prefixes are computed once per feature type, and coordinates are
+ * written straight from the {@link CoordinateSequence} of each geometry. The output follows the
+ * one of the {@link Encoder}, honoring the feature bounding, feature member, srsName style and
+ * cite compliance settings, as well as the mapping of the name, description and location
+ * attributes to the GML ones. Dates and times are formatted by the same xs:date, xs:time and
+ * xs:dateTime bindings the {@link Encoder} uses. Only the responses accepted by
+ * {@link #canWrite} are supported, the others have to be handled by the {@link Encoder}.
+ * </p>
+ * <p>
+ * Instances are not thread safe, a new writer should be created for each request.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class GML3FeatureWriter {
+
+    static final String XSI = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+
+    /**
+     * The attribute types that can be written, anything else falls back on the {@link Encoder}
+     */
+    static final Class[] SUPPORTED_BINDINGS = new Class[] { Geometry.class, String.class,
+            Number.class, Boolean.class, Character.class, URI.class, Date.class, Calendar.class };
+
+    /**
+     * The attributes of AbstractGMLType and AbstractFeatureType that can be written in the GML
+     * namespace, in the order they appear in the schema
+     */
+    static final String DESCRIPTION = "description";
+
+    static final String NAME = "name";
+
+    static final String LOCATION = "location";
+
+    Catalog catalog;
+
+    FeatureTypeSchemaBuilder schemaBuilder;
+
+    boolean gml32;
+
+    String gmlNamespace;
+
+    String wfsNamespace;
+
+    SrsSyntax srsSyntax;
+
+    boolean featureBounding;
+
+    boolean encodeFeatureMember;
+
+    boolean encodeSrsDimension;
+
+    boolean overrideGMLAttributes;
+
+    Charset encoding = Charset.forName("UTF-8");
+
+    Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
+
+    XMLStreamWriter writer;
+
+    Map<String, String> prefixes = new HashMap<String, String>();
+
+    Map<SimpleFeatureType, TypeInfo> types = new HashMap<SimpleFeatureType, TypeInfo>();
+
+    Map<CoordinateReferenceSystem, String> srsNames = new HashMap<CoordinateReferenceSystem, String>();
+
+    StringBuilder buffer = new StringBuilder();
+
+    char[] chars = new char[1024];
+
+    /**
+     * Creates a writer for the GML version of the specified schema builder, that is, GML 3.2 for
+     * {@link FeatureTypeSchemaBuilder.GML32} and GML 3.1 otherwise.
+     */
+    public GML3FeatureWriter(Catalog catalog, FeatureTypeSchemaBuilder schemaBuilder,
+            WFSInfo wfs) {
+        this.catalog = catalog;
+        this.schemaBuilder = schemaBuilder;
+        this.gml32 = schemaBuilder instanceof FeatureTypeSchemaBuilder.GML32;
+        if (gml32) {
+            gmlNamespace = org.geotools.gml3.v3_2.GML.NAMESPACE;
+            wfsNamespace = org.geotools.wfs.v2_0.WFS.NAMESPACE;
+        } else {
+            gmlNamespace = org.geotools.gml3.GML.NAMESPACE;
+            wfsNamespace = org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE;
+        }
+
+        GMLInfo gml = schemaBuilder.getGMLConfig(wfs);
+        srsSyntax = gml.getSrsNameStyle().toSrsSyntax();
+        overrideGMLAttributes = gml.getOverrideGMLAttributes() != null
+                && gml.getOverrideGMLAttributes();
+        featureBounding = wfs.isFeatureBounding();
+        encodeFeatureMember = wfs.isEncodeFeatureMember();
+        // cite compliance forces us to forgo srsDimension attribute
+        encodeSrsDimension = !wfs.isCiteCompliant();
+
+        prefixes.put(wfsNamespace, "wfs");
+        prefixes.put(gmlNamespace, "gml");
+        prefixes.put(XSI, "xsi");
+    }
+
+    public void setEncoding(Charset encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Sets the schema location of a namespace, as in {@link Encoder#setSchemaLocation}
+     */
+    public void setSchemaLocation(String namespaceURI, String location) {
+        schemaLocations.put(namespaceURI, location);
+    }
+
+    /**
+     * Returns true if the response can be written, that is, it contains only simple features
+     * whose attributes are all strings, numbers, booleans, URIs, dates or geometries. WFS 2.0
+     * responses are supported only for a single query.
+     */
+    public boolean canWrite(FeatureCollectionResponse results) {
+        if (gml32 ? !(results instanceof FeatureCollectionResponse.WFS20)
+                : !(results instanceof FeatureCollectionResponse.WFS11)) {
+            return false;
+        }
+        List<FeatureCollection> collections = results.getFeature();
+        if (gml32 && (collections.size() != 1 || results.getNumberOfFeatures() == null)) {
+            return false;
+        }
+        for (FeatureCollection fc : collections) {
+            if (!(fc.getSchema() instanceof SimpleFeatureType)
+                    || fc.getSchema().getName().getNamespaceURI() == null) {
+                return false;
+            }
+            for (AttributeDescriptor ad : ((SimpleFeatureType) fc.getSchema())
+                    .getAttributeDescriptors()) {
+                if (!isSupported(ad.getType().getBinding())) {
+                    return false;
+                }
+                String name = ad.getLocalName();
+                if (isGMLAttribute(ad) && !NAME.equals(name) && !DESCRIPTION.equals(name)
+                        && !(LOCATION.equals(name) && ad instanceof GeometryDescriptor)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    boolean isSupported(Class binding) {
+        for (Class supported : SUPPORTED_BINDINGS) {
+            if (supported.isAssignableFrom(binding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the attribute is encoded as the AbstractFeatureType property of the same
+     * name, see {@link FeatureTypeSchemaBuilder#filterAttributeType}
+     */
+    boolean isGMLAttribute(AttributeDescriptor ad) {
+        return !overrideGMLAttributes && schemaBuilder.filterAttributeType(ad);
+    }
+
+    /**
+     * Writes the response as a wfs:FeatureCollection
+     */
+    public void write(FeatureCollectionResponse results, OutputStream output) throws IOException {
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output,
+                    encoding.name());
+            writer.writeStartDocument(encoding.name(), "1.0");
+            writer.writeStartElement("wfs", "FeatureCollection", wfsNamespace);
+
+            // declare all the namespaces up front
+            for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+                writer.writeNamespace(entry.getValue(), entry.getKey());
+            }
+            List<FeatureCollection> collections = results.getFeature();
+            for (FeatureCollection fc : collections) {
+                String namespaceURI = fc.getSchema().getName().getNamespaceURI();
+                if (namespaceURI != null && !prefixes.containsKey(namespaceURI)) {
+                    String prefix = prefix(namespaceURI);
+                    prefixes.put(namespaceURI, prefix);
+                    writer.writeNamespace(prefix, namespaceURI);
+                }
+            }
+
+            writeCollectionAttributes(results);
+            if (!schemaLocations.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                    if (sb.length() > 0) {
+                        sb.append(" ");
+                    }
+                    sb.append(entry.getKey()).append(" ").append(entry.getValue());
+                }
+                writer.writeAttribute("xsi", XSI, "schemaLocation", sb.toString());
+            }
+
+            if (gml32) {
+                for (FeatureCollection fc : collections) {
+                    writeMembers(fc, "wfs", wfsNamespace, "member");
+                }
+            } else {
+                if (featureBounding) {
+                    writeCollectionBounds(collections);
+                }
+                if (encodeFeatureMember) {
+                    for (FeatureCollection fc : collections) {
+                        writeMembers(fc, "gml", gmlNamespace, "featureMember");
+                    }
+                } else if (!collections.isEmpty()) {
+                    writer.writeStartElement("gml", "featureMembers", gmlNamespace);
+                    for (FeatureCollection fc : collections) {
+                        writeMembers(fc, null, null, null);
+                    }
+                    writer.writeEndElement();
+                }
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
+
+    /**
+     * Returns the prefix of the namespace in the catalog, or makes one up
+     */
+    String prefix(String namespaceURI) {
+        NamespaceInfo ns = catalog.getNamespaceByURI(namespaceURI);
+        String prefix = ns != null ? ns.getPrefix() : null;
+        if (prefix == null || prefixes.containsValue(prefix)) {
+            int i = 1;
+            do {
+                prefix = "ns" + i++;
+            } while (prefixes.containsValue(prefix));
+        }
+        return prefix;
+    }
+
+    void writeCollectionAttributes(FeatureCollectionResponse results)
+            throws XMLStreamException {
+        if (gml32) {
+            BigInteger matched = results.getTotalNumberOfFeatures();
+            writer.writeAttribute("numberMatched", matched != null ? matched.toString()
+                    : "unknown");
+            writer.writeAttribute("numberReturned", results.getNumberOfFeatures().toString());
+        } else if (results.getNumberOfFeatures() != null) {
+            writer.writeAttribute("numberOfFeatures", results.getNumberOfFeatures().toString());
+        }
+        if (results.getTimeStamp() != null) {
+            writer.writeAttribute("timeStamp", new XSDateTimeBinding().encode(
+                    results.getTimeStamp(), null));
+        }
+        if (results.getLockId() != null) {
+            writer.writeAttribute("lockId", results.getLockId());
+        }
+        if (gml32) {
+            if (results.getNext() != null) {
+                writer.writeAttribute("next", results.getNext());
+            }
+            if (results.getPrevious() != null) {
+                writer.writeAttribute("previous", results.getPrevious());
+            }
+        }
+    }
+
+    /**
+     * Writes the union of the collection bounds, as the FeatureCollectionTypeBinding does
+     */
+    void writeCollectionBounds(List<FeatureCollection> collections) throws XMLStreamException {
+        ReferencedEnvelope env = null;
+        for (FeatureCollection fc : collections) {
+            if (env == null) {
+                env = fc.getBounds();
+            } else {
+                env.expandToInclude(fc.getBounds());
+            }
+
+            // workaround bogus collection implementation that won't return the crs
+            if (env != null && env.getCoordinateReferenceSystem() == null) {
+                CoordinateReferenceSystem crs = fc.getSchema().getCoordinateReferenceSystem();
+                if (crs == null) {
+                    // fall back on catalog
+                    FeatureTypeInfo info = catalog.getFeatureTypeByName(fc.getSchema()
+                            .getName());
+                    if (info != null) {
+                        crs = info.getCRS();
+                    }
+                }
+                env = new ReferencedEnvelope(env, crs);
+            }
+        }
+
+        // empty bounds are not encoded, see GEOS-2700
+        if (env != null && !env.isNull() && !env.isEmpty()) {
+            writer.writeStartElement("gml", "boundedBy", gmlNamespace);
+            writeEnvelope(env);
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Writes all the features of the collection, each one wrapped in the specified member element
+     * if not null
+     */
+    void writeMembers(FeatureCollection fc, String prefix, String namespaceURI, String member)
+            throws XMLStreamException {
+        FeatureIterator it = fc.features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = (SimpleFeature) it.next();
+                if (member != null) {
+                    writer.writeStartElement(prefix, member, namespaceURI);
+                }
+                writeFeature(feature);
+                if (member != null) {
+                    writer.writeEndElement();
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    void writeFeature(SimpleFeature feature) throws XMLStreamException {
+        TypeInfo type = typeInfo(feature.getFeatureType());
+        String id = feature.getID();
+
+        writer.writeStartElement(type.prefix, type.localName, type.namespaceURI);
+        writer.writeAttribute("gml", gmlNamespace, "id", id);
+
+        for (AttributeInfo att : type.gmlAttributes) {
+            writeAttribute(feature, att, id);
+        }
+        if (featureBounding) {
+            writeFeatureBounds(feature.getBounds());
+        }
+        if (type.location != null) {
+            writeAttribute(feature, type.location, id);
+        }
+        for (AttributeInfo att : type.attributes) {
+            writeAttribute(feature, att, id);
+        }
+
+        writer.writeEndElement();
+    }
+
+    void writeFeatureBounds(BoundingBox bounds) throws XMLStreamException {
+        writer.writeStartElement("gml", "boundedBy", gmlNamespace);
+        if (bounds == null || bounds.getMinX() > bounds.getMaxX()) {
+            writer.writeStartElement("gml", "Null", gmlNamespace);
+            writer.writeCharacters("unknown");
+            writer.writeEndElement();
+        } else {
+            writeEnvelope(bounds);
+        }
+        writer.writeEndElement();
+    }
+
+    void writeEnvelope(BoundingBox bounds) throws XMLStreamException {
+        writer.writeStartElement("gml", "Envelope", gmlNamespace);
+        String srsName = srsName(bounds.getCoordinateReferenceSystem());
+        if (srsName != null) {
+            writer.writeAttribute("srsName", srsName);
+        }
+        int dimension = bounds.getDimension();
+        if (encodeSrsDimension) {
+            writer.writeAttribute("srsDimension", String.valueOf(dimension));
+        }
+        writer.writeStartElement("gml", "lowerCorner", gmlNamespace);
+        buffer.setLength(0);
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(bounds.getMinimum(i));
+        }
+        flushBuffer();
+        writer.writeEndElement();
+        writer.writeStartElement("gml", "upperCorner", gmlNamespace);
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(bounds.getMaximum(i));
+        }
+        flushBuffer();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    void writeAttribute(SimpleFeature feature, AttributeInfo att, String featureId)
+            throws XMLStreamException {
+        Object value = feature.getAttribute(att.index);
+        if (value == null) {
+            if (att.nillable) {
+                writer.writeStartElement(att.prefix, att.localName, att.namespaceURI);
+                writer.writeAttribute("xsi", XSI, "nil", "true");
+                writer.writeEndElement();
+            }
+            return;
+        }
+
+        writer.writeStartElement(att.prefix, att.localName, att.namespaceURI);
+        if (value instanceof Geometry) {
+            Geometry geometry = (Geometry) value;
+            String srsName = att.srsName;
+            if (geometry.getUserData() instanceof CoordinateReferenceSystem) {
+                srsName = srsName((CoordinateReferenceSystem) geometry.getUserData());
+            }
+            writeGeometry(geometry, featureId + "." + att.localName, srsName,
+                    dimension(geometry), true);
+        } else if (att.temporal != null) {
+            try {
+                writer.writeCharacters(att.temporal.encode(value, null));
+            } catch (Exception e) {
+                throw new XMLStreamException("Failed to encode " + att.localName + " value "
+                        + value, e);
+            }
+        } else {
+            writer.writeCharacters(value.toString());
+        }
+        writer.writeEndElement();
+    }
+
+    int dimension(Geometry geometry) {
+        Coordinate c = geometry.getCoordinate();
+        return c != null && !Double.isNaN(c.z) ? 3 : 2;
+    }
+
+    /**
+     * Writes a geometry, the srsName and srsDimension are specified only for the top level one
+     */
+    void writeGeometry(Geometry geometry, String id, String srsName, int dimension,
+            boolean root) throws XMLStreamException {
+        if (geometry instanceof Point) {
+            startGeometry("Point", id, srsName, dimension, root);
+            writer.writeStartElement("gml", "pos", gmlNamespace);
+            writeCoordinates(((Point) geometry).getCoordinateSequence(), dimension);
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (geometry instanceof LinearRing && !gml32) {
+            startGeometry("LinearRing", id, srsName, dimension, root);
+            writePosList((LineString) geometry, dimension);
+            writer.writeEndElement();
+        } else if (geometry instanceof LineString) {
+            startGeometry("LineString", id, srsName, dimension, root);
+            writePosList((LineString) geometry, dimension);
+            writer.writeEndElement();
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            startGeometry("Polygon", id, srsName, dimension, root);
+            writeRing("exterior", polygon.getExteriorRing(), dimension);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                writeRing("interior", polygon.getInteriorRingN(i), dimension);
+            }
+            writer.writeEndElement();
+        } else if (geometry instanceof MultiPoint) {
+            writeMembers((GeometryCollection) geometry, "MultiPoint", "pointMember", id,
+                    srsName, dimension, root);
+        } else if (geometry instanceof MultiLineString) {
+            if (gml32) {
+                writeMembers((GeometryCollection) geometry, "MultiCurve", "curveMember", id,
+                        srsName, dimension, root);
+            } else {
+                writeMembers((GeometryCollection) geometry, "MultiLineString",
+                        "lineStringMember", id, srsName, dimension, root);
+            }
+        } else if (geometry instanceof MultiPolygon) {
+            // multi surfaces are used in place of the deprecated multi polygons, see GML3Profile
+            writeMembers((GeometryCollection) geometry, "MultiSurface", "surfaceMember", id,
+                    srsName, dimension, root);
+        } else if (geometry instanceof GeometryCollection) {
+            writeMembers((GeometryCollection) geometry, "MultiGeometry", "geometryMember", id,
+                    srsName, dimension, root);
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type "
+                    + geometry.getGeometryType());
+        }
+    }
+
+    void startGeometry(String name, String id, String srsName, int dimension, boolean root)
+            throws XMLStreamException {
+        writer.writeStartElement("gml", name, gmlNamespace);
+        if (gml32) {
+            // mandatory in GML 3.2
+            writer.writeAttribute("gml", gmlNamespace, "id", id);
+        }
+        if (srsName != null) {
+            writer.writeAttribute("srsName", srsName);
+        }
+        if (root && encodeSrsDimension) {
+            writer.writeAttribute("srsDimension", String.valueOf(dimension));
+        }
+    }
+
+    void writeMembers(GeometryCollection collection, String name, String member, String id,
+            String srsName, int dimension, boolean root) throws XMLStreamException {
+        startGeometry(name, id, srsName, dimension, root);
+        for (int i = 0; i < collection.getNumGeometries(); i++) {
+            writer.writeStartElement("gml", member, gmlNamespace);
+            writeGeometry(collection.getGeometryN(i), id + "." + (i + 1), null, dimension,
+                    false);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    void writeRing(String name, LineString ring, int dimension) throws XMLStreamException {
+        writer.writeStartElement("gml", name, gmlNamespace);
+        writer.writeStartElement("gml", "LinearRing", gmlNamespace);
+        writePosList(ring, dimension);
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    void writePosList(LineString line, int dimension) throws XMLStreamException {
+        writer.writeStartElement("gml", "posList", gmlNamespace);
+        writeCoordinates(line.getCoordinateSequence(), dimension);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes the ordinates of the sequence separated by spaces, in chunks to keep the buffer small
+     */
+    void writeCoordinates(CoordinateSequence cs, int dimension) throws XMLStreamException {
+        buffer.setLength(0);
+        for (int i = 0; i < cs.size(); i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(cs.getX(i)).append(' ').append(cs.getY(i));
+            if (dimension > 2) {
+                buffer.append(' ').append(cs.getOrdinate(i, CoordinateSequence.Z));
+            }
+            if (buffer.length() > 4096) {
+                flushBuffer();
+            }
+        }
+        flushBuffer();
+    }
+
+    void flushBuffer() throws XMLStreamException {
+        int length = buffer.length();
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        buffer.getChars(0, length, chars, 0);
+        writer.writeCharacters(chars, 0, length);
+        buffer.setLength(0);
+    }
+
+    String srsName(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return null;
+        }
+        String srsName = srsNames.get(crs);
+        if (srsName == null && !srsNames.containsKey(crs)) {
+            String code = GML2EncodingUtils.epsgCode(crs);
+            srsName = code != null ? srsSyntax.getPrefix() + code : null;
+            srsNames.put(crs, srsName);
+        }
+        return srsName;
+    }
+
+    TypeInfo typeInfo(SimpleFeatureType featureType) {
+        TypeInfo type = types.get(featureType);
+        if (type == null) {
+            type = new TypeInfo(featureType);
+            types.put(featureType, type);
+        }
+        return type;
+    }
+
+    /**
+     * The element names of a feature type and its attributes, in encoding order
+     */
+    class TypeInfo {
+        String prefix;
+
+        String namespaceURI;
+
+        String localName;
+
+        List<AttributeInfo> gmlAttributes = new ArrayList<AttributeInfo>();
+
+        AttributeInfo location;
+
+        List<AttributeInfo> attributes = new ArrayList<AttributeInfo>();
+
+        TypeInfo(SimpleFeatureType featureType) {
+            namespaceURI = featureType.getName().getNamespaceURI();
+            prefix = prefixes.get(namespaceURI);
+            localName = featureType.getTypeName();
+
+            AttributeInfo description = null;
+            AttributeInfo name = null;
+            List<AttributeDescriptor> descriptors = featureType.getAttributeDescriptors();
+            for (int i = 0; i < descriptors.size(); i++) {
+                AttributeDescriptor ad = descriptors.get(i);
+                if (isGMLAttribute(ad)) {
+                    AttributeInfo att = new AttributeInfo(i, ad, "gml", gmlNamespace);
+                    if (DESCRIPTION.equals(att.localName)) {
+                        description = att;
+                    } else if (NAME.equals(att.localName)) {
+                        name = att;
+                    } else {
+                        location = att;
+                    }
+                } else {
+                    attributes.add(new AttributeInfo(i, ad, prefix, namespaceURI));
+                }
+            }
+            if (description != null) {
+                gmlAttributes.add(description);
+            }
+            if (name != null) {
+                gmlAttributes.add(name);
+            }
+        }
+    }
+
+    class AttributeInfo {
+        int index;
+
+        String prefix;
+
+        String namespaceURI;
+
+        String localName;
+
+        boolean nillable;
+
+        String srsName;
+
+        /**
+         * The binding formatting the values of xs:date, xs:time and xs:dateTime attributes
+         */
+        SimpleBinding temporal;
+
+        AttributeInfo(int index, AttributeDescriptor ad, String prefix, String namespaceURI) {
+            this.index = index;
+            this.prefix = prefix;
+            this.namespaceURI = namespaceURI;
+            this.localName = ad.getLocalName();
+            this.nillable = ad.isNillable();
+            if (ad instanceof GeometryDescriptor) {
+                srsName = srsName(((GeometryDescriptor) ad).getCoordinateReferenceSystem());
+            }
+
+            // same schema types as the ones picked by FeatureTypeSchemaBuilder, and same
+            // bindings as the ones used by the Encoder for them
+            Class binding = ad.getType().getBinding();
+            if (java.sql.Date.class.isAssignableFrom(binding)) {
+                // WFS 1.1 encodes dates in UTC, see WFSConfiguration
+                temporal = gml32 ? new XSDateBinding() : new DateBinding();
+            } else if (java.sql.Time.class.isAssignableFrom(binding)) {
+                temporal = new XSTimeBinding();
+            } else if (Date.class.isAssignableFrom(binding)
+                    || Calendar.class.isAssignableFrom(binding)) {
+                temporal = new XSDateTimeBinding();
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +44,7 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSException;
@@ -69,7 +71,18 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     GeoServer geoServer;
     Catalog catalog;
     WFSConfiguration configuration;
+    boolean streaming;
+    /**
+     * Built lazily, as the WFS configuration is not loaded yet when the output format is created
+     */
+    volatile FeatureTypeSchemaBuilder schemaBuilder;
     protected static DOMSource xslt;
+
+    /**
+     * Property that can be set to false to encode simple features with the {@link Encoder} as
+     * well, instead of the {@link GML3FeatureWriter}
+     */
+    public static final String STREAMING = "WFS_GML3_STREAMING";
     
     static {
         DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
@@ -97,6 +110,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         this.catalog = geoServer.getCatalog();
         
         this.configuration = configuration;
+        this.streaming = !"false".equalsIgnoreCase(GeoServerExtensions.getProperty(STREAMING));
     }
 
     public String getMimeType(Object value, Operation operation) {
@@ -199,13 +213,11 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         //declare wfs schema location
         Object gft = getFeature.getParameters()[0];
         
-        Encoder encoder = createEncoder(configuration, ns2metas, gft);
-        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
-
+        Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
         if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
+            schemaLocations.put(getWfsNamespace(), getCanonicalWfsSchemaLocation());
         } else {
-            encoder.setSchemaLocation(getWfsNamespace(),
+            schemaLocations.put(getWfsNamespace(),
                     buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
         }
 
@@ -227,7 +239,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                     Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
                     for (String namespace : schemaURIs.keySet()) {
-                        encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
+                        schemaLocations.put(namespace, schemaURIs.get(namespace));
                     }
                 } else {
                     typeNames.append(meta.getPrefixedName());
@@ -243,11 +255,30 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 String schemaLocation = buildURL(request.getBaseURL(), "wfs", params, URLType.SERVICE);
                 LOGGER.finer("Unable to find user-defined schema location for: " + namespaceURI
                         + ". Using a built schema location by default: " + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                schemaLocations.put(namespaceURI, schemaLocation);
+            }
+        }
+
+        setAdditionalSchemaLocations(schemaLocations, request, wfs);
+        Charset charset = Charset.forName(geoServer.getSettings().getCharset());
+        if (!this.isComplexFeature(results) && streaming) {
+            // simple features can skip the encoder machinery
+            GML3FeatureWriter writer = createFeatureWriter(wfs);
+            if (writer.canWrite(results)) {
+                writer.setEncoding(charset);
+                for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                    writer.setSchemaLocation(entry.getKey(), entry.getValue());
+                }
+                writer.write(results, output);
+                return;
             }
         }
 
-        setAdditionalSchemaLocations(encoder, request, wfs);
+        Encoder encoder = createEncoder(configuration, ns2metas, gft);
+        encoder.setEncoding(charset);
+        for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
         if (this.isComplexFeature(results)) {
             complexFeatureStreamIntercept(results, output, encoder);
         } else {
@@ -261,9 +292,35 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         return new Encoder(configuration, configuration.schema());
     }
 
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected void setAdditionalSchemaLocations(Map<String, String> schemaLocations,
+            GetFeatureRequest request, WFSInfo wfs) {
         //hook for subclasses
     }
+
+    /**
+     * Creates the writer used in place of the {@link Encoder} for simple features
+     */
+    protected GML3FeatureWriter createFeatureWriter(WFSInfo wfs) {
+        FeatureTypeSchemaBuilder schemaBuilder = this.schemaBuilder;
+        if (schemaBuilder == null) {
+            // only used to map the attribute names, building it twice is harmless
+            schemaBuilder = new FeatureTypeSchemaBuilder.GML3(geoServer);
+            this.schemaBuilder = schemaBuilder;
+        }
+        return new GML3FeatureWriter(catalog, schemaBuilder, wfs);
+    }
+
+    /**
+     * Whether simple features are written with the {@link GML3FeatureWriter}, true unless the
+     * {@link #STREAMING} property is set to false
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
     
     protected void encode(FeatureCollectionResponse results, OutputStream output, Encoder encoder)
         throws IOException {
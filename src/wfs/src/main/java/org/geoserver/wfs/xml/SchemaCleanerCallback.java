@@ -5,6 +5,7 @@
 package org.geoserver.wfs.xml;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.xsd.XSDSchema;
@@ -13,7 +14,7 @@ import org.geoserver.ows.Request;
 import org.geotools.xml.Schemas;
 
 /**
- * Cleans up the temporarily created schemas when the request ends
+ * Cleans up the temporarily created schemas, and releases the cached ones, when the request ends
  *  
  * @author Andrea Aime - GeoSolutions
  *
@@ -22,6 +23,9 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
 
     static final ThreadLocal<List<XSDSchema>> schemas = new ThreadLocal<List<XSDSchema>>();
     
+    static final ThreadLocal<List<FeatureTypeSchemaCache.Entry>> cached = 
+        new ThreadLocal<List<FeatureTypeSchemaCache.Entry>>();
+    
     /**
      * Schedules a XSDSchema for removal at the end of the request
      * @param schema
@@ -39,6 +43,31 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
         list.add(schema);
     }
     
+    /**
+     * Schedules a cached schema for release at the end of the request
+     * @param entry
+     */
+    static void addCachedSchema(FeatureTypeSchemaCache.Entry entry) {
+        List<FeatureTypeSchemaCache.Entry> list = cached.get();
+        if(list == null) {
+            list = new ArrayList<FeatureTypeSchemaCache.Entry>();
+            cached.set(list);
+        }
+        list.add(entry);
+    }
+    
+    /**
+     * The cached schemas in use by the current request
+     * @return
+     */
+    static List<FeatureTypeSchemaCache.Entry> getCachedSchemas() {
+        List<FeatureTypeSchemaCache.Entry> list = cached.get();
+        if(list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+    
     @Override
     public void finished(Request request) {
         List<XSDSchema> list = schemas.get();
@@ -48,5 +77,13 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
                 Schemas.dispose(schema);
             }
         }
+        
+        List<FeatureTypeSchemaCache.Entry> entries = cached.get();
+        if(entries != null) {
+            cached.remove();
+            for (FeatureTypeSchemaCache.Entry entry : entries) {
+                entry.release();
+            }
+        }
     }
 }
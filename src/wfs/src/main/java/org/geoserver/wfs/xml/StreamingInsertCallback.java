@@ -0,0 +1,65 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+
+/**
+ * Keeps track of the {@link StreamingInsertParser} used by the current request, and disposes
+ * them when the request ends
+ *
+ * @author Andrea Aime - GeoSolutions
+ *
+ */
+public class StreamingInsertCallback extends AbstractDispatcherCallback {
+
+    static final ThreadLocal<List<StreamingInsertParser>> parsers =
+        new ThreadLocal<List<StreamingInsertParser>>();
+
+    /**
+     * Schedules a parser for disposal at the end of the request
+     * @param parser
+     */
+    static void addParser(StreamingInsertParser parser) {
+        List<StreamingInsertParser> list = parsers.get();
+        if(list == null) {
+            list = new ArrayList<StreamingInsertParser>();
+            parsers.set(list);
+        }
+        list.add(parser);
+    }
+
+    /**
+     * Returns the parser of the current request that streamed the specified insert, if any
+     * @param insert
+     * @return
+     */
+    static StreamingInsertParser getParser(Object insert) {
+        List<StreamingInsertParser> list = parsers.get();
+        if(list != null) {
+            for (StreamingInsertParser parser : list) {
+                if(parser.contains(insert)) {
+                    return parser;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void finished(Request request) {
+        List<StreamingInsertParser> list = parsers.get();
+        if(list != null) {
+            parsers.remove();
+            for (StreamingInsertParser parser : list) {
+                parser.dispose();
+            }
+        }
+    }
+}
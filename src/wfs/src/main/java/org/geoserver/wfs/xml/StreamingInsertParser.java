@@ -0,0 +1,437 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import net.opengis.wfs.InsertElementType;
+import net.opengis.wfs.TransactionType;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.WFSInfo;
+import org.geotools.xml.Configuration;
+import org.geotools.xml.Parser;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Parses WFS 1.1 transactions without holding the inserted features in memory.
+ * <p>
+ * The request is copied to a temporary file, then parsed without the contents of the Insert
+ * elements, only the names of the inserted feature types are recorded. The features of each
+ * Insert are parsed later, a batch at a time, as the {@link org.geoserver.wfs.InsertElementHandler}
+ * writes them to the store. The features of a streamed Insert are not available from
+ * {@link InsertElementType#getFeature()}, they are returned by {@link #getFeatures}.
+ * </p>
+ * <p>
+ * Streaming is enabled with the {@link #STREAMING} property. Inserts containing a feature
+ * collection, instead of a list of features, are not streamed, the whole request is parsed in
+ * memory as usual in that case. The temporary file is removed by the
+ * {@link StreamingInsertCallback} at the end of the request.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class StreamingInsertParser {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * Property enabling the streaming parsing of inserts
+     */
+    public static final String STREAMING = "WFS_INSERT_STREAMING";
+
+    static final String GML_NAMESPACE = org.geotools.gml3.GML.NAMESPACE;
+
+    static final QName INSERT = new QName(org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE, "Insert");
+
+    Configuration configuration;
+
+    WFSInfo wfs;
+
+    GeoServer geoServer;
+
+    Map kvp;
+
+    File file;
+
+    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+    /**
+     * The streamed inserts, by parsed insert element
+     */
+    Map<InsertElementType, InsertFeatures> inserts =
+        new IdentityHashMap<InsertElementType, InsertFeatures>();
+
+    /**
+     * The iterators reading the request copy
+     */
+    List<FeatureIterator> iterators = new ArrayList<FeatureIterator>();
+
+    public StreamingInsertParser(Configuration configuration, WFSInfo wfs, GeoServer geoServer,
+            Map kvp) {
+        this.configuration = configuration;
+        this.wfs = wfs;
+        this.geoServer = geoServer;
+        this.kvp = kvp;
+        // same as the request parser, do not resolve external entities
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Returns true if inserts should be streamed
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(STREAMING));
+    }
+
+    /**
+     * Returns the features of an insert parsed by the current request, in batches of the
+     * specified size, or null if the insert was not streamed
+     */
+    public static Iterator<SimpleFeature> getFeatures(Object insert, int batchSize) {
+        StreamingInsertParser parser = StreamingInsertCallback.getParser(insert);
+        return parser != null ? parser.inserts.get(insert).iterator(batchSize) : null;
+    }
+
+    /**
+     * Returns the names of the feature types inserted by an insert parsed by the current
+     * request, or null if the insert was not streamed
+     */
+    public static Set<QName> getTypeNames(Object insert) {
+        StreamingInsertParser parser = StreamingInsertCallback.getParser(insert);
+        return parser != null ? parser.inserts.get(insert).typeNames : null;
+    }
+
+    boolean contains(Object insert) {
+        return inserts.containsKey(insert);
+    }
+
+    /**
+     * Parses the request, the parser is disposed at the end of the request
+     */
+    public Object parse(Reader reader) throws Exception {
+        file = File.createTempFile("wfs-transaction", ".xml");
+        StreamingInsertCallback.addParser(this);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            IOUtils.copy(reader, writer);
+        } finally {
+            writer.close();
+        }
+
+        // parse the transaction without the insert contents
+        List<InsertFeatures> streamed = new ArrayList<InsertFeatures>();
+        CharArrayWriter skeleton = new CharArrayWriter();
+        if (!writeSkeleton(skeleton, streamed)) {
+            LOGGER.fine("Insert with a feature collection, parsing the whole transaction");
+            return parseRequest(openReader());
+        }
+        Object parsed = parseRequest(new CharArrayReader(skeleton.toCharArray()));
+        if (parsed instanceof TransactionType) {
+            List<InsertElementType> elements = ((TransactionType) parsed).getInsert();
+            if (elements.size() == streamed.size()) {
+                for (int i = 0; i < elements.size(); i++) {
+                    inserts.put(elements.get(i), streamed.get(i));
+                }
+                return parsed;
+            }
+        }
+
+        // something we did not expect, be safe
+        LOGGER.fine("Unexpected transaction contents, parsing the whole transaction");
+        return parseRequest(openReader());
+    }
+
+    Object parseRequest(Reader reader) throws Exception {
+        try {
+            Parser parser = new Parser(configuration);
+            WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
+            return WFSXmlUtils.parseRequest(parser, reader, wfs);
+        } finally {
+            reader.close();
+        }
+    }
+
+    Reader openReader() throws IOException {
+        return new InputStreamReader(new FileInputStream(file), "UTF-8");
+    }
+
+    /**
+     * Copies the request skipping the contents of the inserts, and collects the type names of
+     * each insert. Returns false if an insert cannot be streamed.
+     */
+    boolean writeSkeleton(Writer skeleton, List<InsertFeatures> streamed) throws Exception {
+        Reader reader = openReader();
+        XMLEventReader in = inputFactory.createXMLEventReader(reader);
+        XMLEventWriter out = outputFactory.createXMLEventWriter(skeleton);
+        try {
+            int depth = 0;
+            InsertFeatures insert = null;
+            while (in.hasNext()) {
+                XMLEvent event = in.nextEvent();
+                if (event.isStartElement()) {
+                    StartElement start = event.asStartElement();
+                    if (insert != null) {
+                        // a feature, or a feature collection we cannot stream
+                        QName name = start.getName();
+                        if (GML_NAMESPACE.equals(name.getNamespaceURI())
+                                || INSERT.getNamespaceURI().equals(name.getNamespaceURI())) {
+                            return false;
+                        }
+                        insert.typeNames.add(name);
+                        skip(in);
+                        continue;
+                    }
+                    depth++;
+                    if (depth == 2 && INSERT.equals(start.getName())) {
+                        insert = new InsertFeatures(streamed.size());
+                        streamed.add(insert);
+                    }
+                } else if (event.isEndElement()) {
+                    if (depth == 2) {
+                        insert = null;
+                    }
+                    depth--;
+                }
+                out.add(event);
+            }
+            out.flush();
+            return true;
+        } finally {
+            out.close();
+            in.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * Skips the rest of an element whose start has been read already
+     */
+    static void skip(XMLEventReader in) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = in.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Copies the rest of an element whose start has been read already
+     */
+    static void copy(StartElement start, XMLEventReader in, XMLEventWriter out)
+            throws XMLStreamException {
+        out.add(start);
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = in.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            out.add(event);
+        }
+    }
+
+    /**
+     * Removes the temporary copy of the request
+     */
+    void dispose() {
+        for (FeatureIterator it : iterators) {
+            it.close();
+        }
+        if (file != null && !file.delete()) {
+            LOGGER.log(Level.WARNING, "Could not remove " + file);
+        }
+    }
+
+    /**
+     * A streamed insert
+     */
+    class InsertFeatures {
+
+        /**
+         * Position of the insert among the inserts of the transaction
+         */
+        int index;
+
+        Set<QName> typeNames = new LinkedHashSet<QName>();
+
+        InsertFeatures(int index) {
+            this.index = index;
+        }
+
+        Iterator<SimpleFeature> iterator(int batchSize) {
+            return new FeatureIterator(index, batchSize);
+        }
+    }
+
+    /**
+     * Parses the features of an insert a batch at a time. Each batch is parsed as a transaction
+     * made of the insert alone, so that the insert attributes and the namespaces declared by the
+     * transaction are preserved.
+     */
+    class FeatureIterator implements Iterator<SimpleFeature> {
+
+        int batchSize;
+
+        Reader reader;
+
+        XMLEventReader in;
+
+        StartElement transaction;
+
+        StartElement insert;
+
+        Iterator<SimpleFeature> batch = Collections.<SimpleFeature> emptyList().iterator();
+
+        FeatureIterator(int index, int batchSize) {
+            this.batchSize = batchSize;
+            iterators.add(this);
+            try {
+                reader = openReader();
+                in = inputFactory.createXMLEventReader(reader);
+
+                // move to the start of the insert
+                int depth = 0;
+                int position = 0;
+                while (insert == null) {
+                    XMLEvent event = in.nextEvent();
+                    if (event.isStartElement()) {
+                        StartElement start = event.asStartElement();
+                        depth++;
+                        if (depth == 1) {
+                            transaction = start;
+                        } else if (depth == 2 && INSERT.equals(start.getName())
+                                && position++ == index) {
+                            insert = start;
+                        } else {
+                            skip(in);
+                            depth--;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                close();
+                throw new RuntimeException("Failed to read the features of insert " + index, e);
+            }
+        }
+
+        public boolean hasNext() {
+            while (!batch.hasNext() && in != null) {
+                try {
+                    batch = nextBatch();
+                } catch (Exception e) {
+                    close();
+                    throw new RuntimeException("Failed to parse the inserted features", e);
+                }
+            }
+            return batch.hasNext();
+        }
+
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Parses the next features, closes the reader once the end of the insert is reached
+         */
+        @SuppressWarnings("unchecked")
+        Iterator<SimpleFeature> nextBatch() throws Exception {
+            CharArrayWriter buffer = new CharArrayWriter();
+            XMLEventWriter out = outputFactory.createXMLEventWriter(buffer);
+            out.add(transaction);
+            out.add(insert);
+            int count = 0;
+            while (count < batchSize) {
+                XMLEvent event = in.nextEvent();
+                if (event.isStartElement()) {
+                    copy(event.asStartElement(), in, out);
+                    count++;
+                } else if (event.isEndElement()) {
+                    close();
+                    break;
+                }
+            }
+            if (count == 0) {
+                return Collections.<SimpleFeature> emptyList().iterator();
+            }
+            out.add(eventFactory.createEndElement(insert.getName().getPrefix(), insert
+                    .getName().getNamespaceURI(), insert.getName().getLocalPart()));
+            out.add(eventFactory.createEndElement(transaction.getName().getPrefix(),
+                    transaction.getName().getNamespaceURI(), transaction.getName()
+                            .getLocalPart()));
+            out.close();
+
+            TransactionType parsed = (TransactionType) parseRequest(new CharArrayReader(buffer
+                    .toCharArray()));
+            InsertElementType element = (InsertElementType) parsed.getInsert().get(0);
+            return ((List<SimpleFeature>) element.getFeature()).iterator();
+        }
+
+        void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close the transaction copy", e);
+            }
+            in = null;
+            reader = null;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import javax.xml.namespace.QName;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.StreamingInsertParser;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
 import org.geotools.xml.Configuration;
@@ -56,6 +57,12 @@ public class WfsXmlReader extends XmlRequestReader {
         //TODO: make this configurable?
         configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
 
+        if ("wfs".equals(getServiceId()) && "Transaction".equals(getElement().getLocalPart())
+                && StreamingInsertParser.isEnabled()) {
+            //parse the inserted features only when they are written to the store
+            return new StreamingInsertParser(configuration, wfs, geoServer, kvp).parse(reader);
+        }
+
         Parser parser = new Parser(configuration);
         WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
         
@@ -3,6 +3,7 @@ package org.geoserver.wfs.response;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -103,6 +104,20 @@ public class CSVOutputFormatTest extends WFSTestSupport {
         assertEquals(f2.getAttribute("label"), lines.get(2)[2]);
     }
     
+    public void testWriteField() throws Exception {
+        assertEquals("plain", writeField("plain"));
+        assertEquals("\"a, b\"", writeField("a, b"));
+        assertEquals("\"say \"\"hi\"\"\"", writeField("say \"hi\""));
+        assertEquals("\"one\ntwo\nthree\"", writeField("one\ntwo\nthree"));
+        assertEquals("\"cr\r\"", writeField("cr\r"));
+    }
+    
+    String writeField(String field) throws IOException {
+        StringWriter w = new StringWriter();
+        CSVOutputFormat.writeField(w, field);
+        return w.toString();
+    }
+    
     /**
      * Convenience to read the csv content and 
      * @param csvContent
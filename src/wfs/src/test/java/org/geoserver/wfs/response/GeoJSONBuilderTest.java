@@ -36,6 +36,78 @@ public class GeoJSONBuilderTest extends TestCase {
             writer.toString());
     }
     
+    public void testWritePolygonWithHole() throws Exception {
+        Geometry g = new WKTReader().read(
+            "POLYGON((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":"
+            + "[[[0,0],[10,0],[10,10],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]}", writer.toString());
+    }
+
+    public void testWriteMultiPoint() throws Exception {
+        Geometry g = new WKTReader().read("MULTIPOINT((0.5 -1.25), (3 4))");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"MultiPoint\",\"coordinates\":[[0.5,-1.25],[3,4]]}",
+            writer.toString());
+    }
+
+    public void testWriteGeometryCollection() throws Exception {
+        Geometry g = new WKTReader().read(
+            "GEOMETRYCOLLECTION(POINT(1 2), LINESTRING(0 0, 1 1))");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+            + "{\"type\":\"Point\",\"coordinates\":[1,2]},"
+            + "{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]}]}",
+            writer.toString());
+    }
+
+    public void testWriteGeometryInObject() throws Exception {
+        Geometry g = new WKTReader().read("POINT(1 2)");
+        builder.object().key("a").writeGeom(g);
+        builder.key("b").value(1);
+        builder.writeBoundingBox(g.getEnvelopeInternal());
+        builder.endObject();
+
+        assertEquals("{\"a\":{\"type\":\"Point\",\"coordinates\":[1,2]},\"b\":1,"
+            + "\"bbox\":[1,2,1,2]}", writer.toString());
+    }
+
+    public void testFullPrecision() throws Exception {
+        Geometry g = new WKTReader().read("POINT(0.1234567890123 -55.174)");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[0.1234567890123,-55.174]}",
+            writer.toString());
+    }
+
+    public void testNoExponent() throws Exception {
+        Geometry g = new WKTReader().read("POINT(0.00001234 -1.5E20)");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"Point\",\"coordinates\":"
+            + "[0.00001234,-150000000000000000000]}", writer.toString());
+    }
+
+    public void testNumberOfDecimals() throws Exception {
+        builder.setNumberOfDecimals(3);
+        Geometry g = new WKTReader().read(
+            "LINESTRING(0.12345 -55.1746, 10.0001 -0.0001, -12.9996 1.5)");
+        builder.writeGeom(g);
+
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":"
+            + "[[0.123,-55.175],[10,0],[-13,1.5]]}", writer.toString());
+    }
+
+    public void testZeroDecimals() throws Exception {
+        builder.setNumberOfDecimals(0);
+        builder.writeGeom(new WKTReader().read("POINT(1.5 -2.4)"));
+
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[2,-2]}", writer.toString());
+    }
+
     public void testWriteGeometrySubclass() throws Exception {
         builder.writeGeom(new MyPoint(1,2));
         
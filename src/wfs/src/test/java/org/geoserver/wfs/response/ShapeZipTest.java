@@ -21,6 +21,7 @@ import javax.xml.namespace.QName;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.MetadataMap;
@@ -30,6 +31,7 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
@@ -160,6 +162,75 @@ public class ShapeZipTest extends WFSTestSupport {
         checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
     }
 
+    public void testMultipleCollections() throws Exception {
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(getFeatureSource(MockData.BASIC_POLYGONS).getFeatures());
+        fct.getFeature().add(getFeatureSource(MockData.BRIDGES).getFeatures());
+        fct.getFeature().add(getFeatureSource(ALL_TYPES).getFeatures());
+        zip.write(fct, bos, op);
+
+        final String[] expectedTypes = new String[] { "BasicPolygons", "Bridges", 
+                "AllTypesPoint", "AllTypesMPoint", "AllTypesPolygon", "AllTypesLine" };
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bos.toByteArray()));
+        checkFieldsAreNotEmpty(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    public void testDuplicateCollections() throws Exception {
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(getFeatureSource(MockData.BASIC_POLYGONS).getFeatures());
+        fct.getFeature().add(getFeatureSource(MockData.BASIC_POLYGONS).getFeatures());
+        zip.write(fct, bos, op);
+
+        // the second query gets its own set of files rather than being dropped
+        final String[] expectedTypes = new String[] { "BasicPolygons", "BasicPolygons_1" };
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bos.toByteArray()));
+        Set<String> names = new HashSet<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        ZipEntry entry = null;
+        while ((entry = zis.getNextEntry()) != null) {
+            names.add(entry.getName());
+        }
+        zis.close();
+        assertTrue(names.contains("BasicPolygons.shp"));
+        assertTrue(names.contains("BasicPolygons_1.shp"));
+        assertTrue(names.contains("BasicPolygons_1.dbf"));
+    }
+
+    public void testWriteMonitorDiskLimit() throws Exception {
+        File dir = createTempFolder("shpmonitor");
+        try {
+            FileOutputStream fos = new FileOutputStream(new File(dir, "test.shp"));
+            fos.write(new byte[2048]);
+            fos.close();
+
+            ShapeZipOutputFormat.WriteMonitor monitor = 
+                new ShapeZipOutputFormat.WriteMonitor(dir, 1024);
+            // the disk usage is only checked every so often
+            monitor.checkpoint(1);
+            try {
+                monitor.checkpoint(ShapeZipOutputFormat.DISK_CHECK_INTERVAL);
+                fail("Should have failed, the disk limit has been exceeded");
+            } catch (ServiceException e) {
+                // fine
+            }
+            // once aborted any other writer stops as well
+            try {
+                monitor.checkpoint(1);
+                fail("Should have failed, the writing has been aborted");
+            } catch (ServiceException e) {
+                // fine
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
     public void testMultiTypeDots() throws Exception {
         byte[] zip = writeOut(getFeatureSource(ALL_DOTS).getFeatures());
 
@@ -11,7 +11,13 @@ import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.impl.DataAccessRule;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wfs.FeatureCountCache;
+import org.geoserver.wfs.InsertElementHandler;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.StreamingInsertParser;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -165,6 +171,150 @@ public class TransactionTest extends WFSTestSupport {
         assertEquals("20.0 40.0", getFirstElementByTagName(dom, "gml:pos").getFirstChild().getNodeValue());
     }
 
+    public void testInsertBatches() throws Exception {
+        assertInsertBatches("t0010", "t0011", "t0012", "t0013");
+    }
+    
+    public void testInsertStreaming() throws Exception {
+        System.setProperty(StreamingInsertParser.STREAMING, "true");
+        try {
+            assertInsertBatches("t0020", "t0021", "t0022", "t0023");
+            
+            // a transaction mixing inserts with other elements
+            String transaction = "<wfs:Transaction service=\"WFS\" version=\"1.1.0\" "
+                + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + "xmlns:gml=\"http://www.opengis.net/gml\"> "
+                + "<wfs:Insert>" + point("t0024", "24 24") + "</wfs:Insert>"
+                + "<wfs:Delete typeName=\"cgf:Points\"><ogc:Filter><ogc:PropertyIsEqualTo>"
+                + "<ogc:PropertyName>cgf:id</ogc:PropertyName><ogc:Literal>t0020</ogc:Literal>"
+                + "</ogc:PropertyIsEqualTo></ogc:Filter></wfs:Delete>"
+                + "<wfs:Insert>" + point("t0025", "25 25") + "</wfs:Insert>"
+                + "</wfs:Transaction>";
+            Document dom = postAsDOM("wfs", transaction);
+            assertEquals("2", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                    .getNodeValue());
+            assertEquals("1", getFirstElementByTagName(dom, "wfs:totalDeleted").getFirstChild()
+                    .getNodeValue());
+            assertInsertOrder(dom, new String[] { "Points", "Points" }, 
+                    new String[] { "t0024", "t0025" });
+        } finally {
+            System.clearProperty(StreamingInsertParser.STREAMING);
+        }
+    }
+    
+    void assertInsertBatches(String... ids) throws Exception {
+        InsertElementHandler handler = 
+            (InsertElementHandler) applicationContext.getBean("wfsInsertElementHandler");
+        int batchSize = handler.getBatchSize();
+        handler.setBatchSize(2);
+        
+        Document dom;
+        try {
+            String insert = "<wfs:Transaction service=\"WFS\" version=\"1.1.0\" "
+                + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + "xmlns:gml=\"http://www.opengis.net/gml\"> " + "<wfs:Insert > " 
+                + point(ids[0], "10 10") + point(ids[1], "11 11") 
+                + "<cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                + "<gml:posList>10 10 20 20</gml:posList>"
+                + "</gml:LineString></cgf:lineStringProperty><cgf:id>" + ids[2] 
+                + "</cgf:id></cgf:Lines>"
+                + point(ids[3], "13 13") 
+                + "</wfs:Insert>" + "</wfs:Transaction>";
+            dom = postAsDOM("wfs", insert);
+        } finally {
+            handler.setBatchSize(batchSize);
+        }
+        
+        assertEquals("4", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                .getNodeValue());
+        // the fids are reported in the same order as the features in the request
+        assertInsertOrder(dom, new String[] { "Points", "Points", "Lines", "Points" }, ids);
+    }
+    
+    /**
+     * Checks the inserted feature fids are reported in the specified order, by looking up the 
+     * cgf:id of each inserted feature
+     */
+    void assertInsertOrder(Document dom, String[] types, String[] ids) throws Exception {
+        NodeList fids = dom.getElementsByTagName("ogc:FeatureId");
+        assertEquals(ids.length, fids.getLength());
+        for (int i = 0; i < ids.length; i++) {
+            String fid = ((Element) fids.item(i)).getAttribute("fid");
+            Document feature = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs"
+                    + "&typename=cgf:" + types[i] + "&featureId=" + fid);
+            assertEquals(1, feature.getElementsByTagName("cgf:" + types[i]).getLength());
+            assertEquals(ids[i], getFirstElementByTagName(feature, "cgf:id").getFirstChild()
+                    .getNodeValue());
+        }
+    }
+    
+    public void testInsertInvalidatesCount() throws Exception {
+        FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsCountCache");
+        cache.clear();
+        
+        String hits = "wfs?request=GetFeature&version=1.1.0&service=wfs&resultType=hits" 
+            + "&typename=cgf:Points";
+        Document dom = getAsDOM(hits);
+        int count = Integer.parseInt(dom.getDocumentElement().getAttribute("numberOfFeatures"));
+        assertEquals(1, cache.size());
+        
+        String insert = "<wfs:Transaction service=\"WFS\" version=\"1.1.0\" "
+            + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+            + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+            + "xmlns:gml=\"http://www.opengis.net/gml\"> " + "<wfs:Insert > " 
+            + point("t0020", "20 20") + "</wfs:Insert>" + "</wfs:Transaction>";
+        dom = postAsDOM("wfs", insert);
+        assertEquals("1", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                .getNodeValue());
+        
+        dom = getAsDOM(hits);
+        assertEquals(String.valueOf(count + 1), dom.getDocumentElement().getAttribute(
+                "numberOfFeatures"));
+    }
+    
+    public void testPagedCountsNotCached() throws Exception {
+        FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsCountCache");
+        cache.clear();
+
+        // the size of a page is always computed
+        getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&resultType=hits" 
+            + "&typename=cgf:Points&maxFeatures=1");
+        getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename=cgf:Points");
+        assertEquals(0, cache.size());
+    }
+
+    public void testRuleChangeInvalidatesCount() throws Exception {
+        FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsCountCache");
+        cache.clear();
+        String hits = "wfs?request=GetFeature&version=1.1.0&service=wfs&resultType=hits" 
+            + "&typename=";
+        getAsDOM(hits + "cgf:Points");
+        assertEquals(1, cache.size());
+
+        DataAccessRuleDAO dao = (DataAccessRuleDAO) applicationContext.getBean("accessRulesDao");
+        DataAccessRule rule = new DataAccessRule("cgf", "Lines", AccessMode.READ, "*");
+        Thread.sleep(10);
+        dao.addRule(rule);
+        try {
+            // the count of the points, taken with the old rules, is gone
+            getAsDOM(hits + "cgf:Lines");
+            assertEquals(1, cache.size());
+        } finally {
+            dao.removeRule(rule);
+        }
+    }
+
+    String point(String id, String pos) {
+        return "<cgf:Points><cgf:pointProperty><gml:Point><gml:pos>" + pos 
+            + "</gml:pos></gml:Point></cgf:pointProperty><cgf:id>" + id + "</cgf:id></cgf:Points>";
+    }
+
     public void testInsertWithSRS() throws Exception {
 
         // 1. do a getFeature
@@ -1,5 +1,17 @@
 package org.geoserver.wfs.xml;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import javax.xml.namespace.QName;
 
 import org.eclipse.xsd.XSDComplexTypeDefinition;
@@ -51,4 +63,91 @@ public class FeatureTypeInfoSchemaBuilderTest extends WFSTestSupport {
         assertEquals(GML.GEOMETRYASSOCIATIONTYPE.getLocalPart(),
                 geometryAssociationType.getName());
     }
+    
+    public void testSchemaCache() throws Exception {
+        FeatureTypeInfo lines = getFeatureTypeInfo(MockData.LINES);
+        FeatureTypeInfo[] types = new FeatureTypeInfo[] { lines };
+        String baseUrl = "http://localhost:8080/geoserver";
+        FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        
+        XSDSchema schema = builder.build(types, baseUrl);
+        assertNotNull(schema);
+        assertSame(schema, builder.build(types, baseUrl));
+        // the cache is shared among builders
+        assertSame(schema, new FeatureTypeSchemaBuilder.GML3(getGeoServer()).build(types, baseUrl));
+        
+        // the gml version and base url are part of the key
+        assertNotSame(schema, new FeatureTypeSchemaBuilder.GML2(getGeoServer()).build(types, 
+                baseUrl));
+        assertNotSame(schema, builder.build(types, "http://example.com/geoserver"));
+        
+        // callers managing the schema get their own copy
+        XSDSchema own = builder.build(types, baseUrl, false);
+        assertNotSame(schema, own);
+        Schemas.dispose(own);
+        
+        // changing the feature type drops its schemas
+        lines.setTitle("Cached lines");
+        getCatalog().save(lines);
+        XSDSchema rebuilt = builder.build(types, baseUrl);
+        assertNotSame(schema, rebuilt);
+        assertNotNull(Schemas.getElementDeclaration(rebuilt, MockData.LINES));
+        new SchemaCleanerCallback().finished(null);
+    }
+    
+    public void testSchemaCacheConcurrentRequests() throws Exception {
+        final FeatureTypeInfo[] types = new FeatureTypeInfo[] { 
+                getFeatureTypeInfo(MockData.BRIDGES) };
+        final String baseUrl = "http://localhost:8080/geoserver";
+        final FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        
+        // requests running at the same time never share a schema
+        final int requests = 4;
+        final CountDownLatch built = new CountDownLatch(requests);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<XSDSchema>> futures = new ArrayList<Future<XSDSchema>>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(executor.submit(new Callable<XSDSchema>() {
+                    public XSDSchema call() throws Exception {
+                        try {
+                            XSDSchema schema = builder.build(types, baseUrl);
+                            built.countDown();
+                            assertTrue(built.await(30, TimeUnit.SECONDS));
+                            // use it while the others are using theirs
+                            schema.updateElement();
+                            assertNotNull(Schemas.getElementDeclaration(schema, 
+                                    MockData.BRIDGES));
+                            return schema;
+                        } finally {
+                            new SchemaCleanerCallback().finished(null);
+                        }
+                    }
+                }));
+            }
+            Set<XSDSchema> schemas = Collections.newSetFromMap(
+                    new IdentityHashMap<XSDSchema, Boolean>());
+            for (Future<XSDSchema> future : futures) {
+                schemas.add(future.get());
+            }
+            assertEquals(requests, schemas.size());
+            
+            // once the requests complete the schemas go back to the cache
+            XSDSchema schema = builder.build(types, baseUrl);
+            assertTrue(schemas.contains(schema));
+            // and they are not handed out to another request while in use
+            assertFalse(schema == executor.submit(new Callable<XSDSchema>() {
+                public XSDSchema call() throws Exception {
+                    try {
+                        return builder.build(types, baseUrl);
+                    } finally {
+                        new SchemaCleanerCallback().finished(null);
+                    }
+                }
+            }).get());
+        } finally {
+            new SchemaCleanerCallback().finished(null);
+            executor.shutdown();
+        }
+    }
 }
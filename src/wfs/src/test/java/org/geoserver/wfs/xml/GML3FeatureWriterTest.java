@@ -0,0 +1,129 @@
+package org.geoserver.wfs.xml;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geotools.geometry.jts.ReferencedEnvelope3D;
+import org.geotools.gml3.v3_2.GML;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.wfs.v2_0.WFS;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class GML3FeatureWriterTest extends WFSTestSupport {
+
+    static final QName[] TYPES = new QName[] { MockData.POINTS, MockData.MPOINTS,
+            MockData.LINES, MockData.MLINES, MockData.POLYGONS, MockData.MPOLYGONS,
+            MockData.BUILDINGS, MockData.PRIMITIVEGEOFEATURE };
+
+    public void testGML3() throws Exception {
+        for (QName type : TYPES) {
+            assertSameAsEncoder("gml3OutputFormat",
+                    "wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                            + getLayerId(type));
+        }
+    }
+
+    public void testGML3MultipleTypes() throws Exception {
+        assertSameAsEncoder("gml3OutputFormat",
+                "wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                        + getLayerId(MockData.POINTS) + "," + getLayerId(MockData.BUILDINGS));
+    }
+
+    public void testGML32() throws Exception {
+        for (QName type : TYPES) {
+            assertSameAsEncoder("gml32OutputFormat",
+                    "wfs?request=GetFeature&version=2.0.0&service=wfs&outputFormat=gml32"
+                            + "&typenames=" + getLayerId(type));
+        }
+    }
+
+    public void testGML32GeometryIds() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=2.0.0&service=wfs"
+                + "&outputFormat=gml32&typenames=" + getLayerId(MockData.MPOLYGONS));
+        NodeList surfaces = dom.getElementsByTagNameNS(GML.NAMESPACE, "MultiSurface");
+        assertTrue(surfaces.getLength() > 0);
+        for (int i = 0; i < surfaces.getLength(); i++) {
+            Element surface = (Element) surfaces.item(i);
+            assertTrue(surface.hasAttributeNS(GML.NAMESPACE, "id"));
+            Element polygon = (Element) surface.getElementsByTagNameNS(GML.NAMESPACE, "Polygon")
+                    .item(0);
+            assertTrue(polygon.hasAttributeNS(GML.NAMESPACE, "id"));
+        }
+    }
+
+    public void testEnvelopeDimension() throws Exception {
+        GML3FeatureWriter fw = new GML3FeatureWriter(getCatalog(),
+                new FeatureTypeSchemaBuilder.GML3(getGeoServer()), getWFS());
+        StringWriter out = new StringWriter();
+        fw.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        fw.writer.writeStartElement("gml", "boundedBy", org.geotools.gml3.GML.NAMESPACE);
+        fw.writer.writeNamespace("gml", org.geotools.gml3.GML.NAMESPACE);
+        fw.writeEnvelope(new ReferencedEnvelope3D(0, 1, 2, 3, 4, 5,
+                DefaultGeographicCRS.WGS84_3D));
+        fw.writer.writeEndElement();
+        fw.writer.flush();
+
+        String xml = out.toString();
+        assertTrue(xml, xml.contains("srsDimension=\"3\""));
+        assertTrue(xml, xml.contains(">0.0 2.0 4.0</gml:lowerCorner>"));
+        assertTrue(xml, xml.contains(">1.0 3.0 5.0</gml:upperCorner>"));
+    }
+
+    void assertSameAsEncoder(String formatBean, String path) throws Exception {
+        GML3OutputFormat format = (GML3OutputFormat) applicationContext.getBean(formatBean);
+        assertTrue(format.isStreaming());
+        Document streamed = getAsDOM(path);
+
+        Document encoded;
+        format.setStreaming(false);
+        try {
+            encoded = getAsDOM(path);
+        } finally {
+            format.setStreaming(true);
+        }
+
+        assertEquals(encoded.getDocumentElement().getNamespaceURI(), streamed
+                .getDocumentElement().getNamespaceURI());
+        assertEquals(encoded.getDocumentElement().getLocalName(), streamed
+                .getDocumentElement().getLocalName());
+        assertEquals(values(encoded), values(streamed));
+    }
+
+    /**
+     * The feature ids, and the names and values of the leaf elements, in document order
+     */
+    List<String> values(Document dom) {
+        List<String> values = new ArrayList<String>();
+        collect(dom.getDocumentElement(), values);
+        return values;
+    }
+
+    void collect(Element element, List<String> values) {
+        String parent = element.getParentNode().getLocalName();
+        if ("featureMember".equals(parent) || "featureMembers".equals(parent)
+                || "member".equals(parent)) {
+            values.add("id=" + element.getAttributeNS(element.getParentNode()
+                    .getNamespaceURI().equals(WFS.NAMESPACE) ? GML.NAMESPACE
+                    : org.geotools.gml3.GML.NAMESPACE, "id"));
+        }
+        boolean leaf = true;
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element) {
+                leaf = false;
+                collect((Element) n, values);
+            }
+        }
+        if (leaf) {
+            values.add(element.getLocalName() + "=" + element.getTextContent().trim());
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,7 +32,6 @@ import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.crop.GTCropDescriptor;
 import org.geotools.resources.i18n.ErrorKeys;
 import org.geotools.resources.i18n.Errors;
@@ -76,24 +76,15 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
     public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
-        // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
-
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
-            }
-
-            if (tile == null) {
+        // get the key that identifies the meta tile. The cache makes sure that two threads
+        // asking for the same meta tile share a single rendering (the first builds the
+        // meta-tile, the second waits for it) while requests for other meta tiles proceed
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
+        final WMSMapContent content = mapContent;
+        final RenderedImageMap[] metaTileMap = new RenderedImageMap[1];
+
+        RenderedImage[] tiles = tileCache.getTiles(key, new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
                 // compute the meta-tile
                 if (LOGGER.isLoggable(Level.FINER)) {
                     LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
@@ -102,24 +93,30 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
                 // alter the map definition so that we build a meta-tile instead
                 // of just the tile
-                ReferencedEnvelope origEnv = mapContent.getRenderingArea();
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
-                mapContent.setTileSize(key.getTileSize());
-
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile, mapContent);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+                content.getViewport().setBounds(key.getMetaTileEnvelope());
+                content.setMapWidth(key.getTileSize() * key.getMetaFactor());
+                content.setMapHeight(key.getTileSize() * key.getMetaFactor());
+                content.setTileSize(key.getTileSize());
+
+                metaTileMap[0] = delegate.produceMap(content);
+                return split(key, metaTileMap[0].getImage(), content);
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+        });
+
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y + "in cache: " 
+                    + ((metaTileMap[0] == null) ? "hit!" : "miss"));
+        }
+
+        RenderedImage tile = tileCache.getTile(key, request, tiles);
+        List<GridCoverage2D> renderedCoverages = null;
+        if (metaTileMap[0] != null) {
+            renderedCoverages = metaTileMap[0].getRenderedCoverages();
         }
+        RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
+        tileMap.setRenderedCoverages(renderedCoverages);
+        return tileMap;
     }
 
     /**
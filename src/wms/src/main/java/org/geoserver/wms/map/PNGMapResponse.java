@@ -13,6 +13,9 @@ import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.media.jai.RenderedOp;
+
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
@@ -21,6 +24,7 @@ import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
@@ -53,10 +57,33 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         Octree, MedianCut
     };
 
+    /**
+     * Property selecting the PNG encoder, "java" (the default) for the built-in streaming
+     * encoder, "imageio" for the ImageIO based one. The built-in encoder is not used when PNG
+     * native acceleration is enabled, the native ImageIO encoder is used instead
+     */
+    public static final String PNG_ENCODER = "PNG_ENCODER";
+
+    /**
+     * Property selecting the scanline filter used by the built-in encoder, one of the
+     * {@link PNGEncoder.Filter} names, defaults to ADAPTIVE
+     */
+    public static final String PNG_FILTER = "PNG_FILTER";
+
     static {
         ColorIndexerDescriptor.register();
     }
 
+    /**
+     * Lazily read from the {@link #PNG_ENCODER} property
+     */
+    private static volatile Boolean javaEncoderEnabled;
+
+    /**
+     * Lazily read from the {@link #PNG_FILTER} property
+     */
+    private static volatile PNGEncoder.Filter pngFilter;
+
     /**
      * Default capabilities for PNG format.
      * 
@@ -109,6 +136,14 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         image = applyPalette(image, mapContent, "image/png8", true);
 
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
+        if (!PNGNativeAcc.booleanValue() && isJavaEncoderEnabled()
+                && encodeDirectly(image, outStream)) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         SampleModel sm = image.getSampleModel();
         int numBits = sm.getSampleSize(0);
@@ -123,6 +158,64 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
 
+    /**
+     * Encodes the image with the built-in {@link PNGEncoder}, if it supports the image. A color
+     * indexing operation is not executed, the indexer is applied to the source image while
+     * encoding instead.
+     *
+     * @return true if the image was encoded, false if it's not supported
+     */
+    boolean encodeDirectly(RenderedImage image, OutputStream outStream) throws IOException {
+        // the zlib level matching the compression percentage
+        int level = Math.round(9 * wms.getPngCompression() / 100f);
+        PNGEncoder encoder = new PNGEncoder(Math.max(0, Math.min(9, level)), getPngFilter());
+
+        if (image instanceof RenderedOp
+                && ColorIndexerDescriptor.OPERATION_NAME.equals(((RenderedOp) image)
+                        .getOperationName())) {
+            RenderedOp op = (RenderedOp) image;
+            RenderedImage source = op.getSourceImage(0);
+            ColorIndexer indexer = (ColorIndexer) op.getParameterBlock().getObjectParameter(0);
+            if (PNGEncoder.canEncodeIndexed(source)) {
+                encoder.encode(source, indexer, outStream);
+                RasterCleaner.addImage(image);
+                return true;
+            }
+        }
+
+        if (PNGEncoder.canEncode(image)) {
+            encoder.encode(image, outStream);
+            RasterCleaner.addImage(image);
+            return true;
+        }
+        return false;
+    }
+
+    static boolean isJavaEncoderEnabled() {
+        if (javaEncoderEnabled == null) {
+            String value = GeoServerExtensions.getProperty(PNG_ENCODER);
+            javaEncoderEnabled = value == null || !"imageio".equalsIgnoreCase(value.trim());
+        }
+        return javaEncoderEnabled;
+    }
+
+    static PNGEncoder.Filter getPngFilter() {
+        if (pngFilter == null) {
+            PNGEncoder.Filter filter = PNGEncoder.Filter.ADAPTIVE;
+            String value = GeoServerExtensions.getProperty(PNG_FILTER);
+            if (value != null) {
+                try {
+                    filter = PNGEncoder.Filter.valueOf(value.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + PNG_FILTER + ", using "
+                            + filter);
+                }
+            }
+            pngFilter = filter;
+        }
+        return pngFilter;
+    }
+
     @Override
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
@@ -0,0 +1,385 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Renders the layers of a map in parallel. The layers are split in contiguous groups, each group
+ * is painted by its own {@link StreamingRenderer} into an off screen image, and the images are
+ * then composited in layer order onto the map graphics.
+ * <p>
+ * Labels are placed separately for each group, so the labels of a group do not take into
+ * account the ones of the other groups, and are painted below the layers of the following
+ * groups. For this reason parallel rendering is disabled by default, it is enabled by setting
+ * the {@link #THREADS} property, the size of the thread pool shared by all requests, to a value
+ * greater than one. The {@link #REQUEST_THREADS} property controls how many threads a single
+ * request can use, the calling one included, and defaults to the pool size.
+ * </p>
+ * <p>
+ * Each group gets its own timeout and error enforcers, the timeout is the time left to the
+ * request when the group starts rendering.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class ParallelLayerRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelLayerRenderer.class);
+
+    /**
+     * Property controlling the number of threads shared by all requests to render layers in
+     * parallel, a value of 1 or less (the default) disables parallel rendering
+     */
+    public static final String THREADS = "WMS_LAYER_RENDERING_THREADS";
+
+    /**
+     * Property controlling the maximum number of threads a single request can use to render its
+     * layers, the one running the request included
+     */
+    public static final String REQUEST_THREADS = "WMS_LAYER_RENDERING_REQUEST_THREADS";
+
+    private static ExecutorService executor;
+
+    private static boolean executorInitialized;
+
+    private static int requestThreads = -1;
+
+    WMSMapContent mapContent;
+
+    RenderingHints java2dHints;
+
+    Map<RenderingHints.Key, Object> graphicsHints;
+
+    Map<Object, Object> rendererParams;
+
+    int maxErrors;
+
+    long maxRenderingTime;
+
+    List<Group> groups = new ArrayList<Group>();
+
+    /**
+     * Builds a new parallel renderer
+     *
+     * @param mapContent the map to be rendered
+     * @param java2dHints the hints given to each renderer
+     * @param graphicsHints the hints set on the off screen graphics
+     * @param rendererParams the renderer hints given to each renderer
+     * @param maxErrors the maximum number of rendering errors, per group
+     * @param maxRenderingTime the maximum rendering time in milliseconds, or 0 for no limit
+     */
+    public ParallelLayerRenderer(WMSMapContent mapContent, RenderingHints java2dHints,
+            Map<RenderingHints.Key, Object> graphicsHints, Map<Object, Object> rendererParams,
+            int maxErrors, long maxRenderingTime) {
+        this.mapContent = mapContent;
+        this.java2dHints = java2dHints;
+        this.graphicsHints = graphicsHints;
+        this.rendererParams = rendererParams;
+        this.maxErrors = maxErrors;
+        this.maxRenderingTime = maxRenderingTime;
+    }
+
+    /**
+     * Returns true if parallel rendering is enabled and the map has enough layers to benefit
+     * from it
+     */
+    public static boolean isEnabled(WMSMapContent mapContent) {
+        return mapContent.layers().size() > 1 && getExecutor() != null
+                && getRequestThreads() > 1;
+    }
+
+    /**
+     * Returns the memory, in bytes, used by the off screen images the layer groups are painted
+     * onto, on top of the memory used by the map image itself
+     */
+    public static long getMemoryUse(WMSMapContent mapContent, int width, int height) {
+        return getGroupCount(mapContent) * (long) width * height * 4;
+    }
+
+    static int getGroupCount(WMSMapContent mapContent) {
+        return Math.min(mapContent.layers().size(), getRequestThreads());
+    }
+
+    /**
+     * Renders the layers and composites them on the graphics. Check {@link #isTimedOut()},
+     * {@link #getException()} and {@link #exceedsMaxErrors()} afterwards to see if the rendering
+     * was successful.
+     */
+    public void paint(Graphics2D graphic, Rectangle paintArea, ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        final long start = System.currentTimeMillis();
+
+        // split the layers in contiguous groups, sizes differ at most by one
+        List<Layer> layers = mapContent.layers();
+        int groupCount = getGroupCount(mapContent);
+        int from = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int to = from + (layers.size() - from) / (groupCount - i);
+            groups.add(new Group(layers.subList(from, to), paintArea, mapArea, worldToScreen,
+                    start));
+            from = to;
+        }
+
+        // the first group is rendered by the calling thread
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int i = 1; i < groups.size(); i++) {
+                futures.add(getExecutor().submit(groups.get(i)));
+            }
+            groups.get(0).run();
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceException("Interrupted while rendering the map", e);
+                } catch (ExecutionException e) {
+                    throw new ServiceException("Rendering process failed", e.getCause(),
+                            "internalError");
+                }
+            }
+
+            // composite in layer order
+            for (Group group : groups) {
+                if (group.image != null) {
+                    graphic.drawImage(group.image, paintArea.x, paintArea.y, null);
+                }
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            for (Group group : groups) {
+                group.image = null;
+            }
+        }
+    }
+
+    /**
+     * True if any of the groups did time out
+     */
+    public boolean isTimedOut() {
+        for (Group group : groups) {
+            if (group.timedOut) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The first non ignorable rendering exception, in layer order, or null if none occurred
+     */
+    public Exception getException() {
+        for (Group group : groups) {
+            if (group.exceptions != null && group.exceptions.exceptionOccurred()) {
+                return group.exceptions.getException();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if any of the groups exceeded the maximum number of errors
+     */
+    public boolean exceedsMaxErrors() {
+        return getLastException() != null;
+    }
+
+    /**
+     * The last exception of the first group exceeding the maximum number of errors, or null if
+     * no group exceeded it
+     */
+    public Exception getLastException() {
+        for (Group group : groups) {
+            if (group.errors != null && group.errors.exceedsMaxErrors()) {
+                return group.errors.getLastException();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders a group of layers into its own image
+     */
+    class Group implements Runnable {
+
+        List<Layer> layers;
+
+        Rectangle paintArea;
+
+        ReferencedEnvelope mapArea;
+
+        AffineTransform worldToScreen;
+
+        long start;
+
+        BufferedImage image;
+
+        MaxErrorEnforcer errors;
+
+        RenderExceptionStrategy exceptions;
+
+        volatile boolean timedOut;
+
+        Group(List<Layer> layers, Rectangle paintArea, ReferencedEnvelope mapArea,
+                AffineTransform worldToScreen, long start) {
+            this.layers = new ArrayList<Layer>(layers);
+            this.paintArea = paintArea;
+            this.mapArea = mapArea;
+            this.worldToScreen = worldToScreen;
+            this.start = start;
+        }
+
+        public void run() {
+            // use the time left to the request, bail out if there is none
+            long timeout = 0;
+            if (maxRenderingTime > 0) {
+                timeout = maxRenderingTime - (System.currentTimeMillis() - start);
+                if (timeout <= 0) {
+                    timedOut = true;
+                    return;
+                }
+            }
+
+            MapContent content = new MapContent();
+            content.getViewport().setBounds(mapArea);
+            for (Layer layer : layers) {
+                content.addLayer(layer);
+            }
+
+            try {
+                StreamingRenderer renderer = new StreamingRenderer();
+                renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+                renderer.setMapContent(content);
+                renderer.setJava2DHints(java2dHints);
+                renderer.setRendererHints(new HashMap<Object, Object>(rendererParams));
+                errors = new MaxErrorEnforcer(renderer, maxErrors);
+                exceptions = new RenderExceptionStrategy(renderer);
+                renderer.addRenderListener(exceptions);
+
+                image = new BufferedImage(paintArea.width, paintArea.height,
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D graphic = image.createGraphics();
+                graphic.setRenderingHints(graphicsHints);
+
+                RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(timeout,
+                        renderer, graphic);
+                enforcer.start();
+                try {
+                    renderer.paint(graphic, new Rectangle(0, 0, paintArea.width,
+                            paintArea.height), mapArea, worldToScreen);
+                } finally {
+                    enforcer.stop();
+                    graphic.dispose();
+                }
+                timedOut = enforcer.isTimedOut();
+            } finally {
+                // the layers belong to the map, detach them before disposing the group content
+                content.layers().clear();
+                content.dispose();
+            }
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Rendered " + layers.size() + " layers in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+    }
+
+    /**
+     * Drops the thread pool so that the properties are read again on the next request, the pool
+     * threads will die once idle. Used for testing.
+     */
+    static synchronized void reset() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = null;
+        executorInitialized = false;
+        requestThreads = -1;
+    }
+
+    static synchronized int getRequestThreads() {
+        if (requestThreads < 0) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) getExecutor();
+            int threads = pool != null ? pool.getMaximumPoolSize() : 1;
+            String value = GeoServerExtensions.getProperty(REQUEST_THREADS);
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + REQUEST_THREADS
+                            + ", using " + threads);
+                }
+            }
+            requestThreads = threads;
+        }
+        return requestThreads;
+    }
+
+    static synchronized ExecutorService getExecutor() {
+        if (!executorInitialized) {
+            executorInitialized = true;
+            int threads = 1;
+            String value = GeoServerExtensions.getProperty(THREADS);
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + THREADS
+                            + ", parallel layer rendering disabled");
+                }
+            }
+            if (threads <= 1) {
+                return executor;
+            }
+
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ParallelLayerRenderer-"
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+}
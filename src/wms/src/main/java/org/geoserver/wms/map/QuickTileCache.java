@@ -6,14 +6,22 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -22,6 +30,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
@@ -30,11 +39,29 @@ import org.geoserver.wms.GetMapRequest;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Cache of the tiles produced by splitting meta-tiles, used by {@link MetatileMapOutputFormat}.
+ * <p>
+ * Each meta-tile is rendered once, requests for a meta-tile that is being rendered wait for the
+ * rendering to complete while requests for other meta-tiles proceed. The cache holds at most 
+ * {@link #MAX_MEMORY} megabytes of tiles, evicting the least recently used meta-tiles when full.
+ * The whole cache is invalidated on configuration changes and on WFS transactions.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+    
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+    
+    /**
+     * Maximum amount of memory used by the cache, in megabytes, set as a system property, context
+     * parameter or environment variable. Defaults to 5% of the maximum heap size. 
+     */
+    public static final String MAX_MEMORY = "org.geoserver.wms.metaTileCache.maxMemory";
+    
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -53,27 +80,48 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         ignoredParameters.add("EXCEPTIONS");
     }
 
+    private ConcurrentHashMap<MetaTileKey, CacheElement> tileCache = 
+        new ConcurrentHashMap<MetaTileKey, CacheElement>();
+    
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * maximum memory used by the cached tiles, in bytes
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
-
-    private WeakHashMap tileCache = new WeakHashMap();
+    long maxMemory;
+    
+    /**
+     * memory currently used by the cached tiles, in bytes
+     */
+    AtomicLong memory = new AtomicLong();
+    
+    /**
+     * access counter used to find the least recently used meta tile
+     */
+    AtomicLong clock = new AtomicLong();
+    
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+    
+    /**
+     * guards eviction, so that concurrent insertions do not evict more than needed
+     */
+    Object evictionLock = new Object();
 
     public QuickTileCache(GeoServer geoServer) {
+        this(maxMemory());
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,12 +130,30 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(maxMemory());
+    }
+    
+    QuickTileCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+    
+    static long maxMemory() {
+        long max = Runtime.getRuntime().maxMemory() / 20;
+        String value = GeoServerExtensions.getProperty(MAX_MEMORY);
+        if (value != null) {
+            try {
+                max = Long.parseLong(value.trim()) * 1024 * 1024;
+            } catch(NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + MAX_MEMORY + ", using " 
+                    + (max / 1024 / 1024) + " MB");
+            }
+        }
+        return max;
     }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
-     * specific meta-tile, and also as a synchronization tool to avoid multiple requests to trigger
-     * parallel computation of the same meta-tile
+     * specific meta-tile
      * 
      * @param request
      * @return
@@ -110,12 +176,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
-
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return (MetaTileKey) metaTileKeys.unique(key);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -310,22 +371,91 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Gathers a tile from the cache, if available
+     * Returns the tiles of a meta-tile, rendering it if it is not cached.
+     * <p>
+     * The meta-tile is rendered in the calling thread, other threads asking for the same 
+     * meta-tile in the meantime wait for the rendering to complete and share its result. If the
+     * rendering fails the exception is rethrown to all of them and nothing is cached.
+     * </p>
+     * @param key The meta-tile key.
+     * @param renderer Renders and splits the meta tile.
+     */
+    public RenderedImage[] getTiles(MetaTileKey key, Callable<RenderedImage[]> renderer) 
+        throws IOException {
+        CacheElement ce = tileCache.get(key);
+        if (ce == null) {
+            CacheElement created = new CacheElement(new FutureTask<RenderedImage[]>(renderer));
+            ce = tileCache.putIfAbsent(key, created);
+            if (ce == null) {
+                misses.incrementAndGet();
+                created.touch();
+                created.future.run();
+                boolean rendered = false;
+                try {
+                    RenderedImage[] tiles = get(created);
+                    rendered = true;
+                    store(key, created, tiles);
+                    return tiles;
+                } finally {
+                    if (!rendered) {
+                        //do not cache failures
+                        tileCache.remove(key, created);
+                    }
+                }
+            }
+        }
+        
+        hits.incrementAndGet();
+        ce.touch();
+        return get(ce);
+    }
+    
+    RenderedImage[] get(CacheElement ce) throws IOException {
+        try {
+            return ce.future.get();
+        } catch(InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while waiting for meta tile")
+                .initCause(e);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException("Failed to render meta tile").initCause(cause);
+        }
+    }
+
+    /**
+     * Gathers a tile from the cache, if available and fully rendered
      * 
      * @param key
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.get(key);
 
-        if (ce == null) {
+        if (ce == null || !ce.future.isDone()) {
+            misses.incrementAndGet();
             return null;
         }
-
-        return getTile(key, request, ce.tiles);
+        
+        RenderedImage[] tiles;
+        try {
+            tiles = ce.future.get();
+        } catch(Exception e) {
+            return null;
+        }
+        hits.incrementAndGet();
+        ce.touch();
+        return getTile(key, request, tiles);
     }
-
     /**
      * 
      * @param key
@@ -353,15 +483,162 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        FutureTask<RenderedImage[]> future = new FutureTask<RenderedImage[]>(new Runnable() {
+            public void run() {
+            }
+        }, tiles);
+        future.run();
+        
+        CacheElement ce = new CacheElement(future);
+        ce.touch();
+        CacheElement old = tileCache.put(key, ce);
+        if (old != null) {
+            old.release(memory);
+        }
+        store(key, ce, tiles);
+    }
+    
+    /**
+     * Accounts for the memory used by a rendered meta tile, evicting other meta tiles if the 
+     * cache goes over budget.
+     */
+    void store(MetaTileKey key, CacheElement ce, RenderedImage[] tiles) {
+        ce.account(size(tiles), memory);
+        if (tileCache.get(key) != ce) {
+            //invalidated while rendering
+            ce.release(memory);
+            return;
+        }
+        
+        if (memory.get() > maxMemory) {
+            synchronized (evictionLock) {
+                while (memory.get() > maxMemory) {
+                    Map.Entry<MetaTileKey, CacheElement> lru = null;
+                    for (Map.Entry<MetaTileKey, CacheElement> e : tileCache.entrySet()) {
+                        CacheElement candidate = e.getValue();
+                        if (candidate == ce || !candidate.future.isDone()) {
+                            continue;
+                        }
+                        if (lru == null || candidate.lastAccess < lru.getValue().lastAccess) {
+                            lru = e;
+                        }
+                    }
+                    if (lru == null) {
+                        //nothing else to evict, a single meta tile is over budget
+                        break;
+                    }
+                    if (tileCache.remove(lru.getKey(), lru.getValue())) {
+                        lru.getValue().release(memory);
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Estimates the memory used by a set of tiles, in bytes.
+     */
+    static long size(RenderedImage[] tiles) {
+        long size = 0;
+        for (RenderedImage tile : tiles) {
+            if (tile == null) {
+                continue;
+            }
+            SampleModel sm = tile.getSampleModel();
+            long pixelSize = sm.getNumDataElements() * DataBuffer.getDataTypeSize(sm.getDataType()) 
+                / 8;
+            size += ((long) tile.getWidth()) * tile.getHeight() * Math.max(pixelSize, 1);
+        }
+        return size;
+    }
+    
+    /**
+     * Removes all the meta tiles from the cache.
+     */
+    public void clear() {
+        for (Map.Entry<MetaTileKey, CacheElement> e : tileCache.entrySet()) {
+            if (tileCache.remove(e.getKey(), e.getValue())) {
+                e.getValue().release(memory);
+            }
+        }
+    }
+    
+    /**
+     * Number of meta tiles in the cache, including the ones being rendered.
+     */
+    public int size() {
+        return tileCache.size();
+    }
+    
+    /**
+     * Memory used by the cached tiles, in bytes.
+     */
+    public long getMemoryUsage() {
+        return memory.get();
+    }
+    
+    /**
+     * Maximum memory used by the cached tiles, in bytes.
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * The ratio of hits over the total number of lookups, 0 if the cache was never used.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? ((double) h) / total : 0;
+    }
+    
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
     }
 
     class CacheElement {
-        RenderedImage[] tiles;
-
-        public CacheElement(RenderedImage[] tiles) {
-            this.tiles = tiles;
+        FutureTask<RenderedImage[]> future;
+        
+        volatile long lastAccess;
+        
+        /**
+         * memory accounted for this element, 0 if not yet rendered or already released
+         */
+        long size;
+
+        public CacheElement(FutureTask<RenderedImage[]> future) {
+            this.future = future;
+        }
+        
+        void touch() {
+            lastAccess = clock.incrementAndGet();
+        }
+        
+        synchronized void account(long size, AtomicLong memory) {
+            this.size = size;
+            memory.addAndGet(size);
+        }
+        
+        synchronized void release(AtomicLong memory) {
+            memory.addAndGet(-size);
+            size = 0;
         }
     }
 
@@ -370,22 +647,22 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
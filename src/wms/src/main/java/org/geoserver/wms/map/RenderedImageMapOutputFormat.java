@@ -307,6 +307,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         StreamingRenderer testRenderer = new StreamingRenderer();
         testRenderer.setMapContent(mapContent);
         memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        // ... and the off screen images used to render the layers in parallel, if enabled (not
+        // supported by the shapefile renderer, and compositing would not preserve the palette).
+        // If those would not fit, render serially instead
+        boolean parallelRendering = palette == null
+                && !DefaultWebMapService.useShapefileRenderer()
+                && ParallelLayerRenderer.isEnabled(mapContent);
+        if (parallelRendering) {
+            long parallelMemory = ParallelLayerRenderer.getMemoryUse(mapContent,
+                    paintArea.width, paintArea.height);
+            if (maxMemory > 0 && memory + parallelMemory > maxMemory) {
+                parallelRendering = false;
+            } else {
+                memory += parallelMemory;
+            }
+        }
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -484,11 +499,24 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
         RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
                 graphic);
+
+        // render the layers in parallel if enabled and within the memory limits
+        ParallelLayerRenderer parallel = null;
+        if (parallelRendering && renderer instanceof StreamingRenderer) {
+            parallel = new ParallelLayerRenderer(mapContent, hints, hintsMap, rendererParams,
+                    maxErrors, maxRenderingTime);
+        }
+
         timeout.start();
         try {
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            if (parallel != null) {
+                parallel.paint(graphic, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            } else {
+                renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            }
 
             // apply watermarking
             if (layout != null) {
@@ -504,23 +532,25 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         }
 
         // check if the request did timeout
-        if (timeout.isTimedOut()) {
+        if (timeout.isTimedOut() || (parallel != null && parallel.isTimedOut())) {
             throw new ServiceException(
                     "This requested used more time than allowed and has been forcefully stopped. "
                             + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
         }
 
         // check if a non ignorable error occurred
-        if (nonIgnorableExceptionListener.exceptionOccurred()) {
-            Exception renderError = nonIgnorableExceptionListener.getException();
+        Exception renderError = parallel != null ? parallel.getException()
+                : nonIgnorableExceptionListener.getException();
+        if (renderError != null) {
             throw new ServiceException("Rendering process failed", renderError, "internalError");
         }
 
         // check if too many errors occurred
-        if (errorChecker.exceedsMaxErrors()) {
+        if (errorChecker.exceedsMaxErrors() || (parallel != null && parallel.exceedsMaxErrors())) {
+            Exception lastError = parallel != null ? parallel.getLastException() : errorChecker
+                    .getLastException();
             throw new ServiceException("More than " + maxErrors
-                    + " rendering errors occurred, bailing out.", errorChecker.getLastException(),
-                    "internalError");
+                    + " rendering errors occurred, bailing out.", lastError, "internalError");
         }
 
         // if (!this.abortRequested) {
@@ -5,8 +5,12 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.geotools.renderer.GTRenderer;
 
@@ -14,15 +18,38 @@ import org.geotools.renderer.GTRenderer;
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
  * will be disposed of to make extra sure the renderer cannot keep going on.
+ * <p>
+ * All the enforcers share a single scheduler thread, the timeout check is cancelled as soon as
+ * the rendering is over.
+ * </p>
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
-    
+
+    /**
+     * number of cancelled checks after which the scheduler queue is purged, cancelled tasks
+     * would otherwise sit in the queue until their timeout elapses
+     */
+    static final int PURGE_THRESHOLD = 1000;
+
+    static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RenderingTimeoutEnforcer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    static final AtomicInteger CANCELLED = new AtomicInteger();
+
+    static final AtomicLong TIMED_OUT = new AtomicLong();
+
     long timeout;
     GTRenderer renderer;
     Graphics graphics;
-    Timer timer;
-    boolean timedOut = false;
+    ScheduledFuture<?> task;
+    volatile boolean timedOut = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
         this.timeout = timeout;
@@ -34,13 +61,12 @@ public class RenderingTimeoutEnforcer {
      * Starts checking the rendering timeout (if timeout is positive, does nothing otherwise)
      */
     public void start() {
-        if(timer != null)
+        if(task != null)
             throw new IllegalStateException("The timeout enforcer has already been started");
         
         if(timeout > 0) {
             timedOut = false;
-            timer = new Timer();
-            timer.schedule(new StopRenderingTask(), timeout);
+            task = SCHEDULER.schedule(new StopRenderingTask(), timeout, TimeUnit.MILLISECONDS);
         }
     }
     
@@ -48,11 +74,12 @@ public class RenderingTimeoutEnforcer {
      * Stops the timeout check
      */
     public void stop() {
-        if(timer != null) {
-            timer.cancel();
-            timer.purge();
-            // timer.getTheHellOutOfDodge();
-            timer = null;
+        if(task != null) {
+            if(task.cancel(false) && CANCELLED.incrementAndGet() >= PURGE_THRESHOLD) {
+                CANCELLED.set(0);
+                SCHEDULER.purge();
+            }
+            task = null;
         }
     }
     
@@ -62,13 +89,29 @@ public class RenderingTimeoutEnforcer {
     public boolean isTimedOut() {
         return timedOut;
     }
+
+    /**
+     * Returns the number of renderings that have been stopped due to the timeout occurring
+     * since startup
+     */
+    public static long getTimedOutCount() {
+        return TIMED_OUT.get();
+    }
+
+    /**
+     * Returns the number of timeout checks currently scheduled, cancelled ones that have not
+     * been purged yet included
+     */
+    public static int getScheduledCount() {
+        return SCHEDULER.getQueue().size();
+    }
     
-    class StopRenderingTask extends TimerTask {
+    class StopRenderingTask implements Runnable {
 
-        @Override
         public void run() {
             // mark as timed out
             timedOut = true;
+            TIMED_OUT.incrementAndGet();
             
             // ask gently...
             renderer.stopRendering();
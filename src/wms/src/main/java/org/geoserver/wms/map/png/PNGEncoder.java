@@ -0,0 +1,628 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.geoserver.wms.map.quantize.ColorIndexer;
+
+/**
+ * A streaming PNG encoder that reads the scanlines straight out of the image rasters.
+ * <p>
+ * Supports 8 bit gray, gray/alpha, RGB and RGBA images, and paletted images with 1, 2, 4 or 8
+ * bits per pixel. RGB(A) images can also be turned into paletted ones on the fly with a
+ * {@link ColorIndexer}, without building the paletted image first. Use
+ * {@link #canEncode(RenderedImage)} to check if an image is supported, unsupported images should
+ * be encoded some other way, e.g. with ImageIO.
+ * </p>
+ * <p>
+ * Instances are not thread safe, but are cheap to create.
+ * </p>
+ *
+ * @author Andrea Aime - GeoSolutions
+ */
+public class PNGEncoder {
+
+    /**
+     * The filter applied to each scanline before compression
+     */
+    public enum Filter {
+        NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4),
+        /**
+         * Picks for each scanline the filter producing the smallest sum of absolute differences,
+         * the usual heuristic recommended by the PNG specification. Paletted images and images
+         * with less than 8 bits per pixel are not filtered.
+         */
+        ADAPTIVE(-1);
+
+        final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int IHDR = 0x49484452;
+
+    static final int PLTE = 0x504C5445;
+
+    static final int TRNS = 0x74524E53;
+
+    static final int IDAT = 0x49444154;
+
+    static final int IEND = 0x49454E44;
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    /**
+     * Size of the IDAT chunks
+     */
+    static final int IDAT_SIZE = 32 * 1024;
+
+    int compression;
+
+    Filter filter;
+
+    /**
+     * Creates a new encoder
+     *
+     * @param compression the zlib compression level, between 0 (none) and 9 (best)
+     * @param filter the scanline filter, {@link Filter#ADAPTIVE} if null
+     */
+    public PNGEncoder(int compression, Filter filter) {
+        if (compression < 0 || compression > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, was "
+                    + compression);
+        }
+        this.compression = compression;
+        this.filter = filter == null ? Filter.ADAPTIVE : filter;
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns true if the image can be encoded by {@link #encode(RenderedImage, OutputStream)}
+     */
+    public static boolean canEncode(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm instanceof IndexColorModel) {
+            int bits = sm.getSampleSize(0);
+            return sm.getNumBands() == 1
+                    && (bits == 1 || bits == 2 || bits == 4 || bits == 8)
+                    && ((IndexColorModel) cm).getMapSize() <= 256;
+        }
+        return isDirect8Bit(image);
+    }
+
+    /**
+     * Returns true if the image can be encoded by
+     * {@link #encode(RenderedImage, ColorIndexer, OutputStream)}
+     */
+    public static boolean canEncodeIndexed(RenderedImage image) {
+        return isDirect8Bit(image);
+    }
+
+    static boolean isDirect8Bit(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (!(cm instanceof ComponentColorModel || cm instanceof DirectColorModel)
+                || cm.isAlphaPremultiplied()) {
+            return false;
+        }
+        int bands = sm.getNumBands();
+        if (bands != cm.getNumComponents()) {
+            return false;
+        }
+        int csType = cm.getColorSpace().getType();
+        if (!((csType == ColorSpace.TYPE_GRAY && (bands == 1 || bands == 2))
+                || (csType == ColorSpace.TYPE_RGB && (bands == 3 || bands == 4)))) {
+            return false;
+        }
+        for (int b = 0; b < bands; b++) {
+            if (sm.getSampleSize(b) != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the image as PNG.
+     *
+     * @throws IllegalArgumentException if the image is not supported, see
+     *         {@link #canEncode(RenderedImage)}
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        if (!canEncode(image)) {
+            throw new IllegalArgumentException("Unsupported image " + image);
+        }
+        ColorModel cm = image.getColorModel();
+        if (cm instanceof IndexColorModel) {
+            IndexColorModel icm = (IndexColorModel) cm;
+            int bits = image.getSampleModel().getSampleSize(0);
+            write(image, out, COLOR_PALETTE, bits, icm, null);
+        } else {
+            int bands = image.getSampleModel().getNumBands();
+            final int colorType;
+            switch (bands) {
+            case 1:
+                colorType = COLOR_GRAY;
+                break;
+            case 2:
+                colorType = COLOR_GRAY_ALPHA;
+                break;
+            case 3:
+                colorType = COLOR_RGB;
+                break;
+            default:
+                colorType = COLOR_RGBA;
+            }
+            write(image, out, colorType, 8, null, null);
+        }
+    }
+
+    /**
+     * Encodes the gray or RGB(A) image as a paletted PNG, mapping each pixel to the palette of the
+     * indexer while encoding.
+     *
+     * @throws IllegalArgumentException if the image is not supported, see
+     *         {@link #canEncodeIndexed(RenderedImage)}
+     */
+    public void encode(RenderedImage image, ColorIndexer indexer, OutputStream out)
+            throws IOException {
+        if (!canEncodeIndexed(image)) {
+            throw new IllegalArgumentException("Unsupported image " + image);
+        }
+        IndexColorModel icm = indexer.toIndexColorModel();
+        if (icm.getMapSize() > 256) {
+            throw new IllegalArgumentException("The indexer palette has more than 256 colors");
+        }
+        write(image, out, COLOR_PALETTE, 8, icm, indexer);
+    }
+
+    void write(RenderedImage image, OutputStream out, int colorType, int bitDepth,
+            IndexColorModel icm, ColorIndexer indexer) throws IOException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int bands = image.getSampleModel().getNumBands();
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.write(SIGNATURE);
+
+        // header
+        ChunkWriter chunk = new ChunkWriter(dos, 13);
+        chunk.writeInt(width);
+        chunk.writeInt(height);
+        chunk.write(bitDepth);
+        chunk.write(colorType);
+        chunk.write(0); // deflate
+        chunk.write(0); // adaptive filtering
+        chunk.write(0); // no interlace
+        chunk.writeChunk(IHDR);
+
+        if (icm != null) {
+            writePalette(dos, icm);
+        }
+
+        // pixels
+        final int bitsPerPixel = colorType == COLOR_PALETTE ? bitDepth : bitDepth * bands;
+        final int rowBytes = (width * bitsPerPixel + 7) / 8;
+        final int bpp = Math.max(1, bitsPerPixel / 8);
+        final Filter rowFilter = filter == Filter.ADAPTIVE
+                && (colorType == COLOR_PALETTE || bitDepth < 8) ? Filter.NONE : filter;
+
+        Deflater deflater = new Deflater(compression);
+        try {
+            ChunkWriter idat = new ChunkWriter(dos, IDAT_SIZE);
+            idat.chunkType = IDAT;
+            DeflaterOutputStream zos = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+            ScanlineFilter filterer = new ScanlineFilter(rowBytes, bpp, rowFilter);
+
+            byte[] row = new byte[rowBytes];
+            int[] pixels = new int[width * bands];
+            RowReader reader = new RowReader(image);
+            for (int y = 0; y < height; y++) {
+                reader.readRow(y, pixels);
+                if (indexer != null) {
+                    toIndexes(pixels, bands, width, indexer, row);
+                } else if (colorType == COLOR_PALETTE && bitDepth < 8) {
+                    pack(pixels, width, bitDepth, row);
+                } else {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = (byte) pixels[i];
+                    }
+                }
+                byte[] filtered = filterer.filter(row);
+                zos.write(filtered, 0, filtered.length);
+            }
+            zos.finish();
+            idat.flushChunk();
+        } finally {
+            deflater.end();
+        }
+
+        new ChunkWriter(dos, 0).writeChunk(IEND);
+        dos.flush();
+    }
+
+    void writePalette(DataOutputStream dos, IndexColorModel icm) throws IOException {
+        final int size = icm.getMapSize();
+        ChunkWriter plte = new ChunkWriter(dos, size * 3);
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            plte.write(icm.getRed(i));
+            plte.write(icm.getGreen(i));
+            plte.write(icm.getBlue(i));
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        plte.writeChunk(PLTE);
+
+        // transparency, only up to the last non opaque entry
+        if (lastTranslucent >= 0) {
+            ChunkWriter trns = new ChunkWriter(dos, lastTranslucent + 1);
+            for (int i = 0; i <= lastTranslucent; i++) {
+                trns.write(icm.getAlpha(i));
+            }
+            trns.writeChunk(TRNS);
+        }
+    }
+
+    static void toIndexes(int[] pixels, int bands, int width, ColorIndexer indexer, byte[] row) {
+        int p = 0;
+        for (int x = 0; x < width; x++) {
+            int r, g, b, a;
+            if (bands < 3) {
+                r = g = b = pixels[p];
+                a = bands == 2 ? pixels[p + 1] : 255;
+            } else {
+                r = pixels[p];
+                g = pixels[p + 1];
+                b = pixels[p + 2];
+                a = bands == 4 ? pixels[p + 3] : 255;
+            }
+            p += bands;
+            row[x] = (byte) indexer.getClosestIndex(r, g, b, a);
+        }
+    }
+
+    static void pack(int[] samples, int width, int bitDepth, byte[] row) {
+        final int perByte = 8 / bitDepth;
+        final int mask = (1 << bitDepth) - 1;
+        int s = 0;
+        for (int i = 0; i < row.length; i++) {
+            int value = 0;
+            for (int j = 0; j < perByte; j++) {
+                value <<= bitDepth;
+                if (s < width) {
+                    value |= samples[s++] & mask;
+                }
+            }
+            row[i] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads the samples of a row of pixels out of the image tiles, with fast paths for the
+     * interleaved byte and packed int rasters most images are made of
+     */
+    static class RowReader {
+
+        RenderedImage image;
+
+        int bands;
+
+        int tileRow = Integer.MIN_VALUE;
+
+        Raster[] tiles;
+
+        int[] buffer;
+
+        RowReader(RenderedImage image) {
+            this.image = image;
+            this.bands = image.getSampleModel().getNumBands();
+            this.tiles = new Raster[image.getNumXTiles()];
+        }
+
+        void readRow(int row, int[] pixels) {
+            final int minX = image.getMinX();
+            final int maxX = minX + image.getWidth();
+            final int y = image.getMinY() + row;
+
+            // grab the tiles intersecting this row
+            int offset = y - image.getTileGridYOffset();
+            int ty = offset >= 0 ? offset / image.getTileHeight()
+                    : (offset - image.getTileHeight() + 1) / image.getTileHeight();
+            if (ty != tileRow) {
+                for (int i = 0; i < tiles.length; i++) {
+                    tiles[i] = image.getTile(image.getMinTileX() + i, ty);
+                }
+                tileRow = ty;
+            }
+
+            for (Raster tile : tiles) {
+                int x0 = Math.max(minX, tile.getMinX());
+                int x1 = Math.min(maxX, tile.getMinX() + tile.getWidth());
+                if (x1 > x0) {
+                    readRow(tile, x0, y, x1 - x0, pixels, (x0 - minX) * bands);
+                }
+            }
+        }
+
+        void readRow(Raster raster, int x0, int y, int width, int[] pixels, int offset) {
+            final SampleModel sm = raster.getSampleModel();
+            final DataBuffer db = raster.getDataBuffer();
+            final int sx = x0 - raster.getSampleModelTranslateX();
+            final int sy = y - raster.getSampleModelTranslateY();
+
+            if (sm instanceof PixelInterleavedSampleModel && db instanceof DataBufferByte
+                    && db.getNumBanks() == 1) {
+                PixelInterleavedSampleModel csm = (PixelInterleavedSampleModel) sm;
+                byte[] data = ((DataBufferByte) db).getData();
+                int[] bandOffsets = csm.getBandOffsets();
+                int pixelStride = csm.getPixelStride();
+                int base = db.getOffset() + sy * csm.getScanlineStride() + sx * pixelStride;
+                int p = offset;
+                for (int i = 0; i < width; i++) {
+                    for (int b = 0; b < bands; b++) {
+                        pixels[p++] = data[base + bandOffsets[b]] & 0xFF;
+                    }
+                    base += pixelStride;
+                }
+            } else if (sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt) {
+                SinglePixelPackedSampleModel psm = (SinglePixelPackedSampleModel) sm;
+                int[] data = ((DataBufferInt) db).getData();
+                int[] masks = psm.getBitMasks();
+                int[] shifts = psm.getBitOffsets();
+                int base = db.getOffset() + sy * psm.getScanlineStride() + sx;
+                int p = offset;
+                for (int i = 0; i < width; i++) {
+                    int value = data[base + i];
+                    for (int b = 0; b < bands; b++) {
+                        pixels[p++] = (value & masks[b]) >>> shifts[b];
+                    }
+                }
+            } else {
+                int size = width * bands;
+                if (buffer == null || buffer.length < size) {
+                    buffer = new int[size];
+                }
+                raster.getPixels(x0, y, width, 1, buffer);
+                System.arraycopy(buffer, 0, pixels, offset, size);
+            }
+        }
+    }
+
+    /**
+     * Applies the PNG filters to scanlines, keeping track of the previous one
+     */
+    static class ScanlineFilter {
+
+        final int bpp;
+
+        final Filter filter;
+
+        byte[] previous;
+
+        /**
+         * one buffer per filter type, the filter type byte included
+         */
+        byte[][] buffers;
+
+        ScanlineFilter(int rowBytes, int bpp, Filter filter) {
+            this.bpp = bpp;
+            this.filter = filter;
+            this.previous = new byte[rowBytes];
+            this.buffers = new byte[5][rowBytes + 1];
+            for (int i = 0; i < 5; i++) {
+                buffers[i][0] = (byte) i;
+            }
+        }
+
+        /**
+         * Returns the filtered scanline, prefixed with the filter type
+         */
+        byte[] filter(byte[] row) {
+            byte[] result;
+            if (filter == Filter.ADAPTIVE) {
+                result = null;
+                long best = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    long sum = apply(type, row, buffers[type]);
+                    if (sum < best) {
+                        best = sum;
+                        result = buffers[type];
+                    }
+                }
+            } else {
+                result = buffers[filter.type];
+                apply(filter.type, row, result);
+            }
+
+            System.arraycopy(row, 0, previous, 0, row.length);
+            return result;
+        }
+
+        /**
+         * Filters the row into the output buffer and returns the sum of the absolute values of the
+         * filtered bytes (as signed values)
+         */
+        long apply(int type, byte[] row, byte[] out) {
+            final byte[] prev = previous;
+            final int n = row.length;
+            long sum = 0;
+            switch (type) {
+            case 0:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = row[i];
+                    sum += Math.abs(row[i]);
+                }
+                break;
+            case 1:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    byte v = (byte) ((row[i] & 0xFF) - left);
+                    out[i + 1] = v;
+                    sum += Math.abs(v);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < n; i++) {
+                    byte v = (byte) ((row[i] & 0xFF) - (prev[i] & 0xFF));
+                    out[i + 1] = v;
+                    sum += Math.abs(v);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    byte v = (byte) ((row[i] & 0xFF) - ((left + (prev[i] & 0xFF)) >> 1));
+                    out[i + 1] = v;
+                    sum += Math.abs(v);
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    byte v = (byte) ((row[i] & 0xFF) - paeth(a, b, c));
+                    out[i + 1] = v;
+                    sum += Math.abs(v);
+                }
+            }
+            return sum;
+        }
+
+        static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+    }
+
+    /**
+     * Buffers the data of a chunk and writes it out along with its length and CRC. When used as a
+     * stream, writes a chunk of the configured type each time the buffer fills up.
+     */
+    static class ChunkWriter extends OutputStream {
+
+        DataOutputStream out;
+
+        byte[] buffer;
+
+        int count;
+
+        int chunkType;
+
+        CRC32 crc = new CRC32();
+
+        ChunkWriter(DataOutputStream out, int size) {
+            this.out = out;
+            this.buffer = new byte[Math.max(size, 1)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void writeInt(int v) throws IOException {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        /**
+         * Writes out the buffered data, if any, as a chunk of the configured type
+         */
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(chunkType);
+            }
+        }
+
+        /**
+         * Writes out the buffered data as a chunk of the specified type
+         */
+        void writeChunk(int type) throws IOException {
+            out.writeInt(count);
+            crc.reset();
+            byte[] typeBytes = { (byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8),
+                    (byte) type };
+            crc.update(typeBytes);
+            out.write(typeBytes);
+            crc.update(buffer, 0, count);
+            out.write(buffer, 0, count);
+            out.writeInt((int) crc.getValue());
+            count = 0;
+        }
+
+        @Override
+        public void flush() {
+            // chunks are written only when full or explicitly flushed, the deflater stream would
+            // otherwise produce a lot of small chunks
+        }
+    }
+}
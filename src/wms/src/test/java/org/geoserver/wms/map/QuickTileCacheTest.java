@@ -6,9 +6,21 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+
 import com.vividsolutions.jts.geom.Envelope;
 
 public class QuickTileCacheTest extends TestCase {
@@ -53,4 +65,106 @@ public class QuickTileCacheTest extends TestCase {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    public void testRenderOnce() throws Exception {
+        final MetaTileKey key = key(0, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<RenderedImage[]> renderer = new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
+                renders.incrementAndGet();
+                rendering.countDown();
+                release.await();
+                return tiles(8);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<RenderedImage[]> first = executor.submit(new Callable<RenderedImage[]>() {
+                public RenderedImage[] call() throws Exception {
+                    return cache.getTiles(key, renderer);
+                }
+            });
+            rendering.await();
+            Future<RenderedImage[]> second = executor.submit(new Callable<RenderedImage[]>() {
+                public RenderedImage[] call() throws Exception {
+                    return cache.getTiles(key, renderer);
+                }
+            });
+
+            // another meta tile does not wait
+            cache.getTiles(key(3, 3), renderer(tiles(8)));
+            
+            release.countDown();
+            assertSame(first.get(), second.get());
+            assertEquals(1, renders.get());
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testEviction() throws Exception {
+        // 9 tiles of 8x8 ints, 2304 bytes per meta tile
+        QuickTileCache cache = new QuickTileCache(5000);
+        cache.getTiles(key(0, 0), renderer(tiles(8)));
+        cache.getTiles(key(3, 0), renderer(tiles(8)));
+        assertEquals(2, cache.size());
+        assertEquals(4608, cache.getMemoryUsage());
+
+        // touch the first so that the second is the least recently used
+        cache.getTiles(key(0, 0), renderer(null));
+        cache.getTiles(key(6, 0), renderer(tiles(8)));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(4608, cache.getMemoryUsage());
+        assertNotNull(cache.getTiles(key(0, 0), renderer(null)));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMemoryUsage());
+    }
+
+    public void testFailureNotCached() throws Exception {
+        MetaTileKey key = key(0, 0);
+        try {
+            cache.getTiles(key, new Callable<RenderedImage[]>() {
+                public RenderedImage[] call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("Should have thrown an exception");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertNotNull(cache.getTiles(key, renderer(tiles(8))));
+    }
+
+    MetaTileKey key(int x, int y) {
+        MapKey mapKey = new MapKey("layers=topp:states", 1, new Point2D.Double(0, 0));
+        return new MetaTileKey(mapKey, new Point(x, y), null);
+    }
+
+    RenderedImage[] tiles(int size) {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
+
+    Callable<RenderedImage[]> renderer(final RenderedImage[] tiles) {
+        return new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
+                if (tiles == null) {
+                    fail("Meta tile should have been cached");
+                }
+                return tiles;
+            }
+        };
+    }
 }
@@ -28,6 +28,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.data.FeatureSource;
@@ -162,6 +163,102 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
 
+    public void testParallelRendering() throws Exception {
+        BufferedImage sequential = renderPolygons();
+
+        System.setProperty(ParallelLayerRenderer.THREADS, "4");
+        ParallelLayerRenderer.reset();
+        try {
+            BufferedImage parallel = renderPolygons();
+            assertNotBlank("testParallelRendering", parallel);
+
+            // compositing the layers may round colors differently
+            for (int y = 0; y < sequential.getHeight(); y++) {
+                for (int x = 0; x < sequential.getWidth(); x++) {
+                    Color expected = new Color(sequential.getRGB(x, y), true);
+                    Color actual = new Color(parallel.getRGB(x, y), true);
+                    assertTrue("Pixel at " + x + "," + y,
+                            Math.abs(expected.getRed() - actual.getRed()) <= 2
+                                    && Math.abs(expected.getGreen() - actual.getGreen()) <= 2
+                                    && Math.abs(expected.getBlue() - actual.getBlue()) <= 2
+                                    && Math.abs(expected.getAlpha() - actual.getAlpha()) <= 2);
+                }
+            }
+        } finally {
+            System.clearProperty(ParallelLayerRenderer.THREADS);
+            ParallelLayerRenderer.reset();
+        }
+    }
+
+    public void testParallelRenderingMemoryLimit() throws Exception {
+        BufferedImage sequential = renderPolygons();
+
+        System.setProperty(ParallelLayerRenderer.THREADS, "4");
+        ParallelLayerRenderer.reset();
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        int maxRequestMemory = wms.getMaxRequestMemory();
+        try {
+            WMSMapContent map = new WMSMapContent();
+            Style style = getCatalog().getStyleByName("Default").getStyle();
+            for (QName name : new QName[] { MockData.FORESTS, MockData.LAKES, MockData.PONDS,
+                    MockData.BUILDINGS, MockData.MAP_NEATLINE }) {
+                FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
+                        name.getNamespaceURI(), name.getLocalPart());
+                map.addLayer(new FeatureLayer(ftInfo.getFeatureSource(null, null), style));
+            }
+            // one off screen image per thread
+            assertEquals(4l * 300 * 300 * 4, ParallelLayerRenderer.getMemoryUse(map, 300, 300));
+            map.dispose();
+
+            // enough memory for the map image, not for the off screen images of the groups,
+            // the map is rendered serially instead of failing
+            wms.setMaxRequestMemory(400);
+            getGeoServer().save(wms);
+            BufferedImage parallel = renderPolygons();
+            assertEquals(sequential.getWidth(), parallel.getWidth());
+            for (int y = 0; y < sequential.getHeight(); y++) {
+                for (int x = 0; x < sequential.getWidth(); x++) {
+                    assertEquals("Pixel at " + x + "," + y, sequential.getRGB(x, y),
+                            parallel.getRGB(x, y));
+                }
+            }
+        } finally {
+            wms.setMaxRequestMemory(maxRequestMemory);
+            getGeoServer().save(wms);
+            System.clearProperty(ParallelLayerRenderer.THREADS);
+            ParallelLayerRenderer.reset();
+        }
+    }
+
+    BufferedImage renderPolygons() throws Exception {
+        Catalog catalog = getCatalog();
+        Envelope env = catalog.getFeatureTypeByName(MockData.FORESTS.getNamespaceURI(),
+                MockData.FORESTS.getLocalPart()).getFeatureSource(null, null).getBounds();
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(getMapFormat());
+        final WMSMapContent map = new WMSMapContent();
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.setBgColor(BG_COLOR);
+        map.setTransparent(false);
+        map.setRequest(request);
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+
+        Style style = catalog.getStyleByName("Default").getStyle();
+        for (QName name : new QName[] { MockData.FORESTS, MockData.LAKES, MockData.PONDS,
+                MockData.BUILDINGS, MockData.MAP_NEATLINE }) {
+            FeatureTypeInfo ftInfo = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                    name.getLocalPart());
+            map.addLayer(new FeatureLayer(ftInfo.getFeatureSource(null, null), style));
+        }
+
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        return image;
+    }
+
     private void addToMap(final WMSMapContent map, final QName typeName) throws IOException {
         final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
                 typeName.getNamespaceURI(), typeName.getLocalPart());
@@ -0,0 +1,65 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+import org.geotools.renderer.lite.StreamingRenderer;
+
+public class RenderingTimeoutEnforcerTest extends TestCase {
+
+    Graphics2D graphics;
+
+    @Override
+    protected void setUp() throws Exception {
+        graphics = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    }
+
+    public void testTimeout() throws Exception {
+        long timedOut = RenderingTimeoutEnforcer.getTimedOutCount();
+        RenderingTimeoutEnforcer enforcer = 
+            new RenderingTimeoutEnforcer(10, new StreamingRenderer(), graphics);
+        enforcer.start();
+        for (int i = 0; i < 100 && !enforcer.isTimedOut(); i++) {
+            Thread.sleep(20);
+        }
+        enforcer.stop();
+
+        assertTrue(enforcer.isTimedOut());
+        assertEquals(timedOut + 1, RenderingTimeoutEnforcer.getTimedOutCount());
+    }
+
+    public void testStopBeforeTimeout() throws Exception {
+        RenderingTimeoutEnforcer enforcer = 
+            new RenderingTimeoutEnforcer(60000, new StreamingRenderer(), graphics);
+        enforcer.start();
+        try {
+            enforcer.start();
+            fail("Starting twice should have failed");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+        enforcer.stop();
+        assertFalse(enforcer.isTimedOut());
+
+        // can be started again once stopped
+        enforcer.start();
+        enforcer.stop();
+    }
+
+    public void testPurgeCancelled() throws Exception {
+        for (int i = 0; i < RenderingTimeoutEnforcer.PURGE_THRESHOLD; i++) {
+            RenderingTimeoutEnforcer enforcer = 
+                new RenderingTimeoutEnforcer(60000, new StreamingRenderer(), graphics);
+            enforcer.start();
+            enforcer.stop();
+        }
+        assertTrue(RenderingTimeoutEnforcer.getScheduledCount() < 
+                RenderingTimeoutEnforcer.PURGE_THRESHOLD);
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright (c) 2001 - 2012 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.Quantizer;
+
+public class PNGEncoderTest extends TestCase {
+
+    public void testRGB() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_3BYTE_BGR);
+        for (PNGEncoder.Filter filter : PNGEncoder.Filter.values()) {
+            assertSamePixels(image, encodeDecode(image, filter, 6));
+        }
+    }
+
+    public void testARGB() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_INT_ARGB);
+        for (PNGEncoder.Filter filter : PNGEncoder.Filter.values()) {
+            assertSamePixels(image, encodeDecode(image, filter, 6));
+        }
+    }
+
+    public void test4ByteABGR() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR);
+        assertSamePixels(image, encodeDecode(image, PNGEncoder.Filter.PAETH, 9));
+        assertSamePixels(image, encodeDecode(image, PNGEncoder.Filter.NONE, 0));
+    }
+
+    public void testGray() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_BYTE_GRAY);
+        assertSamePixels(image, encodeDecode(image, PNGEncoder.Filter.ADAPTIVE, 6));
+    }
+
+    public void testIndexed() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_BYTE_INDEXED);
+        assertSamePixels(image, encodeDecode(image, PNGEncoder.Filter.ADAPTIVE, 6));
+    }
+
+    public void testBinary() throws Exception {
+        // 1 bit per pixel, with an odd width to check the last byte of each row
+        BufferedImage image = new BufferedImage(61, 33, BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillOval(5, 5, 40, 20);
+        g.dispose();
+        assertSamePixels(image, encodeDecode(image, PNGEncoder.Filter.NONE, 6));
+    }
+
+    public void testIndexer() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR);
+        ColorIndexer indexer = new Quantizer(256).buildColorIndexer(image);
+        IndexColorModel icm = indexer.toIndexColorModel();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGEncoder(6, PNGEncoder.Filter.ADAPTIVE).encode(image, indexer, bos);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertTrue(decoded.getColorModel() instanceof IndexColorModel);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = image.getRGB(x, y);
+                int index = indexer.getClosestIndex((argb >> 16) & 0xFF, (argb >> 8) & 0xFF,
+                        argb & 0xFF, (argb >>> 24));
+                assertEquals(icm.getRGB(index), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testCanEncode() throws Exception {
+        assertTrue(PNGEncoder.canEncode(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)));
+        assertTrue(PNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_INDEXED)));
+        assertFalse(PNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_GRAY)));
+        assertFalse(PNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(PNGEncoder.canEncodeIndexed(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_INDEXED)));
+    }
+
+    BufferedImage buildImage(int type) {
+        BufferedImage image = new BufferedImage(157, 93, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(255, 255, 255, 0));
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(new Color(200, 30, 30, 180));
+        g.fillOval(10, 10, 100, 60);
+        g.setColor(Color.BLUE);
+        g.drawLine(0, 0, 156, 92);
+        g.setColor(new Color(30, 200, 30, 90));
+        g.fillRect(80, 40, 60, 40);
+        g.dispose();
+        return image;
+    }
+
+    BufferedImage encodeDecode(RenderedImage image, PNGEncoder.Filter filter, int compression)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGEncoder(compression, filter).encode(image, bos);
+        return ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Pixel at " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}